@@ -0,0 +1,315 @@
+package com.jzo2o.orders.base.canal;
+
+import com.jzo2o.canal.listeners.AbstractCanalRabbitMqMsgListener;
+import com.jzo2o.common.utils.CollUtils;
+import com.jzo2o.common.utils.JsonUtils;
+import com.jzo2o.orders.base.properties.CanalSyncProperties;
+import com.rabbitmq.client.Channel;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.core.Message;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * canal同步分区消费
+ * 消息中的每行数据按主键哈希到固定分区，同一分区内按顺序执行，不同分区并行执行；分区在合并窗口内对同一id的多次变更只执行最后一次。
+ * 消息需以手动确认模式消费（ackMode = "MANUAL"），消息中的数据全部执行成功后才确认，执行失败时分区阻塞重试，保证同一id的变更不乱序、不丢失。
+ * 无法解析的消息重新投递仍会失败，拒绝且不重新投递（队列配置了死信时进入死信队列），并记录消息内容用于人工补偿；
+ * 整批重试超过最大次数后逐行执行，仍失败的行同样记录内容并拒绝所在消息，避免单行数据阻塞整个分区。
+ *
+ * @param <T> 同步数据类型
+ */
+@Slf4j
+public abstract class AbstractPartitionedCanalMsgListener<T> extends AbstractCanalRabbitMqMsgListener<T> {
+
+    /**
+     * 分区执行失败后的首次重试间隔，单位：毫秒
+     */
+    private static final long INITIAL_RETRY_INTERVAL = 100L;
+
+    @Resource
+    private CanalSyncProperties canalSyncProperties;
+
+    /**
+     * 当前线程正在解析的消息
+     */
+    private final ThreadLocal<MessageBatch> currentBatch = new ThreadLocal<>();
+
+    private List<Lane> lanes;
+
+    private volatile boolean running;
+
+    /**
+     * 数据主键，用于计算分区及合并同一id的变更
+     *
+     * @param data 同步数据
+     * @return 主键
+     */
+    protected abstract Long getId(T data);
+
+    /**
+     * 分区内批量新增或修改
+     *
+     * @param data 合并后的同步数据
+     */
+    protected abstract void partitionSave(List<T> data);
+
+    /**
+     * 分区内批量删除
+     *
+     * @param ids 合并后的删除id
+     */
+    protected abstract void partitionDelete(List<Long> ids);
+
+    @PostConstruct
+    public void startLanes() {
+        running = true;
+        String name = getClass().getSimpleName();
+        lanes = new ArrayList<>(canalSyncProperties.getLanes());
+        for (int i = 0; i < canalSyncProperties.getLanes(); i++) {
+            Lane lane = new Lane();
+            Thread thread = new Thread(lane, name + "-lane-" + i);
+            thread.setDaemon(true);
+            lane.thread = thread;
+            lanes.add(lane);
+            thread.start();
+        }
+    }
+
+    @PreDestroy
+    public void stopLanes() {
+        running = false;
+        lanes.forEach(lane -> lane.thread.interrupt());
+    }
+
+    /**
+     * 消费canal消息，数据分发到各分区后立即返回，消息中的数据全部执行成功后确认消息
+     *
+     * @param message 消息
+     * @param channel 消息通道
+     */
+    protected void consume(Message message, Channel channel) {
+        long deliveryTag = message.getMessageProperties().getDeliveryTag();
+        MessageBatch batch = new MessageBatch();
+        currentBatch.set(batch);
+        try {
+            parseMsg(message);
+        } catch (Exception e) {
+            log.error("canal消息解析失败，拒绝消息，deliveryTag：{}，消息内容：{}", deliveryTag,
+                    new String(message.getBody(), StandardCharsets.UTF_8), e);
+            batch.rejected = true;
+        } finally {
+            currentBatch.remove();
+            batch.seal();
+        }
+        batch.done.thenRun(() -> {
+            try {
+                if (batch.rejected) {
+                    // 不重新投递，避免同一条消息无限循环并阻塞后续消息
+                    channel.basicNack(deliveryTag, false, false);
+                } else {
+                    channel.basicAck(deliveryTag, false);
+                }
+            } catch (Exception e) {
+                // 通道已关闭时未确认的消息由mq重新投递，同步操作幂等
+                log.error("canal消息确认失败，deliveryTag：{}", deliveryTag, e);
+            }
+        });
+    }
+
+    @Override
+    public final void batchSave(List<T> data) {
+        dispatch(data.stream().map(value -> new Change<>(getId(value), value)).collect(Collectors.toList()));
+    }
+
+    @Override
+    public final void batchDelete(List<Long> ids) {
+        dispatch(ids.stream().map(id -> new Change<T>(id, null)).collect(Collectors.toList()));
+    }
+
+    private void dispatch(List<Change<T>> changes) {
+        if (CollUtils.isEmpty(changes)) {
+            return;
+        }
+        MessageBatch batch = currentBatch.get();
+        // 非消费线程直接调用时同步等待执行完成
+        boolean sync = batch == null;
+        if (sync) {
+            batch = new MessageBatch();
+        }
+        batch.pending.addAndGet(changes.size());
+        for (Change<T> change : changes) {
+            change.batch = batch;
+            lanes.get((int) Math.floorMod(change.id, (long) lanes.size())).queue.add(change);
+        }
+        if (sync) {
+            batch.seal();
+            batch.done.join();
+        }
+    }
+
+    /**
+     * 一条消息中的数据执行进度
+     */
+    private static class MessageBatch {
+
+        /**
+         * 未执行完成的数据数量，初始为1表示消息尚未解析完成
+         */
+        private final AtomicInteger pending = new AtomicInteger(1);
+
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        /**
+         * 消息解析失败或存在放弃同步的数据，拒绝消息
+         */
+        private volatile boolean rejected;
+
+        private void seal() {
+            completeOne();
+        }
+
+        private void completeOne() {
+            if (pending.decrementAndGet() == 0) {
+                done.complete(null);
+            }
+        }
+    }
+
+    /**
+     * 单行数据变更，data为null表示删除
+     */
+    private static class Change<T> {
+
+        private final Long id;
+
+        private final T data;
+
+        private MessageBatch batch;
+
+        private Change(Long id, T data) {
+            this.id = id;
+            this.data = data;
+        }
+    }
+
+    /**
+     * 分区，单线程按入队顺序执行
+     */
+    private class Lane implements Runnable {
+
+        private final BlockingQueue<Change<T>> queue = new LinkedBlockingQueue<>();
+
+        private Thread thread;
+
+        @Override
+        public void run() {
+            List<Change<T>> changes = new ArrayList<>();
+            while (running) {
+                try {
+                    Change<T> first = queue.poll(1, TimeUnit.SECONDS);
+                    if (first == null) {
+                        continue;
+                    }
+                    changes.add(first);
+                    // 合并窗口内继续收集变更
+                    long deadline = System.currentTimeMillis() + canalSyncProperties.getBatchWindow();
+                    while (changes.size() < canalSyncProperties.getMaxBatchSize()) {
+                        queue.drainTo(changes, canalSyncProperties.getMaxBatchSize() - changes.size());
+                        long remaining = deadline - System.currentTimeMillis();
+                        if (changes.size() >= canalSyncProperties.getMaxBatchSize() || remaining <= 0) {
+                            break;
+                        }
+                        Change<T> next = queue.poll(remaining, TimeUnit.MILLISECONDS);
+                        if (next == null) {
+                            break;
+                        }
+                        changes.add(next);
+                    }
+                    execute(changes);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } finally {
+                    changes.clear();
+                }
+            }
+        }
+
+        private void execute(List<Change<T>> changes) throws InterruptedException {
+            // 1.合并同一id的变更，只保留最后一次
+            Map<Long, Change<T>> latest = new LinkedHashMap<>();
+            changes.forEach(change -> latest.put(change.id, change));
+            List<Long> deleteIds = latest.values().stream()
+                    .filter(change -> change.data == null)
+                    .map(change -> change.id)
+                    .collect(Collectors.toList());
+            List<T> saves = latest.values().stream()
+                    .filter(change -> change.data != null)
+                    .map(change -> change.data)
+                    .collect(Collectors.toList());
+
+            // 2.执行失败时阻塞当前分区重试，后续同一id的变更不会越过失败的变更
+            long retryInterval = INITIAL_RETRY_INTERVAL;
+            for (int retries = 0; ; retries++) {
+                try {
+                    if (CollUtils.isNotEmpty(deleteIds)) {
+                        partitionDelete(deleteIds);
+                    }
+                    if (CollUtils.isNotEmpty(saves)) {
+                        partitionSave(saves);
+                    }
+                    break;
+                } catch (Exception e) {
+                    if (retries >= canalSyncProperties.getMaxRetries()) {
+                        log.error("{}分区同步重试{}次仍失败，逐行执行", thread.getName(), retries, e);
+                        executeEach(latest.values());
+                        break;
+                    }
+                    log.error("{}分区同步失败，{}毫秒后重试", thread.getName(), retryInterval, e);
+                    TimeUnit.MILLISECONDS.sleep(retryInterval);
+                    retryInterval = Math.min(retryInterval * 2, canalSyncProperties.getMaxRetryInterval());
+                }
+            }
+
+            // 3.更新消息执行进度
+            changes.forEach(change -> change.batch.completeOne());
+        }
+
+        /**
+         * 逐行执行，执行失败的行记录内容并拒绝所在消息
+         *
+         * @param changes 合并后的变更
+         */
+        private void executeEach(Collection<Change<T>> changes) {
+            for (Change<T> change : changes) {
+                try {
+                    if (change.data == null) {
+                        partitionDelete(Collections.singletonList(change.id));
+                    } else {
+                        partitionSave(Collections.singletonList(change.data));
+                    }
+                } catch (Exception e) {
+                    log.error("{}分区同步放弃，拒绝所在消息，id：{}，数据：{}", thread.getName(), change.id,
+                            change.data == null ? "删除" : JsonUtils.toJsonStr(change.data), e);
+                    change.batch.rejected = true;
+                }
+            }
+        }
+    }
+}
@@ -1,7 +1,9 @@
 package com.jzo2o.orders.base.config;
 
+import com.jzo2o.orders.base.properties.CanalSyncProperties;
 import com.jzo2o.orders.base.properties.DispatchProperties;
 import com.jzo2o.orders.base.properties.ExecutorProperties;
+import com.jzo2o.orders.base.properties.RedisShardProperties;
 import org.mybatis.spring.annotation.MapperScan;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.ComponentScan;
@@ -9,9 +11,9 @@ import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Import;
 
 @Configuration
-@ComponentScan({"com.jzo2o.orders.base.service","com.jzo2o.orders.base.handler"})
+@ComponentScan({"com.jzo2o.orders.base.service","com.jzo2o.orders.base.handler","com.jzo2o.orders.base.shard"})
 @MapperScan("com.jzo2o.orders.base.mapper")
 @Import({OrderStateMachine.class})
-@EnableConfigurationProperties({DispatchProperties.class, ExecutorProperties.class})
+@EnableConfigurationProperties({DispatchProperties.class, ExecutorProperties.class, CanalSyncProperties.class, RedisShardProperties.class})
 public class AutoImportConfiguration {
 }
@@ -32,9 +32,16 @@ public class RedisConstants {
         public static final String ORDERS_SEIZE_IDS_FOR_SERVE_PROVIDE = "ORDERS:SEIZE:IDS_%s_%s";
 
         /**
-         * 抢单列表redis key模板：ORDERS:SEIZE:PAGE_{citycode}
+         * 抢单列表候选缓存redis key模板：ORDERS:SEIZE:PAGE_{citycode}_{geohash网格}_{距离档位}_{技能哈希}
          */
-        public static final String ORDERS_SEIZE_PAGE = "ORDERS:SEIZE:PAGE_%s";
+        public static final String ORDERS_SEIZE_PAGE = "ORDERS:SEIZE:PAGE_%s_%s_%s_%s";
+
+        /**
+         * 抢单列表候选缓存登记表，hash结构，格式：ORDERS:SEIZE:PAGE_KEYS_{citycode}_{登记网格}
+         * 候选缓存登记在其覆盖范围相交的每个登记网格中，抢单池变更时只读取抢单所在登记网格
+         * key：候选缓存redis key，value：{网格中心经度},{网格中心纬度},{覆盖半径},{写入时间戳}，用于抢单池变更时失效受影响的网格
+         */
+        public static final String ORDERS_SEIZE_PAGE_KEYS = "ORDERS:SEIZE:PAGE_KEYS_%s_%s";
 
         // 抢单相关
         /**
@@ -75,6 +82,24 @@ public class RedisConstants {
          */
         public static final String ORDERS_RESOURCE_STOCK = "ORDERS:RESOURCE:STOCK:{%s}";
 
+        /**
+         * 抢单服务时间，hash结构，与库存使用相同的分片序号，格式：ORDERS:SEIZE:SERVE_TIME:{序号}
+         * key：抢单id，value：服务时间在服务时间位图中的偏移量
+         */
+        public static final String ORDERS_SEIZE_SERVE_TIME = "ORDERS:SEIZE:SERVE_TIME:{%s}";
+
+        /**
+         * 抢单到期索引，zSet结构，与库存使用相同的分片序号，格式：ORDERS:SEIZE:EXPIRE:{序号}
+         * value：抢单id，score：服务开始时间戳（毫秒），到达服务开始时间后据此分批清理抢单池
+         */
+        public static final String ORDERS_SEIZE_EXPIRE = "ORDERS:SEIZE:EXPIRE:{%s}";
+
+        /**
+         * 派单到期索引，zSet结构，格式：ORDERS:DISPATCH:EXPIRE:{序号}
+         * value：派单id，score：服务开始时间戳（毫秒），到达服务开始时间后据此分批清理派单池
+         */
+        public static final String ORDERS_DISPATCH_EXPIRE = "ORDERS:DISPATCH:EXPIRE:{%s}";
+
         /**
          * 派单连续失败次数 string
          */
@@ -90,17 +115,65 @@ public class RedisConstants {
          */
         public static final String SERVE_PROVIDER_TIMES = "PROVIDER:SERVE_TIME:%s_%s_{%s}";
 
+        /**
+         * 服务时间位图 string 格式：PROVIDER:SERVE_TIME_BITMAP:{serveProviderId}_{序号}
+         * 每小时一位，偏移量见ServeTimeUtils.getServeTimeOffset，已预约的服务时间对应位为1，最晚的服务时间结束后过期
+         */
+        public static final String SERVE_PROVIDER_TIME_BITMAP = "PROVIDER:SERVE_TIME_BITMAP:%s_{%s}";
+
         /**
          * 服务状态表 hash 格式：PROVIDER:SERVE_STATE:{序号}
          * key 格式：{服务人员/机构id}_{times或num}；time表示接单时间列表，nun表示接单数量
          */
         public static final String SERVE_PROVIDER_STATE = "PROVIDER:SERVE_STATE:{%s}";
 
+        /**
+         * redis分片版本，string结构，与库存使用相同的分片序号，格式：ORDERS:REDIS_SHARD:VERSION:{序号}
+         * value：写入该分片的分片配置（分片策略:分片数量），分片迁移开始前写入原分片及当前分片，
+         * 抢单、派单脚本校验调用方的分片配置与之一致，未刷新分片配置的节点不再写入原分片
+         */
+        public static final String REDIS_SHARD_VERSION = "ORDERS:REDIS_SHARD:VERSION:{%s}";
+
         /**
          * 派单列表 - zSet结构
          */
         public static final String DISPATCH_LIST = "ORDERS:DISPATCH:LIST";
 
+        /**
+         * 派单轮次发布主题，派单列表新增或调整下次派单时间后通知负责该城市分片的节点
+         */
+        public static final String DISPATCH_ROUND_TOPIC = "ORDERS:DISPATCH:ROUND";
+
+        /**
+         * 服务人员或机构接单状态变更发布主题，通知所有派单节点更新内存索引中的服务时间及接单数量
+         */
+        public static final String SERVE_PROVIDER_STATE_TOPIC = "PROVIDER:SERVE_STATE:TOPIC";
+
+        /**
+         * 抢单池新增发布主题，通知所有抢单节点更新内存索引
+         */
+        public static final String ORDERS_SEIZE_SAVE_TOPIC = "ORDERS:SEIZE:SAVE";
+
+        /**
+         * 抢单池删除发布主题，通知所有抢单节点更新内存索引
+         */
+        public static final String ORDERS_SEIZE_DELETE_TOPIC = "ORDERS:SEIZE:DELETE";
+
+        /**
+         * 抢单售罄发布主题，抢单库存不足时通知所有抢单节点记录售罄，后续抢单请求在本地直接拒绝
+         */
+        public static final String ORDERS_SEIZE_SOLD_OUT_TOPIC = "ORDERS:SEIZE:SOLD_OUT";
+
+        /**
+         * 抢单库存写入发布主题，通知所有抢单节点清除售罄记录
+         */
+        public static final String ORDERS_SEIZE_AVAILABLE_TOPIC = "ORDERS:SEIZE:AVAILABLE";
+
+        /**
+         * 抢单结果发布主题，抢单成功生成服务单后通知所有抢单节点推送给订阅的服务人员或机构
+         */
+        public static final String ORDERS_SEIZE_RESULT_TOPIC = "ORDERS:SEIZE:RESULT";
+
         /**
          * 用户端滚动分页查询订单
          */
@@ -109,7 +182,7 @@ public class RedisConstants {
 
     public static class Lock {
         /**
-         * 抢派单分布式锁
+         * 抢派单分布式锁，格式：ORDERS:DISPATCH_OR_SEIZE:{订单id}，抢单结果同步与接单超时撤销派单结果互斥
          */
         public static final String DISPATCH_OR_SEIZE_LOCK = "ORDERS:DISPATCH_OR_SEIZE:%s";
 
@@ -125,6 +198,11 @@ public class RedisConstants {
          */
         public static final String DISPATCH_RECEIVE_TIMEOUT_LOCK = "ORDERS:DISPATCH:TIMEOUT";
 
+        /**
+         * 派单城市分片归属租约，格式：ORDERS:DISPATCH:SHARD_OWNER_{城市序号}，值为节点id
+         */
+        public static final String DISPATCH_SHARD_OWNER = "ORDERS:DISPATCH:SHARD_OWNER_%s";
+
         /**
          * 抢单单同步锁定同步队列redis分布式锁
          */
@@ -0,0 +1,243 @@
+package com.jzo2o.orders.base.geo;
+
+import com.jzo2o.common.utils.CollUtils;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * 按城市划分的内存网格索引
+ * 城市索引在首次查询时从数据源（es）按id分页异步全量加载，加载完成前及加载失败时返回null，由调用方回退到es查询；
+ * 超过刷新间隔后在后台重新全量加载，任一页加载失败时保留原索引，加载期间的增量变更在加载完成后重放到新索引，避免丢失。
+ *
+ * @param <T> 索引数据类型
+ */
+@Slf4j
+public abstract class AbstractCityGeoIndex<T> {
+
+    /**
+     * 网格经纬度步长，约5km
+     */
+    private static final double CELL_DEGREES = 0.05;
+
+    /**
+     * 全量加载时每次从数据源读取的数量
+     */
+    private static final int LOAD_BATCH_SIZE = 1000;
+
+    private final Map<String, CityIndex<T>> cityIndexes = new ConcurrentHashMap<>();
+
+    private final ExecutorService loadExecutor;
+
+    protected AbstractCityGeoIndex(String loadThreadName) {
+        loadExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, loadThreadName);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void stopLoad() {
+        loadExecutor.shutdownNow();
+    }
+
+    /**
+     * 从数据源按id正序分页加载城市数据，加载失败时抛出异常
+     *
+     * @param cityCode 城市编码
+     * @param lastId 上一页最后一条数据的id，查询首页时为空
+     * @param size 每页数量
+     * @return 城市数据
+     */
+    protected abstract List<T> loadPage(String cityCode, Long lastId, int size);
+
+    /**
+     * 城市索引加载完成后回调，用于清理已包含在新索引中的增量数据
+     *
+     * @param cityCode 城市编码
+     * @param values 加载的城市数据
+     * @param loadStartTime 开始加载的时间，单位：毫秒
+     */
+    protected void onLoaded(String cityCode, List<T> values, long loadStartTime) {
+    }
+
+    protected abstract Long getId(T value);
+
+    protected abstract Double getLon(T value);
+
+    protected abstract Double getLat(T value);
+
+    /**
+     * 是否启用内存索引
+     */
+    protected abstract boolean isEnabled();
+
+    /**
+     * 全量刷新间隔，单位：秒
+     */
+    protected abstract long getRefreshInterval();
+
+    /**
+     * 获取城市索引，未加载完成时触发加载并返回null，超过刷新间隔时触发后台刷新并返回当前索引
+     *
+     * @param cityCode 城市编码
+     * @return 城市索引
+     */
+    public GeoGridIndex<T> get(String cityCode) {
+        if (!isEnabled() || cityCode == null) {
+            return null;
+        }
+        CityIndex<T> cityIndex = cityIndexes.computeIfAbsent(cityCode, key -> new CityIndex<>());
+        GeoGridIndex<T> index = cityIndex.index;
+        if (index == null || System.currentTimeMillis() - cityIndex.loadTime > TimeUnit.SECONDS.toMillis(getRefreshInterval())) {
+            triggerLoad(cityCode, cityIndex);
+        }
+        return index;
+    }
+
+    /**
+     * 新增或更新数据，城市索引未加载时忽略，加载时从数据源获取
+     *
+     * @param cityCode 城市编码
+     * @param value 数据
+     */
+    public void put(String cityCode, T value) {
+        if (getLon(value) == null || getLat(value) == null) {
+            remove(getId(value));
+            return;
+        }
+        CityIndex<T> cityIndex = cityIndexes.get(cityCode);
+        if (cityIndex != null) {
+            cityIndex.apply(index -> index.put(getId(value), getLon(value), getLat(value), value));
+        }
+    }
+
+    /**
+     * 删除数据，数据所在城市未知时从所有城市索引中删除
+     *
+     * @param id 数据id
+     */
+    public void remove(Long id) {
+        for (CityIndex<T> cityIndex : cityIndexes.values()) {
+            cityIndex.apply(index -> index.remove(id));
+        }
+    }
+
+    /**
+     * 根据id查询已加载的数据，数据所在城市未知时从所有城市索引中查找
+     *
+     * @param id 数据id
+     * @return 数据，城市索引未加载或不存在时返回null
+     */
+    public T find(Long id) {
+        for (CityIndex<T> cityIndex : cityIndexes.values()) {
+            GeoGridIndex<T> index = cityIndex.index;
+            T value = index == null ? null : index.get(id);
+            if (value != null) {
+                return value;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 清空所有城市索引，下次查询时重新加载
+     */
+    public void clear() {
+        cityIndexes.clear();
+    }
+
+    private void triggerLoad(String cityCode, CityIndex<T> cityIndex) {
+        synchronized (cityIndex) {
+            if (cityIndex.pending != null) {
+                return;
+            }
+            cityIndex.pending = new ArrayList<>();
+        }
+        try {
+            loadExecutor.execute(() -> reload(cityCode, cityIndex));
+        } catch (Exception e) {
+            synchronized (cityIndex) {
+                cityIndex.pending = null;
+            }
+        }
+    }
+
+    private void reload(String cityCode, CityIndex<T> cityIndex) {
+        GeoGridIndex<T> index = new GeoGridIndex<>(CELL_DEGREES);
+        long loadStartTime = System.currentTimeMillis();
+        List<T> values;
+        try {
+            values = load(cityCode);
+            for (T value : values) {
+                if (getLon(value) != null && getLat(value) != null) {
+                    index.put(getId(value), getLon(value), getLat(value), value);
+                }
+            }
+        } catch (Exception e) {
+            log.error("城市{}内存索引加载失败", cityCode, e);
+            synchronized (cityIndex) {
+                cityIndex.pending = null;
+            }
+            return;
+        }
+        synchronized (cityIndex) {
+            // 重放加载期间的增量变更
+            cityIndex.pending.forEach(change -> change.accept(index));
+            cityIndex.pending = null;
+            cityIndex.index = index;
+            cityIndex.loadTime = System.currentTimeMillis();
+        }
+        onLoaded(cityCode, values, loadStartTime);
+        log.debug("城市{}内存索引加载完成，数量：{}", cityCode, index.size());
+    }
+
+    /**
+     * 按id分页全量加载城市数据
+     *
+     * @param cityCode 城市编码
+     * @return 城市数据
+     */
+    private List<T> load(String cityCode) {
+        List<T> values = new ArrayList<>();
+        Long lastId = null;
+        while (true) {
+            List<T> page = loadPage(cityCode, lastId, LOAD_BATCH_SIZE);
+            values.addAll(page);
+            if (page.size() < LOAD_BATCH_SIZE) {
+                return values;
+            }
+            lastId = getId(CollUtils.getLast(page));
+        }
+    }
+
+    private static class CityIndex<T> {
+
+        private volatile GeoGridIndex<T> index;
+
+        private volatile long loadTime;
+
+        /**
+         * 加载期间的增量变更，为null表示未在加载
+         */
+        private List<Consumer<GeoGridIndex<T>>> pending;
+
+        private synchronized void apply(Consumer<GeoGridIndex<T>> change) {
+            if (index != null) {
+                change.accept(index);
+            }
+            if (pending != null) {
+                pending.add(change);
+            }
+        }
+    }
+}
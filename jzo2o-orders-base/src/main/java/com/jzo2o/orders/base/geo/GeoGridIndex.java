@@ -0,0 +1,255 @@
+package com.jzo2o.orders.base.geo;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * 内存经纬度网格索引
+ * 按固定经纬度步长将坐标划分为网格，查询时只扫描覆盖查询范围的网格，距离计算与es的arc距离一致。
+ * 写入需由调用方串行执行，查询可与写入并发，查询结果为弱一致。
+ *
+ * @param <T> 索引数据类型
+ */
+public class GeoGridIndex<T> {
+
+    /**
+     * 地球平均半径，与es一致，单位：km
+     */
+    private static final double EARTH_RADIUS = 6371.0087714;
+
+    /**
+     * 每度纬度对应的距离，单位：km
+     */
+    private static final double KM_PER_DEGREE = Math.PI * EARTH_RADIUS / 180;
+
+    /**
+     * 网格行号在网格编号中的倍数
+     */
+    private static final long ROW_FACTOR = 1_000_000L;
+
+    /**
+     * 网格经纬度步长，单位：度
+     */
+    private final double cellDegrees;
+
+    /**
+     * 网格编号与网格内数据的对应关系
+     */
+    private final Map<Long, Map<Long, Entry<T>>> cells = new ConcurrentHashMap<>();
+
+    /**
+     * 数据id与数据的对应关系
+     */
+    private final Map<Long, Entry<T>> entries = new ConcurrentHashMap<>();
+
+    public GeoGridIndex(double cellDegrees) {
+        this.cellDegrees = cellDegrees;
+    }
+
+    /**
+     * 新增或更新数据，坐标变化时移动到新网格
+     *
+     * @param id 数据id
+     * @param lon 经度
+     * @param lat 纬度
+     * @param value 数据
+     */
+    public void put(Long id, double lon, double lat, T value) {
+        long cell = cellOf(lon, lat);
+        Entry<T> entry = new Entry<>(id, lon, lat, cell, value);
+        Entry<T> old = entries.put(id, entry);
+        if (old != null && old.cell != cell) {
+            removeFromCell(old);
+        }
+        cells.computeIfAbsent(cell, key -> new ConcurrentHashMap<>()).put(id, entry);
+    }
+
+    /**
+     * 删除数据
+     *
+     * @param id 数据id
+     */
+    public void remove(Long id) {
+        Entry<T> old = entries.remove(id);
+        if (old != null) {
+            removeFromCell(old);
+        }
+    }
+
+    /**
+     * 获取数据
+     *
+     * @param id 数据id
+     * @return 数据，不存在返回null
+     */
+    public T get(Long id) {
+        Entry<T> entry = entries.get(id);
+        return entry == null ? null : entry.value;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * 查询范围内的数据，按距离由近到远排序
+     *
+     * @param lon 经度
+     * @param lat 纬度
+     * @param distance 距离，单位：km
+     * @param filter 过滤条件
+     * @return 范围内的数据
+     */
+    public List<Hit<T>> radius(double lon, double lat, double distance, Predicate<T> filter) {
+        List<Hit<T>> hits = new ArrayList<>();
+        int row = rowOf(lat);
+        int col = colOf(lon);
+        int rowSpan = (int) Math.ceil(distance / KM_PER_DEGREE / cellDegrees);
+        int colSpan = colSpan(lat, distance);
+        for (int r = row - rowSpan; r <= row + rowSpan; r++) {
+            for (int c = col - colSpan; c <= col + colSpan; c++) {
+                collect(r, c, lon, lat, distance, filter, hits);
+            }
+        }
+        hits.sort(Comparator.comparingDouble(Hit::getDistance));
+        return hits;
+    }
+
+    /**
+     * 查询距离最近的k条数据，按距离由近到远排序
+     * 从中心网格逐圈向外扫描，剩余网格的最近距离超过当前第k近的距离后结束
+     *
+     * @param lon 经度
+     * @param lat 纬度
+     * @param k 数量
+     * @param maxDistance 最大距离，单位：km
+     * @param filter 过滤条件
+     * @return 最近的k条数据
+     */
+    public List<Hit<T>> nearest(double lon, double lat, int k, double maxDistance, Predicate<T> filter) {
+        if (k <= 0) {
+            return Collections.emptyList();
+        }
+        // 距离最远的在堆顶
+        PriorityQueue<Hit<T>> heap = new PriorityQueue<>(k, Comparator.comparingDouble(Hit<T>::getDistance).reversed());
+        int row = rowOf(lat);
+        int col = colOf(lon);
+        int maxRing = Math.max((int) Math.ceil(maxDistance / KM_PER_DEGREE / cellDegrees), colSpan(lat, maxDistance));
+        // 单个网格在查询范围内最窄处的宽度，作为每圈距离下限的步长
+        double minCellWidth = cellDegrees * KM_PER_DEGREE
+                * Math.cos(Math.toRadians(Math.min(89, Math.abs(lat) + maxDistance / KM_PER_DEGREE)));
+        List<Hit<T>> ringHits = new ArrayList<>();
+        for (int ring = 0; ring <= maxRing; ring++) {
+            // 第ring圈网格与中心点的最近距离不小于(ring-1)个网格宽度
+            if (heap.size() == k && (ring - 1) * minCellWidth > heap.peek().getDistance()) {
+                break;
+            }
+            ringHits.clear();
+            for (int r = row - ring; r <= row + ring; r++) {
+                if (r == row - ring || r == row + ring) {
+                    for (int c = col - ring; c <= col + ring; c++) {
+                        collect(r, c, lon, lat, maxDistance, filter, ringHits);
+                    }
+                } else {
+                    collect(r, col - ring, lon, lat, maxDistance, filter, ringHits);
+                    if (ring > 0) {
+                        collect(r, col + ring, lon, lat, maxDistance, filter, ringHits);
+                    }
+                }
+            }
+            for (Hit<T> hit : ringHits) {
+                if (heap.size() < k) {
+                    heap.offer(hit);
+                } else if (hit.getDistance() < heap.peek().getDistance()) {
+                    heap.poll();
+                    heap.offer(hit);
+                }
+            }
+        }
+        List<Hit<T>> hits = new ArrayList<>(heap);
+        hits.sort(Comparator.comparingDouble(Hit::getDistance));
+        return hits;
+    }
+
+    /**
+     * 两点间球面距离，单位：km
+     */
+    public static double distance(double lon1, double lat1, double lon2, double lat2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLon = Math.toRadians(lon2 - lon1);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+        return 2 * EARTH_RADIUS * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+
+    private void collect(int row, int col, double lon, double lat, double distance, Predicate<T> filter, List<Hit<T>> hits) {
+        Map<Long, Entry<T>> cell = cells.get(row * ROW_FACTOR + col);
+        if (cell == null) {
+            return;
+        }
+        for (Entry<T> entry : cell.values()) {
+            double entryDistance = distance(lon, lat, entry.lon, entry.lat);
+            if (entryDistance <= distance && (filter == null || filter.test(entry.value))) {
+                hits.add(new Hit<>(entry.value, entryDistance));
+            }
+        }
+    }
+
+    private void removeFromCell(Entry<T> entry) {
+        cells.computeIfPresent(entry.cell, (key, cell) -> {
+            cell.remove(entry.id, entry);
+            return cell.isEmpty() ? null : cell;
+        });
+    }
+
+    /**
+     * 查询距离在经度方向上覆盖的网格数
+     */
+    private int colSpan(double lat, double distance) {
+        double cos = Math.cos(Math.toRadians(Math.min(89, Math.abs(lat) + distance / KM_PER_DEGREE)));
+        return (int) Math.ceil(distance / (KM_PER_DEGREE * cos) / cellDegrees);
+    }
+
+    private long cellOf(double lon, double lat) {
+        return rowOf(lat) * ROW_FACTOR + colOf(lon);
+    }
+
+    private int rowOf(double lat) {
+        return (int) Math.floor((lat + 90) / cellDegrees);
+    }
+
+    private int colOf(double lon) {
+        return (int) Math.floor((lon + 180) / cellDegrees);
+    }
+
+    @AllArgsConstructor
+    private static class Entry<T> {
+        private final Long id;
+        private final double lon;
+        private final double lat;
+        private final long cell;
+        private final T value;
+    }
+
+    /**
+     * 查询结果
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class Hit<T> {
+        private final T value;
+        /**
+         * 距离，单位：km
+         */
+        private final double distance;
+    }
+}
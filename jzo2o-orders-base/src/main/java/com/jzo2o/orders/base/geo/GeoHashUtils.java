@@ -0,0 +1,127 @@
+package com.jzo2o.orders.base.geo;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * geohash工具类
+ */
+public class GeoHashUtils {
+
+    private static final String BASE32 = "0123456789bcdefghjkmnpqrstuvwxyz";
+
+    /**
+     * 每度纬度对应的距离，单位：km
+     */
+    private static final double KM_PER_DEGREE = Math.PI * 6371.0087714 / 180;
+
+    private GeoHashUtils() {
+    }
+
+    /**
+     * 计算坐标所在的geohash网格
+     *
+     * @param lon 经度
+     * @param lat 纬度
+     * @param precision 精度，5位约4.9km*4.9km
+     * @return geohash
+     */
+    public static String encode(double lon, double lat, int precision) {
+        double minLon = -180, maxLon = 180, minLat = -90, maxLat = 90;
+        StringBuilder geoHash = new StringBuilder(precision);
+        boolean evenBit = true;
+        int bit = 0;
+        int index = 0;
+        while (geoHash.length() < precision) {
+            if (evenBit) {
+                double mid = (minLon + maxLon) / 2;
+                if (lon >= mid) {
+                    index = index * 2 + 1;
+                    minLon = mid;
+                } else {
+                    index = index * 2;
+                    maxLon = mid;
+                }
+            } else {
+                double mid = (minLat + maxLat) / 2;
+                if (lat >= mid) {
+                    index = index * 2 + 1;
+                    minLat = mid;
+                } else {
+                    index = index * 2;
+                    maxLat = mid;
+                }
+            }
+            evenBit = !evenBit;
+            if (++bit == 5) {
+                geoHash.append(BASE32.charAt(index));
+                bit = 0;
+                index = 0;
+            }
+        }
+        return geoHash.toString();
+    }
+
+    /**
+     * 计算与圆形范围的外接矩形相交的geohash网格
+     *
+     * @param lon 中心经度
+     * @param lat 中心纬度
+     * @param distance 半径，单位：km
+     * @param precision 精度
+     * @return 相交的geohash网格
+     */
+    public static Set<String> cover(double lon, double lat, double distance, int precision) {
+        // 网格经纬度步长，经度占用奇数位时多一位
+        double cellLon = 360 / Math.pow(2, (5 * precision + 1) / 2);
+        double cellLat = 180 / Math.pow(2, 5 * precision / 2);
+        double latDegrees = distance / KM_PER_DEGREE;
+        double lonDegrees = distance / (KM_PER_DEGREE * Math.max(Math.cos(Math.toRadians(lat)), 0.01));
+        double minLat = Math.max(lat - latDegrees, -90);
+        double maxLat = Math.min(lat + latDegrees, 90);
+        double minLon = Math.max(lon - lonDegrees, -180);
+        double maxLon = Math.min(lon + lonDegrees, 180);
+        Set<String> geoHashes = new LinkedHashSet<>();
+        // 从最小经纬度所在网格的中心开始逐个网格计算
+        for (double y = Math.floor((minLat + 90) / cellLat) * cellLat - 90 + cellLat / 2; y < maxLat + cellLat / 2 && y < 90; y += cellLat) {
+            for (double x = Math.floor((minLon + 180) / cellLon) * cellLon - 180 + cellLon / 2; x < maxLon + cellLon / 2 && x < 180; x += cellLon) {
+                geoHashes.add(encode(x, y, precision));
+            }
+        }
+        return geoHashes;
+    }
+
+    /**
+     * 计算geohash网格的边界
+     *
+     * @param geoHash geohash
+     * @return 最小经度，最小纬度，最大经度，最大纬度
+     */
+    public static double[] decodeBounds(String geoHash) {
+        double minLon = -180, maxLon = 180, minLat = -90, maxLat = 90;
+        boolean evenBit = true;
+        for (char c : geoHash.toCharArray()) {
+            int index = BASE32.indexOf(c);
+            for (int n = 4; n >= 0; n--) {
+                boolean bitSet = ((index >> n) & 1) == 1;
+                if (evenBit) {
+                    double mid = (minLon + maxLon) / 2;
+                    if (bitSet) {
+                        minLon = mid;
+                    } else {
+                        maxLon = mid;
+                    }
+                } else {
+                    double mid = (minLat + maxLat) / 2;
+                    if (bitSet) {
+                        minLat = mid;
+                    } else {
+                        maxLat = mid;
+                    }
+                }
+                evenBit = !evenBit;
+            }
+        }
+        return new double[]{minLon, minLat, maxLon, maxLat};
+    }
+}
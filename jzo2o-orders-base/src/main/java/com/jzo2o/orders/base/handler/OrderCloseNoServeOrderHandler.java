@@ -7,6 +7,7 @@ import com.jzo2o.orders.base.enums.OrderPayStatusEnum;
 import com.jzo2o.orders.base.model.dto.OrderSnapshotDTO;
 import com.jzo2o.orders.base.model.dto.OrderUpdateStatusDTO;
 import com.jzo2o.orders.base.service.IOrdersCommonService;
+import com.jzo2o.orders.base.service.IServeProviderSyncCommonService;
 import com.jzo2o.statemachine.core.StatusChangeEvent;
 import com.jzo2o.statemachine.core.StatusChangeHandler;
 import lombok.extern.slf4j.Slf4j;
@@ -25,6 +26,8 @@ import javax.annotation.Resource;
 public class OrderCloseNoServeOrderHandler implements StatusChangeHandler<OrderSnapshotDTO> {
     @Resource
     private IOrdersCommonService ordersService;
+    @Resource
+    private IServeProviderSyncCommonService serveProviderSyncCommonService;
 
     /**
      * 待服务订单关闭处理逻辑
@@ -45,5 +48,7 @@ public class OrderCloseNoServeOrderHandler implements StatusChangeHandler<OrderS
         if (result <= 0) {
             throw new DbRuntimeException("待服务订单关闭事件处理失败");
         }
+        // 服务人员或机构接单数减1，同步更新服务时间
+        serveProviderSyncCommonService.decrease(Long.valueOf(bizId), bizSnapshot);
     }
 }
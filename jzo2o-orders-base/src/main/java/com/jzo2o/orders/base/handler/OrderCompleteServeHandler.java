@@ -5,6 +5,7 @@ import com.jzo2o.orders.base.enums.OrderStatusEnum;
 import com.jzo2o.orders.base.model.dto.OrderSnapshotDTO;
 import com.jzo2o.orders.base.model.dto.OrderUpdateStatusDTO;
 import com.jzo2o.orders.base.service.IOrdersCommonService;
+import com.jzo2o.orders.base.service.IServeProviderSyncCommonService;
 import com.jzo2o.statemachine.core.StatusChangeEvent;
 import com.jzo2o.statemachine.core.StatusChangeHandler;
 import lombok.extern.slf4j.Slf4j;
@@ -23,6 +24,8 @@ import javax.annotation.Resource;
 public class OrderCompleteServeHandler implements StatusChangeHandler<OrderSnapshotDTO> {
     @Resource
     private IOrdersCommonService ordersService;
+    @Resource
+    private IServeProviderSyncCommonService serveProviderSyncCommonService;
 
     /**
      * 订单完成服务处理逻辑
@@ -43,5 +46,7 @@ public class OrderCompleteServeHandler implements StatusChangeHandler<OrderSnaps
         if (result <= 0) {
             throw new DbRuntimeException("订单完成服务事件处理失败");
         }
+        // 服务人员或机构接单数减1，同步更新服务时间
+        serveProviderSyncCommonService.decrease(Long.valueOf(bizId), bizSnapshot);
     }
 }
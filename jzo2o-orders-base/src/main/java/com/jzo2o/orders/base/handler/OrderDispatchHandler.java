@@ -5,6 +5,7 @@ import com.jzo2o.orders.base.enums.OrderStatusEnum;
 import com.jzo2o.orders.base.model.dto.OrderSnapshotDTO;
 import com.jzo2o.orders.base.model.dto.OrderUpdateStatusDTO;
 import com.jzo2o.orders.base.service.IOrdersCommonService;
+import com.jzo2o.orders.base.service.IServeProviderSyncCommonService;
 import com.jzo2o.statemachine.core.StatusChangeEvent;
 import com.jzo2o.statemachine.core.StatusChangeHandler;
 import lombok.extern.slf4j.Slf4j;
@@ -23,6 +24,8 @@ import javax.annotation.Resource;
 public class OrderDispatchHandler implements StatusChangeHandler<OrderSnapshotDTO> {
     @Resource
     private IOrdersCommonService ordersService;
+    @Resource
+    private IServeProviderSyncCommonService serveProviderSyncCommonService;
 
     /**
      * 订单派送处理逻辑
@@ -42,5 +45,7 @@ public class OrderDispatchHandler implements StatusChangeHandler<OrderSnapshotDT
         if (result <= 0) {
             throw new DbRuntimeException("派送事件处理失败");
         }
+        // 服务人员或机构接单数加1，同步更新服务时间
+        serveProviderSyncCommonService.increase(Long.valueOf(bizId), bizSnapshot);
     }
 }
@@ -5,6 +5,7 @@ import com.jzo2o.orders.base.enums.OrderStatusEnum;
 import com.jzo2o.orders.base.model.dto.OrderSnapshotDTO;
 import com.jzo2o.orders.base.model.dto.OrderUpdateStatusDTO;
 import com.jzo2o.orders.base.service.IOrdersCommonService;
+import com.jzo2o.orders.base.service.IServeProviderSyncCommonService;
 import com.jzo2o.statemachine.core.StatusChangeEvent;
 import com.jzo2o.statemachine.core.StatusChangeHandler;
 import lombok.extern.slf4j.Slf4j;
@@ -23,6 +24,8 @@ import javax.annotation.Resource;
 public class OrderServeProviderCancelHandler implements StatusChangeHandler<OrderSnapshotDTO> {
     @Resource
     private IOrdersCommonService ordersService;
+    @Resource
+    private IServeProviderSyncCommonService serveProviderSyncCommonService;
 
     /**
      * 服务人员/机构取消订单处理逻辑
@@ -42,5 +45,7 @@ public class OrderServeProviderCancelHandler implements StatusChangeHandler<Orde
         if (result <= 0) {
             throw new DbRuntimeException("服务人员/机构取消订单事件处理失败");
         }
+        // 服务人员或机构接单数减1，同步更新服务时间
+        serveProviderSyncCommonService.decrease(Long.valueOf(bizId), bizSnapshot);
     }
 }
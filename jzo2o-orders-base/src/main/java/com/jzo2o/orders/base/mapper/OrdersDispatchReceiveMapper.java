@@ -0,0 +1,16 @@
+package com.jzo2o.orders.base.mapper;
+
+import com.jzo2o.orders.base.model.domain.OrdersDispatchReceive;
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+
+/**
+ * <p>
+ * 派单待接单记录 Mapper 接口
+ * </p>
+ *
+ * @author itcast
+ * @since 2023-08-21
+ */
+public interface OrdersDispatchReceiveMapper extends BaseMapper<OrdersDispatchReceive> {
+
+}
@@ -0,0 +1,61 @@
+package com.jzo2o.orders.base.model.domain;
+
+import com.baomidou.mybatisplus.annotation.IdType;
+import com.baomidou.mybatisplus.annotation.TableId;
+import com.baomidou.mybatisplus.annotation.TableName;
+import java.io.Serializable;
+import java.time.LocalDateTime;
+
+import lombok.*;
+import lombok.experimental.Accessors;
+
+/**
+ * <p>
+ * 派单待接单记录，派单成功后记录接单截止时间，生成服务单前超时则重新派单
+ * </p>
+ *
+ * @author itcast
+ * @since 2023-08-21
+ */
+@Data
+@EqualsAndHashCode(callSuper = false)
+@Accessors(chain = true)
+@TableName("orders_dispatch_receive")
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class OrdersDispatchReceive implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * 订单id
+     */
+    @TableId(value = "id", type = IdType.NONE)
+    private Long id;
+
+    /**
+     * 城市编码
+     */
+    private String cityCode;
+
+    /**
+     * 服务人员或机构id
+     */
+    private Long serveProviderId;
+
+    /**
+     * 服务人员类型，2：服务人员，3：机构
+     */
+    private Integer serveProviderType;
+
+    /**
+     * 接单截止时间
+     */
+    private LocalDateTime receiveDeadline;
+
+    /**
+     * 创建时间
+     */
+    private LocalDateTime createTime;
+}
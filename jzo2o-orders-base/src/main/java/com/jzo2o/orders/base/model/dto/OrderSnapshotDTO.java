@@ -225,6 +225,16 @@ public class OrderSnapshotDTO extends StateMachineSnapshot {
      */
     private Integer evaluationStatus;
 
+    /**
+     * 服务人员或机构id
+     */
+    private Long serveProviderId;
+
+    /**
+     * 服务人员或机构类型，2：服务人员，3：机构
+     */
+    private Integer serveProviderType;
+
 
     @Override
     public String getSnapshotId() {
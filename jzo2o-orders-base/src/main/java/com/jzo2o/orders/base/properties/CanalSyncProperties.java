@@ -0,0 +1,39 @@
+package com.jzo2o.orders.base.properties;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * canal同步分区消费配置
+ */
+@Configuration
+@ConfigurationProperties(prefix = "orders.canal-sync")
+@Data
+public class CanalSyncProperties {
+
+    /**
+     * 每个同步类的分区数量，同一id的变更始终进入同一分区按顺序执行，不同分区并行执行
+     */
+    public Integer lanes = 4;
+
+    /**
+     * 分区合并窗口，单位：毫秒，窗口内同一id的多次变更只执行最后一次
+     */
+    public Long batchWindow = 20L;
+
+    /**
+     * 分区每批最大变更数量
+     */
+    public Integer maxBatchSize = 500;
+
+    /**
+     * 分区执行失败后的最大重试间隔，单位：毫秒，重试期间该分区阻塞以保证同一id的变更顺序
+     */
+    public Long maxRetryInterval = 30000L;
+
+    /**
+     * 分区整批执行的最大重试次数，超过后逐行执行，仍失败的行记录日志并拒绝所在消息（队列配置了死信时进入死信队列）
+     */
+    public Integer maxRetries = 10;
+}
@@ -4,6 +4,9 @@ import lombok.Data;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Configuration;
 
+import java.util.HashMap;
+import java.util.Map;
+
 /**
  * 派单配置
  */
@@ -29,4 +32,106 @@ public class DispatchProperties {
      * 服务人员最大拥有服务数量
      */
     public Integer serveTaskNumOfServe = 10;
+
+    /**
+     * 同一轮到期的订单是否整轮分配服务人员或机构，关闭后逐单过派单策略
+     */
+    public Boolean roundAssignEnabled = true;
+
+    /**
+     * 派单服务人员查询及抢单列表查询是否使用内存网格索引，关闭后直接查询es
+     */
+    public Boolean geoIndexEnabled = true;
+
+    /**
+     * 内存网格索引从es全量刷新的间隔，单位：秒
+     */
+    public Long geoIndexRefreshInterval = 300L;
+
+    /**
+     * 连续派单失败时下次派单间隔是否按失败次数指数增长，关闭后每轮按区域配置的派单间隔
+     */
+    public Boolean backoffEnabled = true;
+
+    /**
+     * 派单退避的最大间隔，单位：秒
+     */
+    public Long backoffMaxInterval = 1800L;
+
+    /**
+     * 同城市同服务项的服务人员或机构状态变化后，重新激活退避中订单的最小间隔，单位：秒
+     */
+    public Long backoffRearmInterval = 30L;
+
+    /**
+     * 派单是否在派单节点直接执行派单脚本，关闭后通过抢单服务机器抢单
+     */
+    public Boolean localSeizeEnabled = true;
+
+    /**
+     * 派单成功后是否跟踪接单超时，超时未生成服务单的订单撤销派单结果后重新派单
+     * 接单以派单结果同步生成服务单为准，并非服务人员或机构确认接单，用于发现抢单结果同步停滞的派单
+     */
+    public Boolean receiveTimeoutEnabled = false;
+
+    /**
+     * 接单超时时间，单位：秒
+     */
+    public Long receiveTimeout = 300L;
+
+    /**
+     * 综合评分派单策略的默认权重
+     */
+    public WeightedScore weightedScore = new WeightedScore();
+
+    /**
+     * 各城市综合评分派单策略的权重，key：城市编码，未配置的城市使用默认权重
+     */
+    public Map<String, WeightedScore> cityWeightedScores = new HashMap<>();
+
+    /**
+     * 获取城市的综合评分权重
+     *
+     * @param cityCode 城市编码
+     * @return 综合评分权重
+     */
+    public WeightedScore getWeightedScore(String cityCode) {
+        return cityWeightedScores.getOrDefault(cityCode, weightedScore);
+    }
+
+    /**
+     * 综合评分派单策略权重，综合评分为距离、评分、接单数量三项得分（0~1）按权重求和
+     */
+    @Data
+    public static class WeightedScore {
+        /**
+         * 距离权重，距离得分按高斯衰减
+         */
+        public Double distanceWeight = 1.0;
+
+        /**
+         * 距离得分衰减到decay时的距离，单位：km
+         */
+        public Double distanceScale = 5.0;
+
+        /**
+         * 评分权重，评分得分为评分/5，无评分按5分
+         */
+        public Double evaluationScoreWeight = 1.0;
+
+        /**
+         * 接单数量权重，接单数量得分按指数衰减
+         */
+        public Double acceptanceNumWeight = 1.0;
+
+        /**
+         * 接单数量得分衰减到decay时的接单数量
+         */
+        public Double acceptanceNumScale = 5.0;
+
+        /**
+         * 距离及接单数量达到衰减尺度时的得分
+         */
+        public Double decay = 0.5;
+    }
 }
@@ -0,0 +1,46 @@
+package com.jzo2o.orders.base.properties;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 抢单、派单redis分片配置
+ * 调整分片时将原配置填入previousStrategy、previousShardCount，执行redisReshardJob直到迁移数量为0后再删除原配置
+ * 迁移开始后未刷新配置的节点执行抢单、派单脚本会被分片版本拒绝，因此需先部署校验分片版本的版本再调整分片配置
+ */
+@Configuration
+@ConfigurationProperties(prefix = "orders.redis-shard")
+@Data
+public class RedisShardProperties {
+
+    /**
+     * 分片策略，对应RedisShardStrategy的bean名称：cityDigit（城市编码取模）、cityHash（城市编码哈希取模）
+     */
+    public String strategy = "cityDigit";
+
+    /**
+     * 分片数量，抢单结果同步队列数量需不小于分片数量
+     */
+    public Integer shardCount = 10;
+
+    /**
+     * 抢单结果同步队列数量，与同步组件配置的队列数量一致，启动时校验不小于分片数量及迁移前的分片数量
+     */
+    public Integer syncQueueCount = 10;
+
+    /**
+     * 迁移前的分片策略，为空时与当前分片策略相同
+     */
+    public String previousStrategy;
+
+    /**
+     * 迁移前的分片数量，不为空表示正在迁移，期间抢单前先将涉及的数据从原分片迁移到当前分片
+     */
+    public Integer previousShardCount;
+
+    /**
+     * 迁移任务每批处理的数量
+     */
+    public Integer migrateBatchSize = 500;
+}
@@ -0,0 +1,39 @@
+package com.jzo2o.orders.base.service;
+
+import java.util.List;
+
+/**
+ * 抢单、派单redis分片在线迁移
+ * 调整分片策略或分片数量后，新数据直接写入当前分片，原分片中的数据由迁移任务分批迁移；
+ * 迁移完成前抢单、接单前先迁移涉及的订单及服务人员数据，因此迁移期间无需停服。
+ * 迁移开始前写入分片版本，未刷新分片配置的节点的抢单、派单脚本不再写入原分片；
+ * 数据先写入当前分片且不覆盖已存在的数据，再从原分片删除读取后未变化的数据，迁移中途失败不会丢失数据。
+ */
+public interface IRedisReshardService {
+
+    /**
+     * 迁移订单的库存、抢单服务时间及到期索引
+     *
+     * @param cityCode 城市编码
+     * @param ids 抢单或派单id
+     * @return 迁移的数据数量
+     */
+    long migrateOrders(String cityCode, List<Long> ids);
+
+    /**
+     * 迁移服务人员或机构的服务状态及服务时间位图
+     *
+     * @param cityCode 城市编码
+     * @param serveProviderIds 服务人员或机构id
+     * @return 迁移的数据数量
+     */
+    long migrateServeProviders(String cityCode, List<Long> serveProviderIds);
+
+    /**
+     * 迁移原分片中的全部数据，订单及服务人员所在城市分别从抢单池、派单池及客户服务查询，查询不到的数据保留在原分片
+     *
+     * @param index 迁移前的分片序号
+     * @return 迁移的数据数量
+     */
+    long migrateShard(int index);
+}
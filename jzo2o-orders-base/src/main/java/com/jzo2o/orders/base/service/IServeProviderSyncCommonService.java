@@ -0,0 +1,41 @@
+package com.jzo2o.orders.base.service;
+
+import com.jzo2o.orders.base.model.dto.OrderSnapshotDTO;
+
+import java.util.List;
+
+/**
+ * 服务人员/机构接单数据增量维护
+ * 订单状态变更时按增量调整接单数和服务时间，不再全量统计服务单
+ */
+public interface IServeProviderSyncCommonService {
+
+    /**
+     * 接单，接单数加1并占用服务时间
+     *
+     * 快照中未携带服务人员信息时从服务单中获取
+     *
+     * @param ordersId 订单id
+     * @param bizSnapshot 订单快照
+     */
+    void increase(Long ordersId, OrderSnapshotDTO bizSnapshot);
+
+    /**
+     * 服务完成、取消或关闭，接单数减1并释放服务时间
+     *
+     * 快照中未携带服务人员信息时从服务单中获取
+     *
+     * @param ordersId 订单id
+     * @param bizSnapshot 订单快照
+     */
+    void decrease(Long ordersId, OrderSnapshotDTO bizSnapshot);
+
+    /**
+     * 根据服务时间列表整体覆盖服务时间位图，抢单、派单脚本通过GETBIT校验服务时间冲突
+     *
+     * @param id 服务人员或机构id
+     * @param cityCode 城市编码
+     * @param serveTimes 服务时间列表，格式yyyyMMddHH
+     */
+    void refreshServeTimeBitmap(Long id, String cityCode, List<Integer> serveTimes);
+}
@@ -0,0 +1,339 @@
+package com.jzo2o.orders.base.service.impl;
+
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.jzo2o.api.customer.ServeProviderApi;
+import com.jzo2o.common.utils.CollUtils;
+import com.jzo2o.common.utils.NumberUtils;
+import com.jzo2o.orders.base.mapper.OrdersDispatchMapper;
+import com.jzo2o.orders.base.mapper.OrdersSeizeMapper;
+import com.jzo2o.orders.base.model.domain.OrdersDispatch;
+import com.jzo2o.orders.base.model.domain.OrdersSeize;
+import com.jzo2o.orders.base.properties.RedisShardProperties;
+import com.jzo2o.orders.base.service.IRedisReshardService;
+import com.jzo2o.orders.base.utils.RedisUtils;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSerializer;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.scripting.support.ResourceScriptSource;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static com.jzo2o.orders.base.constants.RedisConstants.RedisKey.ORDERS_DISPATCH_EXPIRE;
+import static com.jzo2o.orders.base.constants.RedisConstants.RedisKey.ORDERS_RESOURCE_STOCK;
+import static com.jzo2o.orders.base.constants.RedisConstants.RedisKey.ORDERS_SEIZE_EXPIRE;
+import static com.jzo2o.orders.base.constants.RedisConstants.RedisKey.ORDERS_SEIZE_SERVE_TIME;
+import static com.jzo2o.orders.base.constants.RedisConstants.RedisKey.REDIS_SHARD_VERSION;
+import static com.jzo2o.orders.base.constants.RedisConstants.RedisKey.SERVE_PROVIDER_STATE;
+import static com.jzo2o.orders.base.constants.RedisConstants.RedisKey.SERVE_PROVIDER_TIME_BITMAP;
+
+@Service
+@Slf4j
+public class RedisReshardServiceImpl implements IRedisReshardService {
+
+    /**
+     * 服务状态字段后缀，字段格式：{服务人员/机构id}_{后缀}
+     */
+    private static final String[] SERVE_PROVIDER_STATE_SUFFIXES = {"_times", "_num"};
+
+    /**
+     * 迁移脚本的数据结构参数
+     */
+    private static final byte[] HASH = "hash".getBytes(StandardCharsets.UTF_8);
+
+    private static final byte[] ZSET = "zset".getBytes(StandardCharsets.UTF_8);
+
+    private static final byte[] STRING = "string".getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * 迁移脚本只访问一个分片，原分片和当前分片在redis集群中可能位于不同的槽
+     */
+    private static final DefaultRedisScript<List> RESHARD_READ_SCRIPT = script("scripts/reshardReadScript.lua", List.class);
+
+    private static final DefaultRedisScript<Long> RESHARD_WRITE_SCRIPT = script("scripts/reshardWriteScript.lua", Long.class);
+
+    private static final DefaultRedisScript<Long> RESHARD_DELETE_SCRIPT = script("scripts/reshardDeleteScript.lua", Long.class);
+
+    @Resource
+    private RedisTemplate redisTemplate;
+
+    @Resource
+    private RedisShardProperties redisShardProperties;
+
+    @Resource
+    private OrdersSeizeMapper ordersSeizeMapper;
+
+    @Resource
+    private OrdersDispatchMapper ordersDispatchMapper;
+
+    @Resource
+    private ServeProviderApi serveProviderApi;
+
+    /**
+     * 本节点已写入redis的分片版本
+     */
+    private volatile String fencedShardVersion;
+
+    @Override
+    public long migrateOrders(String cityCode, List<Long> ids) {
+        fence();
+        int from = RedisUtils.getPreviousCityIndex(cityCode);
+        int to = RedisUtils.getCityIndex(cityCode);
+        if (from == to || CollUtils.isEmpty(ids)) {
+            return 0;
+        }
+        return moveHashFields(String.format(ORDERS_RESOURCE_STOCK, from), String.format(ORDERS_RESOURCE_STOCK, to), ids)
+                + moveHashFields(String.format(ORDERS_SEIZE_SERVE_TIME, from), String.format(ORDERS_SEIZE_SERVE_TIME, to), ids)
+                + moveZSetMembers(String.format(ORDERS_SEIZE_EXPIRE, from), String.format(ORDERS_SEIZE_EXPIRE, to), ids)
+                + moveZSetMembers(String.format(ORDERS_DISPATCH_EXPIRE, from), String.format(ORDERS_DISPATCH_EXPIRE, to), ids);
+    }
+
+    @Override
+    public long migrateServeProviders(String cityCode, List<Long> serveProviderIds) {
+        fence();
+        int from = RedisUtils.getPreviousCityIndex(cityCode);
+        int to = RedisUtils.getCityIndex(cityCode);
+        if (from == to || CollUtils.isEmpty(serveProviderIds)) {
+            return 0;
+        }
+        List<Object> fields = new ArrayList<>();
+        for (Long serveProviderId : serveProviderIds) {
+            for (String suffix : SERVE_PROVIDER_STATE_SUFFIXES) {
+                fields.add(serveProviderId + suffix);
+            }
+        }
+        long moved = moveHashFields(String.format(SERVE_PROVIDER_STATE, from), String.format(SERVE_PROVIDER_STATE, to), fields);
+        for (Long serveProviderId : serveProviderIds) {
+            moved += moveBitmap(String.format(SERVE_PROVIDER_TIME_BITMAP, serveProviderId, from),
+                    String.format(SERVE_PROVIDER_TIME_BITMAP, serveProviderId, to));
+        }
+        return moved;
+    }
+
+    @Override
+    public long migrateShard(int index) {
+        fence();
+        long moved = 0;
+        // 1.订单维度，库存、抢单服务时间的字段及到期索引的成员为订单id
+        for (String key : new String[]{ORDERS_RESOURCE_STOCK, ORDERS_SEIZE_SERVE_TIME}) {
+            try (Cursor<Map.Entry<Object, Object>> cursor = redisTemplate.opsForHash().scan(String.format(key, index), scanOptions())) {
+                moved += scan(cursor, entry -> NumberUtils.parseLong(((Map.Entry<?, ?>) entry).getKey().toString()), this::migrateOrders);
+            }
+        }
+        for (String key : new String[]{ORDERS_SEIZE_EXPIRE, ORDERS_DISPATCH_EXPIRE}) {
+            try (Cursor<ZSetOperations.TypedTuple<Object>> cursor = redisTemplate.opsForZSet().scan(String.format(key, index), scanOptions())) {
+                moved += scan(cursor, tuple -> NumberUtils.parseLong(((ZSetOperations.TypedTuple<?>) tuple).getValue().toString()), this::migrateOrders);
+            }
+        }
+        // 2.服务人员维度，服务状态字段前缀为服务人员或机构id，服务时间位图随服务状态一起迁移
+        try (Cursor<Map.Entry<Object, Object>> cursor = redisTemplate.opsForHash().scan(String.format(SERVE_PROVIDER_STATE, index), scanOptions())) {
+            moved += scan(cursor, entry -> {
+                String field = ((Map.Entry<?, ?>) entry).getKey().toString();
+                return NumberUtils.parseLong(field.substring(0, field.indexOf('_')));
+            }, this::migrateServeProviders);
+        }
+        log.info("redis分片{}迁移完成，迁移数量：{}", index, moved);
+        return moved;
+    }
+
+    /**
+     * 分批读取原分片中的id并迁移
+     *
+     * @param cursor 原分片扫描游标
+     * @param idMapper 从扫描结果中解析id
+     * @param migrator 按批迁移
+     * @return 迁移的数据数量
+     */
+    private long scan(Cursor<?> cursor, Function<Object, Long> idMapper, Function<List<Long>, Long> migrator) {
+        long moved = 0;
+        Set<Long> ids = new LinkedHashSet<>();
+        while (cursor.hasNext()) {
+            ids.add(idMapper.apply(cursor.next()));
+            if (ids.size() >= redisShardProperties.getMigrateBatchSize()) {
+                moved += migrator.apply(new ArrayList<>(ids));
+                ids.clear();
+            }
+        }
+        if (!ids.isEmpty()) {
+            moved += migrator.apply(new ArrayList<>(ids));
+        }
+        return moved;
+    }
+
+    /**
+     * 按订单所在城市迁移，抢单池及派单池中都不存在的订单保留在原分片
+     */
+    private long migrateOrders(List<Long> ids) {
+        Map<Long, String> cityCodes = new HashMap<>();
+        ordersSeizeMapper.selectList(new LambdaQueryWrapper<OrdersSeize>()
+                        .select(OrdersSeize::getId, OrdersSeize::getCityCode)
+                        .in(OrdersSeize::getId, ids))
+                .forEach(ordersSeize -> cityCodes.put(ordersSeize.getId(), ordersSeize.getCityCode()));
+        ordersDispatchMapper.selectList(new LambdaQueryWrapper<OrdersDispatch>()
+                        .select(OrdersDispatch::getId, OrdersDispatch::getCityCode)
+                        .in(OrdersDispatch::getId, ids))
+                .forEach(ordersDispatch -> cityCodes.putIfAbsent(ordersDispatch.getId(), ordersDispatch.getCityCode()));
+        return groupByCity(cityCodes).entrySet().stream()
+                .mapToLong(entry -> migrateOrders(entry.getKey(), entry.getValue()))
+                .sum();
+    }
+
+    /**
+     * 按服务人员或机构所在城市迁移
+     */
+    private long migrateServeProviders(List<Long> serveProviderIds) {
+        Map<Long, String> cityCodes = serveProviderApi.batchCityCode(serveProviderIds);
+        if (cityCodes == null) {
+            return 0;
+        }
+        return groupByCity(cityCodes).entrySet().stream()
+                .mapToLong(entry -> migrateServeProviders(entry.getKey(), entry.getValue()))
+                .sum();
+    }
+
+    private Map<String, List<Long>> groupByCity(Map<Long, String> cityCodes) {
+        return cityCodes.entrySet().stream()
+                .filter(entry -> entry.getValue() != null)
+                .collect(Collectors.groupingBy(Map.Entry::getValue, Collectors.mapping(Map.Entry::getKey, Collectors.toList())));
+    }
+
+    /**
+     * 迁移开始前将当前分片版本写入原分片及当前分片，未刷新分片配置的节点的抢单、派单脚本校验分片版本失败，不再写入原分片
+     * 分片版本与抢单、派单脚本参数使用相同的json序列化
+     */
+    private void fence() {
+        String shardVersion = RedisUtils.getShardVersion();
+        if (!RedisUtils.isResharding() || shardVersion.equals(fencedShardVersion)) {
+            return;
+        }
+        byte[] rawShardVersion = new GenericJackson2JsonRedisSerializer().serialize(shardVersion);
+        int shardCount = Math.max(RedisUtils.getCityIndexCount(), RedisUtils.getPreviousCityIndexCount());
+        redisTemplate.execute((RedisCallback<Object>) connection -> {
+            for (int index = 0; index < shardCount; index++) {
+                connection.set(rawKey(String.format(REDIS_SHARD_VERSION, index)), rawShardVersion);
+            }
+            return null;
+        });
+        fencedShardVersion = shardVersion;
+        log.info("redis分片版本{}已写入分片0-{}", shardVersion, shardCount - 1);
+    }
+
+    /**
+     * 迁移hash字段，当前分片已存在的字段以当前分片为准
+     */
+    private long moveHashFields(String fromKey, String toKey, List<?> fields) {
+        RedisSerializer hashKeySerializer = redisTemplate.getHashKeySerializer();
+        List<byte[]> rawFields = fields.stream().map(field -> hashKeySerializer.serialize(field)).collect(Collectors.toList());
+        return move(HASH, fromKey, toKey, rawFields);
+    }
+
+    /**
+     * 迁移zSet成员，当前分片已存在的成员以当前分片为准
+     */
+    private long moveZSetMembers(String fromKey, String toKey, List<Long> members) {
+        RedisSerializer valueSerializer = redisTemplate.getValueSerializer();
+        List<byte[]> rawMembers = members.stream().map(member -> valueSerializer.serialize(member)).collect(Collectors.toList());
+        return move(ZSET, fromKey, toKey, rawMembers);
+    }
+
+    /**
+     * 读取原分片、写入当前分片、从原分片删除依次在各自分片中原子执行，只删除读取后未变化的数据，
+     * 迁移中途失败时数据仍在原分片，读取后被修改的数据留在原分片由下次迁移处理
+     *
+     * @param type 数据结构
+     * @param fromKey 原分片
+     * @param toKey 当前分片
+     * @param rawFields 字段或成员
+     * @return 迁移的数据数量
+     */
+    private long move(byte[] type, String fromKey, String toKey, List<byte[]> rawFields) {
+        // 1.读取原分片中的值
+        List<byte[]> values = execute(RESHARD_READ_SCRIPT, fromKey, type, rawFields);
+        List<byte[]> pairs = new ArrayList<>();
+        for (int i = 0; i < rawFields.size(); i++) {
+            if (values != null && values.get(i) != null) {
+                pairs.add(rawFields.get(i));
+                pairs.add(values.get(i));
+            }
+        }
+        if (pairs.isEmpty()) {
+            return 0;
+        }
+        // 2.写入当前分片
+        execute(RESHARD_WRITE_SCRIPT, toKey, type, pairs);
+        // 3.从原分片删除未变化的数据
+        Long deleted = execute(RESHARD_DELETE_SCRIPT, fromKey, type, pairs);
+        return deleted == null ? 0 : deleted;
+    }
+
+    /**
+     * 迁移服务时间位图，与当前分片中已写入的服务时间按位合并，合并后位图已变化的留在原分片，下次迁移时再次合并
+     */
+    private long moveBitmap(String fromKey, String toKey) {
+        byte[] rawFromKey = rawKey(fromKey);
+        byte[] rawToKey = rawKey(toKey);
+        byte[] bitmap = (byte[]) redisTemplate.execute((RedisCallback<byte[]>) connection -> connection.get(rawFromKey));
+        if (bitmap == null) {
+            return 0;
+        }
+        // 位图在最晚的服务时间结束后过期，迁移后保留原有效期
+        Long ttl = (Long) redisTemplate.execute((RedisCallback<Long>) connection -> connection.pTtl(rawFromKey));
+        redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (int offset = 0; offset < bitmap.length * 8; offset++) {
+                if ((bitmap[offset >> 3] & (0x80 >>> (offset & 7))) != 0) {
+                    connection.setBit(rawToKey, offset, true);
+                }
+            }
+            if (ttl != null && ttl > 0) {
+                connection.pExpire(rawToKey, ttl);
+            }
+            return null;
+        });
+        Long deleted = execute(RESHARD_DELETE_SCRIPT, fromKey, STRING, Collections.singletonList(bitmap));
+        return deleted == null ? 0 : deleted;
+    }
+
+    /**
+     * 执行迁移脚本，字段及值已序列化，按原始字节传递
+     */
+    private <T> T execute(DefaultRedisScript<?> script, String key, byte[] type, List<byte[]> args) {
+        Object[] rawArgs = new Object[args.size() + 1];
+        rawArgs[0] = type;
+        for (int i = 0; i < args.size(); i++) {
+            rawArgs[i + 1] = args.get(i);
+        }
+        return (T) redisTemplate.execute(script, RedisSerializer.byteArray(), RedisSerializer.byteArray(), Collections.singletonList(key), rawArgs);
+    }
+
+    private byte[] rawKey(String key) {
+        return redisTemplate.getKeySerializer().serialize(key);
+    }
+
+    private static <T> DefaultRedisScript<T> script(String path, Class<T> resultType) {
+        DefaultRedisScript<T> redisScript = new DefaultRedisScript<>();
+        redisScript.setScriptSource(new ResourceScriptSource(new ClassPathResource(path)));
+        redisScript.setResultType(resultType);
+        return redisScript;
+    }
+
+    private ScanOptions scanOptions() {
+        return ScanOptions.scanOptions().count(redisShardProperties.getMigrateBatchSize()).build();
+    }
+}
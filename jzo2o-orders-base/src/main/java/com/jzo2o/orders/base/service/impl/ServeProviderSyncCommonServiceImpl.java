@@ -0,0 +1,167 @@
+package com.jzo2o.orders.base.service.impl;
+
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.jzo2o.common.constants.UserType;
+import com.jzo2o.common.utils.CollUtils;
+import com.jzo2o.common.utils.DateUtils;
+import com.jzo2o.common.utils.NumberUtils;
+import com.jzo2o.orders.base.mapper.OrdersServeMapper;
+import com.jzo2o.orders.base.mapper.ServeProviderSyncMapper;
+import com.jzo2o.orders.base.model.domain.OrdersServe;
+import com.jzo2o.orders.base.model.domain.ServeProviderSync;
+import com.jzo2o.orders.base.model.dto.OrderSnapshotDTO;
+import com.jzo2o.orders.base.service.IRedisReshardService;
+import com.jzo2o.orders.base.service.IServeProviderSyncCommonService;
+import com.jzo2o.orders.base.utils.RedisUtils;
+import com.jzo2o.orders.base.utils.ServeTimeUtils;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.jzo2o.orders.base.constants.RedisConstants.RedisKey.SERVE_PROVIDER_TIME_BITMAP;
+
+@Service
+@Slf4j
+public class ServeProviderSyncCommonServiceImpl implements IServeProviderSyncCommonService {
+
+    @Resource
+    private ServeProviderSyncMapper serveProviderSyncMapper;
+
+    @Resource
+    private RedisTemplate redisTemplate;
+
+    @Resource
+    private OrdersServeMapper ordersServeMapper;
+
+    @Resource
+    private IRedisReshardService redisReshardService;
+
+    @Override
+    @Transactional(rollbackFor = Exception.class)
+    public void increase(Long ordersId, OrderSnapshotDTO bizSnapshot) {
+        change(toServeProvider(ordersId, bizSnapshot), true);
+    }
+
+    @Override
+    @Transactional(rollbackFor = Exception.class)
+    public void decrease(Long ordersId, OrderSnapshotDTO bizSnapshot) {
+        change(toServeProvider(ordersId, bizSnapshot), false);
+    }
+
+    /**
+     * 获取订单对应的服务人员信息，优先使用快照
+     *
+     * @param ordersId 订单id
+     * @param bizSnapshot 订单快照
+     * @return 服务单，仅包含服务人员、城市和服务时间
+     */
+    private OrdersServe toServeProvider(Long ordersId, OrderSnapshotDTO bizSnapshot) {
+        if (bizSnapshot != null && bizSnapshot.getServeProviderId() != null
+                && bizSnapshot.getCityCode() != null && bizSnapshot.getServeStartTime() != null) {
+            OrdersServe ordersServe = new OrdersServe();
+            ordersServe.setServeProviderId(bizSnapshot.getServeProviderId());
+            ordersServe.setServeProviderType(bizSnapshot.getServeProviderType());
+            ordersServe.setCityCode(bizSnapshot.getCityCode());
+            ordersServe.setServeStartTime(bizSnapshot.getServeStartTime());
+            return ordersServe;
+        }
+        return ordersServeMapper.selectOne(new LambdaQueryWrapper<OrdersServe>()
+                .eq(OrdersServe::getId, ordersId)
+                .ge(OrdersServe::getServeProviderId, 0)
+                .select(OrdersServe::getServeProviderId, OrdersServe::getServeProviderType, OrdersServe::getCityCode, OrdersServe::getServeStartTime));
+    }
+
+    /**
+     * 行锁内调整接单数和服务时间，同一服务人员并发变更时串行执行
+     *
+     * @param ordersServe 服务单
+     * @param accept true：接单，false：释放
+     */
+    private void change(OrdersServe ordersServe, boolean accept) {
+        if (ordersServe == null || ordersServe.getServeProviderId() == null) {
+            log.warn("未找到订单对应的服务人员或机构，跳过接单数据增量更新");
+            return;
+        }
+        Long serveProviderId = ordersServe.getServeProviderId();
+        LocalDateTime serveStartTime = ordersServe.getServeStartTime();
+        ServeProviderSync serveProviderSync = serveProviderSyncMapper.selectOne(new LambdaQueryWrapper<ServeProviderSync>()
+                .eq(ServeProviderSync::getId, serveProviderId)
+                .last("for update"));
+        boolean exists = serveProviderSync != null;
+        if (!exists) {
+            serveProviderSync = new ServeProviderSync().setId(serveProviderId).setAcceptanceNum(0);
+        }
+        // 1.接单数
+        int acceptanceNum = NumberUtils.null2Zero(serveProviderSync.getAcceptanceNum()) + (accept ? 1 : -1);
+        serveProviderSync.setAcceptanceNum(Math.max(acceptanceNum, 0));
+
+        // 2.服务时间，机构不校验服务时间冲突
+        List<Integer> serveTimes = CollUtils.isEmpty(serveProviderSync.getServeTimes()) ? new ArrayList<>() : new ArrayList<>(serveProviderSync.getServeTimes());
+        boolean isWorker = ordersServe.getServeProviderType() != null && ordersServe.getServeProviderType() == UserType.WORKER;
+        if (isWorker && serveStartTime != null) {
+            Integer serveTime = ServeTimeUtils.getServeTimeInt(serveStartTime);
+            if (accept && !serveTimes.contains(serveTime)) {
+                serveTimes.add(serveTime);
+            } else if (!accept) {
+                serveTimes.remove(serveTime);
+            }
+        }
+        serveProviderSync.setServeTimes(serveTimes);
+
+        if (exists) {
+            serveProviderSyncMapper.updateById(serveProviderSync);
+        } else {
+            serveProviderSyncMapper.insert(serveProviderSync);
+        }
+
+        // 3.服务时间位图只改动当前服务时间对应的位
+        if (isWorker && serveStartTime != null) {
+            // 分片迁移期间先迁移原分片中的位图，避免迁移时旧位覆盖本次释放的服务时间
+            if (RedisUtils.isResharding()) {
+                redisReshardService.migrateServeProviders(ordersServe.getCityCode(), Collections.singletonList(serveProviderId));
+            }
+            String serveTimeBitmapRedisKey = String.format(SERVE_PROVIDER_TIME_BITMAP, serveProviderId, RedisUtils.getCityIndex(ordersServe.getCityCode()));
+            // 已过去或超出位图周期的服务时间不在位图中
+            if (ServeTimeUtils.isInServeTimeBitmap(serveStartTime)) {
+                redisTemplate.opsForValue().setBit(serveTimeBitmapRedisKey, ServeTimeUtils.getServeTimeOffset(serveStartTime), accept);
+                // 位图在最晚的服务时间结束后过期，已过去的服务时间不会在位图循环后产生冲突
+                LocalDateTime expireTime = ServeTimeUtils.getServeTimeBitmapExpireTime(serveTimes);
+                if (expireTime != null) {
+                    redisTemplate.expire(serveTimeBitmapRedisKey, Math.max(DateUtils.toEpochMilli(expireTime) - System.currentTimeMillis(), 1), TimeUnit.MILLISECONDS);
+                }
+            }
+        }
+        log.debug("服务人员或机构{}接单数据增量更新，接单数:{}", serveProviderId, serveProviderSync.getAcceptanceNum());
+    }
+
+    @Override
+    public void refreshServeTimeBitmap(Long id, String cityCode, List<Integer> serveTimes) {
+        String serveTimeBitmapRedisKey = String.format(SERVE_PROVIDER_TIME_BITMAP, id, RedisUtils.getCityIndex(cityCode));
+        // 分片迁移期间整体覆盖当前分片，原分片中的位图直接删除
+        if (RedisUtils.isResharding()) {
+            redisTemplate.delete(String.format(SERVE_PROVIDER_TIME_BITMAP, id, RedisUtils.getPreviousCityIndex(cityCode)));
+        }
+        // 没有未过去的服务时间时删除位图
+        LocalDateTime expireTime = CollUtils.isEmpty(serveTimes) ? null : ServeTimeUtils.getServeTimeBitmapExpireTime(serveTimes);
+        if (expireTime == null) {
+            redisTemplate.delete(serveTimeBitmapRedisKey);
+            return;
+        }
+        byte[] rawKey = redisTemplate.getKeySerializer().serialize(serveTimeBitmapRedisKey);
+        byte[] bitmap = ServeTimeUtils.toServeTimeBitmap(serveTimes);
+        long expireAt = DateUtils.toEpochMilli(expireTime);
+        redisTemplate.execute((RedisCallback<Object>) connection -> connection.set(rawKey, bitmap,
+                Expiration.milliseconds(Math.max(expireAt - System.currentTimeMillis(), 1)), RedisStringCommands.SetOption.UPSERT));
+    }
+}
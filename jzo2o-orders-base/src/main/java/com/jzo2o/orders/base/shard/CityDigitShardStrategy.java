@@ -0,0 +1,18 @@
+package com.jzo2o.orders.base.shard;
+
+import com.jzo2o.common.utils.NumberUtils;
+import org.springframework.stereotype.Component;
+
+/**
+ * 按城市编码数值取模分片，分片数量为10时即城市编码最后一位，与原有分片一致
+ */
+@Component(CityDigitShardStrategy.NAME)
+public class CityDigitShardStrategy implements RedisShardStrategy {
+
+    public static final String NAME = "cityDigit";
+
+    @Override
+    public int getIndex(String cityCode, int shardCount) {
+        return NumberUtils.parseInt(cityCode) % shardCount;
+    }
+}
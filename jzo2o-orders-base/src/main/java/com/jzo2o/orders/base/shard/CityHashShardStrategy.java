@@ -0,0 +1,23 @@
+package com.jzo2o.orders.base.shard;
+
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+/**
+ * 按城市编码crc32哈希取模分片
+ * 城市编码末位分布不均（大量以0结尾），哈希后各分片的城市数量更均衡，分片数量可任意配置
+ */
+@Component(CityHashShardStrategy.NAME)
+public class CityHashShardStrategy implements RedisShardStrategy {
+
+    public static final String NAME = "cityHash";
+
+    @Override
+    public int getIndex(String cityCode, int shardCount) {
+        CRC32 crc32 = new CRC32();
+        crc32.update(cityCode.getBytes(StandardCharsets.UTF_8));
+        return (int) (crc32.getValue() % shardCount);
+    }
+}
@@ -0,0 +1,44 @@
+package com.jzo2o.orders.base.shard;
+
+import com.jzo2o.orders.base.properties.RedisShardProperties;
+import com.jzo2o.orders.base.utils.RedisUtils;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.util.Map;
+
+/**
+ * 启动时校验分片配置并注册到RedisUtils
+ */
+@Component
+@Slf4j
+public class RedisShardInitializer {
+
+    @Resource
+    private RedisShardProperties redisShardProperties;
+
+    @Resource
+    private Map<String, RedisShardStrategy> redisShardStrategies;
+
+    @PostConstruct
+    public void init() {
+        if (!redisShardStrategies.containsKey(redisShardProperties.getStrategy())
+                || (redisShardProperties.getPreviousStrategy() != null && !redisShardStrategies.containsKey(redisShardProperties.getPreviousStrategy()))) {
+            throw new IllegalStateException("redis分片策略不存在，可用策略：" + redisShardStrategies.keySet());
+        }
+        if (redisShardProperties.getShardCount() == null || redisShardProperties.getShardCount() < 1) {
+            throw new IllegalStateException("redis分片数量必须大于0");
+        }
+        // 同步队列序号与分片序号一致，队列数量不足时超出的分片中的抢单结果不会被同步
+        int shardCount = Math.max(redisShardProperties.getShardCount(),
+                redisShardProperties.getPreviousShardCount() == null ? 0 : redisShardProperties.getPreviousShardCount());
+        if (redisShardProperties.getSyncQueueCount() == null || redisShardProperties.getSyncQueueCount() < shardCount) {
+            throw new IllegalStateException("抢单结果同步队列数量" + redisShardProperties.getSyncQueueCount() + "小于redis分片数量" + shardCount);
+        }
+        RedisUtils.init(redisShardProperties, redisShardStrategies);
+        log.info("redis分片策略：{}，分片数量：{}，迁移前分片策略：{}，迁移前分片数量：{}", redisShardProperties.getStrategy(),
+                redisShardProperties.getShardCount(), redisShardProperties.getPreviousStrategy(), redisShardProperties.getPreviousShardCount());
+    }
+}
@@ -0,0 +1,18 @@
+package com.jzo2o.orders.base.shard;
+
+/**
+ * redis分片策略
+ * 抢单、派单脚本在一次执行中同时访问订单维度（库存、抢单服务时间）和服务人员维度（服务状态、服务时间位图）的key，
+ * 两者唯一共同的属性是城市，因此按城市计算分片序号，分片序号作为key的hash tag，保证脚本访问的key位于同一slot。
+ */
+public interface RedisShardStrategy {
+
+    /**
+     * 计算城市所在分片序号
+     *
+     * @param cityCode 城市编码
+     * @param shardCount 分片数量
+     * @return 分片序号，范围[0, shardCount)
+     */
+    int getIndex(String cityCode, int shardCount);
+}
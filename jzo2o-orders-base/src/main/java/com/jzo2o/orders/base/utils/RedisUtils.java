@@ -1,16 +1,118 @@
 package com.jzo2o.orders.base.utils;
 
-import com.jzo2o.common.utils.NumberUtils;
+import com.jzo2o.orders.base.properties.RedisShardProperties;
+import com.jzo2o.orders.base.shard.CityDigitShardStrategy;
+import com.jzo2o.orders.base.shard.RedisShardStrategy;
+
+import java.util.Collections;
+import java.util.Map;
 
 public class RedisUtils {
 
     /**
-     * 获取城市编码最后以为数字
+     * 默认城市分片数量
+     */
+    public static final int CITY_INDEX_COUNT = 10;
+
+    /**
+     * 默认分片策略bean名称
+     */
+    private static final String DEFAULT_STRATEGY_NAME = "cityDigit";
+
+    private static final RedisShardStrategy DEFAULT_STRATEGY = new CityDigitShardStrategy();
+
+    /**
+     * 分片配置，随配置中心刷新，未初始化时使用默认分片
+     */
+    private static volatile RedisShardProperties redisShardProperties;
+
+    private static volatile Map<String, RedisShardStrategy> redisShardStrategies = Collections.emptyMap();
+
+    /**
+     * 初始化分片配置及可用的分片策略
+     *
+     * @param properties 分片配置
+     * @param strategies 分片策略，key为bean名称
+     */
+    public static void init(RedisShardProperties properties, Map<String, RedisShardStrategy> strategies) {
+        redisShardStrategies = strategies;
+        redisShardProperties = properties;
+    }
+
+    /**
+     * 获取城市所在分片序号
      *
-     * @param cityCode
-     * @return
+     * @param cityCode 城市编码
+     * @return 分片序号
      */
     public static int getCityIndex(String cityCode) {
-        return NumberUtils.parseInt(cityCode) % 10;
+        RedisShardProperties properties = redisShardProperties;
+        if (properties == null) {
+            return DEFAULT_STRATEGY.getIndex(cityCode, CITY_INDEX_COUNT);
+        }
+        return getStrategy(properties.getStrategy()).getIndex(cityCode, properties.getShardCount());
+    }
+
+    /**
+     * 获取分片数量
+     *
+     * @return 分片数量
+     */
+    public static int getCityIndexCount() {
+        RedisShardProperties properties = redisShardProperties;
+        return properties == null ? CITY_INDEX_COUNT : properties.getShardCount();
+    }
+
+    /**
+     * 是否正在迁移分片
+     *
+     * @return 配置了迁移前的分片数量时返回true
+     */
+    public static boolean isResharding() {
+        RedisShardProperties properties = redisShardProperties;
+        return properties != null && properties.getPreviousShardCount() != null;
+    }
+
+    /**
+     * 获取分片版本，抢单、派单脚本据此校验调用方的分片配置与redis中的分片版本一致
+     *
+     * @return 分片策略:分片数量
+     */
+    public static String getShardVersion() {
+        RedisShardProperties properties = redisShardProperties;
+        return properties == null ? DEFAULT_STRATEGY_NAME + ":" + CITY_INDEX_COUNT : properties.getStrategy() + ":" + properties.getShardCount();
+    }
+
+    /**
+     * 获取城市迁移前所在分片序号
+     *
+     * @param cityCode 城市编码
+     * @return 迁移前的分片序号，未在迁移时返回当前分片序号
+     */
+    public static int getPreviousCityIndex(String cityCode) {
+        RedisShardProperties properties = redisShardProperties;
+        if (properties == null || properties.getPreviousShardCount() == null) {
+            return getCityIndex(cityCode);
+        }
+        String strategy = properties.getPreviousStrategy() == null ? properties.getStrategy() : properties.getPreviousStrategy();
+        return getStrategy(strategy).getIndex(cityCode, properties.getPreviousShardCount());
+    }
+
+    /**
+     * 获取迁移前的分片数量
+     *
+     * @return 迁移前的分片数量，未在迁移时返回当前分片数量
+     */
+    public static int getPreviousCityIndexCount() {
+        RedisShardProperties properties = redisShardProperties;
+        return properties == null || properties.getPreviousShardCount() == null ? getCityIndexCount() : properties.getPreviousShardCount();
+    }
+
+    private static RedisShardStrategy getStrategy(String name) {
+        RedisShardStrategy strategy = redisShardStrategies.get(name);
+        if (strategy == null) {
+            throw new IllegalStateException("redis分片策略不存在：" + name);
+        }
+        return strategy;
     }
 }
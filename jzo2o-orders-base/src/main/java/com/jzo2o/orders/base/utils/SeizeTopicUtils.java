@@ -0,0 +1,61 @@
+package com.jzo2o.orders.base.utils;
+
+import com.jzo2o.common.utils.CollUtils;
+import com.jzo2o.common.utils.JsonUtils;
+import org.redisson.api.RTopic;
+import org.redisson.api.RedissonClient;
+import org.redisson.client.codec.StringCodec;
+
+import java.util.List;
+
+import static com.jzo2o.orders.base.constants.RedisConstants.RedisKey.ORDERS_SEIZE_AVAILABLE_TOPIC;
+import static com.jzo2o.orders.base.constants.RedisConstants.RedisKey.ORDERS_SEIZE_SOLD_OUT_TOPIC;
+
+/**
+ * 抢单售罄主题，抢单节点订阅，抢单及派单节点发布，消息内容为抢单id的json数组
+ */
+public class SeizeTopicUtils {
+
+    /**
+     * 获取抢单售罄主题
+     *
+     * @param redissonClient redisson客户端
+     * @return 主题
+     */
+    public static RTopic getSoldOutTopic(RedissonClient redissonClient) {
+        return redissonClient.getTopic(ORDERS_SEIZE_SOLD_OUT_TOPIC, StringCodec.INSTANCE);
+    }
+
+    /**
+     * 获取抢单库存写入主题
+     *
+     * @param redissonClient redisson客户端
+     * @return 主题
+     */
+    public static RTopic getAvailableTopic(RedissonClient redissonClient) {
+        return redissonClient.getTopic(ORDERS_SEIZE_AVAILABLE_TOPIC, StringCodec.INSTANCE);
+    }
+
+    /**
+     * 抢单库存写入或恢复，通知所有抢单节点清除售罄记录
+     *
+     * @param redissonClient redisson客户端
+     * @param ids 抢单id
+     */
+    public static void publishAvailable(RedissonClient redissonClient, List<Long> ids) {
+        if (CollUtils.isEmpty(ids)) {
+            return;
+        }
+        getAvailableTopic(redissonClient).publish(JsonUtils.toJsonStr(ids));
+    }
+
+    /**
+     * 解析主题消息中的抢单id
+     *
+     * @param msg 主题消息
+     * @return 抢单id
+     */
+    public static List<Long> parseIds(String msg) {
+        return JsonUtils.parseArray(msg).toList(Long.class);
+    }
+}
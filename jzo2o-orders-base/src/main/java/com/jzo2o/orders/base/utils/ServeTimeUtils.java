@@ -4,9 +4,22 @@ import com.jzo2o.common.utils.DateUtils;
 import com.jzo2o.common.utils.NumberUtils;
 
 import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.Collection;
 
 public class ServeTimeUtils {
 
+    /**
+     * 服务时间位图周期，单位：小时，按366天循环使用
+     * 已过去的服务时间不写入位图，位图在最晚的服务时间结束后过期，循环使用时不会与历史服务时间冲突
+     */
+    public static final int SERVE_TIME_BITMAP_HOURS = 366 * 24;
+
+    /**
+     * 服务时间位图起始时间
+     */
+    private static final LocalDateTime SERVE_TIME_BITMAP_BASE = LocalDateTime.of(2023, 1, 1, 0, 0);
+
     /**
      * 获取服务时间，用来处理抢单和派单的时间冲突问题
      *
@@ -17,6 +30,84 @@ public class ServeTimeUtils {
         return NumberUtils.parseInt(DateUtils.format(serveStartTime, "yyyyMMddHH"));
     }
 
+    /**
+     * 获取服务时间在服务时间位图中的偏移量，每小时一位
+     *
+     * @param serveStartTime 服务开始时间
+     * @return 偏移量
+     */
+    public static int getServeTimeOffset(LocalDateTime serveStartTime) {
+        long hours = ChronoUnit.HOURS.between(SERVE_TIME_BITMAP_BASE, serveStartTime.truncatedTo(ChronoUnit.HOURS));
+        return (int) Math.floorMod(hours, (long) SERVE_TIME_BITMAP_HOURS);
+    }
+
+    /**
+     * 获取服务时间在服务时间位图中的偏移量
+     *
+     * @param serveTime 服务时间，格式yyyyMMddHH
+     * @return 偏移量
+     */
+    public static int getServeTimeOffset(int serveTime) {
+        return getServeTimeOffset(toServeStartTime(serveTime));
+    }
+
+    /**
+     * 服务时间是否在服务时间位图当前周期内，即从当前小时开始的366天
+     * 已过去的服务时间不再产生冲突，超出周期的服务时间与周期内的偏移量重复，均不写入位图
+     *
+     * @param serveStartTime 服务开始时间
+     * @return 在当前周期内返回true
+     */
+    public static boolean isInServeTimeBitmap(LocalDateTime serveStartTime) {
+        LocalDateTime currentHour = LocalDateTime.now().truncatedTo(ChronoUnit.HOURS);
+        LocalDateTime serveHour = serveStartTime.truncatedTo(ChronoUnit.HOURS);
+        return !serveHour.isBefore(currentHour) && serveHour.isBefore(currentHour.plusHours(SERVE_TIME_BITMAP_HOURS));
+    }
+
+    /**
+     * 将服务时间列表转换为redis位图，位顺序与SETBIT/GETBIT一致，仅包含当前周期内的服务时间
+     *
+     * @param serveTimes 服务时间列表，格式yyyyMMddHH
+     * @return 位图
+     */
+    public static byte[] toServeTimeBitmap(Collection<Integer> serveTimes) {
+        byte[] bitmap = new byte[SERVE_TIME_BITMAP_HOURS / 8];
+        for (Integer serveTime : serveTimes) {
+            LocalDateTime serveStartTime = toServeStartTime(serveTime);
+            if (!isInServeTimeBitmap(serveStartTime)) {
+                continue;
+            }
+            int offset = getServeTimeOffset(serveStartTime);
+            bitmap[offset >> 3] |= (byte) (0x80 >>> (offset & 7));
+        }
+        return bitmap;
+    }
+
+    /**
+     * 获取服务时间位图的过期时间，即当前周期内最晚的服务时间结束时
+     *
+     * @param serveTimes 服务时间列表，格式yyyyMMddHH
+     * @return 过期时间，没有当前周期内的服务时间返回null
+     */
+    public static LocalDateTime getServeTimeBitmapExpireTime(Collection<Integer> serveTimes) {
+        return serveTimes.stream()
+                .map(ServeTimeUtils::toServeStartTime)
+                .filter(ServeTimeUtils::isInServeTimeBitmap)
+                .max(LocalDateTime::compareTo)
+                .map(serveStartTime -> serveStartTime.truncatedTo(ChronoUnit.HOURS).plusHours(1))
+                .orElse(null);
+    }
+
+    /**
+     * 服务时间转换为服务开始时间
+     *
+     * @param serveTime 服务时间，格式yyyyMMddHH
+     * @return 服务开始时间
+     */
+    private static LocalDateTime toServeStartTime(int serveTime) {
+        return LocalDateTime.of(serveTime / 1000000, serveTime / 10000 % 100, serveTime / 100 % 100, serveTime % 100, 0);
+    }
+
     public static void main(String[] args) {
         long number = 2023082400000000001L;
         System.out.println(number % 10000000000L % 150000);
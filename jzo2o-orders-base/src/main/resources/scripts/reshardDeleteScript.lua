@@ -0,0 +1,26 @@
+-- 分片迁移从原分片删除已写入当前分片的数据，读取后值已变化的保留在原分片，下次迁移时重新迁移
+-- key: 原分片
+-- argv：数据结构（hash，zset，string），hash、zset为字段或成员与读取到的值依次排列，string为读取到的值
+-- 返回删除的数量
+if ARGV[1] == "string"
+then
+    if redis.call("GET", KEYS[1]) == ARGV[2]
+    then
+        return redis.call("DEL", KEYS[1])
+    end
+    return 0
+end
+local deleted = 0
+for i = 2, #ARGV, 2 do
+    if ARGV[1] == "hash"
+    then
+        if redis.call("HGET", KEYS[1], ARGV[i]) == ARGV[i + 1]
+        then
+            deleted = deleted + redis.call("HDEL", KEYS[1], ARGV[i])
+        end
+    elseif redis.call("ZSCORE", KEYS[1], ARGV[i]) == ARGV[i + 1]
+    then
+        deleted = deleted + redis.call("ZREM", KEYS[1], ARGV[i])
+    end
+end
+return deleted
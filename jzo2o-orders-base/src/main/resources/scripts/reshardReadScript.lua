@@ -0,0 +1,14 @@
+-- 分片迁移读取原分片中的数据
+-- key: 原分片
+-- argv：数据结构（hash，zset），字段或成员
+-- 返回与字段或成员顺序一致的值，hash为字段值，zset为分数，不存在时为空
+local values = {}
+for i = 2, #ARGV do
+    if ARGV[1] == "hash"
+    then
+        values[i - 1] = redis.call("HGET", KEYS[1], ARGV[i])
+    else
+        values[i - 1] = redis.call("ZSCORE", KEYS[1], ARGV[i])
+    end
+end
+return values
@@ -0,0 +1,14 @@
+-- 分片迁移写入当前分片，当前分片已存在的字段或成员以当前分片为准
+-- key: 当前分片
+-- argv：数据结构（hash，zset），字段或成员与值依次排列
+-- 返回写入的数量
+local written = 0
+for i = 2, #ARGV, 2 do
+    if ARGV[1] == "hash"
+    then
+        written = written + redis.call("HSETNX", KEYS[1], ARGV[i], ARGV[i + 1])
+    else
+        written = written + redis.call("ZADD", KEYS[1], "NX", ARGV[i + 1], ARGV[i])
+    end
+end
+return written
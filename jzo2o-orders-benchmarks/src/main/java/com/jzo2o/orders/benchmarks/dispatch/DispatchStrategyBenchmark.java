@@ -0,0 +1,103 @@
+package com.jzo2o.orders.benchmarks.dispatch;
+
+import com.jzo2o.common.constants.UserType;
+import com.jzo2o.orders.dispatch.enums.DispatchStrategyEnum;
+import com.jzo2o.orders.dispatch.model.dto.ServeProviderDTO;
+import com.jzo2o.orders.dispatch.strategys.IDispatchStrategy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 派单策略基准测试
+ * 每种派单策略（strategys/impl）对不同数量的候选服务人员或机构选出派单对象，输出ops/s，
+ * 配合gc分析器输出每次操作的内存分配量（gc.alloc.rate.norm）及分配速率（gc.alloc.rate）。
+ * 运行方式：mvn -pl jzo2o-orders-benchmarks -am package 后执行 java -jar jzo2o-orders-benchmarks/target/benchmarks.jar -prof gc，
+ * 或直接运行main方法。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DispatchStrategyBenchmark {
+
+    /**
+     * 派单策略
+     */
+    @Param({"DISTANCE", "EVELUATION_SCORE", "LEAST_ACCEPT_ORDER"})
+    private DispatchStrategyEnum dispatchStrategyEnum;
+
+    /**
+     * 候选服务人员或机构数量
+     */
+    @Param({"10", "100", "1000", "10000"})
+    private int size;
+
+    /**
+     * 接单数、评分、距离的取值范围，取值越少并列越多，规则链需要执行的层级越深
+     */
+    @Param({"10"})
+    private int valueRange;
+
+    private IDispatchStrategy dispatchStrategy;
+
+    private List<ServeProviderDTO> serveProviders;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        dispatchStrategy = dispatchStrategyEnum.getDispatchStrategy();
+        serveProviders = generate(size, valueRange, 20230816L);
+    }
+
+    @Benchmark
+    public ServeProviderDTO getPrecedenceServeProvider() {
+        return dispatchStrategy.getPrecedenceServeProvider(serveProviders);
+    }
+
+    /**
+     * 生成固定种子的候选服务人员或机构，保证每次运行数据一致
+     */
+    static List<ServeProviderDTO> generate(int size, int valueRange, long seed) {
+        Random random = new Random(seed);
+        List<ServeProviderDTO> serveProviders = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            serveProviders.add(ServeProviderDTO.builder()
+                    .id((long) i)
+                    .serveProviderType(random.nextBoolean() ? UserType.WORKER : UserType.INSTITUTION)
+                    .acceptanceNum(random.nextInt(valueRange))
+                    .evaluationScore(100 - random.nextInt(valueRange))
+                    .acceptanceDistance(random.nextInt(valueRange))
+                    .build());
+        }
+        return serveProviders;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(DispatchStrategyBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
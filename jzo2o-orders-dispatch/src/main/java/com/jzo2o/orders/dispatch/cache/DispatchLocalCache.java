@@ -0,0 +1,43 @@
+package com.jzo2o.orders.dispatch.cache;
+
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.TimedCache;
+import com.jzo2o.api.customer.ServeProviderApi;
+import com.jzo2o.api.customer.dto.response.ServeProviderResDTO;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+
+/**
+ * 派单本地缓存
+ * 缓存派单脚本执行前校验使用的服务人员/机构详情，有效期与抢单本地缓存一致，避免每次派单都发起远程调用
+ */
+@Component
+public class DispatchLocalCache {
+
+    /**
+     * 服务人员/机构详情有效期，单位：毫秒
+     * 接单开关等设置变更后最多延迟该时间生效
+     */
+    private static final long SERVE_PROVIDER_DETAIL_TTL = 10 * 1000L;
+
+    @Resource
+    private ServeProviderApi serveProviderApi;
+
+    private final TimedCache<Long, ServeProviderResDTO> serveProviderDetailCache = CacheUtil.newTimedCache(SERVE_PROVIDER_DETAIL_TTL);
+
+    public DispatchLocalCache() {
+        // 定时清理过期数据
+        serveProviderDetailCache.schedulePrune(SERVE_PROVIDER_DETAIL_TTL);
+    }
+
+    /**
+     * 获取服务人员/机构详情
+     *
+     * @param serveProviderId 服务人员或机构id
+     * @return 服务人员/机构详情
+     */
+    public ServeProviderResDTO getServeProviderDetail(Long serveProviderId) {
+        return serveProviderDetailCache.get(serveProviderId, false, () -> serveProviderApi.getDetail(serveProviderId));
+    }
+}
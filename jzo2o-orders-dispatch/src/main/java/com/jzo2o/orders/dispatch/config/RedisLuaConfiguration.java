@@ -20,4 +20,22 @@ public class RedisLuaConfiguration {
         redisScript.setResultType(String.class);
         return redisScript;
     }
+
+    @Bean("renewShardOwnerScript")
+    public DefaultRedisScript<Long> renewShardOwnerScript() {
+        DefaultRedisScript<Long> redisScript = new DefaultRedisScript<>();
+        //resource目录下的scripts文件下的renewShardOwnerScript.lua文件
+        redisScript.setScriptSource(new ResourceScriptSource(new ClassPathResource("scripts/renewShardOwnerScript.lua")));
+        redisScript.setResultType(Long.class);
+        return redisScript;
+    }
+
+    @Bean("receiveTimeoutScript")
+    public DefaultRedisScript<Long> receiveTimeoutScript() {
+        DefaultRedisScript<Long> redisScript = new DefaultRedisScript<>();
+        //resource目录下的scripts文件下的receiveTimeoutScript.lua文件
+        redisScript.setScriptSource(new ResourceScriptSource(new ClassPathResource("scripts/receiveTimeoutScript.lua")));
+        redisScript.setResultType(Long.class);
+        return redisScript;
+    }
 }
@@ -4,6 +4,7 @@ import com.jzo2o.orders.dispatch.strategys.IDispatchStrategy;
 import com.jzo2o.orders.dispatch.strategys.impl.DistanceDispatchStrategyImpl;
 import com.jzo2o.orders.dispatch.strategys.impl.EvaluationScoreDispatchStrategyImpl;
 import com.jzo2o.orders.dispatch.strategys.impl.LeastAcceptOrderDispatchStrategyImpl;
+import com.jzo2o.orders.dispatch.strategys.impl.WeightedScoreDispatchStrategyImpl;
 import lombok.AllArgsConstructor;
 import lombok.Getter;
 
@@ -25,7 +26,11 @@ public enum DispatchStrategyEnum {
     /**
      * 最少接单策略
      */
-    LEAST_ACCEPT_ORDER(3, new LeastAcceptOrderDispatchStrategyImpl());
+    LEAST_ACCEPT_ORDER(3, new LeastAcceptOrderDispatchStrategyImpl()),
+    /**
+     * 综合评分策略
+     */
+    WEIGHTED_SCORE(4, new WeightedScoreDispatchStrategyImpl());
 
     private int type;
     private IDispatchStrategy dispatchStrategy;
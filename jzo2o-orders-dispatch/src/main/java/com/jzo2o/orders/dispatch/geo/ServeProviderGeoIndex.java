@@ -0,0 +1,290 @@
+package com.jzo2o.orders.dispatch.geo;
+
+import co.elastic.clients.elasticsearch._types.SortOrder;
+import co.elastic.clients.elasticsearch.core.SearchRequest;
+import co.elastic.clients.elasticsearch.core.SearchResponse;
+import co.elastic.clients.elasticsearch.core.search.Hit;
+import com.jzo2o.common.utils.CollUtils;
+import com.jzo2o.common.utils.JsonUtils;
+import com.jzo2o.common.utils.LambdaUtils;
+import com.jzo2o.common.utils.NumberUtils;
+import com.jzo2o.es.core.ElasticSearchTemplate;
+import com.jzo2o.es.utils.SearchResponseUtils;
+import com.jzo2o.orders.base.geo.AbstractCityGeoIndex;
+import com.jzo2o.orders.base.geo.GeoGridIndex;
+import com.jzo2o.orders.base.model.domain.ServeProviderInfo;
+import com.jzo2o.orders.base.model.domain.ServeProviderSync;
+import com.jzo2o.orders.base.properties.DispatchProperties;
+import com.jzo2o.orders.dispatch.enums.DispatchStrategyEnum;
+import com.jzo2o.orders.dispatch.model.dto.ServeProviderDTO;
+import com.jzo2o.orders.dispatch.strategys.WeightedScoreFunction;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RTopic;
+import org.redisson.api.RedissonClient;
+import org.redisson.client.codec.StringCodec;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+import static com.jzo2o.orders.base.constants.EsIndexConstants.SERVER_PROVIDER_INFO;
+import static com.jzo2o.orders.base.constants.RedisConstants.RedisKey.SERVE_PROVIDER_STATE_TOPIC;
+
+/**
+ * 服务人员或机构内存网格索引
+ * 位置、技能、接单设置等资料从es全量加载并定时刷新；服务时间及接单数量由服务状态同步通过主题广播到所有派单节点，
+ * 以最新状态覆盖索引中的数据，派单查询不再依赖es的刷新延迟。
+ */
+@Component
+@Slf4j
+public class ServeProviderGeoIndex extends AbstractCityGeoIndex<ServeProviderInfo> {
+
+    /**
+     * es刷新间隔，单位：毫秒，写入es后超过该时间才能查询到
+     */
+    private static final long ES_REFRESH_INTERVAL = 5000;
+
+    @Resource
+    private ElasticSearchTemplate elasticSearchTemplate;
+
+    @Resource
+    private RedissonClient redissonClient;
+
+    @Resource
+    private DispatchProperties dispatchProperties;
+
+    @Resource
+    private WeightedScoreFunction weightedScoreFunction;
+
+    /**
+     * 服务人员或机构最新的服务时间及接单数量，城市索引重新加载后清理
+     */
+    private final Map<Long, ServeProviderState> serveProviderStates = new ConcurrentHashMap<>();
+
+    private int listenerId;
+
+    public ServeProviderGeoIndex() {
+        super("serve-provider-geo-index");
+    }
+
+    @PostConstruct
+    public void start() {
+        listenerId = getTopic().addListener(String.class, (channel, msg) ->
+                JsonUtils.parseArray(msg).toList(ServeProviderSync.class)
+                        .forEach(serveProviderSync -> serveProviderStates.put(serveProviderSync.getId(),
+                                new ServeProviderState(serveProviderSync, System.currentTimeMillis()))));
+    }
+
+    @PreDestroy
+    public void stop() {
+        getTopic().removeListener(listenerId);
+    }
+
+    /**
+     * 广播服务人员或机构的服务时间及接单数量
+     *
+     * @param serveProviderSyncs 服务状态
+     */
+    public void publishStates(List<ServeProviderSync> serveProviderSyncs) {
+        if (CollUtils.isEmpty(serveProviderSyncs) || !isEnabled()) {
+            return;
+        }
+        getTopic().publish(JsonUtils.toJsonStr(serveProviderSyncs));
+    }
+
+    /**
+     * 查询派单服务人员或机构，匹配条件及排序与es查询一致
+     *
+     * @param cityCode 城市编码
+     * @param serveItemId 服务项id
+     * @param maxDistance 派单最大限制距离
+     * @param serveTime 服务时间格式yyyyMMddHH 数字格式
+     * @param dispatchStrategyEnum 派单策略
+     * @param lon 经度
+     * @param lat 纬度
+     * @param size 查询数量
+     * @return 服务人员或机构列表，城市索引不可用时返回null
+     */
+    public List<ServeProviderDTO> search(String cityCode, long serveItemId, double maxDistance, int serveTime,
+                                         DispatchStrategyEnum dispatchStrategyEnum, Double lon, Double lat, int size) {
+        GeoGridIndex<ServeProviderInfo> index = get(cityCode);
+        if (index == null || lon == null || lat == null) {
+            return null;
+        }
+        Predicate<ServeProviderInfo> filter = serveProviderInfo -> {
+            // 开启接单、完成认证、状态正常
+            if (!Objects.equals(serveProviderInfo.getPickUp(), 1) || !Objects.equals(serveProviderInfo.getSettingStatus(), 1)
+                    || !Objects.equals(serveProviderInfo.getStatus(), 0)) {
+                return false;
+            }
+            // 服务项匹配
+            if (serveProviderInfo.getServeItemIds() == null || !serveProviderInfo.getServeItemIds().contains(serveItemId)) {
+                return false;
+            }
+            // 服务时间不冲突
+            List<Integer> serveTimes = getServeTimes(serveProviderInfo);
+            return serveTimes == null || !serveTimes.contains(serveTime);
+        };
+
+        // 1.距离优先取最近的k个，其他策略取范围内全部后排序
+        List<GeoGridIndex.Hit<ServeProviderInfo>> hits;
+        Map<Long, Double> scores = new HashMap<>();
+        if (DispatchStrategyEnum.DISTANCE.equals(dispatchStrategyEnum)) {
+            hits = index.nearest(lon, lat, size, maxDistance, filter);
+        } else if (DispatchStrategyEnum.WEIGHTED_SCORE.equals(dispatchStrategyEnum)) {
+            // 综合评分优先，按与es一致的公式计算综合评分后倒序
+            hits = index.radius(lon, lat, maxDistance, filter);
+            hits.forEach(hit -> scores.put(hit.getValue().getId(), weightedScore(cityCode, hit.getDistance(),
+                    hit.getValue().getEvaluationScore(), getAcceptanceNum(hit.getValue()))));
+            hits.sort(Comparator.comparingDouble((GeoGridIndex.Hit<ServeProviderInfo> hit) -> scores.get(hit.getValue().getId())).reversed());
+        } else {
+            hits = index.radius(lon, lat, maxDistance, filter);
+            hits.sort(getComparator(dispatchStrategyEnum));
+        }
+
+        // 2.转换为派单服务人员或机构
+        return hits.stream()
+                .limit(size)
+                .map(hit -> {
+                    ServeProviderInfo serveProviderInfo = hit.getValue();
+                    ServeProviderDTO serveProviderDTO = ServeProviderDTO.builder()
+                            .id(serveProviderInfo.getId())
+                            .serveProviderType(serveProviderInfo.getServeProviderType())
+                            .evaluationScore(serveProviderInfo.getEvaluationScore() == null ? null : serveProviderInfo.getEvaluationScore().intValue())
+                            .acceptanceNum(getAcceptanceNum(serveProviderInfo))
+                            .build();
+                    // 距离优先，设置服务人员到服务地点距离，接单数为空默认为0
+                    if (DispatchStrategyEnum.DISTANCE.equals(dispatchStrategyEnum)) {
+                        serveProviderDTO.setAcceptanceDistance((int) hit.getDistance());
+                        serveProviderDTO.setAcceptanceNum(NumberUtils.null2Zero(serveProviderDTO.getAcceptanceNum()));
+                    }
+                    // 综合评分优先，设置综合评分，接单数为空默认为0
+                    if (DispatchStrategyEnum.WEIGHTED_SCORE.equals(dispatchStrategyEnum)) {
+                        serveProviderDTO.setScore(scores.get(serveProviderInfo.getId()));
+                        serveProviderDTO.setAcceptanceNum(NumberUtils.null2Zero(serveProviderDTO.getAcceptanceNum()));
+                    }
+                    return serveProviderDTO;
+                })
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * 评分优先按评分倒序，不存在按5分；最少接单优先按接单数正序，不存在按0
+     */
+    private Comparator<GeoGridIndex.Hit<ServeProviderInfo>> getComparator(DispatchStrategyEnum dispatchStrategyEnum) {
+        if (DispatchStrategyEnum.EVELUATION_SCORE.equals(dispatchStrategyEnum)) {
+            return Comparator.comparingDouble((GeoGridIndex.Hit<ServeProviderInfo> hit) -> {
+                Double evaluationScore = hit.getValue().getEvaluationScore();
+                return evaluationScore == null ? 5 : evaluationScore;
+            }).reversed();
+        }
+        return Comparator.comparingInt(hit -> NumberUtils.null2Zero(getAcceptanceNum(hit.getValue())));
+    }
+
+    /**
+     * 综合评分，与es查询使用同一公式及城市权重，派单仿真按仿真参数中的权重计算
+     *
+     * @param cityCode 城市编码
+     * @param distance 服务人员或机构到服务地点的距离，单位：km
+     * @param evaluationScore 评分
+     * @param acceptanceNum 接单数量
+     * @return 综合评分
+     */
+    protected double weightedScore(String cityCode, double distance, Double evaluationScore, Integer acceptanceNum) {
+        return weightedScoreFunction.score(cityCode, distance, evaluationScore, acceptanceNum);
+    }
+
+    private List<Integer> getServeTimes(ServeProviderInfo serveProviderInfo) {
+        ServeProviderState state = serveProviderStates.get(serveProviderInfo.getId());
+        return state == null ? serveProviderInfo.getServeTimes() : state.serveProviderSync.getServeTimes();
+    }
+
+    private Integer getAcceptanceNum(ServeProviderInfo serveProviderInfo) {
+        ServeProviderState state = serveProviderStates.get(serveProviderInfo.getId());
+        return state == null ? serveProviderInfo.getAcceptanceNum() : state.serveProviderSync.getAcceptanceNum();
+    }
+
+    @Override
+    protected List<ServeProviderInfo> loadPage(String cityCode, Long lastId, int size) {
+        SearchRequest.Builder builder = new SearchRequest.Builder();
+        builder.index(SERVER_PROVIDER_INFO);
+        builder.query(query -> query.term(term -> term.field(LambdaUtils.getUnderLineFieldName(ServeProviderInfo::getCityCode)).value(cityCode)));
+        builder.sort(sort -> sort.field(field -> field.field(LambdaUtils.getFieldName(ServeProviderInfo::getId)).order(SortOrder.Asc)));
+        builder.size(size);
+        if (lastId != null) {
+            builder.searchAfter(lastId.toString());
+        }
+        SearchResponse<ServeProviderInfo> searchResponse = elasticSearchTemplate.opsForDoc().search(builder.build(), ServeProviderInfo.class);
+        if (SearchResponseUtils.isNotSuccess(searchResponse)) {
+            throw new IllegalStateException("城市" + cityCode + "服务人员或机构查询失败");
+        }
+        return searchResponse.hits().hits().stream().map(Hit::source).collect(Collectors.toList());
+    }
+
+    /**
+     * 清理已包含在新索引中的服务状态，es在服务状态广播前已更新，加载开始前一个es刷新间隔之前收到的服务状态均已包含；
+     * 超过一个全量刷新间隔未更新的服务状态，所在城市已重新加载或未加载，同样清理
+     */
+    @Override
+    protected void onLoaded(String cityCode, List<ServeProviderInfo> values, long loadStartTime) {
+        long includedTime = loadStartTime - ES_REFRESH_INTERVAL;
+        values.forEach(value -> serveProviderStates.computeIfPresent(value.getId(),
+                (id, state) -> state.receiveTime < includedTime ? null : state));
+        long expiredTime = loadStartTime - TimeUnit.SECONDS.toMillis(getRefreshInterval());
+        serveProviderStates.values().removeIf(state -> state.receiveTime < expiredTime);
+    }
+
+    @Override
+    protected Long getId(ServeProviderInfo value) {
+        return value.getId();
+    }
+
+    @Override
+    protected Double getLon(ServeProviderInfo value) {
+        return value.getLocation() == null ? null : value.getLocation().getLon();
+    }
+
+    @Override
+    protected Double getLat(ServeProviderInfo value) {
+        return value.getLocation() == null ? null : value.getLocation().getLat();
+    }
+
+    @Override
+    protected boolean isEnabled() {
+        return Boolean.TRUE.equals(dispatchProperties.getGeoIndexEnabled());
+    }
+
+    @Override
+    protected long getRefreshInterval() {
+        return dispatchProperties.getGeoIndexRefreshInterval();
+    }
+
+    private RTopic getTopic() {
+        return redissonClient.getTopic(SERVE_PROVIDER_STATE_TOPIC, StringCodec.INSTANCE);
+    }
+
+    /**
+     * 收到的服务状态及接收时间
+     */
+    private static class ServeProviderState {
+
+        private final ServeProviderSync serveProviderSync;
+
+        private final long receiveTime;
+
+        private ServeProviderState(ServeProviderSync serveProviderSync, long receiveTime) {
+            this.serveProviderSync = serveProviderSync;
+            this.receiveTime = receiveTime;
+        }
+    }
+}
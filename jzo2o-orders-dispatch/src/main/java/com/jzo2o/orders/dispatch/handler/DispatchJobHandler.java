@@ -3,22 +3,23 @@ package com.jzo2o.orders.dispatch.handler;
 import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
 import com.jzo2o.common.utils.CollUtils;
 import com.jzo2o.common.utils.DateUtils;
-import com.jzo2o.orders.base.constants.RedisConstants;
+import com.jzo2o.common.utils.NumberUtils;
 import com.jzo2o.orders.base.mapper.OrdersDispatchMapper;
 import com.jzo2o.orders.base.model.domain.OrdersDispatch;
-import com.jzo2o.orders.dispatch.service.IOrdersDispatchService;
-import com.jzo2o.redis.annotations.Lock;
+import com.jzo2o.orders.base.utils.RedisUtils;
+import com.jzo2o.orders.dispatch.scheduler.DispatchRoundScheduler;
 import com.xxl.job.core.handler.annotation.XxlJob;
-import io.seata.spring.annotation.GlobalTransactional;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.util.List;
 import java.util.Set;
-import java.util.concurrent.Executor;
+import java.util.stream.Collectors;
 
-import static com.jzo2o.orders.base.constants.RedisConstants.RedisKey.DISPATCH_LIST;
+import static com.jzo2o.orders.base.constants.RedisConstants.RedisKey.ORDERS_DISPATCH_EXPIRE;
 
 /**
  * 派单分发xxl-job定时任务
@@ -29,61 +30,68 @@ public class DispatchJobHandler {
 
 
     @Resource
-    private RedisTemplate redisTemplate;
-
-    @Resource(name = "dispatchExecutor")
-    private Executor dispatchExecutor;
-
-
-//    @Resource
-//    private DispatchDistributeServiceImpl owner;
+    private DispatchRoundScheduler dispatchRoundScheduler;
 
     @Resource
-    private IOrdersDispatchService ordersDispatchService;
+    private OrdersDispatchMapper ordersDispatchMapper;
 
     @Resource
-    private OrdersDispatchMapper ordersDispatchMapper;
+    private RedisTemplate redisTemplate;
+
     /**
      * 派单分发任务
+     * 派单轮次由DispatchRoundScheduler按到期时间触发，这里仅从派单列表补偿加载本节点负责分片的派单轮次
      */
     @XxlJob("dispatch")
     public void dispatchDistributeJob(){
-        while (true) {
-            Set<Long> ordersDispatchIds = redisTemplate.opsForZSet().rangeByScore(DISPATCH_LIST, 0, DateUtils.getCurrentTime(), 0, 100);
-            log.info("ordersDispatchIds:{}", ordersDispatchIds);
-            if (CollUtils.isEmpty(ordersDispatchIds)) {
-                log.debug("当前没有可以派单数据");
-                return;
-            }
-
-            for (Long ordersDispatchId : ordersDispatchIds) {
-                dispatch(ordersDispatchId);
-            }
-            try {
-                Thread.sleep(1000);
-            } catch (InterruptedException e) {
-                throw new RuntimeException(e);
-            }
-        }
+        dispatchRoundScheduler.loadDueRounds();
     }
 
-    //由于一个订单3分钟处理一次，所以加锁控制3分钟内只加入线程池一次
-    @Lock(formatter = RedisConstants.RedisFormatter.JSONDISPATCHLIST,time = 180)
-    public void dispatch(Long id) {
-        dispatchExecutor.execute(() -> {
-            ordersDispatchService.dispatch(id);
-        });
-    }
 
+    /**
+     * 到期清理每批数量
+     */
+    private static final int EXPIRE_CHUNK_SIZE = 200;
 
     /**
      * 到达服务预约时间删除派单池信息
+     * 按分片从到期索引中分批取出到期的派单删除，只处理到期的派单；未进入到期索引的历史数据每次执行补偿清理一批
      */
     @XxlJob("arriveServeStartTimeStopDispatchJob")
     public void arriveServeStartTimeStopDispatchJob() {
-        LambdaQueryWrapper<OrdersDispatch> lambdaQueryWrapper = new LambdaQueryWrapper<>();
-        lambdaQueryWrapper.le(OrdersDispatch::getServeStartTime, DateUtils.now());
-        ordersDispatchMapper.delete(lambdaQueryWrapper);
+        LocalDateTime now = DateUtils.now();
+        long nowMilli = DateUtils.toEpochMilli(now);
+        // 1.按分片分批清理到期的派单
+        // 分片迁移期间原分片中尚未迁移的到期数据一并清理
+        int indexCount = Math.max(RedisUtils.getCityIndexCount(), RedisUtils.getPreviousCityIndexCount());
+        for (int index = 0; index < indexCount; index++) {
+            String expireRedisKey = String.format(ORDERS_DISPATCH_EXPIRE, index);
+            while (true) {
+                Set<Object> dueIds = redisTemplate.opsForZSet().rangeByScore(expireRedisKey, 0, nowMilli, 0, EXPIRE_CHUNK_SIZE);
+                if (CollUtils.isEmpty(dueIds)) {
+                    break;
+                }
+                List<Long> ids = dueIds.stream().map(id -> NumberUtils.parseLong(id.toString())).collect(Collectors.toList());
+                // 服务开始时间已调整到未来的派单不删除，同步时会重新写入到期索引
+                ordersDispatchMapper.delete(new LambdaQueryWrapper<OrdersDispatch>()
+                        .in(OrdersDispatch::getId, ids)
+                        .le(OrdersDispatch::getServeStartTime, now));
+                // 删除完成后再移出到期索引，删除失败时下次执行重试
+                redisTemplate.opsForZSet().remove(expireRedisKey, dueIds.toArray());
+            }
+        }
+
+        // 2.补偿清理未进入到期索引的派单
+        List<Long> ids = ordersDispatchMapper.selectList(new LambdaQueryWrapper<OrdersDispatch>()
+                        .select(OrdersDispatch::getId)
+                        .le(OrdersDispatch::getServeStartTime, now)
+                        .last("limit " + EXPIRE_CHUNK_SIZE))
+                .stream()
+                .map(OrdersDispatch::getId)
+                .collect(Collectors.toList());
+        if (CollUtils.isNotEmpty(ids)) {
+            ordersDispatchMapper.deleteBatchIds(ids);
+        }
     }
 
 }
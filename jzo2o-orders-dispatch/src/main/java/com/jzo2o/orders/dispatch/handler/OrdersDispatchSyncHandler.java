@@ -1,10 +1,14 @@
 package com.jzo2o.orders.dispatch.handler;
 
-import com.jzo2o.canal.listeners.AbstractCanalRabbitMqMsgListener;
 import com.jzo2o.common.utils.DateUtils;
+import com.jzo2o.orders.base.canal.AbstractPartitionedCanalMsgListener;
 import com.jzo2o.orders.base.constants.RedisConstants;
 import com.jzo2o.orders.base.model.domain.OrdersDispatch;
 import com.jzo2o.orders.base.utils.RedisUtils;
+import com.jzo2o.orders.dispatch.model.dto.DispatchRoundDTO;
+import com.jzo2o.orders.dispatch.scheduler.DispatchRoundScheduler;
+import com.jzo2o.orders.dispatch.service.IOrdersDispatchReceiveService;
+import com.rabbitmq.client.Channel;
 import org.springframework.amqp.core.ExchangeTypes;
 import org.springframework.amqp.core.Message;
 import org.springframework.amqp.rabbit.annotation.Exchange;
@@ -21,41 +25,69 @@ import java.util.Set;
 import java.util.stream.Collectors;
 
 import static com.jzo2o.orders.base.constants.RedisConstants.RedisKey.DISPATCH_LIST;
+import static com.jzo2o.orders.base.constants.RedisConstants.RedisKey.ORDERS_DISPATCH_EXPIRE;
 
 /**
  * @author 86188
  */
 @Component
-public class OrdersDispatchSyncHandler extends AbstractCanalRabbitMqMsgListener<OrdersDispatch> {
+public class OrdersDispatchSyncHandler extends AbstractPartitionedCanalMsgListener<OrdersDispatch> {
 
     @Resource
     private RedisTemplate redisTemplate;
 
+    @Resource
+    private DispatchRoundScheduler dispatchRoundScheduler;
+
+    @Resource
+    private IOrdersDispatchReceiveService ordersDispatchReceiveService;
+
 
     @RabbitListener(bindings = @QueueBinding(
             value = @Queue(name = "canal-mq-jzo2o-orders-dispatch"),
             exchange = @Exchange(name = "exchange.canal-jzo2o", type = ExchangeTypes.TOPIC),
             key = "canal-mq-jzo2o-orders-dispatch"),
-            concurrency = "1"
+            concurrency = "1",
+            ackMode = "MANUAL"
     )
-    public void onMessage(Message message) throws Exception {
-        parseMsg(message);
+    public void onMessage(Message message, Channel channel) {
+        consume(message, channel);
     }
 
     @Override
-    public void batchSave(List<OrdersDispatch> data) {
+    protected Long getId(OrdersDispatch data) {
+        return data.getId();
+    }
+
+    @Override
+    protected void partitionSave(List<OrdersDispatch> data) {
         // 1.同步派单列表
         // 1.1.派单列表过滤（人工派单的不进入派单列表）
         //ZSetOperations.TypedTuple表示Sorted Set有序集合的元素，包括：value和分数
-        Set<ZSetOperations.TypedTuple> ordersDispatchIdTypedTupleSet = data.stream()
+        List<OrdersDispatch> toDispatch = data.stream()
                 .filter(ordersDispatch -> ordersDispatch.getIsTransferManual() == 0 || DateUtils.now().compareTo(ordersDispatch.getServeStartTime()) < 0)
-                .map(ordersDispatch -> ZSetOperations.TypedTuple.of(ordersDispatch.getId(), DateUtils.getCurrentTime() * 1d))
+                .collect(Collectors.toList());
+        long dispatchTime = DateUtils.getCurrentTime();
+        Set<ZSetOperations.TypedTuple> ordersDispatchIdTypedTupleSet = toDispatch.stream()
+                .map(ordersDispatch -> ZSetOperations.TypedTuple.of(ordersDispatch.getId(), dispatchTime * 1d))
                 .collect(Collectors.toSet());
         // 1.2.同步派单列表
         redisTemplate.opsForZSet().addIfAbsent(DISPATCH_LIST, ordersDispatchIdTypedTupleSet);
+        // 1.3.通知负责对应城市分片的节点调度派单，已在派单列表中的订单以派单列表中的时间为准
+        dispatchRoundScheduler.publish(toDispatch.stream()
+                .map(ordersDispatch -> new DispatchRoundDTO(ordersDispatch.getId(), ordersDispatch.getCityCode(), dispatchTime))
+                .collect(Collectors.toList()));
+
+        // 2.按城市分片写入到期索引，到达服务开始时间后清理派单池
+        data.stream()
+                .collect(Collectors.groupingBy(ordersDispatch -> RedisUtils.getCityIndex(ordersDispatch.getCityCode())))
+                .forEach((index, ordersDispatches) -> redisTemplate.opsForZSet().add(String.format(ORDERS_DISPATCH_EXPIRE, index),
+                        ordersDispatches.stream()
+                                .map(ordersDispatch -> ZSetOperations.TypedTuple.of(ordersDispatch.getId(), DateUtils.toEpochMilli(ordersDispatch.getServeStartTime()) * 1d))
+                                .collect(Collectors.toSet())));
 
-        // 2.同步库存，在抢单模块已同步此库存这里无需再同步
-        // 2.1.库存过滤
+        // 3.同步库存，在抢单模块已同步此库存这里无需再同步
+        // 3.1.库存过滤
 //        data.stream()
 //                .filter(ordersDispatch -> ordersDispatch.getIsTransferManual() == 0 || DateUtils.now().compareTo(ordersDispatch.getServeStartTime()) < 0)
 //                .forEach(ordersDispatch -> {
@@ -66,9 +98,11 @@ public class OrdersDispatchSyncHandler extends AbstractCanalRabbitMqMsgListener<
     }
 
     @Override
-    public void batchDelete(List<Long> ids) {
+    protected void partitionDelete(List<Long> ids) {
         // 清空派单列表
         redisTemplate.opsForZSet().remove(DISPATCH_LIST, ids);
+        // 派单结束，不再跟踪接单超时
+        ordersDispatchReceiveService.finish(ids);
     }
 
 }
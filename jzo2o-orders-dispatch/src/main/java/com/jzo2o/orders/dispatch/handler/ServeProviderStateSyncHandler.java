@@ -1,25 +1,37 @@
 package com.jzo2o.orders.dispatch.handler;
 
 import com.jzo2o.api.customer.ServeProviderApi;
-import com.jzo2o.canal.listeners.AbstractCanalRabbitMqMsgListener;
 import com.jzo2o.common.utils.BeanUtils;
+import com.jzo2o.common.utils.CollUtils;
+import com.jzo2o.common.utils.NumberUtils;
 import com.jzo2o.es.core.ElasticSearchTemplate;
+import com.jzo2o.orders.base.canal.AbstractPartitionedCanalMsgListener;
 import com.jzo2o.orders.base.model.domain.ServeProviderInfo;
 import com.jzo2o.orders.base.model.domain.ServeProviderSync;
+import com.jzo2o.orders.base.service.IServeProviderSyncCommonService;
 import com.jzo2o.orders.base.utils.RedisUtils;
+import com.jzo2o.orders.dispatch.geo.ServeProviderGeoIndex;
+import com.jzo2o.orders.dispatch.scheduler.DispatchBackoff;
+import com.jzo2o.orders.dispatch.scheduler.DispatchRoundScheduler;
+import com.rabbitmq.client.Channel;
 import org.springframework.amqp.core.ExchangeTypes;
 import org.springframework.amqp.core.Message;
 import org.springframework.amqp.rabbit.annotation.Exchange;
 import org.springframework.amqp.rabbit.annotation.Queue;
 import org.springframework.amqp.rabbit.annotation.QueueBinding;
 import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.data.redis.core.RedisOperations;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.SessionCallback;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.Resource;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 import static com.jzo2o.orders.base.constants.RedisConstants.RedisKey.SERVE_PROVIDER_STATE;
@@ -30,7 +42,7 @@ import static com.jzo2o.orders.base.constants.RedisConstants.RedisKey.SERVE_PROV
  * @author 86188
  */
 @Component
-public class ServeProviderStateSyncHandler extends AbstractCanalRabbitMqMsgListener<ServeProviderSync> {
+public class ServeProviderStateSyncHandler extends AbstractPartitionedCanalMsgListener<ServeProviderSync> {
 
     @Resource
     private ElasticSearchTemplate elasticSearchTemplate;
@@ -41,26 +53,58 @@ public class ServeProviderStateSyncHandler extends AbstractCanalRabbitMqMsgListe
     @Resource
     private RedisTemplate redisTemplate;
 
+    @Resource
+    private ServeProviderGeoIndex serveProviderGeoIndex;
+
+    @Resource
+    private DispatchBackoff dispatchBackoff;
+
+    @Resource
+    private DispatchRoundScheduler dispatchRoundScheduler;
+
+    @Resource
+    private IServeProviderSyncCommonService serveProviderSyncCommonService;
+
     @RabbitListener(bindings = @QueueBinding(
             value = @Queue(name = "canal-mq-jzo2o-orders-provider"),
             exchange = @Exchange(name = "exchange.canal-jzo2o", type = ExchangeTypes.TOPIC),
             key = "canal-mq-jzo2o-orders-provider"),
-            concurrency = "1"
+            concurrency = "1",
+            ackMode = "MANUAL"
     )
-    public void onMessage(Message message) throws Exception {
-        parseMsg(message);
+    public void onMessage(Message message, Channel channel) {
+        consume(message, channel);
     }
 
     @Override
-    public void batchSave(List<ServeProviderSync> data) {
+    protected Long getId(ServeProviderSync data) {
+        return data.getId();
+    }
+
+    @Override
+    protected void partitionSave(List<ServeProviderSync> data) {
         List<ServeProviderInfo> serveProviderInfos = BeanUtils.copyToList(data, ServeProviderInfo.class);
         // 1.同步es
         elasticSearchTemplate.opsForDoc().batchUpsert("serve_provider_info", serveProviderInfos);
+        // 广播到所有派单节点的内存索引
+        serveProviderGeoIndex.publishStates(data);
         // 2.同步redis
         //服务提供者id
         List<Long> serveProviderIds = data.stream().map(ServeProviderSync::getId).collect(Collectors.toList());
         //获取服务提供者的城市编码
         Map<Long, String> serveProviderIdAndCityCodeMap = serveProviderApi.batchCityCode(serveProviderIds);
+        // 写入前一次读取原服务时间及接单数量，用于判断可接单能力是否增加
+        List<Object> previousStates = redisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            public Object execute(RedisOperations operations) {
+                data.forEach(serveProviderSync -> {
+                    String key = String.format(SERVE_PROVIDER_STATE, RedisUtils.getCityIndex(serveProviderIdAndCityCodeMap.get(serveProviderSync.getId())));
+                    operations.opsForHash().get(key, serveProviderSync.getId() + "_times");
+                    operations.opsForHash().get(key, serveProviderSync.getId() + "_num");
+                });
+                return null;
+            }
+        });
 
         data.stream().forEach(serveProviderSync -> {
             //获取服务提供者的城市编码
@@ -75,10 +119,58 @@ public class ServeProviderStateSyncHandler extends AbstractCanalRabbitMqMsgListe
             map.put(serveProviderSync.getId() + "_num", serveProviderSync.getAcceptanceNum());
             //写入redis
             redisTemplate.opsForHash().putAll(serveProviderStateRedisKey, map);
+            // 服务时间位图与服务时间列表一起覆盖，抢单、派单脚本通过GETBIT校验服务时间冲突
+            if (cityCode != null) {
+                serveProviderSyncCommonService.refreshServeTimeBitmap(serveProviderSync.getId(), cityCode, serveProviderSync.getServeTimes());
+            }
         });
+
+        // 3.服务人员或机构可接单能力增加（新服务人员或机构、接单数减少、释放服务时间），立即重新派单同城市同服务项退避中的订单
+        // 服务项从内存索引获取，未加载到内存索引的服务人员或机构不触发，退避中的订单按退避时间重新派单
+        Map<String, Set<Long>> cityServeItemIds = new HashMap<>();
+        for (int i = 0; i < data.size(); i++) {
+            ServeProviderSync serveProviderSync = data.get(i);
+            if (!isCapacityIncreased(serveProviderSync, previousStates.get(2 * i), previousStates.get(2 * i + 1))) {
+                continue;
+            }
+            String cityCode = serveProviderIdAndCityCodeMap.get(serveProviderSync.getId());
+            ServeProviderInfo serveProviderInfo = serveProviderGeoIndex.find(serveProviderSync.getId());
+            if (cityCode == null || serveProviderInfo == null || CollUtils.isEmpty(serveProviderInfo.getServeItemIds())) {
+                continue;
+            }
+            cityServeItemIds.computeIfAbsent(cityCode, key -> new HashSet<>()).addAll(serveProviderInfo.getServeItemIds());
+        }
+        cityServeItemIds.forEach((cityCode, serveItemIds) ->
+                dispatchRoundScheduler.publish(dispatchBackoff.rearm(cityCode, serveItemIds)));
+    }
+
+    /**
+     * 判断服务人员或机构可接单能力是否增加
+     *
+     * @param serveProviderSync 最新服务状态
+     * @param previousTimes 原服务时间列表
+     * @param previousNum 原接单数量
+     * @return true：新服务人员或机构、接单数减少或释放了服务时间
+     */
+    private boolean isCapacityIncreased(ServeProviderSync serveProviderSync, Object previousTimes, Object previousNum) {
+        // 新服务人员或机构
+        if (previousNum == null) {
+            return true;
+        }
+        // 接单数减少
+        if (NumberUtils.null2Zero(serveProviderSync.getAcceptanceNum()) < NumberUtils.parseInt(previousNum.toString())) {
+            return true;
+        }
+        // 释放服务时间
+        if (!(previousTimes instanceof Collection)) {
+            return false;
+        }
+        Set<String> serveTimes = serveProviderSync.getServeTimes() == null ? new HashSet<>()
+                : serveProviderSync.getServeTimes().stream().map(String::valueOf).collect(Collectors.toSet());
+        return ((Collection<?>) previousTimes).stream().anyMatch(serveTime -> !serveTimes.contains(String.valueOf(serveTime)));
     }
 
     @Override
-    public void batchDelete(List<Long> ids) {
+    protected void partitionDelete(List<Long> ids) {
     }
 }
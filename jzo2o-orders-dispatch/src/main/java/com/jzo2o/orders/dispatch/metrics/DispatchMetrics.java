@@ -0,0 +1,228 @@
+package com.jzo2o.orders.dispatch.metrics;
+
+import com.jzo2o.common.utils.DateUtils;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static com.jzo2o.orders.base.constants.RedisConstants.RedisKey.DISPATCH_LIST;
+
+/**
+ * 派单指标
+ * 记录派单各阶段耗时、派单结果数量，以及派单列表积压数量、已到期未派单数量和派单线程池状态，通过prometheus端点采集
+ */
+@Component
+public class DispatchMetrics {
+
+    /**
+     * 派单阶段耗时
+     */
+    public static final String PHASE_TIMER = "orders.dispatch.phase";
+
+    /**
+     * 派单轮次从到期到开始执行的延迟
+     */
+    public static final String ROUND_LAG_TIMER = "orders.dispatch.round.lag";
+
+    /**
+     * 派单结果数量
+     */
+    public static final String RESULT_COUNTER = "orders.dispatch.result";
+
+    /**
+     * 派单列表中的订单数量
+     */
+    public static final String BACKLOG_GAUGE = "orders.dispatch.backlog";
+
+    /**
+     * 派单列表中已到派单时间的订单数量
+     */
+    public static final String OVERDUE_GAUGE = "orders.dispatch.overdue";
+
+    /**
+     * 派单线程池等待队列长度
+     */
+    public static final String EXECUTOR_QUEUE_GAUGE = "orders.dispatch.executor.queue";
+
+    /**
+     * 派单线程池执行中的线程数
+     */
+    public static final String EXECUTOR_ACTIVE_GAUGE = "orders.dispatch.executor.active";
+
+    /**
+     * 派单阶段
+     */
+    public enum Phase {
+        /**
+         * 从派单列表加载到期的派单轮次
+         */
+        POLL,
+        /**
+         * 整批派单
+         */
+        BATCH,
+        /**
+         * 查询派单订单
+         */
+        ORDERS,
+        /**
+         * 查询区域调度配置
+         */
+        REGION,
+        /**
+         * 查询派单服务人员或机构
+         */
+        SEARCH,
+        /**
+         * 过派单策略
+         */
+        RULE,
+        /**
+         * 机器抢单
+         */
+        SEIZE
+    }
+
+    /**
+     * 派单结果
+     */
+    public enum Result {
+        /**
+         * 派单成功
+         */
+        SUCCESS,
+        /**
+         * 匹配不到服务人员或机构
+         */
+        NO_PROVIDER,
+        /**
+         * 机器抢单失败
+         */
+        SEIZE_FAILED,
+        /**
+         * 查询服务人员或机构、机器抢单异常，不计入连续失败次数
+         */
+        ERROR
+    }
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    @Resource
+    private RedisTemplate redisTemplate;
+
+    @Resource(name = "dispatchExecutor")
+    private Executor dispatchExecutor;
+
+    private final Map<Phase, Timer> phaseTimers = new EnumMap<>(Phase.class);
+
+    private final Map<Result, Counter> resultCounters = new EnumMap<>(Result.class);
+
+    private Timer roundLagTimer;
+
+    @PostConstruct
+    public void init() {
+        // 1.阶段耗时及派单结果
+        for (Phase phase : Phase.values()) {
+            phaseTimers.put(phase, Timer.builder(PHASE_TIMER)
+                    .description("派单各阶段耗时")
+                    .tag("phase", phase.name().toLowerCase())
+                    .publishPercentileHistogram()
+                    .register(meterRegistry));
+        }
+        for (Result result : Result.values()) {
+            resultCounters.put(result, Counter.builder(RESULT_COUNTER)
+                    .description("派单结果数量")
+                    .tag("result", result.name().toLowerCase())
+                    .register(meterRegistry));
+        }
+        roundLagTimer = Timer.builder(ROUND_LAG_TIMER)
+                .description("派单轮次到期后开始执行的延迟")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+
+        // 2.派单列表积压，采集时查询redis
+        Gauge.builder(BACKLOG_GAUGE, this, DispatchMetrics::backlog)
+                .description("派单列表中的订单数量")
+                .register(meterRegistry);
+        Gauge.builder(OVERDUE_GAUGE, this, DispatchMetrics::overdue)
+                .description("派单列表中已到派单时间的订单数量")
+                .register(meterRegistry);
+
+        // 3.派单线程池
+        if (dispatchExecutor instanceof ThreadPoolTaskExecutor) {
+            ThreadPoolTaskExecutor threadPoolTaskExecutor = (ThreadPoolTaskExecutor) dispatchExecutor;
+            Gauge.builder(EXECUTOR_QUEUE_GAUGE, threadPoolTaskExecutor, executor -> executor.getThreadPoolExecutor().getQueue().size())
+                    .description("派单线程池等待队列长度")
+                    .register(meterRegistry);
+            Gauge.builder(EXECUTOR_ACTIVE_GAUGE, threadPoolTaskExecutor, ThreadPoolTaskExecutor::getActiveCount)
+                    .description("派单线程池执行中的线程数")
+                    .register(meterRegistry);
+        }
+    }
+
+    /**
+     * 记录派单阶段耗时，执行异常时同样记录
+     *
+     * @param phase 派单阶段
+     * @param supplier 阶段执行逻辑
+     * @return 执行结果
+     */
+    public <T> T record(Phase phase, Supplier<T> supplier) {
+        return phaseTimers.get(phase).record(supplier);
+    }
+
+    /**
+     * 记录派单阶段耗时，执行异常时同样记录
+     *
+     * @param phase 派单阶段
+     * @param runnable 阶段执行逻辑
+     */
+    public void record(Phase phase, Runnable runnable) {
+        phaseTimers.get(phase).record(runnable);
+    }
+
+    /**
+     * 记录派单轮次从到期到开始执行的延迟
+     *
+     * @param dispatchTimeMillis 派单时间，单位：毫秒
+     */
+    public void recordRoundLag(long dispatchTimeMillis) {
+        roundLagTimer.record(Math.max(0, System.currentTimeMillis() - dispatchTimeMillis), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 记录派单结果数量
+     *
+     * @param result 派单结果
+     * @param count 订单数量
+     */
+    public void count(Result result, int count) {
+        if (count > 0) {
+            resultCounters.get(result).increment(count);
+        }
+    }
+
+    private double backlog() {
+        Long size = redisTemplate.opsForZSet().zCard(DISPATCH_LIST);
+        return size == null ? 0 : size;
+    }
+
+    private double overdue() {
+        // 派单列表分值为下次派单时间，单位：秒
+        Long count = redisTemplate.opsForZSet().count(DISPATCH_LIST, 0, DateUtils.getCurrentTime());
+        return count == null ? 0 : count;
+    }
+}
@@ -0,0 +1,26 @@
+package com.jzo2o.orders.dispatch.model.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 派单轮次
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class DispatchRoundDTO {
+    /**
+     * 订单id
+     */
+    private Long id;
+    /**
+     * 城市编码
+     */
+    private String cityCode;
+    /**
+     * 派单时间，与派单列表分数一致，单位：秒
+     */
+    private Long dispatchTime;
+}
@@ -30,4 +30,8 @@ public class ServeProviderDTO {
      * 接单距离
      */
     private Integer acceptanceDistance;
+    /**
+     * 综合评分，综合评分派单策略使用
+     */
+    private Double score;
 }
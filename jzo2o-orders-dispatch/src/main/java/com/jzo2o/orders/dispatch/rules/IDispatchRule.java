@@ -2,6 +2,7 @@ package com.jzo2o.orders.dispatch.rules;
 
 import com.jzo2o.orders.dispatch.model.dto.ServeProviderDTO;
 
+import java.util.Comparator;
 import java.util.List;
 
 /**
@@ -23,4 +24,22 @@ public interface IDispatchRule {
      */
     IDispatchRule next();
 
+    /**
+     * 规则比较器，比较结果越小优先级越高
+     *
+     * @return
+     */
+    Comparator<ServeProviderDTO> comparator();
+
+    /**
+     * 将当前规则及后续规则编译为一个比较器，依次按各级规则比较，前一级相同时再比较下一级
+     * 按编译后的比较器取最小的一批与逐级过滤的结果一致
+     *
+     * @return
+     */
+    default Comparator<ServeProviderDTO> compile() {
+        IDispatchRule next = next();
+        return next == null ? comparator() : comparator().thenComparing(next.compile());
+    }
+
 }
@@ -5,6 +5,8 @@ import com.jzo2o.orders.dispatch.rules.IDispatchRule;
 import com.jzo2o.orders.dispatch.model.dto.ServeProviderDTO;
 import lombok.Setter;
 
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
 
 @Setter
@@ -18,7 +20,31 @@ public abstract class AbstractIDispatchRule implements IDispatchRule {
         this.next = next;
     }
 
-    public abstract List<ServeProviderDTO> doFilter(List<ServeProviderDTO> originServeProviderDTOS);
+    /**
+     * 获取优先级最高的一批数据，一次遍历，无需排序
+     *
+     * @param originServeProviderDTOS
+     * @return
+     */
+    public List<ServeProviderDTO> doFilter(List<ServeProviderDTO> originServeProviderDTOS) {
+        // 1.判断originServeProviderDTOS列表是否少于2，少于2直接返回
+        if (CollUtils.size(originServeProviderDTOS) < 2) {
+            return originServeProviderDTOS;
+        }
+        // 2.遍历保留比较结果最小的一批数据，顺序与原列表一致
+        Comparator<ServeProviderDTO> comparator = comparator();
+        List<ServeProviderDTO> result = new ArrayList<>();
+        for (ServeProviderDTO serveProviderDTO : originServeProviderDTOS) {
+            int compare = result.isEmpty() ? -1 : comparator.compare(serveProviderDTO, result.get(0));
+            if (compare < 0) {
+                result.clear();
+                result.add(serveProviderDTO);
+            } else if (compare == 0) {
+                result.add(serveProviderDTO);
+            }
+        }
+        return result;
+    }
 
     @Override
     public List<ServeProviderDTO> filter(List<ServeProviderDTO> serveProviderDTOS) {
@@ -0,0 +1,277 @@
+package com.jzo2o.orders.dispatch.scheduler;
+
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.TimedCache;
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.jzo2o.api.foundations.dto.response.ConfigRegionInnerResDTO;
+import com.jzo2o.common.utils.CollUtils;
+import com.jzo2o.common.utils.DateUtils;
+import com.jzo2o.common.utils.NumberUtils;
+import com.jzo2o.orders.base.mapper.OrdersDispatchMapper;
+import com.jzo2o.orders.base.model.domain.OrdersDispatch;
+import com.jzo2o.orders.base.properties.DispatchProperties;
+import com.jzo2o.orders.base.utils.RedisUtils;
+import com.jzo2o.orders.dispatch.model.dto.DispatchRoundDTO;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static com.jzo2o.orders.base.constants.RedisConstants.RedisKey.DISPATCH_LIST;
+import static com.jzo2o.orders.base.constants.RedisConstants.RedisKey.ORDERS_DISPATCH_FAILD_TIMES;
+
+/**
+ * 派单退避
+ * 订单本轮匹配不到服务人员或机构、或机器抢单失败时记录连续失败次数，下次派单间隔按失败次数指数增长并加入随机抖动，
+ * 长期无人可派的订单不再每轮查询服务人员；同城市同服务项的服务人员或机构状态变化时清除失败次数，立即重新派单。
+ */
+@Component
+@Slf4j
+public class DispatchBackoff {
+
+    /**
+     * 派单间隔随机抖动比例，同一轮失败的订单错开下次派单时间
+     */
+    private static final double JITTER_RATIO = 0.2;
+
+    /**
+     * 连续失败次数有效期，单位：天，订单离开派单池后自动清理
+     */
+    private static final long FAILD_TIMES_TTL = 1;
+
+    /**
+     * 重新激活时每次查询的派单数量
+     */
+    private static final int REARM_BATCH_SIZE = 500;
+
+    @Resource
+    private RedisTemplate redisTemplate;
+
+    @Resource
+    private DispatchProperties dispatchProperties;
+
+    @Resource
+    private OrdersDispatchMapper ordersDispatchMapper;
+
+    /**
+     * 最近重新激活过的城市及服务项，格式：{城市编码}_{服务项id}
+     */
+    private final TimedCache<String, Boolean> rearmCache = CacheUtil.newTimedCache(0);
+
+    public DispatchBackoff() {
+        rearmCache.schedulePrune(60 * 1000L);
+    }
+
+    /**
+     * 记录本轮派单失败，在已增加的派单间隔基础上增加退避时间
+     *
+     * @param ordersDispatches 本轮派单失败的订单
+     * @param configRegionMap 城市编码与区域调度配置的对应关系
+     */
+    public void backoff(List<OrdersDispatch> ordersDispatches, Map<String, ConfigRegionInnerResDTO> configRegionMap) {
+        if (CollUtils.isEmpty(ordersDispatches) || !Boolean.TRUE.equals(dispatchProperties.getBackoffEnabled())) {
+            return;
+        }
+        // 1.连续失败次数加1，每个订单依次返回失败次数和设置有效期的结果
+        List<Object> results = redisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            public Object execute(RedisOperations operations) {
+                ordersDispatches.forEach(ordersDispatch -> {
+                    String faildTimesRedisKey = getFaildTimesRedisKey(ordersDispatch.getId(), ordersDispatch.getCityCode());
+                    operations.opsForValue().increment(faildTimesRedisKey);
+                    operations.expire(faildTimesRedisKey, FAILD_TIMES_TTL, TimeUnit.DAYS);
+                });
+                return null;
+            }
+        });
+        // 2.下次派单时间增加退避时间
+        for (int i = 0; i < ordersDispatches.size(); i++) {
+            OrdersDispatch ordersDispatch = ordersDispatches.get(i);
+            long faildTimes = NumberUtils.parseLong(String.valueOf(results.get(i * 2)));
+            long interval = configRegionMap.get(ordersDispatch.getCityCode()).getDispatchPerRoundInterval();
+            long extra = nextInterval(faildTimes, interval, dispatchProperties.getBackoffMaxInterval(), ThreadLocalRandom.current()) - interval;
+            if (extra != 0) {
+                redisTemplate.opsForZSet().incrementScore(DISPATCH_LIST, ordersDispatch.getId(), extra);
+            }
+        }
+    }
+
+    /**
+     * 派单成功后清除连续失败次数
+     *
+     * @param ordersDispatches 派单成功的订单
+     */
+    public void reset(List<OrdersDispatch> ordersDispatches) {
+        if (CollUtils.isEmpty(ordersDispatches)) {
+            return;
+        }
+        redisTemplate.delete(ordersDispatches.stream()
+                .map(ordersDispatch -> getFaildTimesRedisKey(ordersDispatch.getId(), ordersDispatch.getCityCode()))
+                .collect(Collectors.toList()));
+    }
+
+    /**
+     * 重新激活同城市同服务项退避中的订单，清除连续失败次数并将下次派单时间改为当前时间
+     * 同城市同服务项在重新激活间隔内只处理一次
+     *
+     * @param cityCode 城市编码
+     * @param serveItemIds 服务项id
+     * @return 需要立即调度的派单轮次
+     */
+    public List<DispatchRoundDTO> rearm(String cityCode, Collection<Long> serveItemIds) {
+        if (cityCode == null || CollUtils.isEmpty(serveItemIds) || !Boolean.TRUE.equals(dispatchProperties.getBackoffEnabled())) {
+            return new ArrayList<>();
+        }
+        // 1.过滤重新激活间隔内处理过的服务项
+        long rearmInterval = TimeUnit.SECONDS.toMillis(dispatchProperties.getBackoffRearmInterval());
+        List<Long> toRearm = serveItemIds.stream()
+                .distinct()
+                .filter(serveItemId -> {
+                    String key = cityCode + "_" + serveItemId;
+                    if (rearmCache.containsKey(key)) {
+                        return false;
+                    }
+                    rearmCache.put(key, true, rearmInterval);
+                    return true;
+                })
+                .collect(Collectors.toList());
+        if (CollUtils.isEmpty(toRearm)) {
+            return new ArrayList<>();
+        }
+        // 2.按id游标分页查询派单池中同城市同服务项的订单
+        List<DispatchRoundDTO> dispatchRounds = new ArrayList<>();
+        long now = DateUtils.getCurrentTime();
+        long lastId = 0;
+        while (true) {
+            List<Long> ids = CollUtils.getFieldValues(ordersDispatchMapper.selectList(new LambdaQueryWrapper<OrdersDispatch>()
+                    .select(OrdersDispatch::getId)
+                    .eq(OrdersDispatch::getCityCode, cityCode)
+                    .in(OrdersDispatch::getServeItemId, toRearm)
+                    .eq(OrdersDispatch::getIsTransferManual, 0)
+                    .gt(OrdersDispatch::getId, lastId)
+                    .orderByAsc(OrdersDispatch::getId)
+                    .last("limit " + REARM_BATCH_SIZE)), OrdersDispatch::getId);
+            if (CollUtils.isEmpty(ids)) {
+                break;
+            }
+            dispatchRounds.addAll(rearm(cityCode, ids, now));
+            if (ids.size() < REARM_BATCH_SIZE) {
+                break;
+            }
+            lastId = CollUtils.getLast(ids);
+        }
+        if (CollUtils.isNotEmpty(dispatchRounds)) {
+            log.info("城市{}服务项{}重新激活退避中的订单数量：{}", cityCode, toRearm, dispatchRounds.size());
+        }
+        return dispatchRounds;
+    }
+
+    /**
+     * 重新激活一页订单中有连续失败次数的订单
+     *
+     * @param cityCode 城市编码
+     * @param ids 派单id
+     * @param now 当前时间，单位：秒
+     * @return 需要立即调度的派单轮次
+     */
+    private List<DispatchRoundDTO> rearm(String cityCode, List<Long> ids, long now) {
+        // 1.筛选有连续失败次数的订单
+        List<String> faildTimesRedisKeys = ids.stream()
+                .map(id -> getFaildTimesRedisKey(id, cityCode))
+                .collect(Collectors.toList());
+        List<Object> faildTimesList = redisTemplate.opsForValue().multiGet(faildTimesRedisKeys);
+        if (faildTimesList == null) {
+            return new ArrayList<>();
+        }
+        List<Long> rearmIds = new ArrayList<>();
+        List<String> rearmedRedisKeys = new ArrayList<>();
+        for (int i = 0; i < ids.size(); i++) {
+            if (faildTimesList.get(i) != null) {
+                rearmIds.add(ids.get(i));
+                rearmedRedisKeys.add(faildTimesRedisKeys.get(i));
+            }
+        }
+        if (CollUtils.isEmpty(rearmIds)) {
+            return new ArrayList<>();
+        }
+        // 2.清除连续失败次数
+        redisTemplate.delete(rearmedRedisKeys);
+        // 3.一次读取派单列表中的派单时间，已离开派单列表的订单不再加入
+        List<Object> scores = redisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            public Object execute(RedisOperations operations) {
+                rearmIds.forEach(id -> operations.opsForZSet().score(DISPATCH_LIST, id));
+                return null;
+            }
+        });
+        List<Long> inListIds = new ArrayList<>();
+        for (int i = 0; i < rearmIds.size(); i++) {
+            if (scores.get(i) != null) {
+                inListIds.add(rearmIds.get(i));
+            }
+        }
+        if (CollUtils.isEmpty(inListIds)) {
+            return new ArrayList<>();
+        }
+        // 4.下次派单时间改为当前时间
+        redisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            public Object execute(RedisOperations operations) {
+                inListIds.forEach(id -> operations.opsForZSet().add(DISPATCH_LIST, id, now));
+                return null;
+            }
+        });
+        return inListIds.stream()
+                .map(id -> new DispatchRoundDTO(id, cityCode, now))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * 计算下次派单间隔，连续失败n次时为派单间隔的2^(n-1)倍，不超过最大间隔，并在±20%范围内随机抖动
+     * 派单仿真传入固定种子的随机数生成器，保证每次仿真结果一致
+     *
+     * @param faildTimes 连续失败次数
+     * @param interval 区域配置的派单间隔，单位：秒
+     * @param maxInterval 最大间隔，单位：秒
+     * @param random 抖动使用的随机数生成器
+     * @return 下次派单间隔，单位：秒，不小于派单间隔
+     */
+    public static long nextInterval(long faildTimes, long interval, long maxInterval, Random random) {
+        return nextInterval(faildTimes, interval, maxInterval, random.nextDouble());
+    }
+
+    /**
+     * 按指定的随机数计算下次派单间隔
+     *
+     * @param faildTimes 连续失败次数
+     * @param interval 区域配置的派单间隔，单位：秒
+     * @param maxInterval 最大间隔，单位：秒
+     * @param random [0,1)之间的随机数
+     * @return 下次派单间隔，单位：秒，不小于派单间隔
+     */
+    static long nextInterval(long faildTimes, long interval, long maxInterval, double random) {
+        if (faildTimes <= 1 || interval >= maxInterval) {
+            return interval;
+        }
+        // 避免移位溢出
+        long shift = Math.min(faildTimes - 1, 30);
+        long backoff = Math.min(interval << shift, maxInterval);
+        long jittered = Math.round(backoff * (1 - JITTER_RATIO + 2 * JITTER_RATIO * random));
+        return Math.max(interval, Math.min(jittered, maxInterval));
+    }
+
+    private String getFaildTimesRedisKey(Long id, String cityCode) {
+        return String.format(ORDERS_DISPATCH_FAILD_TIMES, id, RedisUtils.getCityIndex(cityCode));
+    }
+}
@@ -0,0 +1,461 @@
+package com.jzo2o.orders.dispatch.scheduler;
+
+import cn.hutool.core.util.IdUtil;
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.jzo2o.common.utils.CollUtils;
+import com.jzo2o.common.utils.DateUtils;
+import com.jzo2o.common.utils.JsonUtils;
+import com.jzo2o.orders.base.mapper.OrdersDispatchMapper;
+import com.jzo2o.orders.base.model.domain.OrdersDispatch;
+import com.jzo2o.orders.base.utils.RedisUtils;
+import com.jzo2o.orders.dispatch.metrics.DispatchMetrics;
+import com.jzo2o.orders.dispatch.model.dto.DispatchRoundDTO;
+import com.jzo2o.orders.dispatch.service.IOrdersDispatchService;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RTopic;
+import org.redisson.api.RedissonClient;
+import org.redisson.client.codec.StringCodec;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static com.jzo2o.orders.base.constants.RedisConstants.Lock.DISPATCH_SHARD_OWNER;
+import static com.jzo2o.orders.base.constants.RedisConstants.RedisKey.DISPATCH_LIST;
+import static com.jzo2o.orders.base.constants.RedisConstants.RedisKey.DISPATCH_ROUND_TOPIC;
+
+/**
+ * 派单轮次调度器
+ * 内存延迟队列保存本节点负责的城市分片中的派单轮次，到期立即交给派单线程池执行。
+ * 城市分片（与RedisUtils.getCityIndex一致）通过redis租约归属到唯一节点，派单前无需再对每个订单加锁。
+ * 派单列表仍是派单时间的唯一依据，节点宕机后接管节点从派单列表重建轮次，并从待接单记录重建接单超时。
+ */
+@Component
+@Slf4j
+public class DispatchRoundScheduler {
+
+    /**
+     * 分片租约有效期，单位：毫秒
+     */
+    private static final long SHARD_LEASE_MILLIS = 30 * 1000L;
+
+    /**
+     * 分片租约续期及派单列表对账间隔，单位：秒
+     */
+    private static final long SHARD_RENEW_INTERVAL = 10;
+
+    /**
+     * 对账时加载的派单时间窗口，单位：秒
+     */
+    private static final long LOAD_HORIZON = 60;
+
+    /**
+     * 对账时每次读取的待派单记录数量
+     */
+    private static final int LOAD_BATCH_SIZE = 500;
+
+    /**
+     * 每批派单的最大数量
+     */
+    private static final int FIRE_BATCH_SIZE = 100;
+
+    @Resource
+    private RedisTemplate redisTemplate;
+
+    @Resource
+    private RedissonClient redissonClient;
+
+    @Resource(name = "renewShardOwnerScript")
+    private DefaultRedisScript<Long> renewShardOwnerScript;
+
+    @Resource(name = "dispatchExecutor")
+    private Executor dispatchExecutor;
+
+    @Resource
+    private IOrdersDispatchService ordersDispatchService;
+
+    @Resource
+    private OrdersDispatchMapper ordersDispatchMapper;
+
+    @Resource
+    private DispatchMetrics dispatchMetrics;
+
+    @Resource
+    private ReceiveTimeoutScheduler receiveTimeoutScheduler;
+
+    /**
+     * 节点id，作为分片租约的值
+     */
+    private final String nodeId = IdUtil.fastSimpleUUID();
+
+    /**
+     * 本节点负责的城市分片
+     */
+    private final Set<Integer> ownedShards = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 每个订单当前有效的派单轮次，重复调度时以最后一次为准
+     */
+    private final Map<Long, DispatchRound> rounds = new ConcurrentHashMap<>();
+
+    private final DelayQueue<DispatchRound> delayQueue = new DelayQueue<>();
+
+    /**
+     * 正在派单的订单，同一订单同时只执行一轮
+     */
+    private final Set<Long> firingIds = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 已接管但尚未重建接单超时的城市分片，仅在分片维护线程中访问
+     */
+    private final Set<Integer> receiveTimeoutShards = new HashSet<>();
+
+    private ScheduledExecutorService shardExecutor;
+
+    private Thread fireThread;
+
+    private volatile boolean running;
+
+    private int listenerId;
+
+    @PostConstruct
+    public void start() {
+        running = true;
+        listenerId = getTopic().addListener(String.class, (channel, msg) -> onPublished(msg));
+
+        fireThread = new Thread(this::fireLoop, "dispatch-round-scheduler");
+        fireThread.setDaemon(true);
+        fireThread.start();
+
+        shardExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "dispatch-shard-owner");
+            thread.setDaemon(true);
+            return thread;
+        });
+        shardExecutor.scheduleWithFixedDelay(this::maintainShards, 0, SHARD_RENEW_INTERVAL, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        getTopic().removeListener(listenerId);
+        shardExecutor.shutdownNow();
+        fireThread.interrupt();
+        // 主动释放租约，其他节点下次续期时即可接管
+        for (Integer shard : ownedShards) {
+            releaseShard(shard);
+        }
+    }
+
+    /**
+     * 发布派单轮次，由负责对应城市分片的节点调度
+     *
+     * @param dispatchRounds 派单轮次
+     */
+    public void publish(List<DispatchRoundDTO> dispatchRounds) {
+        if (CollUtils.isEmpty(dispatchRounds)) {
+            return;
+        }
+        getTopic().publish(JsonUtils.toJsonStr(dispatchRounds));
+    }
+
+    /**
+     * 调度派单轮次，非本节点负责的城市分片直接忽略
+     *
+     * @param dispatchRound 派单轮次
+     */
+    public void schedule(DispatchRoundDTO dispatchRound) {
+        int shard = RedisUtils.getCityIndex(dispatchRound.getCityCode());
+        if (!ownedShards.contains(shard)) {
+            return;
+        }
+        DispatchRound round = new DispatchRound(dispatchRound.getId(), dispatchRound.getCityCode(), shard,
+                TimeUnit.SECONDS.toMillis(dispatchRound.getDispatchTime()));
+        rounds.put(round.id, round);
+        delayQueue.offer(round);
+    }
+
+    /**
+     * 城市分片是否由本节点负责
+     *
+     * @param shard 城市分片
+     * @return 由本节点负责返回true
+     */
+    public boolean isOwnedShard(int shard) {
+        return ownedShards.contains(shard);
+    }
+
+    /**
+     * 从待接单记录中本节点负责分片的订单加载即将到期的派单轮次，派单时间以派单列表为准
+     * 用于接管分片和补偿丢失的发布消息
+     */
+    public void loadDueRounds() {
+        if (ownedShards.isEmpty()) {
+            return;
+        }
+        dispatchMetrics.record(DispatchMetrics.Phase.POLL, this::doLoadDueRounds);
+    }
+
+    private void doLoadDueRounds() {
+        // 1.本节点负责分片中的城市，待派单记录仅包含未派单成功的订单，城市数量有限
+        List<String> cityCodes = ordersDispatchMapper.selectList(new QueryWrapper<OrdersDispatch>().select("DISTINCT city_code"))
+                .stream()
+                .map(OrdersDispatch::getCityCode)
+                .filter(cityCode -> ownedShards.contains(RedisUtils.getCityIndex(cityCode)))
+                .collect(Collectors.toList());
+        if (CollUtils.isEmpty(cityCodes)) {
+            return;
+        }
+        long maxScore = DateUtils.getCurrentTime() + LOAD_HORIZON;
+        long lastId = 0;
+        while (true) {
+            // 2.按id游标分页读取本节点负责城市的待派单记录
+            List<OrdersDispatch> ordersDispatches = ordersDispatchMapper.selectList(new LambdaQueryWrapper<OrdersDispatch>()
+                    .in(OrdersDispatch::getCityCode, cityCodes)
+                    .gt(OrdersDispatch::getId, lastId)
+                    .select(OrdersDispatch::getId, OrdersDispatch::getCityCode)
+                    .orderByAsc(OrdersDispatch::getId)
+                    .last("limit " + LOAD_BATCH_SIZE));
+            if (CollUtils.isEmpty(ordersDispatches)) {
+                return;
+            }
+            // 3.一次管道读取派单时间，调度即将到期且尚未调度的派单轮次
+            List<OrdersDispatch> unscheduled = ordersDispatches.stream()
+                    .filter(ordersDispatch -> !rounds.containsKey(ordersDispatch.getId()) && !firingIds.contains(ordersDispatch.getId()))
+                    .collect(Collectors.toList());
+            List<Double> scores = getDispatchScores(unscheduled.stream().map(OrdersDispatch::getId).collect(Collectors.toList()));
+            for (int index = 0; index < unscheduled.size(); index++) {
+                Double score = scores.get(index);
+                if (score != null && score <= maxScore) {
+                    schedule(new DispatchRoundDTO(unscheduled.get(index).getId(), unscheduled.get(index).getCityCode(), score.longValue()));
+                }
+            }
+            if (ordersDispatches.size() < LOAD_BATCH_SIZE) {
+                return;
+            }
+            lastId = ordersDispatches.get(ordersDispatches.size() - 1).getId();
+        }
+    }
+
+    private void onPublished(String msg) {
+        JsonUtils.parseArray(msg).toList(DispatchRoundDTO.class).forEach(this::schedule);
+    }
+
+    private void fireLoop() {
+        while (running) {
+            List<DispatchRound> dueRounds = new ArrayList<>();
+            try {
+                dueRounds.add(delayQueue.take());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            // 同时到期的轮次合并为一批，一次查询派单服务人员或机构
+            delayQueue.drainTo(dueRounds, FIRE_BATCH_SIZE - 1);
+            // 轮次已被重新调度或分片已移交
+            List<DispatchRound> toFire = dueRounds.stream()
+                    .filter(round -> rounds.remove(round.id, round) && ownedShards.contains(round.shard) && firingIds.add(round.id))
+                    .collect(Collectors.toList());
+            if (CollUtils.isNotEmpty(toFire)) {
+                dispatchExecutor.execute(() -> fire(toFire));
+            }
+        }
+    }
+
+    /**
+     * 执行派单，完成后按派单列表中的下次派单时间重新调度
+     *
+     * @param dueRounds 到期的派单轮次
+     */
+    private void fire(List<DispatchRound> dueRounds) {
+        dueRounds.forEach(round -> dispatchMetrics.recordRoundLag(round.dispatchTimeMillis));
+        try {
+            // 1.一次管道读取分片租约及派单时间
+            List<Integer> shards = dueRounds.stream().map(round -> round.shard).distinct().collect(Collectors.toList());
+            List<Object> results = redisTemplate.executePipelined(new SessionCallback<Object>() {
+                @Override
+                public Object execute(RedisOperations operations) {
+                    shards.forEach(shard -> operations.opsForValue().get(String.format(DISPATCH_SHARD_OWNER, shard)));
+                    dueRounds.forEach(round -> operations.opsForZSet().score(DISPATCH_LIST, round.id));
+                    return null;
+                }
+            });
+            // 2.租约已不属于本节点的分片不再派单，避免租约过期后与接管节点重复派单
+            Set<Integer> fencedShards = new HashSet<>();
+            for (int index = 0; index < shards.size(); index++) {
+                if (nodeId.equals(results.get(index)) && ownedShards.contains(shards.get(index))) {
+                    fencedShards.add(shards.get(index));
+                } else {
+                    log.info("派单城市分片{}租约已不属于节点{}，放弃本批派单", shards.get(index), nodeId);
+                }
+            }
+            // 3.派单列表中不存在说明已派单成功或已转人工
+            List<Long> ids = new ArrayList<>(dueRounds.size());
+            for (int index = 0; index < dueRounds.size(); index++) {
+                DispatchRound round = dueRounds.get(index);
+                Double score = (Double) results.get(shards.size() + index);
+                if (fencedShards.contains(round.shard) && score != null && TimeUnit.SECONDS.toMillis(score.longValue()) <= System.currentTimeMillis()) {
+                    ids.add(round.id);
+                }
+            }
+            ordersDispatchService.batchDispatch(ids);
+        } catch (Exception e) {
+            log.error("批量派单异常", e);
+        } finally {
+            dueRounds.forEach(round -> firingIds.remove(round.id));
+        }
+        // 4.一次管道读取下次派单时间并重新调度
+        try {
+            List<Double> nextScores = getDispatchScores(dueRounds.stream().map(round -> round.id).collect(Collectors.toList()));
+            for (int index = 0; index < dueRounds.size(); index++) {
+                DispatchRound round = dueRounds.get(index);
+                if (nextScores.get(index) != null) {
+                    schedule(new DispatchRoundDTO(round.id, round.cityCode, nextScores.get(index).longValue()));
+                }
+            }
+        } catch (Exception e) {
+            // 未重新调度的轮次由下次对账加载
+            log.error("重新调度派单轮次异常", e);
+        }
+    }
+
+    /**
+     * 管道读取派单列表中的派单时间
+     *
+     * @param ids 订单id
+     * @return 与订单id顺序一致的派单时间，不在派单列表中为null
+     */
+    private List<Double> getDispatchScores(List<Long> ids) {
+        if (CollUtils.isEmpty(ids)) {
+            return Collections.emptyList();
+        }
+        List<Object> scores = redisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            public Object execute(RedisOperations operations) {
+                ids.forEach(id -> operations.opsForZSet().score(DISPATCH_LIST, id));
+                return null;
+            }
+        });
+        return scores.stream().map(score -> (Double) score).collect(Collectors.toList());
+    }
+
+    /**
+     * 续期已持有的分片租约，并尝试认领无人持有的分片
+     */
+    private void maintainShards() {
+        // 分片配置调整后释放超出分片数量的分片，并丢弃所在分片已变化的轮次，由新分片的负责节点重新加载
+        int shardCount = RedisUtils.getCityIndexCount();
+        for (Integer shard : new ArrayList<>(ownedShards)) {
+            if (shard >= shardCount) {
+                loseShard(shard);
+                releaseShard(shard);
+            }
+        }
+        rounds.values().removeIf(round -> RedisUtils.getCityIndex(round.cityCode) != round.shard);
+        for (int shard = 0; shard < shardCount; shard++) {
+            String ownerRedisKey = String.format(DISPATCH_SHARD_OWNER, shard);
+            try {
+                if (ownedShards.contains(shard)) {
+                    Long renewed = (Long) redisTemplate.execute(renewShardOwnerScript, Collections.singletonList(ownerRedisKey), nodeId, SHARD_LEASE_MILLIS);
+                    if (renewed == null || renewed == 0) {
+                        loseShard(shard);
+                    }
+                } else if (Boolean.TRUE.equals(redisTemplate.opsForValue().setIfAbsent(ownerRedisKey, nodeId, SHARD_LEASE_MILLIS, TimeUnit.MILLISECONDS))) {
+                    ownedShards.add(shard);
+                    receiveTimeoutShards.add(shard);
+                    log.info("节点{}负责派单城市分片{}", nodeId, shard);
+                }
+            } catch (Exception e) {
+                // 无法确认租约时放弃分片，避免与接管节点重复派单
+                log.error("派单城市分片{}租约续期异常", shard, e);
+                loseShard(shard);
+            }
+        }
+        try {
+            loadDueRounds();
+        } catch (Exception e) {
+            log.error("派单轮次对账异常", e);
+        }
+        // 新接管的分片重建接单超时，失败时下次重试
+        receiveTimeoutShards.retainAll(ownedShards);
+        try {
+            receiveTimeoutScheduler.load(receiveTimeoutShards);
+            receiveTimeoutShards.clear();
+        } catch (Exception e) {
+            log.error("城市分片{}重建接单超时异常", receiveTimeoutShards, e);
+        }
+    }
+
+    private void loseShard(int shard) {
+        ownedShards.remove(shard);
+        rounds.values().removeIf(round -> round.shard == shard);
+        log.info("节点{}不再负责派单城市分片{}", nodeId, shard);
+    }
+
+    private void releaseShard(int shard) {
+        try {
+            // 仅当租约归属当前节点时将有效期缩短为1毫秒
+            redisTemplate.execute(renewShardOwnerScript, Collections.singletonList(String.format(DISPATCH_SHARD_OWNER, shard)), nodeId, 1L);
+        } catch (Exception e) {
+            log.error("释放派单城市分片{}租约异常", shard, e);
+        }
+    }
+
+    private RTopic getTopic() {
+        return redissonClient.getTopic(DISPATCH_ROUND_TOPIC, StringCodec.INSTANCE);
+    }
+
+    /**
+     * 延迟队列中的派单轮次
+     */
+    private static class DispatchRound implements Delayed {
+
+        private final Long id;
+
+        private final String cityCode;
+
+        private final int shard;
+
+        /**
+         * 派单时间，单位：毫秒
+         */
+        private final long dispatchTimeMillis;
+
+        private DispatchRound(Long id, String cityCode, int shard, long dispatchTimeMillis) {
+            this.id = id;
+            this.cityCode = cityCode;
+            this.shard = shard;
+            this.dispatchTimeMillis = dispatchTimeMillis;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(dispatchTimeMillis - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return Long.compare(dispatchTimeMillis, ((DispatchRound) other).dispatchTimeMillis);
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package com.jzo2o.orders.dispatch.scheduler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * 哈希时间轮
+ * 时间按刻度划分为环形的槽，定时任务按到期刻度放入对应的槽，超过一圈的记录剩余圈数，
+ * 新增、取消及到期均为O(1)，每个刻度只处理当前槽中的任务，适合大量超时时间相近的定时任务。
+ * 新增和取消可在任意线程执行，推进时间轮只能由单一线程执行；到期时间最多延迟一个刻度，不会提前到期。
+ */
+public class HashedTimingWheel {
+
+    /**
+     * 刻度时长，单位：毫秒
+     */
+    private final long tickMillis;
+
+    /**
+     * 时间轮起始时间，单位：毫秒
+     */
+    private final long startTime;
+
+    private final Bucket[] buckets;
+
+    private final int mask;
+
+    /**
+     * 每个id当前有效的定时任务，重复新增时以最后一次为准
+     */
+    private final Map<Long, Timeout> timeouts = new ConcurrentHashMap<>();
+
+    /**
+     * 待放入槽中的定时任务，由推进时间轮的线程放入
+     */
+    private final Queue<Timeout> pendingTimeouts = new ConcurrentLinkedQueue<>();
+
+    /**
+     * 已处理的刻度数
+     */
+    private long tick;
+
+    /**
+     * @param tickMillis 刻度时长，单位：毫秒
+     * @param ticksPerWheel 每圈刻度数，向上取2的幂
+     * @param startTime 时间轮起始时间，单位：毫秒
+     */
+    public HashedTimingWheel(long tickMillis, int ticksPerWheel, long startTime) {
+        if (tickMillis <= 0 || ticksPerWheel <= 0) {
+            throw new IllegalArgumentException("tickMillis and ticksPerWheel must be positive");
+        }
+        int length = Integer.highestOneBit(ticksPerWheel - 1) << 1;
+        this.tickMillis = tickMillis;
+        this.startTime = startTime;
+        this.buckets = new Bucket[Math.max(length, 1)];
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new Bucket();
+        }
+        this.mask = buckets.length - 1;
+    }
+
+    /**
+     * 新增定时任务，同一id已存在时替换原定时任务
+     *
+     * @param id 任务id
+     * @param deadline 到期时间，单位：毫秒
+     */
+    public void add(Long id, long deadline) {
+        Timeout timeout = new Timeout(id, deadline);
+        Timeout old = timeouts.put(id, timeout);
+        if (old != null) {
+            old.cancelled = true;
+        }
+        pendingTimeouts.add(timeout);
+    }
+
+    /**
+     * 取消定时任务，已取消的任务在所在槽下次被处理时移除
+     *
+     * @param id 任务id
+     * @return 任务存在且未到期返回true
+     */
+    public boolean cancel(Long id) {
+        Timeout timeout = timeouts.remove(id);
+        if (timeout == null) {
+            return false;
+        }
+        timeout.cancelled = true;
+        return true;
+    }
+
+    /**
+     * 推进时间轮到指定时间，只能由单一线程调用
+     *
+     * @param now 当前时间，单位：毫秒
+     * @return 到期的任务id
+     */
+    public List<Long> advance(long now) {
+        List<Long> expired = new ArrayList<>();
+        // 刻度结束时间不晚于当前时间的刻度均可处理
+        while (startTime + (tick + 1) * tickMillis <= now) {
+            transferPendingTimeouts();
+            buckets[(int) (tick & mask)].expire(expired);
+            tick++;
+        }
+        return expired;
+    }
+
+    /**
+     * 下一刻度的结束时间，单位：毫秒
+     */
+    public long nextTickTime() {
+        return startTime + (tick + 1) * tickMillis;
+    }
+
+    /**
+     * 未到期且未取消的任务数量
+     */
+    public int size() {
+        return timeouts.size();
+    }
+
+    private void transferPendingTimeouts() {
+        Timeout timeout;
+        while ((timeout = pendingTimeouts.poll()) != null) {
+            if (timeout.cancelled) {
+                continue;
+            }
+            // 已过期的任务放入当前刻度，本次处理即到期
+            long calculated = Math.max(Math.floorDiv(timeout.deadline - startTime, tickMillis), tick);
+            timeout.remainingRounds = (calculated - tick) / buckets.length;
+            buckets[(int) (calculated & mask)].add(timeout);
+        }
+    }
+
+    /**
+     * 时间轮的槽，双向链表
+     */
+    private class Bucket {
+
+        private Timeout head;
+
+        private Timeout tail;
+
+        private void add(Timeout timeout) {
+            if (head == null) {
+                head = tail = timeout;
+            } else {
+                tail.next = timeout;
+                timeout.prev = tail;
+                tail = timeout;
+            }
+        }
+
+        private void expire(List<Long> expired) {
+            Timeout timeout = head;
+            while (timeout != null) {
+                Timeout next = timeout.next;
+                if (timeout.cancelled) {
+                    remove(timeout);
+                } else if (timeout.remainingRounds <= 0) {
+                    remove(timeout);
+                    // 与取消并发时只有一方成功
+                    if (timeouts.remove(timeout.id, timeout)) {
+                        expired.add(timeout.id);
+                    }
+                } else {
+                    timeout.remainingRounds--;
+                }
+                timeout = next;
+            }
+        }
+
+        private void remove(Timeout timeout) {
+            if (timeout.prev == null) {
+                head = timeout.next;
+            } else {
+                timeout.prev.next = timeout.next;
+            }
+            if (timeout.next == null) {
+                tail = timeout.prev;
+            } else {
+                timeout.next.prev = timeout.prev;
+            }
+            timeout.prev = null;
+            timeout.next = null;
+        }
+    }
+
+    private static class Timeout {
+
+        private final Long id;
+
+        /**
+         * 到期时间，单位：毫秒
+         */
+        private final long deadline;
+
+        /**
+         * 到期前剩余的圈数
+         */
+        private long remainingRounds;
+
+        private volatile boolean cancelled;
+
+        private Timeout prev;
+
+        private Timeout next;
+
+        private Timeout(Long id, long deadline) {
+            this.id = id;
+            this.deadline = deadline;
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package com.jzo2o.orders.dispatch.scheduler;
+
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.jzo2o.common.utils.CollUtils;
+import com.jzo2o.common.utils.DateUtils;
+import com.jzo2o.orders.base.mapper.OrdersDispatchReceiveMapper;
+import com.jzo2o.orders.base.model.domain.OrdersDispatchReceive;
+import com.jzo2o.orders.base.utils.RedisUtils;
+import com.jzo2o.orders.dispatch.service.IOrdersDispatchReceiveService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 接单超时调度器
+ * 派单成功的订单按接单截止时间放入内存时间轮，到期交给接单超时线程池处理，新增及到期均为O(1)。
+ * 待接单记录保存在orders_dispatch_receive中，节点接管城市分片时从中重建该分片的定时任务。
+ */
+@Component
+@Slf4j
+public class ReceiveTimeoutScheduler {
+
+    /**
+     * 时间轮刻度，单位：毫秒
+     */
+    private static final long TICK_MILLIS = 1000L;
+
+    /**
+     * 时间轮每圈刻度数，默认接单超时时间内无需多圈
+     */
+    private static final int TICKS_PER_WHEEL = 512;
+
+    /**
+     * 重建时每次读取的待接单记录数量
+     */
+    private static final int LOAD_BATCH_SIZE = 500;
+
+    /**
+     * 每批处理的超时订单数量
+     */
+    private static final int FIRE_BATCH_SIZE = 100;
+
+    /**
+     * 处理异常后重试的间隔，单位：毫秒
+     */
+    private static final long RETRY_DELAY_MILLIS = 60 * 1000L;
+
+    @Resource(name = "receiveTimeoutExecutor")
+    private Executor receiveTimeoutExecutor;
+
+    @Resource
+    private OrdersDispatchReceiveMapper ordersDispatchReceiveMapper;
+
+    @Resource
+    private IOrdersDispatchReceiveService ordersDispatchReceiveService;
+
+    private final HashedTimingWheel timingWheel = new HashedTimingWheel(TICK_MILLIS, TICKS_PER_WHEEL, System.currentTimeMillis());
+
+    private Thread tickThread;
+
+    private volatile boolean running;
+
+    @PostConstruct
+    public void start() {
+        running = true;
+        tickThread = new Thread(this::tickLoop, "receive-timeout-wheel");
+        tickThread.setDaemon(true);
+        tickThread.start();
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        tickThread.interrupt();
+    }
+
+    /**
+     * 调度接单超时
+     *
+     * @param id 订单id
+     * @param receiveDeadline 接单截止时间，单位：毫秒
+     */
+    public void schedule(Long id, long receiveDeadline) {
+        timingWheel.add(id, receiveDeadline);
+    }
+
+    /**
+     * 取消接单超时
+     *
+     * @param id 订单id
+     */
+    public void cancel(Long id) {
+        timingWheel.cancel(id);
+    }
+
+    /**
+     * 从待接单记录重建城市分片的接单超时，用于节点启动及接管分片
+     *
+     * @param shards 城市分片
+     */
+    public void load(Collection<Integer> shards) {
+        if (CollUtils.isEmpty(shards)) {
+            return;
+        }
+        long lastId = 0;
+        int loaded = 0;
+        while (true) {
+            // 按id游标分页读取
+            List<OrdersDispatchReceive> receives = ordersDispatchReceiveMapper.selectList(new LambdaQueryWrapper<OrdersDispatchReceive>()
+                    .gt(OrdersDispatchReceive::getId, lastId)
+                    .select(OrdersDispatchReceive::getId, OrdersDispatchReceive::getCityCode, OrdersDispatchReceive::getReceiveDeadline)
+                    .orderByAsc(OrdersDispatchReceive::getId)
+                    .last("limit " + LOAD_BATCH_SIZE));
+            for (OrdersDispatchReceive receive : receives) {
+                if (shards.contains(RedisUtils.getCityIndex(receive.getCityCode()))) {
+                    schedule(receive.getId(), DateUtils.toEpochMilli(receive.getReceiveDeadline()));
+                    loaded++;
+                }
+            }
+            if (receives.size() < LOAD_BATCH_SIZE) {
+                break;
+            }
+            lastId = receives.get(receives.size() - 1).getId();
+        }
+        log.info("城市分片{}重建接单超时{}条", shards, loaded);
+    }
+
+    /**
+     * 未到期的接单超时数量
+     */
+    public int size() {
+        return timingWheel.size();
+    }
+
+    private void tickLoop() {
+        while (running) {
+            try {
+                long sleepMillis = timingWheel.nextTickTime() - System.currentTimeMillis();
+                if (sleepMillis > 0) {
+                    TimeUnit.MILLISECONDS.sleep(sleepMillis);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            List<Long> expired = timingWheel.advance(System.currentTimeMillis());
+            // 同一刻度到期的订单分批处理
+            for (int from = 0; from < expired.size(); from += FIRE_BATCH_SIZE) {
+                List<Long> ids = expired.subList(from, Math.min(from + FIRE_BATCH_SIZE, expired.size()));
+                receiveTimeoutExecutor.execute(() -> fire(ids));
+            }
+        }
+    }
+
+    private void fire(List<Long> ids) {
+        try {
+            ordersDispatchReceiveService.timeout(ids);
+        } catch (Exception e) {
+            // 待接单记录仍在的订单稍后重试
+            log.error("接单超时处理异常，{}秒后重试", TimeUnit.MILLISECONDS.toSeconds(RETRY_DELAY_MILLIS), e);
+            long retryTime = System.currentTimeMillis() + RETRY_DELAY_MILLIS;
+            ids.forEach(id -> schedule(id, retryTime));
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.jzo2o.orders.dispatch.service;
+
+import com.baomidou.mybatisplus.extension.service.IService;
+import com.jzo2o.orders.base.model.domain.OrdersDispatch;
+import com.jzo2o.orders.base.model.domain.OrdersDispatchReceive;
+import com.jzo2o.orders.dispatch.model.dto.ServeProviderDTO;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * 派单待接单记录 服务类
+ * </p>
+ *
+ * @author itcast
+ * @since 2023-08-21
+ */
+public interface IOrdersDispatchReceiveService extends IService<OrdersDispatchReceive> {
+
+    /**
+     * 记录派单成功的订单，按接单超时时间调度接单超时
+     *
+     * @param ordersDispatches 派单成功的订单
+     * @param serveProviderMap 派单id与派单服务人员或机构的对应关系
+     */
+    void register(List<OrdersDispatch> ordersDispatches, Map<Long, ServeProviderDTO> serveProviderMap);
+
+    /**
+     * 派单结束（派单池删除，已生成服务单或已过期），结束接单超时跟踪并清除排除的服务人员或机构
+     *
+     * @param ids 订单id列表
+     */
+    void finish(List<Long> ids);
+
+    /**
+     * 处理接单超时，派单结果尚未生成服务单的撤销派单结果后重新派单
+     *
+     * @param ids 订单id列表
+     */
+    void timeout(List<Long> ids);
+}
@@ -24,6 +24,12 @@ public interface IOrdersDispatchService extends IService<OrdersDispatch> {
      */
     void dispatch(Long id);
 
+    /**
+     * 批量派单，同一轮到期的订单合并查询派单服务人员或机构
+     * @param ids 订单id列表
+     */
+    void batchDispatch(List<Long> ids);
+
 
     /**
      * 批量向派单池中添加派单信息
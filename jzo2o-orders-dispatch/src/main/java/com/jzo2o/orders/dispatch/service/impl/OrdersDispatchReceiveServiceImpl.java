@@ -0,0 +1,255 @@
+package com.jzo2o.orders.dispatch.service.impl;
+
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.jzo2o.common.utils.CollUtils;
+import com.jzo2o.common.utils.DateUtils;
+import com.jzo2o.common.utils.NumberUtils;
+import com.jzo2o.orders.base.mapper.OrdersDispatchReceiveMapper;
+import com.jzo2o.orders.base.mapper.OrdersServeMapper;
+import com.jzo2o.orders.base.model.domain.OrdersDispatch;
+import com.jzo2o.orders.base.model.domain.OrdersDispatchReceive;
+import com.jzo2o.orders.base.model.domain.OrdersServe;
+import com.jzo2o.orders.base.properties.DispatchProperties;
+import com.jzo2o.orders.base.service.IRedisReshardService;
+import com.jzo2o.orders.base.utils.RedisUtils;
+import com.jzo2o.orders.base.utils.SeizeTopicUtils;
+import com.jzo2o.orders.dispatch.model.dto.DispatchRoundDTO;
+import com.jzo2o.orders.dispatch.model.dto.ServeProviderDTO;
+import com.jzo2o.orders.dispatch.scheduler.DispatchRoundScheduler;
+import com.jzo2o.orders.dispatch.scheduler.ReceiveTimeoutScheduler;
+import com.jzo2o.orders.dispatch.service.IOrdersDispatchReceiveService;
+import com.jzo2o.redis.utils.RedisSyncQueueUtils;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSerializer;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static com.jzo2o.orders.base.constants.RedisConstants.Lock.DISPATCH_OR_SEIZE_LOCK;
+import static com.jzo2o.orders.base.constants.RedisConstants.RedisKey.DISPATCH_LIST;
+import static com.jzo2o.orders.base.constants.RedisConstants.RedisKey.ORDERS_RESOURCE_STOCK;
+import static com.jzo2o.orders.base.constants.RedisConstants.RedisKey.ORDERS_SEIZE_SERVE_TIME;
+import static com.jzo2o.orders.base.constants.RedisConstants.RedisKey.ORERS_SEIZE_SYNC_QUEUE_NAME;
+import static com.jzo2o.orders.base.constants.RedisConstants.RedisKey.REDIS_SHARD_VERSION;
+import static com.jzo2o.orders.base.constants.RedisConstants.RedisKey.SERVE_PROVIDER_STATE;
+import static com.jzo2o.orders.base.constants.RedisConstants.RedisKey.SERVE_PROVIDER_TIME_BITMAP;
+
+/**
+ * <p>
+ * 派单待接单记录 服务实现类
+ * 派单成功后机器抢单结果写入抢单同步队列，同步生成服务单后派单池删除即视为已接单；
+ * 超过接单超时时间仍未生成服务单的，撤销派单结果，恢复库存并释放服务人员或机构占用的服务时间及接单数量后重新进入派单列表。
+ * 当前没有服务人员或机构确认接单的流程，接单超时实际发现的是抢单结果同步停滞的派单，而非服务人员或机构未确认，不排除该服务人员或机构。
+ * </p>
+ *
+ * @author itcast
+ * @since 2023-08-21
+ */
+@Service
+@Slf4j
+public class OrdersDispatchReceiveServiceImpl extends ServiceImpl<OrdersDispatchReceiveMapper, OrdersDispatchReceive> implements IOrdersDispatchReceiveService {
+
+    /**
+     * 撤销派单结果时获取抢派单锁的等待时间，单位：秒
+     */
+    private static final long REVOKE_LOCK_WAIT = 3;
+
+    /**
+     * 撤销派单结果时抢派单锁的持有时间，单位：秒
+     */
+    private static final long REVOKE_LOCK_LEASE = 30;
+
+    @Resource
+    private RedisTemplate redisTemplate;
+
+    @Resource
+    private DispatchProperties dispatchProperties;
+
+    @Resource
+    private ReceiveTimeoutScheduler receiveTimeoutScheduler;
+
+    @Resource
+    private DispatchRoundScheduler dispatchRoundScheduler;
+
+    @Resource
+    private IRedisReshardService redisReshardService;
+
+    @Resource
+    private RedissonClient redissonClient;
+
+    @Resource
+    private OrdersServeMapper ordersServeMapper;
+
+    @Resource(name = "receiveTimeoutScript")
+    private DefaultRedisScript<Long> receiveTimeoutScript;
+
+    @Override
+    public void register(List<OrdersDispatch> ordersDispatches, Map<Long, ServeProviderDTO> serveProviderMap) {
+        if (!Boolean.TRUE.equals(dispatchProperties.getReceiveTimeoutEnabled()) || CollUtils.isEmpty(ordersDispatches)) {
+            return;
+        }
+        LocalDateTime now = DateUtils.now();
+        LocalDateTime receiveDeadline = now.plusSeconds(dispatchProperties.getReceiveTimeout());
+        List<OrdersDispatchReceive> receives = ordersDispatches.stream()
+                .map(ordersDispatch -> OrdersDispatchReceive.builder()
+                        .id(ordersDispatch.getId())
+                        .cityCode(ordersDispatch.getCityCode())
+                        .serveProviderId(serveProviderMap.get(ordersDispatch.getId()).getId())
+                        .serveProviderType(serveProviderMap.get(ordersDispatch.getId()).getServeProviderType())
+                        .receiveDeadline(receiveDeadline)
+                        .createTime(now)
+                        .build())
+                .collect(Collectors.toList());
+        // 1.保存待接单记录，节点接管城市分片时据此重建接单超时
+        saveOrUpdateBatch(receives, 100);
+        // 2.按接单截止时间调度接单超时
+        long receiveDeadlineMillis = DateUtils.toEpochMilli(receiveDeadline);
+        receives.forEach(receive -> receiveTimeoutScheduler.schedule(receive.getId(), receiveDeadlineMillis));
+    }
+
+    @Override
+    public void finish(List<Long> ids) {
+        if (CollUtils.isEmpty(ids)) {
+            return;
+        }
+        removeByIds(ids);
+        ids.forEach(receiveTimeoutScheduler::cancel);
+    }
+
+    @Override
+    public void timeout(List<Long> ids) {
+        if (CollUtils.isEmpty(ids)) {
+            return;
+        }
+        // 1.查询待接单记录，已接单的记录已删除，城市分片已移交的由接管节点处理
+        List<OrdersDispatchReceive> receives = listByIds(ids).stream()
+                .filter(receive -> dispatchRoundScheduler.isOwnedShard(RedisUtils.getCityIndex(receive.getCityCode())))
+                .collect(Collectors.toList());
+        long now = System.currentTimeMillis();
+        List<DispatchRoundDTO> dispatchRounds = new ArrayList<>();
+        List<Long> revokedIds = new ArrayList<>();
+        for (OrdersDispatchReceive receive : receives) {
+            // 重新派单后再次派单成功，按新的接单截止时间调度
+            long receiveDeadline = DateUtils.toEpochMilli(receive.getReceiveDeadline());
+            if (receiveDeadline > now) {
+                receiveTimeoutScheduler.schedule(receive.getId(), receiveDeadline);
+                continue;
+            }
+            // 2.删除待接单记录，删除成功的节点负责处理
+            boolean removed = remove(new LambdaQueryWrapper<OrdersDispatchReceive>()
+                    .eq(OrdersDispatchReceive::getId, receive.getId())
+                    .eq(OrdersDispatchReceive::getServeProviderId, receive.getServeProviderId()));
+            if (!removed) {
+                continue;
+            }
+            // 3.撤销尚未同步生成服务单的派单结果，撤销异常时恢复待接单记录，稍后重试
+            Boolean revoked;
+            try {
+                revoked = revoke(receive);
+            } catch (RuntimeException e) {
+                save(receive);
+                throw e;
+            }
+            // 抢单结果同步正在生成服务单，恢复待接单记录，锁持有时间后再处理
+            if (revoked == null) {
+                save(receive);
+                receiveTimeoutScheduler.schedule(receive.getId(), now + TimeUnit.SECONDS.toMillis(REVOKE_LOCK_LEASE));
+                continue;
+            }
+            if (!revoked) {
+                log.info("订单{}派单结果已同步，无需重新派单", receive.getId());
+                continue;
+            }
+            revokedIds.add(receive.getId());
+            // 4.重新进入派单列表，立即派单
+            long dispatchTime = DateUtils.getCurrentTime();
+            redisTemplate.opsForZSet().add(DISPATCH_LIST, receive.getId(), dispatchTime);
+            dispatchRounds.add(new DispatchRoundDTO(receive.getId(), receive.getCityCode(), dispatchTime));
+            log.info("订单{}服务人员或机构{}接单超时，重新派单", receive.getId(), receive.getServeProviderId());
+        }
+        // 5.库存已恢复，清除所有抢单节点的售罄记录
+        SeizeTopicUtils.publishAvailable(redissonClient, revokedIds);
+        dispatchRoundScheduler.publish(dispatchRounds);
+    }
+
+    /**
+     * 撤销派单结果，派单结果仍在抢单同步队列中时删除并恢复库存
+     * 持有订单的抢派单锁执行，抢单结果同步在同一把锁内生成服务单，并跳过已被撤销的派单结果
+     *
+     * @param receive 待接单记录
+     * @return 撤销成功返回true，派单结果已同步返回false，等待抢派单锁超时返回null
+     */
+    private Boolean revoke(OrdersDispatchReceive receive) {
+        RLock lock = redissonClient.getLock(String.format(DISPATCH_OR_SEIZE_LOCK, receive.getId()));
+        boolean locked;
+        try {
+            locked = lock.tryLock(REVOKE_LOCK_WAIT, REVOKE_LOCK_LEASE, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("订单" + receive.getId() + "获取抢派单锁被中断", e);
+        }
+        if (!locked) {
+            log.info("订单{}抢派单锁被占用，稍后处理接单超时", receive.getId());
+            return null;
+        }
+        try {
+            // 服务单已生成，同步队列中的派单结果可能尚未删除，不能撤销
+            Integer serveCount = ordersServeMapper.selectCount(new LambdaQueryWrapper<OrdersServe>()
+                    .eq(OrdersServe::getId, receive.getId())
+                    .ge(OrdersServe::getServeProviderId, 0));
+            if (serveCount != null && serveCount > 0) {
+                return false;
+            }
+            return revokeSyncQueue(receive);
+        } finally {
+            if (lock.isHeldByCurrentThread()) {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * 从抢单同步队列删除派单结果并恢复库存
+     *
+     * @param receive 待接单记录
+     * @return 派单结果仍在同步队列中返回true
+     */
+    private boolean revokeSyncQueue(OrdersDispatchReceive receive) {
+        // 城市编码最后1位序号
+        int index = RedisUtils.getCityIndex(receive.getCityCode());
+        Long serveProviderId = receive.getServeProviderId();
+        // 分片迁移期间先将订单及服务人员数据从原分片迁移到当前分片
+        if (RedisUtils.isResharding()) {
+            redisReshardService.migrateOrders(receive.getCityCode(), Collections.singletonList(receive.getId()));
+            redisReshardService.migrateServeProviders(receive.getCityCode(), Collections.singletonList(serveProviderId));
+        }
+        // 抢单结果同步队列，资源库存，分片版本，服务状态，抢单服务时间，服务时间位图，与派单脚本一致
+        List<String> keys = Arrays.asList(RedisSyncQueueUtils.getQueueRedisKey(ORERS_SEIZE_SYNC_QUEUE_NAME, index),
+                String.format(ORDERS_RESOURCE_STOCK, index), String.format(REDIS_SHARD_VERSION, index),
+                String.format(SERVE_PROVIDER_STATE, index), String.format(ORDERS_SEIZE_SERVE_TIME, index),
+                String.format(SERVE_PROVIDER_TIME_BITMAP, serveProviderId, index));
+        Object result = redisTemplate.execute(receiveTimeoutScript,
+                // 序列化串行器，与派单脚本一致
+                new GenericJackson2JsonRedisSerializer(), new GenericJackson2JsonRedisSerializer(),
+                keys, receive.getId(), RedisUtils.getShardVersion(), serveProviderId + "_num", receive.getServeProviderType());
+        long revoked = result == null ? 0 : NumberUtils.parseLong(result.toString());
+        // 分片配置未刷新时稍后重试
+        if (revoked == -7) {
+            throw new IllegalStateException("redis分片配置未刷新，订单" + receive.getId() + "接单超时稍后处理");
+        }
+        return revoked == 1;
+    }
+}
@@ -1,38 +1,78 @@
 package com.jzo2o.orders.dispatch.service.impl;
 
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
 import co.elastic.clients.elasticsearch._types.*;
+import co.elastic.clients.elasticsearch._types.query_dsl.Query;
+import co.elastic.clients.elasticsearch.core.MsearchRequest;
+import co.elastic.clients.elasticsearch.core.MsearchResponse;
 import co.elastic.clients.elasticsearch.core.SearchRequest;
 import co.elastic.clients.elasticsearch.core.SearchResponse;
+import co.elastic.clients.elasticsearch.core.msearch.MultiSearchResponseItem;
 import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.jzo2o.api.customer.dto.response.ServeProviderResDTO;
 import com.jzo2o.api.foundations.RegionApi;
 import com.jzo2o.api.foundations.dto.response.ConfigRegionInnerResDTO;
 import com.jzo2o.api.orders.OrdersSeizeApi;
 import com.jzo2o.api.orders.dto.request.OrderSeizeReqDTO;
+import com.jzo2o.common.constants.ErrorInfo;
+import com.jzo2o.common.constants.UserType;
+import com.jzo2o.common.expcetions.CommonException;
 import com.jzo2o.common.utils.*;
 import com.jzo2o.es.core.ElasticSearchTemplate;
 import com.jzo2o.es.utils.SearchResponseUtils;
 import com.jzo2o.orders.base.mapper.OrdersDispatchMapper;
 import com.jzo2o.orders.base.model.domain.OrdersDispatch;
 import com.jzo2o.orders.base.model.domain.ServeProviderInfo;
+import com.jzo2o.orders.base.properties.DispatchProperties;
+import com.jzo2o.orders.base.service.IRedisReshardService;
+import com.jzo2o.orders.base.utils.RedisUtils;
 import com.jzo2o.orders.base.utils.ServeTimeUtils;
+import com.jzo2o.orders.dispatch.cache.DispatchLocalCache;
 import com.jzo2o.orders.dispatch.enums.DispatchStrategyEnum;
+import com.jzo2o.orders.dispatch.geo.ServeProviderGeoIndex;
+import com.jzo2o.orders.dispatch.metrics.DispatchMetrics;
 import com.jzo2o.orders.dispatch.model.dto.ServeProviderDTO;
+import com.jzo2o.orders.dispatch.scheduler.DispatchBackoff;
+import com.jzo2o.orders.dispatch.service.IOrdersDispatchReceiveService;
 import com.jzo2o.orders.dispatch.service.IOrdersDispatchService;
+import com.jzo2o.orders.dispatch.strategys.DispatchRoundAssigner;
 import com.jzo2o.orders.dispatch.strategys.IDispatchStrategy;
 import com.jzo2o.orders.dispatch.strategys.IDispatchStrategyManager;
+import com.jzo2o.orders.dispatch.strategys.WeightedScoreFunction;
+import com.jzo2o.redis.utils.RedisSyncQueueUtils;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.RedisOperations;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSerializer;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import javax.annotation.Resource;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
-
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static com.jzo2o.orders.base.constants.ErrorInfo.Msg.SEIZE_ORDERS_FAILD;
+import static com.jzo2o.orders.base.constants.ErrorInfo.Msg.SEIZE_ORDERS_RECEIVE_CLOSED;
+import static com.jzo2o.orders.base.constants.ErrorInfo.Msg.SEIZE_ORDERS_RECEIVE_ORDERS_NUM_OVER;
+import static com.jzo2o.orders.base.constants.ErrorInfo.Msg.SEIZE_ORDERS_SERVE_TIME_EXISTS;
 import static com.jzo2o.orders.base.constants.EsIndexConstants.SERVER_PROVIDER_INFO;
 import static com.jzo2o.orders.base.constants.RedisConstants.RedisKey.DISPATCH_LIST;
+import static com.jzo2o.orders.base.constants.RedisConstants.RedisKey.ORDERS_RESOURCE_STOCK;
+import static com.jzo2o.orders.base.constants.RedisConstants.RedisKey.ORDERS_SEIZE_SERVE_TIME;
+import static com.jzo2o.orders.base.constants.RedisConstants.RedisKey.ORERS_SEIZE_SYNC_QUEUE_NAME;
+import static com.jzo2o.orders.base.constants.RedisConstants.RedisKey.REDIS_SHARD_VERSION;
+import static com.jzo2o.orders.base.constants.RedisConstants.RedisKey.SERVE_PROVIDER_STATE;
+import static com.jzo2o.orders.base.constants.RedisConstants.RedisKey.SERVE_PROVIDER_TIME_BITMAP;
 
 /**
  * <p>
@@ -62,6 +102,30 @@ public class OrdersDispatchServiceImpl extends ServiceImpl<OrdersDispatchMapper,
     @Resource
     private OrdersSeizeApi ordersSeizeApi;
 
+    @Resource
+    private DispatchRoundAssigner dispatchRoundAssigner;
+
+    @Resource
+    private DispatchProperties dispatchProperties;
+
+    @Resource
+    private DispatchBackoff dispatchBackoff;
+
+    @Resource(name = "dispatchOrdersScript")
+    private DefaultRedisScript<String> dispatchOrdersScript;
+
+    @Resource
+    private IRedisReshardService redisReshardService;
+
+    @Resource
+    private DispatchMetrics dispatchMetrics;
+
+    @Resource
+    private IOrdersDispatchReceiveService ordersDispatchReceiveService;
+
+    @Resource
+    private DispatchLocalCache dispatchLocalCache;
+
 
 //    @Override
 //    @Transactional(rollbackFor = Exception.class)
@@ -96,7 +160,7 @@ public class OrdersDispatchServiceImpl extends ServiceImpl<OrdersDispatchMapper,
     public void dispatch(Long id) {
         // 1.数据准备
         // 1.1.获取订单信息
-        OrdersDispatch ordersDispatch = ordersDispatchService.getById(id);
+        OrdersDispatch ordersDispatch = dispatchMetrics.record(DispatchMetrics.Phase.ORDERS, () -> ordersDispatchService.getById(id));
         if (ordersDispatch == null) {
             // 订单不在直接删除
             redisTemplate.opsForZSet().remove(DISPATCH_LIST, id);
@@ -106,28 +170,34 @@ public class OrdersDispatchServiceImpl extends ServiceImpl<OrdersDispatchMapper,
         // 1.3.服务时间,格式yyyyMMddHH
         int serveTime = ServeTimeUtils.getServeTimeInt(ordersDispatch.getServeStartTime());
         // 1.4.区域调度配置
-        ConfigRegionInnerResDTO configRegionInnerResDTO = regionApi.findConfigRegionByCityCode(ordersDispatch.getCityCode());
+        ConfigRegionInnerResDTO configRegionInnerResDTO = dispatchMetrics.record(DispatchMetrics.Phase.REGION, () -> regionApi.findConfigRegionByCityCode(ordersDispatch.getCityCode()));
         // 1.5.获取派单规则
         DispatchStrategyEnum dispatchStrategyEnum = DispatchStrategyEnum.of(configRegionInnerResDTO.getDispatchStrategy());
 
 
         // 2.修改下次执行时间(默认3分钟)，防止重复执行
-        ConfigRegionInnerResDTO configRegion = regionApi.findConfigRegionByCityCode(ordersDispatch.getCityCode());
-        redisTemplate.opsForZSet().incrementScore(DISPATCH_LIST, id, configRegion.getDispatchPerRoundInterval());
+        redisTemplate.opsForZSet().incrementScore(DISPATCH_LIST, id, configRegionInnerResDTO.getDispatchPerRoundInterval());
         // 2.获取派单人员或机构
         // 2.1.获取派单服务人员列表
-        List<ServeProviderDTO> serveProvidersOfServe = searchDispatchInfo(ordersDispatch.getCityCode(),
+        List<ServeProviderDTO> serveProvidersOfServe = dispatchMetrics.record(DispatchMetrics.Phase.SEARCH, () -> searchDispatchInfo(ordersDispatch.getCityCode(),
                 ordersDispatch.getServeItemId(),
                 100,
                 serveTime,
                 dispatchStrategyEnum,
                 ordersDispatch.getLon(),
                 ordersDispatch.getLat(),
-                10);
-        // 2.3.机构和服务人员列表合并，如果为空当前派单失败
+                DISPATCH_SEARCH_SIZE));
+        // 2.3.机构和服务人员列表合并，查询失败按正常间隔重新派单，如果为空当前派单失败
         log.info("派单筛选前数据,id:{},{}",id, serveProvidersOfServe);
+        if (serveProvidersOfServe == null) {
+            log.warn("id:{}查询派单服务人员失败", id);
+            dispatchMetrics.count(DispatchMetrics.Result.ERROR, 1);
+            return;
+        }
         if (CollUtils.isEmpty(serveProvidersOfServe)) {
             log.info("id:{}匹配不到人",id);
+            dispatchMetrics.count(DispatchMetrics.Result.NO_PROVIDER, 1);
+            dispatchBackoff.backoff(Collections.singletonList(ordersDispatch), Collections.singletonMap(ordersDispatch.getCityCode(), configRegionInnerResDTO));
             return;
         }
 
@@ -135,60 +205,319 @@ public class OrdersDispatchServiceImpl extends ServiceImpl<OrdersDispatchMapper,
         // 3.1.获取派单策略
         IDispatchStrategy dispatchStrategy = dispatchStrategyManager.get(dispatchStrategyEnum);
         // 3.2.过派单策略，并返回一个派单服务人员或机构
-        ServeProviderDTO serveProvider = dispatchStrategy.getPrecedenceServeProvider(serveProvidersOfServe);
+        ServeProviderDTO serveProvider = dispatchMetrics.record(DispatchMetrics.Phase.RULE, () -> dispatchStrategy.getPrecedenceServeProvider(serveProvidersOfServe));
         log.info("id:{},serveProvider : {}",id, JsonUtils.toJsonStr(serveProvider));
 
 //        // 4.机器抢单
+        try {
+            dispatchMetrics.record(DispatchMetrics.Phase.SEIZE, () -> machineSeize(ordersDispatch, serveProvider, configRegionInnerResDTO));
+        } catch (CommonException e) {
+            dispatchMetrics.count(DispatchMetrics.Result.SEIZE_FAILED, 1);
+            dispatchBackoff.backoff(Collections.singletonList(ordersDispatch), Collections.singletonMap(ordersDispatch.getCityCode(), configRegionInnerResDTO));
+            throw e;
+        } catch (RuntimeException e) {
+            // 非抢单结果的异常按正常间隔重新派单
+            dispatchMetrics.count(DispatchMetrics.Result.ERROR, 1);
+            throw e;
+        }
+        dispatchMetrics.count(DispatchMetrics.Result.SUCCESS, 1);
+        dispatchBackoff.reset(Collections.singletonList(ordersDispatch));
+        // 5.跟踪接单超时
+        registerReceive(Collections.singletonList(ordersDispatch), Collections.singletonMap(id, serveProvider));
+    }
+
+    @Override
+    public void batchDispatch(List<Long> ids) {
+        if (CollUtils.isEmpty(ids)) {
+            return;
+        }
+        dispatchMetrics.record(DispatchMetrics.Phase.BATCH, () -> doBatchDispatch(ids));
+    }
+
+    private void doBatchDispatch(List<Long> ids) {
+        // 1.数据准备
+        // 1.1.批量获取订单信息，订单不在直接删除
+        List<OrdersDispatch> ordersDispatches = dispatchMetrics.record(DispatchMetrics.Phase.ORDERS, () -> new ArrayList<>(ordersDispatchService.listByIds(ids)));
+        Set<Long> existsIds = ordersDispatches.stream().map(OrdersDispatch::getId).collect(Collectors.toSet());
+        Object[] notExistsIds = ids.stream().filter(id -> !existsIds.contains(id)).toArray();
+        if (notExistsIds.length > 0) {
+            redisTemplate.opsForZSet().remove(DISPATCH_LIST, notExistsIds);
+        }
+        if (CollUtils.isEmpty(ordersDispatches)) {
+            return;
+        }
+        // 1.2.按城市和服务项分组，区域调度配置每个城市只查询一次
+        ordersDispatches.sort(Comparator.comparing(OrdersDispatch::getCityCode).thenComparing(OrdersDispatch::getServeItemId));
+        Map<String, ConfigRegionInnerResDTO> configRegionMap = new HashMap<>();
+        Map<String, DispatchStrategyEnum> dispatchStrategyMap = new HashMap<>();
+        for (OrdersDispatch ordersDispatch : ordersDispatches) {
+            ConfigRegionInnerResDTO configRegion = configRegionMap.computeIfAbsent(ordersDispatch.getCityCode(),
+                    cityCode -> dispatchMetrics.record(DispatchMetrics.Phase.REGION, () -> regionApi.findConfigRegionByCityCode(cityCode)));
+            dispatchStrategyMap.computeIfAbsent(ordersDispatch.getCityCode(), cityCode -> DispatchStrategyEnum.of(configRegion.getDispatchStrategy()));
+        }
+        // 2.一次管道修改下次执行时间(默认3分钟)，防止重复执行
+        redisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            public Object execute(RedisOperations operations) {
+                ordersDispatches.forEach(ordersDispatch -> operations.opsForZSet().incrementScore(DISPATCH_LIST, ordersDispatch.getId(),
+                        configRegionMap.get(ordersDispatch.getCityCode()).getDispatchPerRoundInterval()));
+                return null;
+            }
+        });
+
+        // 3.一次多条件查询获取所有订单的派单服务人员列表
+        List<List<ServeProviderDTO>> serveProvidersList = dispatchMetrics.record(DispatchMetrics.Phase.SEARCH, () -> multiSearchDispatchInfo(ordersDispatches, dispatchStrategyMap));
+
+        // 4.确定每单的派单服务人员或机构
+        Map<Long, ServeProviderDTO> serveProviderMap = dispatchMetrics.record(DispatchMetrics.Phase.RULE,
+                () -> selectServeProviders(ordersDispatches, serveProvidersList, configRegionMap, dispatchStrategyMap));
+
+        // 5.机器抢单
+        List<OrdersDispatch> succeeded = new ArrayList<>();
+        List<OrdersDispatch> failed = new ArrayList<>();
+        int errors = 0;
+        for (int i = 0; i < ordersDispatches.size(); i++) {
+            OrdersDispatch ordersDispatch = ordersDispatches.get(i);
+            Long id = ordersDispatch.getId();
+            // 查询失败与未匹配到人区分，按正常间隔重新派单，不计入连续失败次数
+            if (serveProvidersList.get(i) == null) {
+                log.warn("id:{}查询派单服务人员失败", id);
+                errors++;
+                continue;
+            }
+            ServeProviderDTO serveProvider = serveProviderMap.get(id);
+            if (serveProvider == null) {
+                log.info("id:{}匹配不到人", id);
+                dispatchMetrics.count(DispatchMetrics.Result.NO_PROVIDER, 1);
+                failed.add(ordersDispatch);
+                continue;
+            }
+            log.info("id:{},serveProvider : {}", id, JsonUtils.toJsonStr(serveProvider));
+            try {
+                dispatchMetrics.record(DispatchMetrics.Phase.SEIZE, () -> machineSeize(ordersDispatch, serveProvider, configRegionMap.get(ordersDispatch.getCityCode())));
+                succeeded.add(ordersDispatch);
+            } catch (CommonException e) {
+                // 单个订单派单失败不影响同批次其他订单，下一轮重新派单
+                log.info("订单{}派单失败，{}", id, e.getMessage());
+                dispatchMetrics.count(DispatchMetrics.Result.SEIZE_FAILED, 1);
+                failed.add(ordersDispatch);
+            } catch (Exception e) {
+                // redis、远程调用等异常按正常间隔重新派单
+                log.error("订单{}派单异常", id, e);
+                errors++;
+            }
+        }
+        dispatchMetrics.count(DispatchMetrics.Result.SUCCESS, succeeded.size());
+        dispatchMetrics.count(DispatchMetrics.Result.ERROR, errors);
+
+        // 6.连续失败的订单延长下次派单时间，派单成功的清除失败次数
+        dispatchBackoff.backoff(failed, configRegionMap);
+        dispatchBackoff.reset(succeeded);
+        // 7.派单成功的订单跟踪接单超时
+        registerReceive(succeeded, serveProviderMap);
+    }
+
+    /**
+     * 跟踪接单超时，派单已成功，异常时只记录日志
+     *
+     * @param succeeded 派单成功的订单
+     * @param serveProviderMap 派单id与派单服务人员或机构的对应关系
+     */
+    private void registerReceive(List<OrdersDispatch> succeeded, Map<Long, ServeProviderDTO> serveProviderMap) {
+        try {
+            ordersDispatchReceiveService.register(succeeded, serveProviderMap);
+        } catch (Exception e) {
+            log.error("记录待接单异常", e);
+        }
+    }
+
+    /**
+     * 确定每单的派单服务人员或机构
+     *
+     * @param ordersDispatches 派单信息
+     * @param serveProvidersList 与派单信息顺序一致的服务人员或机构列表
+     * @param configRegionMap 城市编码与区域调度配置的对应关系
+     * @param dispatchStrategyMap 城市编码与派单策略的对应关系
+     * @return 派单id与派单服务人员或机构的对应关系
+     */
+    private Map<Long, ServeProviderDTO> selectServeProviders(List<OrdersDispatch> ordersDispatches, List<List<ServeProviderDTO>> serveProvidersList,
+                                                             Map<String, ConfigRegionInnerResDTO> configRegionMap, Map<String, DispatchStrategyEnum> dispatchStrategyMap) {
+        if (Boolean.TRUE.equals(dispatchProperties.getRoundAssignEnabled())) {
+            // 1.整轮分配，同一服务人员或机构不超过接单上限且服务时间不冲突
+            return dispatchRoundAssigner.assign(ordersDispatches, serveProvidersList, configRegionMap, dispatchStrategyMap);
+        }
+        // 2.逐单过派单策略
+        Map<Long, ServeProviderDTO> serveProviderMap = new HashMap<>();
+        for (int i = 0; i < ordersDispatches.size(); i++) {
+            if (CollUtils.isEmpty(serveProvidersList.get(i))) {
+                continue;
+            }
+            IDispatchStrategy dispatchStrategy = dispatchStrategyManager.get(dispatchStrategyMap.get(ordersDispatches.get(i).getCityCode()));
+            ServeProviderDTO serveProvider = dispatchStrategy.getPrecedenceServeProvider(serveProvidersList.get(i));
+            if (serveProvider != null) {
+                serveProviderMap.put(ordersDispatches.get(i).getId(), serveProvider);
+            }
+        }
+        return serveProviderMap;
+    }
+
+    /**
+     * 机器抢单，优先在派单节点直接执行派单脚本，无法在本地确定结果时通过抢单服务执行
+     *
+     * @param ordersDispatch 派单
+     * @param serveProvider 派单服务人员或机构
+     * @param configRegion 区域调度配置
+     */
+    private void machineSeize(OrdersDispatch ordersDispatch, ServeProviderDTO serveProvider, ConfigRegionInnerResDTO configRegion) {
+        if (Boolean.TRUE.equals(dispatchProperties.getLocalSeizeEnabled())) {
+            // 派单查询使用的服务人员或机构数据定时刷新，执行派单脚本前按短有效期缓存重新校验是否开启接单、完成认证
+            ServeProviderResDTO detail = dispatchLocalCache.getServeProviderDetail(serveProvider.getId());
+            if (detail == null || !Boolean.TRUE.equals(detail.getCanPickUp()) || !Integer.valueOf(1).equals(detail.getSettingsStatus())) {
+                throw new CommonException(ErrorInfo.Code.SEIZE_ORDERS_FAILD, SEIZE_ORDERS_RECEIVE_CLOSED);
+            }
+            Long result;
+            try {
+                result = localMachineSeize(ordersDispatch, serveProvider, configRegion);
+            } catch (Exception e) {
+                log.error("订单{}本地派单脚本执行异常，通过抢单服务派单", ordersDispatch.getId(), e);
+                result = null;
+            }
+            if (result != null) {
+                checkSeizeResult(result);
+                return;
+            }
+        }
         OrderSeizeReqDTO orderSeizeReqDTO = new OrderSeizeReqDTO();
-        orderSeizeReqDTO.setSeizeId(id);
+        orderSeizeReqDTO.setSeizeId(ordersDispatch.getId());
         orderSeizeReqDTO.setServeProviderId(serveProvider.getId());
         orderSeizeReqDTO.setServeProviderType(serveProvider.getServeProviderType());
         ordersSeizeApi.machineSeize(orderSeizeReqDTO);
     }
 
+    /**
+     * 在派单节点执行派单脚本，库存、服务时间冲突、接单数量上限一次校验，派单结果写入抢单同步队列，与抢单使用同一同步处理生成服务单
+     * 派单城市分片只由一个节点调度，无需再对订单加锁；服务人员或机构是否开启接单、完成认证已由调用方按短有效期缓存校验
+     *
+     * @param ordersDispatch 派单
+     * @param serveProvider 派单服务人员或机构
+     * @param configRegion 区域调度配置
+     * @return 脚本执行结果，无法在本地确定结果时返回null
+     */
+    private Long localMachineSeize(OrdersDispatch ordersDispatch, ServeProviderDTO serveProvider, ConfigRegionInnerResDTO configRegion) {
+        Long id = ordersDispatch.getId();
+        Long serveProviderId = serveProvider.getId();
+        Integer serveProviderType = serveProvider.getServeProviderType();
+        // 接单数量上限
+        int receiveOrderMax = (serveProviderType == UserType.INSTITUTION) ? configRegion.getInstitutionReceiveOrderMax() : configRegion.getStaffReceiveOrderMax();
+        // 城市编码最后1位序号
+        int index = RedisUtils.getCityIndex(ordersDispatch.getCityCode());
+        // 分片迁移期间先将订单及服务人员数据从原分片迁移到当前分片，保证脚本读取到完整数据
+        if (RedisUtils.isResharding()) {
+            redisReshardService.migrateOrders(ordersDispatch.getCityCode(), Collections.singletonList(id));
+            redisReshardService.migrateServeProviders(ordersDispatch.getCityCode(), Collections.singletonList(serveProviderId));
+        }
+
+        // 1.redisKey，与抢单脚本一致
+        // 抢单结果同步队列 redis key
+        String ordersSeizeSyncRedisKey = RedisSyncQueueUtils.getQueueRedisKey(ORERS_SEIZE_SYNC_QUEUE_NAME, index);
+        // 库存redisKey
+        String resourceStockRedisKey = String.format(ORDERS_RESOURCE_STOCK, index);
+        // 服务时间状态redisKey
+        String serveProviderStateRedisKey = String.format(SERVE_PROVIDER_STATE, index);
+        // 抢单服务时间redisKey
+        String seizeServeTimeRedisKey = String.format(ORDERS_SEIZE_SERVE_TIME, index);
+        // 服务时间位图redisKey
+        String serveTimeBitmapRedisKey = String.format(SERVE_PROVIDER_TIME_BITMAP, serveProviderId, index);
+        // 分片版本redisKey
+        String shardVersionRedisKey = String.format(REDIS_SHARD_VERSION, index);
+        List<String> keys = Arrays.asList(ordersSeizeSyncRedisKey, resourceStockRedisKey, serveProviderStateRedisKey, seizeServeTimeRedisKey, serveTimeBitmapRedisKey, shardVersionRedisKey);
+
+        // 2.执行lua脚本
+        Long result = executeDispatchScript(keys, id, serveProviderId, serveProviderType, receiveOrderMax);
+        // 3.服务时间未写入redis（同步前产生的订单），按派单的服务开始时间补齐后重新执行
+        if (result != null && result == -4) {
+            redisTemplate.opsForHash().putIfAbsent(seizeServeTimeRedisKey, id, ServeTimeUtils.getServeTimeOffset(ordersDispatch.getServeStartTime()));
+            result = executeDispatchScript(keys, id, serveProviderId, serveProviderType, receiveOrderMax);
+        }
+        log.debug("订单{}本地派单结果 : {}", id, result);
+        return result != null && result == -4 ? null : result;
+    }
+
+    /**
+     * 执行派单脚本，参数序列化方式与抢单脚本一致
+     *
+     * @param keys 抢单同步队列，资源库存，服务状态，抢单服务时间，服务时间位图，分片版本
+     * @param id 派单id
+     * @param serveProviderId 服务人员或机构id
+     * @param serveProviderType 用户类型，2：服务人员，3：机构
+     * @param receiveOrderMax 接单数量上限
+     * @return 脚本执行结果，无结果时返回null
+     */
+    private Long executeDispatchScript(List<String> keys, Long id, Long serveProviderId, Integer serveProviderType, int receiveOrderMax) {
+        Object execute = redisTemplate.execute(dispatchOrdersScript,
+                // 序列化串行器
+                new GenericJackson2JsonRedisSerializer(), new GenericJackson2JsonRedisSerializer(),
+                keys,
+                id, serveProviderId, serveProviderType,
+                serveProviderId + "_num", receiveOrderMax, RedisUtils.getShardVersion());
+        return execute == null ? null : NumberUtils.parseLong(execute.toString());
+    }
+
+    /**
+     * 派单脚本结果判断 大于0派单成功，-1/-2：库存数量不足，-3：已派单，-5：服务时间冲突，-6：接单数量已达上限，-7：分片配置未刷新
+     *
+     * @param result 脚本执行结果
+     */
+    private void checkSeizeResult(long result) {
+        if (result == -5) {
+            throw new CommonException(ErrorInfo.Code.SEIZE_ORDERS_FAILD, SEIZE_ORDERS_SERVE_TIME_EXISTS);
+        }
+        if (result == -6) {
+            throw new CommonException(ErrorInfo.Code.SEIZE_ORDERS_FAILD, SEIZE_ORDERS_RECEIVE_ORDERS_NUM_OVER);
+        }
+        if (result < 0) {
+            throw new CommonException(ErrorInfo.Code.SEIZE_ORDERS_FAILD, SEIZE_ORDERS_FAILD);
+        }
+    }
+
     private static final List<String> INCLUDE_FIELD_NAMES = Arrays.asList(
             LambdaUtils.getFieldName(ServeProviderInfo::getId), LambdaUtils.getUnderLineFieldName(ServeProviderInfo::getEvaluationScore),
             LambdaUtils.getUnderLineFieldName(ServeProviderInfo::getAcceptanceNum), LambdaUtils.getUnderLineFieldName(ServeProviderInfo::getServeProviderType));
 
+    /**
+     * 每单查询的服务人员或机构数量
+     */
+    private static final int DISPATCH_SEARCH_SIZE = 30;
+
     @Resource
     private ElasticSearchTemplate elasticSearchTemplate;
 
+    @Resource
+    private ElasticsearchClient elasticsearchClient;
+
+    @Resource
+    private ServeProviderGeoIndex serveProviderGeoIndex;
+
+    @Resource
+    private WeightedScoreFunction weightedScoreFunction;
+
     @Override
     public List<ServeProviderDTO> searchDispatchInfo(String cityCode, long serveItemId, double maxDistance, int serveTime, DispatchStrategyEnum dispatchStrategyEnum, Double lon, Double lat, int limit) {
+        // 内存索引已加载时直接查询，否则查询es
+        List<ServeProviderDTO> serveProviders = serveProviderGeoIndex.search(cityCode, serveItemId, maxDistance, serveTime, dispatchStrategyEnum, lon, lat, limit);
+        if (serveProviders != null) {
+            return serveProviders;
+        }
         SearchRequest.Builder builder = new SearchRequest.Builder();
         // 1.匹配
-        builder.query(qb ->
-                qb.bool(b -> {
-                    // 服务人员是有服务时间冲突
-                    b.mustNot(mn -> mn.term(t -> t.field(LambdaUtils.getUnderLineFieldName(ServeProviderInfo::getServeTimes)).value(serveTime)));
-                    // 开启接单
-                    b.must(m -> m.term(t -> t.field(LambdaUtils.getUnderLineFieldName(ServeProviderInfo::getPickUp)).value(1)));
-                    // 完成认证
-                    b.must(m -> m.term(t -> t.field(LambdaUtils.getUnderLineFieldName(ServeProviderInfo::getSettingStatus)).value(1)));
-                    // 当前所在城市
-                    b.must(m -> m.term(t -> t.field(LambdaUtils.getUnderLineFieldName(ServeProviderInfo::getCityCode)).value(cityCode)));
-                    // 服务项匹配
-                    b.must(m -> m.term(t -> t.field(LambdaUtils.getUnderLineFieldName(ServeProviderInfo::getServeItemIds)).value(serveItemId)));
-                    // 校验服务人员或服务机构状态是否正常，0：表示正常，1：表示禁用
-                    b.must(m -> m.term(t -> t.field(LambdaUtils.getUnderLineFieldName(ServeProviderInfo::getStatus)).value(0)));
-                    // 距离限制
-                    b.must(m -> m.geoDistance(geoDistance -> {
-                        geoDistance.distance(maxDistance + "km");
-                        geoDistance.field(LambdaUtils.getFieldName(ServeProviderInfo::getLocation));
-                        geoDistance.location(location ->
-                                location.latlon(latlon -> latlon.lon(lon).lat(lat)));
-                        return geoDistance;
-                    }));
-
-                    return b;
-                }));
+        builder.query(getDispatchQuery(cityCode, serveItemId, maxDistance, serveTime, dispatchStrategyEnum, lon, lat));
         // 2.排序
         builder.sort(getSortOptions(dispatchStrategyEnum, lon, lat));
 
         // 3.目标字段
         builder.source(s -> s.filter(ss -> ss.includes(INCLUDE_FIELD_NAMES)));
         // 4.查询数量限制
-        builder.size(30);
+        builder.size(limit);
 
         builder.index(SERVER_PROVIDER_INFO);
 
@@ -209,6 +538,12 @@ public class OrdersDispatchServiceImpl extends ServiceImpl<OrdersDispatchMapper,
                 source.setAcceptanceNum(ObjectUtils.isNull(source.getAcceptanceNum())?0:source.getAcceptanceNum());
 
             });
+        } else if (DispatchStrategyEnum.WEIGHTED_SCORE.equals(dispatchStrategyEnum)) {
+            // 6.3.综合评分优先，es打分即综合评分
+            return SearchResponseUtils.getResponse(searchResponse, (hit, source) -> {
+                source.setScore(hit.score());
+                source.setAcceptanceNum(ObjectUtils.isNull(source.getAcceptanceNum()) ? 0 : source.getAcceptanceNum());
+            });
         } else {
             // 6.2.评分优先/最少接单优先无需设置距离
             return SearchResponseUtils.getResponse(searchResponse);
@@ -216,6 +551,125 @@ public class OrdersDispatchServiceImpl extends ServiceImpl<OrdersDispatchMapper,
 
     }
 
+    /**
+     * 批量查询派单服务人员或机构，内存索引已加载的城市直接查询，其余订单合并为一次多条件查询
+     *
+     * @param ordersDispatches 派单信息
+     * @param dispatchStrategyMap 城市编码与派单策略的对应关系
+     * @return 与派单信息顺序一致的服务人员或机构列表，查询失败的订单对应null
+     */
+    private List<List<ServeProviderDTO>> multiSearchDispatchInfo(List<OrdersDispatch> ordersDispatches, Map<String, DispatchStrategyEnum> dispatchStrategyMap) {
+        List<List<ServeProviderDTO>> serveProvidersList = new ArrayList<>(ordersDispatches.size());
+        // 需要查询es的订单下标
+        List<Integer> esIndexes = new ArrayList<>();
+        MsearchRequest.Builder builder = new MsearchRequest.Builder();
+        for (int i = 0; i < ordersDispatches.size(); i++) {
+            OrdersDispatch ordersDispatch = ordersDispatches.get(i);
+            DispatchStrategyEnum dispatchStrategyEnum = dispatchStrategyMap.get(ordersDispatch.getCityCode());
+            // 服务时间,格式yyyyMMddHH
+            int serveTime = ServeTimeUtils.getServeTimeInt(ordersDispatch.getServeStartTime());
+            List<ServeProviderDTO> serveProviders = serveProviderGeoIndex.search(ordersDispatch.getCityCode(), ordersDispatch.getServeItemId(), 100,
+                    serveTime, dispatchStrategyEnum, ordersDispatch.getLon(), ordersDispatch.getLat(), DISPATCH_SEARCH_SIZE);
+            serveProvidersList.add(serveProviders);
+            if (serveProviders != null) {
+                continue;
+            }
+            esIndexes.add(i);
+            builder.searches(item -> item
+                    .header(header -> header.index(SERVER_PROVIDER_INFO))
+                    .body(body -> body
+                            .query(getDispatchQuery(ordersDispatch.getCityCode(), ordersDispatch.getServeItemId(), 100, serveTime, dispatchStrategyEnum, ordersDispatch.getLon(), ordersDispatch.getLat()))
+                            .sort(getSortOptions(dispatchStrategyEnum, ordersDispatch.getLon(), ordersDispatch.getLat()))
+                            .source(s -> s.filter(ss -> ss.includes(INCLUDE_FIELD_NAMES)))
+                            .size(DISPATCH_SEARCH_SIZE)));
+        }
+        if (CollUtils.isEmpty(esIndexes)) {
+            return serveProvidersList;
+        }
+
+        MsearchResponse<ServeProviderDTO> msearchResponse;
+        try {
+            msearchResponse = elasticsearchClient.msearch(builder.build(), ServeProviderDTO.class);
+        } catch (Exception e) {
+            log.error("批量查询派单服务人员异常", e);
+            return serveProvidersList;
+        }
+        for (int i = 0; i < esIndexes.size(); i++) {
+            int index = esIndexes.get(i);
+            MultiSearchResponseItem<ServeProviderDTO> responseItem = msearchResponse.responses().get(i);
+            if (responseItem.isFailure()) {
+                log.error("订单{}查询派单服务人员失败，{}", ordersDispatches.get(index).getId(), responseItem.failure().error().reason());
+                continue;
+            }
+            DispatchStrategyEnum dispatchStrategyEnum = dispatchStrategyMap.get(ordersDispatches.get(index).getCityCode());
+            serveProvidersList.set(index, responseItem.result().hits().hits().stream()
+                    .map(hit -> {
+                        ServeProviderDTO source = hit.source();
+                        // 距离优先，使用距离排序可以获取服务人员到服务地点距离
+                        if (DispatchStrategyEnum.DISTANCE.equals(dispatchStrategyEnum)) {
+                            source.setAcceptanceDistance(NumberUtils.parseInt(CollUtils.getFirst(hit.sort())));
+                            source.setAcceptanceNum(ObjectUtils.isNull(source.getAcceptanceNum()) ? 0 : source.getAcceptanceNum());
+                        }
+                        // 综合评分优先，es打分即综合评分
+                        if (DispatchStrategyEnum.WEIGHTED_SCORE.equals(dispatchStrategyEnum)) {
+                            source.setScore(hit.score());
+                            source.setAcceptanceNum(ObjectUtils.isNull(source.getAcceptanceNum()) ? 0 : source.getAcceptanceNum());
+                        }
+                        return source;
+                    })
+                    .collect(Collectors.toList()));
+        }
+        return serveProvidersList;
+    }
+
+    /**
+     * 派单服务人员或机构匹配条件
+     *
+     * @param cityCode 城市编码
+     * @param serveItemId 服务项id
+     * @param maxDistance 派单最大限制距离
+     * @param serveTime 服务时间格式yyyyMMddHH 数字格式
+     * @param dispatchStrategyEnum 派单策略，综合评分优先时按综合评分打分
+     * @param lon 经度
+     * @param lat 纬度
+     * @return 查询条件
+     */
+    private Query getDispatchQuery(String cityCode, long serveItemId, double maxDistance, int serveTime, DispatchStrategyEnum dispatchStrategyEnum, Double lon, Double lat) {
+        Query query = getDispatchQuery(cityCode, serveItemId, maxDistance, serveTime, lon, lat);
+        if (DispatchStrategyEnum.WEIGHTED_SCORE.equals(dispatchStrategyEnum)) {
+            return weightedScoreFunction.query(query, cityCode, lon, lat);
+        }
+        return query;
+    }
+
+    private Query getDispatchQuery(String cityCode, long serveItemId, double maxDistance, int serveTime, Double lon, Double lat) {
+        return Query.of(qb ->
+                qb.bool(b -> {
+                    // 服务人员是有服务时间冲突
+                    b.mustNot(mn -> mn.term(t -> t.field(LambdaUtils.getUnderLineFieldName(ServeProviderInfo::getServeTimes)).value(serveTime)));
+                    // 开启接单
+                    b.must(m -> m.term(t -> t.field(LambdaUtils.getUnderLineFieldName(ServeProviderInfo::getPickUp)).value(1)));
+                    // 完成认证
+                    b.must(m -> m.term(t -> t.field(LambdaUtils.getUnderLineFieldName(ServeProviderInfo::getSettingStatus)).value(1)));
+                    // 当前所在城市
+                    b.must(m -> m.term(t -> t.field(LambdaUtils.getUnderLineFieldName(ServeProviderInfo::getCityCode)).value(cityCode)));
+                    // 服务项匹配
+                    b.must(m -> m.term(t -> t.field(LambdaUtils.getUnderLineFieldName(ServeProviderInfo::getServeItemIds)).value(serveItemId)));
+                    // 校验服务人员或服务机构状态是否正常，0：表示正常，1：表示禁用
+                    b.must(m -> m.term(t -> t.field(LambdaUtils.getUnderLineFieldName(ServeProviderInfo::getStatus)).value(0)));
+                    // 距离限制
+                    b.must(m -> m.geoDistance(geoDistance -> {
+                        geoDistance.distance(maxDistance + "km");
+                        geoDistance.field(LambdaUtils.getFieldName(ServeProviderInfo::getLocation));
+                        geoDistance.location(location ->
+                                location.latlon(latlon -> latlon.lon(lon).lat(lat)));
+                        return geoDistance;
+                    }));
+
+                    return b;
+                }));
+    }
+
 
     /**
      * 排序策略
@@ -256,6 +710,10 @@ public class OrdersDispatchServiceImpl extends ServiceImpl<OrdersDispatchMapper,
                     field.missing(0);
                     return field;
                 })));
+                break;
+            case WEIGHTED_SCORE:
+                // 综合评分优先使用es默认的打分倒序，返回结果携带综合评分
+                break;
         }
         return sortOptions;
     }
@@ -0,0 +1,113 @@
+package com.jzo2o.orders.dispatch.strategys;
+
+import com.jzo2o.api.foundations.dto.response.ConfigRegionInnerResDTO;
+import com.jzo2o.common.constants.UserType;
+import com.jzo2o.common.utils.CollUtils;
+import com.jzo2o.common.utils.NumberUtils;
+import com.jzo2o.orders.base.model.domain.OrdersDispatch;
+import com.jzo2o.orders.base.utils.ServeTimeUtils;
+import com.jzo2o.orders.dispatch.enums.DispatchStrategyEnum;
+import com.jzo2o.orders.dispatch.model.dto.ServeProviderDTO;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * 派单整轮分配
+ * 同一轮到期的订单先汇总候选服务人员或机构，再按候选数量由少到多逐单分配：
+ * 已分配的服务人员或机构计入接单数，服务人员同一服务时间只分配一单，避免多单抢同一人后在抢单脚本中失败
+ */
+@Component
+public class DispatchRoundAssigner {
+
+    @Resource
+    private IDispatchStrategyManager dispatchStrategyManager;
+
+    public DispatchRoundAssigner() {
+    }
+
+    /**
+     * 非spring环境使用，如派单仿真
+     *
+     * @param dispatchStrategyManager 派单策略管理
+     */
+    public DispatchRoundAssigner(IDispatchStrategyManager dispatchStrategyManager) {
+        this.dispatchStrategyManager = dispatchStrategyManager;
+    }
+
+    /**
+     * 整轮分配派单服务人员或机构
+     *
+     * @param ordersDispatches 派单信息
+     * @param serveProvidersList 与派单信息顺序一致的候选服务人员或机构列表
+     * @param configRegionMap 城市编码与区域调度配置的对应关系
+     * @param dispatchStrategyMap 城市编码与派单策略的对应关系
+     * @return 订单id与派单服务人员或机构的对应关系，无可分配的订单不包含在内
+     */
+    public Map<Long, ServeProviderDTO> assign(List<OrdersDispatch> ordersDispatches, List<List<ServeProviderDTO>> serveProvidersList,
+                                              Map<String, ConfigRegionInnerResDTO> configRegionMap, Map<String, DispatchStrategyEnum> dispatchStrategyMap) {
+        Map<Long, ServeProviderDTO> serveProviderMap = new HashMap<>();
+        // 本轮已分配的接单数
+        Map<Long, Integer> assignedNumMap = new HashMap<>();
+        // 本轮已分配的服务人员服务时间，格式：{服务人员id}_{服务时间}
+        Set<String> assignedServeTimes = new HashSet<>();
+
+        // 1.候选越少的订单越先分配
+        List<Integer> indexes = IntStream.range(0, ordersDispatches.size())
+                .boxed()
+                .sorted(Comparator.comparingInt(index -> CollUtils.size(serveProvidersList.get(index))))
+                .collect(Collectors.toList());
+        for (Integer index : indexes) {
+            OrdersDispatch ordersDispatch = ordersDispatches.get(index);
+            if (CollUtils.isEmpty(serveProvidersList.get(index))) {
+                continue;
+            }
+            ConfigRegionInnerResDTO configRegion = configRegionMap.get(ordersDispatch.getCityCode());
+            int serveTime = ServeTimeUtils.getServeTimeInt(ordersDispatch.getServeStartTime());
+
+            // 2.过滤本轮分配后已达接单上限或服务时间冲突的服务人员或机构
+            List<ServeProviderDTO> feasible = serveProvidersList.get(index).stream()
+                    .filter(serveProvider -> NumberUtils.null2Zero(serveProvider.getAcceptanceNum()) + assignedNumMap.getOrDefault(serveProvider.getId(), 0)
+                            < getReceiveOrderMax(configRegion, serveProvider.getServeProviderType()))
+                    .filter(serveProvider -> !isWorker(serveProvider) || !assignedServeTimes.contains(serveProvider.getId() + "_" + serveTime))
+                    .collect(Collectors.toList());
+            if (CollUtils.isEmpty(feasible)) {
+                continue;
+            }
+
+            // 3.剩余候选中按派单策略选出优先级最高的
+            IDispatchStrategy dispatchStrategy = dispatchStrategyManager.get(dispatchStrategyMap.get(ordersDispatch.getCityCode()));
+            ServeProviderDTO serveProvider = dispatchStrategy.getPrecedenceServeProvider(feasible);
+            if (serveProvider == null) {
+                continue;
+            }
+            serveProviderMap.put(ordersDispatch.getId(), serveProvider);
+            assignedNumMap.merge(serveProvider.getId(), 1, Integer::sum);
+            if (isWorker(serveProvider)) {
+                assignedServeTimes.add(serveProvider.getId() + "_" + serveTime);
+            }
+        }
+        return serveProviderMap;
+    }
+
+    private boolean isWorker(ServeProviderDTO serveProvider) {
+        return serveProvider.getServeProviderType() != null && serveProvider.getServeProviderType() == UserType.WORKER;
+    }
+
+    /**
+     * 接单数量上限，未配置时不限制
+     */
+    private int getReceiveOrderMax(ConfigRegionInnerResDTO configRegion, Integer serveProviderType) {
+        Integer receiveOrderMax = serveProviderType != null && serveProviderType == UserType.INSTITUTION
+                ? configRegion.getInstitutionReceiveOrderMax() : configRegion.getStaffReceiveOrderMax();
+        return receiveOrderMax == null ? Integer.MAX_VALUE : receiveOrderMax;
+    }
+}
@@ -0,0 +1,107 @@
+package com.jzo2o.orders.dispatch.strategys;
+
+import co.elastic.clients.elasticsearch._types.query_dsl.FunctionBoostMode;
+import co.elastic.clients.elasticsearch._types.query_dsl.FunctionScoreMode;
+import co.elastic.clients.elasticsearch._types.query_dsl.Query;
+import co.elastic.clients.json.JsonData;
+import com.jzo2o.common.utils.LambdaUtils;
+import com.jzo2o.orders.base.model.domain.ServeProviderInfo;
+import com.jzo2o.orders.base.properties.DispatchProperties;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+
+/**
+ * 综合评分
+ * 距离、评分、接单数量分别计算0~1的得分后按城市权重求和：距离按高斯衰减，评分为评分/5（无评分按5分），接单数量按指数衰减。
+ * es通过function_score计算并返回综合评分最高的服务人员或机构，内存网格索引按相同公式计算，两种查询排序一致。
+ */
+@Component
+public class WeightedScoreFunction {
+
+    /**
+     * 评分满分
+     */
+    private static final double MAX_EVALUATION_SCORE = 5;
+
+    @Resource
+    private DispatchProperties dispatchProperties;
+
+    /**
+     * 在派单匹配条件上按综合评分打分
+     *
+     * @param query 派单匹配条件
+     * @param cityCode 城市编码
+     * @param lon 经度
+     * @param lat 纬度
+     * @return 按综合评分打分的查询条件
+     */
+    public Query query(Query query, String cityCode, Double lon, Double lat) {
+        DispatchProperties.WeightedScore weightedScore = dispatchProperties.getWeightedScore(cityCode);
+        return Query.of(qb -> qb.functionScore(functionScore -> functionScore
+                .query(query)
+                // 距离得分
+                .functions(function -> function
+                        .weight(weightedScore.getDistanceWeight())
+                        .gauss(gauss -> gauss
+                                .field(LambdaUtils.getFieldName(ServeProviderInfo::getLocation))
+                                .placement(placement -> placement
+                                        .origin(JsonData.of(lat + "," + lon))
+                                        .scale(JsonData.of(weightedScore.getDistanceScale() + "km"))
+                                        .decay(weightedScore.getDecay()))))
+                // 评分得分
+                .functions(function -> function
+                        .weight(weightedScore.getEvaluationScoreWeight())
+                        .fieldValueFactor(fieldValueFactor -> fieldValueFactor
+                                .field(LambdaUtils.getUnderLineFieldName(ServeProviderInfo::getEvaluationScore))
+                                .factor(1 / MAX_EVALUATION_SCORE)
+                                .missing(MAX_EVALUATION_SCORE)))
+                // 接单数量得分，无接单数量按0
+                .functions(function -> function
+                        .weight(weightedScore.getAcceptanceNumWeight())
+                        .exp(exp -> exp
+                                .field(LambdaUtils.getUnderLineFieldName(ServeProviderInfo::getAcceptanceNum))
+                                .placement(placement -> placement
+                                        .origin(JsonData.of(0))
+                                        .scale(JsonData.of(weightedScore.getAcceptanceNumScale()))
+                                        .decay(weightedScore.getDecay()))))
+                .scoreMode(FunctionScoreMode.Sum)
+                // 匹配条件只做过滤，不参与打分
+                .boostMode(FunctionBoostMode.Replace)));
+    }
+
+    /**
+     * 按城市权重计算综合评分，与es打分一致
+     *
+     * @param cityCode 城市编码
+     * @param distance 服务人员或机构到服务地点的距离，单位：km
+     * @param evaluationScore 评分
+     * @param acceptanceNum 接单数量
+     * @return 综合评分
+     */
+    public double score(String cityCode, double distance, Double evaluationScore, Integer acceptanceNum) {
+        return score(dispatchProperties.getWeightedScore(cityCode), distance, evaluationScore, acceptanceNum);
+    }
+
+    /**
+     * 计算综合评分
+     *
+     * @param weightedScore 综合评分权重
+     * @param distance 服务人员或机构到服务地点的距离，单位：km
+     * @param evaluationScore 评分，为空时按5分
+     * @param acceptanceNum 接单数量，为空时按0
+     * @return 综合评分
+     */
+    public static double score(DispatchProperties.WeightedScore weightedScore, double distance, Double evaluationScore, Integer acceptanceNum) {
+        double decay = weightedScore.getDecay();
+        // 高斯衰减：decay^((距离/尺度)^2)
+        double distanceRatio = distance / weightedScore.getDistanceScale();
+        double distanceScore = Math.pow(decay, distanceRatio * distanceRatio);
+        double evaluationScoreScore = (evaluationScore == null ? MAX_EVALUATION_SCORE : evaluationScore) / MAX_EVALUATION_SCORE;
+        // 指数衰减：decay^(接单数量/尺度)
+        double acceptanceNumScore = Math.pow(decay, (acceptanceNum == null ? 0 : acceptanceNum) / weightedScore.getAcceptanceNumScale());
+        return weightedScore.getDistanceWeight() * distanceScore
+                + weightedScore.getEvaluationScoreWeight() * evaluationScoreScore
+                + weightedScore.getAcceptanceNumWeight() * acceptanceNumScore;
+    }
+}
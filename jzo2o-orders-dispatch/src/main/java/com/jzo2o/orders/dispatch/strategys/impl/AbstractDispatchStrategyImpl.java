@@ -5,16 +5,29 @@ import com.jzo2o.orders.dispatch.model.dto.ServeProviderDTO;
 import com.jzo2o.orders.dispatch.rules.IDispatchRule;
 import com.jzo2o.orders.dispatch.strategys.IDispatchStrategy;
 
+import java.util.Comparator;
 import java.util.List;
 import java.util.Objects;
+import java.util.SplittableRandom;
 
 public abstract class AbstractDispatchStrategyImpl implements IDispatchStrategy {
+    /**
+     * 多个高优先级时随机选择，每个线程独立的随机数生成器
+     */
+    private static final ThreadLocal<SplittableRandom> RANDOM = ThreadLocal.withInitial(SplittableRandom::new);
+
     private final IDispatchRule dispatchRule;
 
+    /**
+     * 规则链编译后的比较器
+     */
+    private final Comparator<ServeProviderDTO> comparator;
+
     public AbstractDispatchStrategyImpl() {
         this.dispatchRule = getRules();
         // 校验是否配置策略
         Objects.requireNonNull(this.dispatchRule);
+        this.comparator = dispatchRule.compile();
     }
 
     /**
@@ -29,19 +42,23 @@ public abstract class AbstractDispatchStrategyImpl implements IDispatchStrategy
         if (CollUtils.isEmpty(serveProviderDTOS)){
             return null;
         }
-        IDispatchRule dr = dispatchRule;
-
-        // 2.根据优先级获取高优先级别的
-        serveProviderDTOS = dr.filter(serveProviderDTOS);
+        SplittableRandom random = RANDOM.get();
 
-        // 3.数据返回
-        // 3.1.唯一高优先级直接返回
-        int size = 1;
-        if((size = CollUtils.size(serveProviderDTOS)) == 1) {
-            return serveProviderDTOS.get(0);
+        // 2.一次遍历按规则链依次比较，获取优先级最高的
+        ServeProviderDTO precedence = null;
+        // 当前优先级最高的数量
+        int count = 0;
+        for (ServeProviderDTO serveProviderDTO : serveProviderDTOS) {
+            int compare = precedence == null ? -1 : comparator.compare(serveProviderDTO, precedence);
+            if (compare < 0) {
+                // 3.1.更高优先级直接替换
+                precedence = serveProviderDTO;
+                count = 1;
+            } else if (compare == 0 && random.nextInt(++count) == 0) {
+                // 3.2.多个高优先级以1/count的概率替换，每个被选中的概率相同
+                precedence = serveProviderDTO;
+            }
         }
-        // 3.2.多个高优先级随即将返回
-        int randomIndex = (int) (Math.random() * size);
-        return serveProviderDTOS.get(randomIndex);
+        return precedence;
     }
 }
@@ -0,0 +1,28 @@
+package com.jzo2o.orders.dispatch.strategys.impl;
+
+import com.jzo2o.orders.dispatch.annotations.DispatchStrategy;
+import com.jzo2o.orders.dispatch.enums.DispatchStrategyEnum;
+import com.jzo2o.orders.dispatch.model.dto.ServeProviderDTO;
+import com.jzo2o.orders.dispatch.rules.IDispatchRule;
+import com.jzo2o.orders.dispatch.rules.impl.AcceptNumDispatchRule;
+import com.jzo2o.orders.dispatch.rules.impl.DefaultIDispatchRule;
+import org.springframework.stereotype.Component;
+
+import java.util.Comparator;
+
+/**
+ * 综合评分策略
+ * 距离、评分、接单数量按区域权重计算的综合评分已在查询时算出，综合评分越高优先级越高，综合评分相同时按最少接单数计算
+ * 按综合评分计算->按最少接单数计算
+ */
+@Component("weightedScoreDispatchStrategy")
+@DispatchStrategy(DispatchStrategyEnum.WEIGHTED_SCORE)
+public class WeightedScoreDispatchStrategyImpl extends AbstractDispatchStrategyImpl {
+    @Override
+    protected IDispatchRule getRules() {
+        // 最少接单规则，数量越少优先级越高
+        IDispatchRule acceptNumDispatchRule = new AcceptNumDispatchRule(null);
+        // 综合评分规则，综合评分越高优先级越高，无综合评分优先级最低
+        return new DefaultIDispatchRule(acceptNumDispatchRule, Comparator.comparing(ServeProviderDTO::getScore, Comparator.nullsLast(Comparator.reverseOrder())));
+    }
+}
@@ -1,43 +1,52 @@
--- 派单实现
--- key: 派单同步队列，资源库存，连续失败次数，服务时间状态，服务单数量
--- argv：派单id，被派单服务人员id/机构id,该派单服务时间，单子限制数量，服务人员类型（2，服务人员，3：机构端）
+-- 派单实现，派单节点直接执行机器抢单，结果写入抢单同步队列，由抢单结果同步生成服务单
+-- key: 抢单同步队列，资源库存，服务状态，抢单服务时间，服务人员服务时间位图，分片版本
+-- argv：派单id，被派单服务人员id/机构id，服务人员类型（2，服务人员，3：机构端），接单数量字段，接单数量上限，分片版本
 
---服务时间冲突校验
-local jsonRedisTemp={}
-local serveTimeExists = redis.call("EXISTS",KEYS[4])
-if ARGV[5] == 2 and serveTimeExists > 0
+-- --分片版本校验，分片迁移开始后未刷新分片配置的节点不再写入原分片
+local shardVersion = redis.call("GET", KEYS[6])
+if shardVersion ~= false and shardVersion ~= ARGV[6]
+then
+    return "-7";
+end
+-- --库存是否充足校验
+local stockNum = redis.call("HGET", KEYS[2], ARGV[1])
+if stockNum == false or tonumber(stockNum) < 1
 then
     return "-1";
-end;
---派单失败次数
-local dispatchFaildTimes = redis.call("GET", KEYS[3])
-if dispatchFaildTimes ~= false and tonumber(dispatchFaildTimes) > 3
+end
+-- --派单服务时间在服务时间位图中的偏移量
+local serveTimeOffset = redis.call("HGET", KEYS[4], ARGV[1])
+if serveTimeOffset == false
 then
-    return "-2";
+    return "-4";
 end
---当前抢单派单数量
-local ordersNum = redis.call("HGET", KEYS[5], ARGV[2])
--- hget 获取不到数据返回false而不是nil
-if ordersNum ~= false or  (ordersNum == true and tonumber(ordersNum) >= tonumber(ARGV[4]))
+-- --服务人员服务时间冲突校验
+if tonumber(ARGV[3]) == 2 and redis.call("GETBIT", KEYS[5], tonumber(serveTimeOffset)) == 1
 then
-    return "-3";
+    return "-5";
 end
--- --库存是否充足校验
-local stockNum = redis.call("HGET",KEYS[2], ARGV[1])
-if stockNum == false or (stockNum == true and tonumber(stockNum) < 1)
+-- --接单数量上限校验
+local ordersNum = redis.call("HGET", KEYS[3], ARGV[4])
+if ordersNum ~= false and tonumber(ordersNum) >= tonumber(ARGV[5])
 then
-    return "-4";
+    return "-6";
 end
 -- --减库存
-stockNum = redis.call("HINCRBY",KEYS[2], ARGV[1], -1)
-if tonumber(stockNum) < 0
+stockNum = redis.call("HINCRBY", KEYS[2], ARGV[1], -1)
+if stockNum < 0
+then
+    return "-2"
+end
+-- -- 派单结果写入抢单同步队列，格式与抢单一致，固定为机器抢单
+local result = redis.call("HSETNX", KEYS[1], ARGV[1], "[" .. ARGV[2] .. "," .. ARGV[3] .. ",1]")
+if result == 0
 then
-    return "-5"
+    return "-3"
 end
--- -- 派单结果写入同步队列
-local result = redis.call("HSETNX", KEYS[1], ARGV[1],ARGV[2])
-if result > 0
+-- -- 占用服务时间及接单数量，与抢单脚本一致，接单超时撤销时释放
+if tonumber(ARGV[3]) == 2
 then
-    return ARGV[1] ..""
+    redis.call("SETBIT", KEYS[5], tonumber(serveTimeOffset), 1)
 end
-return ""
+redis.call("HINCRBY", KEYS[3], ARGV[4], 1)
+return ARGV[1] .. ""
@@ -0,0 +1,27 @@
+-- 接单超时撤销派单结果，派单结果尚未同步生成服务单时从抢单同步队列删除并恢复库存，释放抢派单脚本占用的服务时间及接单数量
+-- 调用方持有订单的抢派单锁并已确认服务单未生成，抢单结果同步在同一把锁内生成服务单
+-- key: 抢单同步队列，资源库存，分片版本，服务状态，抢单服务时间，服务人员服务时间位图
+-- argv：派单id，分片版本，接单数量字段，服务人员类型（2，服务人员，3：机构端）
+-- 返回1：已撤销，0：派单结果已从同步队列删除，-7：分片版本不一致
+local shardVersion = redis.call("GET", KEYS[3])
+if shardVersion ~= false and shardVersion ~= ARGV[2]
+then
+    return -7
+end
+if redis.call("HDEL", KEYS[1], ARGV[1]) == 0
+then
+    return 0
+end
+redis.call("HINCRBY", KEYS[2], ARGV[1], 1)
+-- --释放接单数量，服务状态同步已覆盖为数据库中的值时不小于0
+if redis.call("HINCRBY", KEYS[4], ARGV[3], -1) < 0
+then
+    redis.call("HSET", KEYS[4], ARGV[3], 0)
+end
+-- --释放服务时间
+local serveTimeOffset = redis.call("HGET", KEYS[5], ARGV[1])
+if tonumber(ARGV[4]) == 2 and serveTimeOffset ~= false
+then
+    redis.call("SETBIT", KEYS[6], tonumber(serveTimeOffset), 0)
+end
+return 1
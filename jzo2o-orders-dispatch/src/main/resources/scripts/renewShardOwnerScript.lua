@@ -0,0 +1,10 @@
+-- 派单城市分片租约续期
+-- key: 城市分片归属租约
+-- argv：节点id,租约有效期（毫秒）
+
+-- --租约仍归属当前节点时续期，否则说明已被其他节点接管
+if redis.call("GET", KEYS[1]) == ARGV[1]
+then
+    return redis.call("PEXPIRE", KEYS[1], ARGV[2])
+end
+return 0
@@ -5,6 +5,7 @@ import org.junit.jupiter.api.Test;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSerializer;
 
 import javax.annotation.Resource;
 import java.util.Arrays;
@@ -14,29 +15,33 @@ import java.util.Arrays;
 public class LuaTest {
 
     @Resource(name = "dispatchOrdersScript")
-    private DefaultRedisScript<Long> dispatchOrdersScript;
+    private DefaultRedisScript<String> dispatchOrdersScript;
 
     @Resource
     private RedisTemplate redisTemplate;
     @Test
     public void testLua() {
-        // 派单连续失败次数redisKey
-        String dispatchFaildTimesRedisKey = "ORDERS:DISPATCH:FAILD_TIMES_1691712276350382080_{0}";
-        // 派单成功同步记录redisKey
-        String dispatchSyncListRedisKey = "ORDERS:DISPATCH:SYNC_{0}";
+        // 抢单结果同步队列redisKey
+        String ordersSeizeSyncRedisKey = "ORDERS:SEIZE:SYNC_{0}";
         // 资源库存redisKey
         String resourceStockRedisKey = "ORDERS:RESOURCE:STOCK:{0}";
-        // 服务时间状态redisKey
-        String serveTimesRedisKey = "PROVIDER:SERVE_TIME:1691345690120187906_2023081617_{0}";
+        // 服务状态redisKey
+        String serveProviderStateRedisKey = "PROVIDER:SERVE_STATE:{0}";
+        // 抢单服务时间redisKey
+        String seizeServeTimeRedisKey = "ORDERS:SEIZE:SERVE_TIME:{0}";
+        // 服务时间位图redisKey
+        String serveTimesRedisKey = "PROVIDER:SERVE_TIME_BITMAP:1683504743982964738_{0}";
+        // 分片版本redisKey
+        String shardVersionRedisKey = "ORDERS:REDIS_SHARD:VERSION:{0}";
         Long id = 1691712276350382080L;
-        int serveTime = 2023081617;
+        Long serveProviderId = 1683504743982964738L;
 
-        // 服务单数量
-        String providerServeNumRedisKey = "PROVIDER:SERVE:NUM_010_{0}";
         Object result = null;
         try {
-            result = redisTemplate.execute(dispatchOrdersScript, Arrays.asList(dispatchSyncListRedisKey, resourceStockRedisKey, dispatchFaildTimesRedisKey, serveTimesRedisKey, providerServeNumRedisKey),
-                    id, 1683504743982964738L, serveTime, 10);
+            result = redisTemplate.execute(dispatchOrdersScript,
+                    new GenericJackson2JsonRedisSerializer(), new GenericJackson2JsonRedisSerializer(),
+                    Arrays.asList(ordersSeizeSyncRedisKey, resourceStockRedisKey, serveProviderStateRedisKey, seizeServeTimeRedisKey, serveTimesRedisKey, shardVersionRedisKey),
+                    id, serveProviderId, 2, serveProviderId + "_num", 10, "cityDigit:10");
 
         }catch (Exception e) {
             e.printStackTrace();
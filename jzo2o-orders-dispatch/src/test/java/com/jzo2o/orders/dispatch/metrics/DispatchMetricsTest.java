@@ -0,0 +1,100 @@
+package com.jzo2o.orders.dispatch.metrics;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 派单指标测试
+ */
+public class DispatchMetricsTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private final DispatchMetrics dispatchMetrics = new DispatchMetrics();
+
+    private ThreadPoolTaskExecutor dispatchExecutor;
+
+    @BeforeEach
+    public void setUp() {
+        dispatchExecutor = new ThreadPoolTaskExecutor();
+        dispatchExecutor.setCorePoolSize(1);
+        dispatchExecutor.initialize();
+        ReflectionTestUtils.setField(dispatchMetrics, "meterRegistry", meterRegistry);
+        ReflectionTestUtils.setField(dispatchMetrics, "dispatchExecutor", dispatchExecutor);
+        dispatchMetrics.init();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        dispatchExecutor.shutdown();
+    }
+
+    @Test
+    public void everyPhaseRecorded() {
+        for (DispatchMetrics.Phase phase : DispatchMetrics.Phase.values()) {
+            assertEquals(phase.name(), dispatchMetrics.record(phase, phase::name));
+            dispatchMetrics.record(phase, () -> {
+            });
+        }
+        for (DispatchMetrics.Phase phase : DispatchMetrics.Phase.values()) {
+            assertEquals(2, phaseCount(phase), phase.name());
+        }
+    }
+
+    @Test
+    public void failedPhaseRecorded() {
+        Runnable machineSeize = () -> {
+            throw new IllegalStateException();
+        };
+        assertThrows(IllegalStateException.class, () -> dispatchMetrics.record(DispatchMetrics.Phase.SEIZE, machineSeize));
+        assertEquals(1, phaseCount(DispatchMetrics.Phase.SEIZE));
+    }
+
+    @Test
+    public void resultsCounted() {
+        dispatchMetrics.count(DispatchMetrics.Result.SUCCESS, 3);
+        dispatchMetrics.count(DispatchMetrics.Result.NO_PROVIDER, 1);
+        dispatchMetrics.count(DispatchMetrics.Result.SEIZE_FAILED, 0);
+
+        assertEquals(3, resultCount(DispatchMetrics.Result.SUCCESS));
+        assertEquals(1, resultCount(DispatchMetrics.Result.NO_PROVIDER));
+        assertEquals(0, resultCount(DispatchMetrics.Result.SEIZE_FAILED));
+    }
+
+    @Test
+    public void roundLagRecorded() {
+        dispatchMetrics.recordRoundLag(System.currentTimeMillis() - 1000);
+        // 提前执行的轮次延迟记为0
+        dispatchMetrics.recordRoundLag(System.currentTimeMillis() + 1000);
+
+        assertEquals(2, meterRegistry.get(DispatchMetrics.ROUND_LAG_TIMER).timer().count());
+        assertTrue(meterRegistry.get(DispatchMetrics.ROUND_LAG_TIMER).timer().max(TimeUnit.MILLISECONDS) >= 1000);
+    }
+
+    @Test
+    public void executorGaugesRegistered() {
+        assertEquals(0, meterRegistry.get(DispatchMetrics.EXECUTOR_QUEUE_GAUGE).gauge().value());
+        assertEquals(0, meterRegistry.get(DispatchMetrics.EXECUTOR_ACTIVE_GAUGE).gauge().value());
+        assertNotNull(meterRegistry.find(DispatchMetrics.BACKLOG_GAUGE).gauge());
+        assertNotNull(meterRegistry.find(DispatchMetrics.OVERDUE_GAUGE).gauge());
+    }
+
+    private long phaseCount(DispatchMetrics.Phase phase) {
+        return meterRegistry.get(DispatchMetrics.PHASE_TIMER).tag("phase", phase.name().toLowerCase()).timer().count();
+    }
+
+    private double resultCount(DispatchMetrics.Result result) {
+        return meterRegistry.get(DispatchMetrics.RESULT_COUNTER).tag("result", result.name().toLowerCase()).counter().count();
+    }
+}
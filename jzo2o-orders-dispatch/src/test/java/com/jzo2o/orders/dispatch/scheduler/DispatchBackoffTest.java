@@ -0,0 +1,41 @@
+package com.jzo2o.orders.dispatch.scheduler;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 派单退避间隔测试
+ */
+public class DispatchBackoffTest {
+
+    /**
+     * 区域配置的派单间隔，单位：秒
+     */
+    private static final long INTERVAL = 180;
+
+    private static final long MAX_INTERVAL = 1800;
+
+    @Test
+    public void firstFailureKeepsConfiguredInterval() {
+        assertEquals(INTERVAL, DispatchBackoff.nextInterval(1, INTERVAL, MAX_INTERVAL, 0.99));
+    }
+
+    @Test
+    public void growsExponentiallyWithinJitter() {
+        for (long faildTimes = 2; faildTimes <= 4; faildTimes++) {
+            long backoff = INTERVAL << (faildTimes - 1);
+            assertEquals(Math.round(backoff * 0.8), DispatchBackoff.nextInterval(faildTimes, INTERVAL, MAX_INTERVAL, 0));
+            assertEquals(backoff, DispatchBackoff.nextInterval(faildTimes, INTERVAL, MAX_INTERVAL, 0.5));
+            assertTrue(DispatchBackoff.nextInterval(faildTimes, INTERVAL, MAX_INTERVAL, 0.99) <= Math.round(backoff * 1.2));
+        }
+    }
+
+    @Test
+    public void cappedAtMaxInterval() {
+        assertEquals(MAX_INTERVAL, DispatchBackoff.nextInterval(10, INTERVAL, MAX_INTERVAL, 0.99));
+        assertEquals(MAX_INTERVAL, DispatchBackoff.nextInterval(Long.MAX_VALUE, INTERVAL, MAX_INTERVAL, 0.5));
+        assertTrue(DispatchBackoff.nextInterval(10, INTERVAL, MAX_INTERVAL, 0) >= INTERVAL);
+    }
+}
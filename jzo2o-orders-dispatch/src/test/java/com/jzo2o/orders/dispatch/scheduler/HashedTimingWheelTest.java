@@ -0,0 +1,103 @@
+package com.jzo2o.orders.dispatch.scheduler;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 哈希时间轮测试
+ */
+public class HashedTimingWheelTest {
+
+    private static final long TICK = 1000;
+
+    private static final long START = 1_700_000_000_000L;
+
+    @Test
+    public void expiresAtDeadlineNeverEarlier() {
+        HashedTimingWheel timingWheel = new HashedTimingWheel(TICK, 8, START);
+        timingWheel.add(1L, START + 2500);
+        timingWheel.add(2L, START + 1000);
+
+        assertEquals(Collections.emptyList(), timingWheel.advance(START + 999));
+        assertEquals(Collections.singletonList(2L), timingWheel.advance(START + 2000));
+        assertEquals(Collections.emptyList(), timingWheel.advance(START + 2999));
+        // 最多延迟一个刻度
+        assertEquals(Collections.singletonList(1L), timingWheel.advance(START + 3000));
+        assertEquals(0, timingWheel.size());
+    }
+
+    @Test
+    public void deadlineBeyondOneRound() {
+        HashedTimingWheel timingWheel = new HashedTimingWheel(TICK, 4, START);
+        timingWheel.add(1L, START + 9 * TICK);
+        timingWheel.add(2L, START + 2 * TICK);
+
+        List<Long> expired = new ArrayList<>();
+        for (long now = START + TICK; now <= START + 9 * TICK; now += TICK) {
+            expired.addAll(timingWheel.advance(now));
+        }
+        assertEquals(Collections.singletonList(2L), expired);
+        assertEquals(Collections.singletonList(1L), timingWheel.advance(START + 10 * TICK));
+    }
+
+    @Test
+    public void pastDeadlineExpiresOnNextTick() {
+        HashedTimingWheel timingWheel = new HashedTimingWheel(TICK, 8, START);
+        timingWheel.advance(START + 5 * TICK);
+        timingWheel.add(1L, START);
+
+        assertEquals(Collections.singletonList(1L), timingWheel.advance(START + 6 * TICK));
+    }
+
+    @Test
+    public void cancelAndReplace() {
+        HashedTimingWheel timingWheel = new HashedTimingWheel(TICK, 8, START);
+        timingWheel.add(1L, START + TICK);
+        timingWheel.add(2L, START + TICK);
+        timingWheel.add(3L, START + TICK);
+        assertTrue(timingWheel.cancel(1L));
+        assertFalse(timingWheel.cancel(4L));
+        // 重复新增以最后一次为准
+        timingWheel.add(3L, START + 3 * TICK);
+        assertEquals(2, timingWheel.size());
+
+        assertEquals(Collections.singletonList(2L), timingWheel.advance(START + 2 * TICK));
+        assertFalse(timingWheel.cancel(2L));
+        assertEquals(Collections.singletonList(3L), timingWheel.advance(START + 4 * TICK));
+    }
+
+    @Test
+    public void largeNumberOfTimeouts() {
+        HashedTimingWheel timingWheel = new HashedTimingWheel(TICK, 512, START);
+        int count = 1_000_000;
+        for (long id = 0; id < count; id++) {
+            timingWheel.add(id, START + (id % 600 + 1) * TICK);
+        }
+        for (long id = 0; id < count; id += 2) {
+            timingWheel.cancel(id);
+        }
+
+        List<Long> expired = timingWheel.advance(START + 601 * TICK);
+        assertEquals(count / 2, expired.size());
+        assertTrue(expired.stream().allMatch(id -> id % 2 == 1));
+        assertEquals(0, timingWheel.size());
+    }
+
+    @Test
+    public void ticksPerWheelRoundedToPowerOfTwo() {
+        HashedTimingWheel timingWheel = new HashedTimingWheel(TICK, 3, START);
+        timingWheel.add(1L, START + 4 * TICK);
+        timingWheel.add(2L, START + 5 * TICK);
+
+        assertEquals(Collections.emptyList(), timingWheel.advance(START + 4 * TICK));
+        assertEquals(Arrays.asList(1L, 2L), timingWheel.advance(START + 6 * TICK));
+    }
+}
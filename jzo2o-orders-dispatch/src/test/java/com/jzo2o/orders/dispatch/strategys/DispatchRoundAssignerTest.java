@@ -0,0 +1,112 @@
+package com.jzo2o.orders.dispatch.strategys;
+
+import com.jzo2o.api.foundations.dto.response.ConfigRegionInnerResDTO;
+import com.jzo2o.common.constants.UserType;
+import com.jzo2o.orders.base.model.domain.OrdersDispatch;
+import com.jzo2o.orders.dispatch.enums.DispatchStrategyEnum;
+import com.jzo2o.orders.dispatch.model.dto.ServeProviderDTO;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+/**
+ * 派单整轮分配测试
+ */
+public class DispatchRoundAssignerTest {
+
+    private static final String CITY_CODE = "010";
+
+    private final DispatchRoundAssigner dispatchRoundAssigner = new DispatchRoundAssigner();
+
+    private ConfigRegionInnerResDTO configRegion;
+
+    @BeforeEach
+    public void setUp() {
+        // 最少接单策略，接单数相同时随机，测试数据中接单数不同保证结果确定
+        ReflectionTestUtils.setField(dispatchRoundAssigner, "dispatchStrategyManager", new IDispatchStrategyManager() {
+            @Override
+            public void put(DispatchStrategyEnum dispatchStrategyEnum, IDispatchStrategy dispatchStrategy) {
+            }
+
+            @Override
+            public IDispatchStrategy get(DispatchStrategyEnum dispatchStrategyEnum) {
+                return dispatchStrategyEnum.getDispatchStrategy();
+            }
+        });
+        configRegion = new ConfigRegionInnerResDTO();
+        configRegion.setStaffReceiveOrderMax(2);
+        configRegion.setInstitutionReceiveOrderMax(2);
+    }
+
+    @Test
+    public void sameServeTimeGoesToDistinctWorkers() {
+        LocalDateTime serveStartTime = LocalDateTime.of(2023, 8, 16, 17, 0);
+        List<OrdersDispatch> ordersDispatches = Arrays.asList(ordersDispatch(1L, serveStartTime), ordersDispatch(2L, serveStartTime));
+        List<ServeProviderDTO> serveProviders = Arrays.asList(worker(11L, 0), worker(12L, 1));
+
+        Map<Long, ServeProviderDTO> result = assign(ordersDispatches, Arrays.asList(serveProviders, serveProviders));
+
+        assertEquals(2, result.size());
+        assertNotEquals(result.get(1L).getId(), result.get(2L).getId());
+    }
+
+    @Test
+    public void receiveOrderMaxIsRespected() {
+        List<OrdersDispatch> ordersDispatches = Arrays.asList(
+                ordersDispatch(1L, LocalDateTime.of(2023, 8, 16, 9, 0)),
+                ordersDispatch(2L, LocalDateTime.of(2023, 8, 16, 11, 0)));
+        // 已接1单，本轮最多再分配1单
+        List<ServeProviderDTO> serveProviders = Collections.singletonList(worker(11L, 1));
+
+        Map<Long, ServeProviderDTO> result = assign(ordersDispatches, Arrays.asList(serveProviders, serveProviders));
+
+        assertEquals(1, result.size());
+    }
+
+    @Test
+    public void constrainedOrderAssignedFirst() {
+        LocalDateTime serveStartTime = LocalDateTime.of(2023, 8, 16, 17, 0);
+        List<OrdersDispatch> ordersDispatches = Arrays.asList(ordersDispatch(1L, serveStartTime), ordersDispatch(2L, serveStartTime));
+        // 订单1两个候选，订单2只有接单数更多的12号，12号应留给订单2
+        List<ServeProviderDTO> serveProvidersOfFirst = Arrays.asList(worker(11L, 1), worker(12L, 0));
+        List<ServeProviderDTO> serveProvidersOfSecond = Collections.singletonList(worker(12L, 0));
+
+        Map<Long, ServeProviderDTO> result = assign(ordersDispatches, Arrays.asList(serveProvidersOfFirst, serveProvidersOfSecond));
+
+        assertEquals(12L, result.get(2L).getId());
+        assertEquals(11L, result.get(1L).getId());
+    }
+
+    private Map<Long, ServeProviderDTO> assign(List<OrdersDispatch> ordersDispatches, List<List<ServeProviderDTO>> serveProvidersList) {
+        return dispatchRoundAssigner.assign(ordersDispatches, serveProvidersList,
+                Collections.singletonMap(CITY_CODE, configRegion),
+                Collections.singletonMap(CITY_CODE, DispatchStrategyEnum.LEAST_ACCEPT_ORDER));
+    }
+
+    private OrdersDispatch ordersDispatch(Long id, LocalDateTime serveStartTime) {
+        OrdersDispatch ordersDispatch = new OrdersDispatch();
+        ordersDispatch.setId(id);
+        ordersDispatch.setCityCode(CITY_CODE);
+        ordersDispatch.setServeStartTime(serveStartTime);
+        return ordersDispatch;
+    }
+
+    private ServeProviderDTO worker(Long id, int acceptanceNum) {
+        return ServeProviderDTO.builder()
+                .id(id)
+                .serveProviderType(UserType.WORKER)
+                .acceptanceNum(acceptanceNum)
+                .evaluationScore(50)
+                .acceptanceDistance(10)
+                .build();
+    }
+}
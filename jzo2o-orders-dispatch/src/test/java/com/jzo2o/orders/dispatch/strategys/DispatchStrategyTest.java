@@ -0,0 +1,70 @@
+package com.jzo2o.orders.dispatch.strategys;
+
+import com.jzo2o.orders.dispatch.enums.DispatchStrategyEnum;
+import com.jzo2o.orders.dispatch.model.dto.ServeProviderDTO;
+import com.jzo2o.orders.dispatch.rules.IDispatchRule;
+import com.jzo2o.orders.dispatch.rules.impl.AcceptNumDispatchRule;
+import com.jzo2o.orders.dispatch.rules.impl.DistanceDispatchRule;
+import com.jzo2o.orders.dispatch.rules.impl.EvaluationScoreDispatchRule;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 派单策略测试
+ * 一次遍历选出的服务人员或机构与规则链逐级过滤的结果一致
+ */
+public class DispatchStrategyTest {
+
+    @Test
+    public void sameAsRuleChainFilter() {
+        assertSameAsRuleChain(DispatchStrategyEnum.DISTANCE, new DistanceDispatchRule(new AcceptNumDispatchRule(null)));
+        assertSameAsRuleChain(DispatchStrategyEnum.EVELUATION_SCORE, new EvaluationScoreDispatchRule(new AcceptNumDispatchRule(null)));
+        assertSameAsRuleChain(DispatchStrategyEnum.LEAST_ACCEPT_ORDER, new AcceptNumDispatchRule(new EvaluationScoreDispatchRule(null)));
+    }
+
+    @Test
+    public void everyTiedServeProviderCanBeChosen() {
+        List<ServeProviderDTO> serveProviders = new ArrayList<>();
+        for (long id = 1; id <= 4; id++) {
+            serveProviders.add(serveProvider(id, 1, 50, 10));
+        }
+        serveProviders.add(serveProvider(5L, 2, 50, 10));
+
+        Set<Long> chosen = new HashSet<>();
+        IDispatchStrategy dispatchStrategy = DispatchStrategyEnum.LEAST_ACCEPT_ORDER.getDispatchStrategy();
+        for (int i = 0; i < 1000; i++) {
+            chosen.add(dispatchStrategy.getPrecedenceServeProvider(serveProviders).getId());
+        }
+        assertEquals(new HashSet<>(List.of(1L, 2L, 3L, 4L)), chosen);
+    }
+
+    private void assertSameAsRuleChain(DispatchStrategyEnum dispatchStrategyEnum, IDispatchRule dispatchRule) {
+        Random random = new Random(dispatchStrategyEnum.getType());
+        for (int round = 0; round < 200; round++) {
+            int size = 1 + random.nextInt(50);
+            List<ServeProviderDTO> serveProviders = new ArrayList<>(size);
+            for (long id = 0; id < size; id++) {
+                serveProviders.add(serveProvider(id, random.nextInt(3), 50 - random.nextInt(3), random.nextInt(3)));
+            }
+            ServeProviderDTO serveProvider = dispatchStrategyEnum.getDispatchStrategy().getPrecedenceServeProvider(serveProviders);
+            assertTrue(dispatchRule.filter(serveProviders).contains(serveProvider));
+        }
+    }
+
+    private ServeProviderDTO serveProvider(Long id, int acceptanceNum, int evaluationScore, int acceptanceDistance) {
+        return ServeProviderDTO.builder()
+                .id(id)
+                .acceptanceNum(acceptanceNum)
+                .evaluationScore(evaluationScore)
+                .acceptanceDistance(acceptanceDistance)
+                .build();
+    }
+}
@@ -0,0 +1,66 @@
+package com.jzo2o.orders.dispatch.strategys;
+
+import com.jzo2o.orders.base.properties.DispatchProperties;
+import com.jzo2o.orders.dispatch.enums.DispatchStrategyEnum;
+import com.jzo2o.orders.dispatch.model.dto.ServeProviderDTO;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 综合评分测试
+ */
+public class WeightedScoreFunctionTest {
+
+    private final DispatchProperties.WeightedScore weightedScore = new DispatchProperties.WeightedScore();
+
+    @Test
+    public void decayAtScale() {
+        weightedScore.setEvaluationScoreWeight(0.0);
+        weightedScore.setAcceptanceNumWeight(0.0);
+        assertEquals(1.0, WeightedScoreFunction.score(weightedScore, 0, null, null), 1e-9);
+        assertEquals(weightedScore.getDecay(), WeightedScoreFunction.score(weightedScore, weightedScore.getDistanceScale(), null, null), 1e-9);
+
+        weightedScore.setDistanceWeight(0.0);
+        weightedScore.setAcceptanceNumWeight(1.0);
+        assertEquals(weightedScore.getDecay(), WeightedScoreFunction.score(weightedScore, 0, null, weightedScore.getAcceptanceNumScale().intValue()), 1e-9);
+    }
+
+    @Test
+    public void missingValuesScoreAsBest() {
+        // 无评分按5分，无接单数量按0
+        assertEquals(WeightedScoreFunction.score(weightedScore, 1, 5.0, 0), WeightedScoreFunction.score(weightedScore, 1, null, null), 1e-9);
+        assertEquals(3.0, WeightedScoreFunction.score(weightedScore, 0, null, null), 1e-9);
+    }
+
+    @Test
+    public void slightlyCloserLowRatedLoses() {
+        double closerLowRated = WeightedScoreFunction.score(weightedScore, 1.00, 1.0, 0);
+        double fartherHighRated = WeightedScoreFunction.score(weightedScore, 1.01, 5.0, 0);
+        assertTrue(fartherHighRated > closerLowRated);
+    }
+
+    @Test
+    public void strategyPicksHighestScoreThenLeastAccept() {
+        IDispatchStrategy dispatchStrategy = DispatchStrategyEnum.WEIGHTED_SCORE.getDispatchStrategy();
+        ServeProviderDTO best = dispatchStrategy.getPrecedenceServeProvider(Arrays.asList(
+                serveProvider(1L, 0, null), serveProvider(2L, 0, 1.2), serveProvider(3L, 0, 2.5)));
+        assertEquals(3L, best.getId());
+
+        // 综合评分相同按最少接单
+        ServeProviderDTO tieBreak = dispatchStrategy.getPrecedenceServeProvider(Arrays.asList(
+                serveProvider(1L, 3, 2.5), serveProvider(2L, 1, 2.5), serveProvider(3L, 2, 2.5)));
+        assertEquals(2L, tieBreak.getId());
+    }
+
+    private ServeProviderDTO serveProvider(Long id, int acceptanceNum, Double score) {
+        return ServeProviderDTO.builder()
+                .id(id)
+                .acceptanceNum(acceptanceNum)
+                .score(score)
+                .build();
+    }
+}
@@ -22,8 +22,9 @@ public interface IServeProviderSyncService extends IService<ServeProviderSync> {
      *
      * @param id 服务人员或机构id
      * @param serveProviderType 类型，2：服务人员，3：机构
+     * @param cityCode 城市编码
      */
-    void countServeTimesAndAcceptanceNum(Long id, Integer serveProviderType);
+    void countServeTimesAndAcceptanceNum(Long id, Integer serveProviderType, String cityCode);
 
 
 
@@ -282,10 +282,7 @@ public class OrdersServeManagerServiceImpl extends ServiceImpl<OrdersServeMapper
         if (!updateResult) {
             throw new DbRuntimeException("更新失败");
         }
-        // 3.服务完成订单数
-        serveProviderSyncService.countServeTimesAndAcceptanceNum(serveProviderId, serveProviderType);
-
-        // 4.订单状态机推动订单修改状态
+        // 3.订单状态机推动订单修改状态，接单数和服务时间由完成服务处理器增量更新
         OrderSnapshotDTO orderSnapshotDTO = OrderSnapshotDTO.builder().realServeEndTime(LocalDateTime.now()).build();
         Orders orders = ordersManagerService.queryById(ordersServe.getId());
         orderStateMachine.changeStatus(orders.getUserId(), ordersServe.getId().toString(), OrderStatusChangeEventEnum.COMPLETE_SERVE,orderSnapshotDTO);
@@ -380,11 +377,14 @@ public class OrdersServeManagerServiceImpl extends ServiceImpl<OrdersServeMapper
 //        OrderSnapshotDTO orderSnapshotDTO = OrderSnapshotDTO.builder()
 //                .ordersStatus(OrderStatusEnum.DISPATCHING.getStatus()).build();
 
-        //6.订单状态变更
-        orderStateMachine.changeStatus(orders.getUserId(), String.valueOf(ordersServe.getId()), OrderStatusChangeEventEnum.SERVE_PROVIDER_CANCEL);
-
-        // 3.服务时间重新统计
-        serveProviderSyncService.countServeTimesAndAcceptanceNum(ordersServe.getServeProviderId(), ordersServe.getServeProviderType());
+        //6.订单状态变更，服务单已删除，快照携带服务人员信息用于增量更新接单数和服务时间
+        OrderSnapshotDTO orderSnapshotDTO = OrderSnapshotDTO.builder()
+                .serveProviderId(ordersServe.getServeProviderId())
+                .serveProviderType(ordersServe.getServeProviderType())
+                .cityCode(ordersServe.getCityCode())
+                .serveStartTime(ordersServe.getServeStartTime())
+                .build();
+        orderStateMachine.changeStatus(orders.getUserId(), String.valueOf(ordersServe.getId()), OrderStatusChangeEventEnum.SERVE_PROVIDER_CANCEL, orderSnapshotDTO);
     }
 
     @Override
@@ -403,9 +403,7 @@ public class OrdersServeManagerServiceImpl extends ServiceImpl<OrdersServeMapper
         if (!update) {
             throw new DbRuntimeException("操作失败");
         }
-        // 3.服务时间重新统计
-        serveProviderSyncService.countServeTimesAndAcceptanceNum(ordersServe.getServeProviderId(), ordersServe.getServeProviderType());
-        // 4.清理缓存
+        // 3.清理缓存，接单数和服务时间已由订单关闭处理器增量更新
         String redisKey = String.format(SERVE_ORDERS, ordersServe.getServeProviderId());
         cacheHelper.remove(redisKey, ordersId);
     }
@@ -8,6 +8,7 @@ import com.jzo2o.common.utils.NumberUtils;
 import com.jzo2o.common.utils.ObjectUtils;
 import com.jzo2o.orders.base.mapper.ServeProviderSyncMapper;
 import com.jzo2o.orders.base.model.domain.ServeProviderSync;
+import com.jzo2o.orders.base.service.IServeProviderSyncCommonService;
 import com.jzo2o.orders.manager.service.IOrdersServeManagerService;
 import com.jzo2o.orders.manager.service.IServeProviderSyncService;
 import org.springframework.stereotype.Service;
@@ -30,6 +31,9 @@ public class ServeProviderSyncServiceImpl extends ServiceImpl<ServeProviderSyncM
     @Resource
     private IOrdersServeManagerService ordersServeManagerService;
 
+    @Resource
+    private IServeProviderSyncCommonService serveProviderSyncCommonService;
+
     @Override
     public List<Integer> queryServeTimesById(Long id) {
 
@@ -38,7 +42,7 @@ public class ServeProviderSyncServiceImpl extends ServiceImpl<ServeProviderSyncM
     }
 
     @Override
-    public void countServeTimesAndAcceptanceNum(Long id, Integer serveProviderType) {
+    public void countServeTimesAndAcceptanceNum(Long id, Integer serveProviderType, String cityCode) {
         ServeProviderSync serveProviderSync = new ServeProviderSync();
         serveProviderSync.setId(id);
         if(serveProviderType == UserType.WORKER) {
@@ -52,5 +56,7 @@ public class ServeProviderSyncServiceImpl extends ServiceImpl<ServeProviderSyncM
         Integer acceptanceNum = ordersServeManagerService.countNoServedNum(id);
         serveProviderSync.setAcceptanceNum(NumberUtils.null2Zero(acceptanceNum));
         this.saveOrUpdate(serveProviderSync);
+        // 刷新服务时间位图，抢单、派单脚本通过GETBIT校验服务时间冲突
+        serveProviderSyncCommonService.refreshServeTimeBitmap(id, cityCode, serveProviderSync.getServeTimes());
     }
 }
@@ -0,0 +1,323 @@
+package com.jzo2o.orders.seize.cache;
+
+import com.jzo2o.common.utils.BeanUtils;
+import com.jzo2o.common.utils.CollUtils;
+import com.jzo2o.common.utils.JsonUtils;
+import com.jzo2o.common.utils.StringUtils;
+import com.jzo2o.orders.base.geo.GeoGridIndex;
+import com.jzo2o.orders.base.geo.GeoHashUtils;
+import com.jzo2o.orders.base.model.domain.OrdersSeize;
+import com.jzo2o.orders.seize.model.domain.OrdersSeizeInfo;
+import com.jzo2o.orders.seize.model.dto.SeizeListCursor;
+import com.jzo2o.orders.seize.model.dto.request.OrdersSerizeListReqDTO;
+import com.jzo2o.orders.seize.model.dto.response.OrdersSeizeListResDTO;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.stereotype.Component;
+import org.springframework.util.DigestUtils;
+
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static com.jzo2o.orders.base.constants.RedisConstants.RedisKey.ORDERS_SEIZE_PAGE;
+import static com.jzo2o.orders.base.constants.RedisConstants.RedisKey.ORDERS_SEIZE_PAGE_KEYS;
+import static com.jzo2o.orders.base.constants.RedisConstants.Ttl.ORDERS_SEIZE_PAGE_TTL;
+
+/**
+ * 抢单列表候选缓存
+ * 按城市、服务人员或机构所在geohash网格、距离档位、技能哈希缓存候选抢单，同一网格内的服务人员或机构共享一次查询，
+ * 实际距离根据各自位置在本地计算。抢单池新增、删除或库存抢完时按位置所在的登记网格失效覆盖该位置的网格。
+ */
+@Component
+@Slf4j
+public class SeizeListCache {
+
+    /**
+     * geohash精度，约4.9km*4.9km
+     */
+    private static final int GEOHASH_PRECISION = 5;
+
+    /**
+     * 登记网格geohash精度，约39km*19.5km，候选缓存登记在覆盖范围相交的每个登记网格中
+     */
+    private static final int REGISTRY_PRECISION = 4;
+
+    /**
+     * 距离档位，单位：km
+     */
+    private static final int RADIUS_BUCKET = 5;
+
+    /**
+     * 可缓存的最大距离，单位：km，超过后候选数量过多不再缓存
+     */
+    public static final double MAX_CACHE_DISTANCE = 50;
+
+    /**
+     * 每个网格缓存的最大候选数量
+     */
+    public static final int MAX_CANDIDATE_SIZE = 1000;
+
+    /**
+     * 抢单列表每页数量，与es默认查询数量一致
+     */
+    private static final int PAGE_SIZE = 10;
+
+    @Resource
+    private RedisTemplate redisTemplate;
+
+    /**
+     * 正在加载的候选缓存，同一节点同一缓存只查询一次
+     */
+    private final Map<String, CompletableFuture<List<OrdersSeizeInfo>>> loading = new ConcurrentHashMap<>();
+
+    /**
+     * 候选抢单加载
+     */
+    @FunctionalInterface
+    public interface CandidateLoader {
+        /**
+         * 查询范围内的候选抢单
+         *
+         * @param lon 中心经度
+         * @param lat 中心纬度
+         * @param distance 覆盖半径，单位：km
+         * @return 候选抢单，查询失败返回null
+         */
+        List<OrdersSeizeInfo> load(double lon, double lat, double distance);
+    }
+
+    /**
+     * 获取候选抢单，缓存不存在时加载后写入缓存
+     * 候选范围为网格中心到网格顶点的距离加距离档位，保证网格内任意位置在该距离内的抢单都包含在候选中
+     *
+     * @param cityCode 城市编码
+     * @param lon 服务人员或机构经度
+     * @param lat 服务人员或机构纬度
+     * @param distance 距离
+     * @param serveItemIds 技能
+     * @param candidateLoader 候选抢单加载
+     * @return 候选抢单，加载失败时返回null
+     */
+    private List<OrdersSeizeInfo> getCandidates(String cityCode, double lon, double lat, double distance, List<Long> serveItemIds,
+                                               CandidateLoader candidateLoader) {
+        String geoHash = GeoHashUtils.encode(lon, lat, GEOHASH_PRECISION);
+        int radiusBucket = (int) Math.ceil(distance / RADIUS_BUCKET) * RADIUS_BUCKET;
+        String redisKey = String.format(ORDERS_SEIZE_PAGE, cityCode, geoHash, radiusBucket, getSkillHash(serveItemIds));
+
+        // 1.缓存查询
+        Object cached = redisTemplate.opsForValue().get(redisKey);
+        if (cached != null) {
+            return JsonUtils.parseArray(cached.toString()).toList(OrdersSeizeInfo.class);
+        }
+
+        // 2.同一缓存并发加载时等待已有的加载结果
+        CompletableFuture<List<OrdersSeizeInfo>> future = new CompletableFuture<>();
+        CompletableFuture<List<OrdersSeizeInfo>> existing = loading.putIfAbsent(redisKey, future);
+        if (existing != null) {
+            try {
+                return existing.join();
+            } catch (CompletionException e) {
+                return null;
+            }
+        }
+        try {
+            double[] bounds = GeoHashUtils.decodeBounds(geoHash);
+            double[] center = getCellCenter(geoHash);
+            double centerLon = center[0];
+            double centerLat = center[1];
+            double coverDistance = GeoGridIndex.distance(centerLon, centerLat, bounds[2], bounds[3]) + radiusBucket;
+            List<OrdersSeizeInfo> candidates = candidateLoader.load(centerLon, centerLat, coverDistance);
+            if (candidates == null) {
+                future.complete(null);
+                return null;
+            }
+
+            // 3.写入缓存并登记到覆盖范围相交的登记网格
+            redisTemplate.opsForValue().set(redisKey, JsonUtils.toJsonStr(candidates), ORDERS_SEIZE_PAGE_TTL, TimeUnit.SECONDS);
+            String registryValue = centerLon + "," + centerLat + "," + coverDistance + "," + System.currentTimeMillis();
+            Set<String> registryCells = GeoHashUtils.cover(centerLon, centerLat, coverDistance, REGISTRY_PRECISION);
+            redisTemplate.executePipelined(new SessionCallback<Object>() {
+                @Override
+                public Object execute(RedisOperations operations) {
+                    for (String registryCell : registryCells) {
+                        String registryKey = String.format(ORDERS_SEIZE_PAGE_KEYS, cityCode, registryCell);
+                        operations.opsForHash().put(registryKey, redisKey, registryValue);
+                        operations.expire(registryKey, ORDERS_SEIZE_PAGE_TTL * 2, TimeUnit.SECONDS);
+                    }
+                    return null;
+                }
+            });
+            future.complete(candidates);
+            return candidates;
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(redisKey, future);
+        }
+    }
+
+    /**
+     * 查询抢单列表，从网格候选抢单中按服务人员或机构实际位置计算距离，匹配条件、距离排序及滚动分页与es查询一致
+     *
+     * @param serveItemIds 服务项id
+     * @param lon 经度
+     * @param lat 纬度
+     * @param distanceLimit 距离限制
+     * @param cityCode 城市编码
+     * @param ordersSerizeListReqDTO 查询条件
+     * @param cursor 滚动分页游标，查询首页时为空
+     * @param candidateLoader 候选抢单加载
+     * @return 抢单列表，包含关键字、距离超过缓存上限、候选加载失败或候选被截断导致当页不完整或可能遗漏更近的抢单时返回null
+     */
+    public List<OrdersSeizeListResDTO.OrdersSeize> search(List<Long> serveItemIds, Double lon, Double lat, double distanceLimit, String cityCode,
+                                                          OrdersSerizeListReqDTO ordersSerizeListReqDTO, SeizeListCursor cursor, CandidateLoader candidateLoader) {
+        if (lon == null || lat == null || StringUtils.isNotEmpty(ordersSerizeListReqDTO.getKeyWord()) || distanceLimit > MAX_CACHE_DISTANCE) {
+            return null;
+        }
+        List<OrdersSeizeInfo> candidates = getCandidates(cityCode, lon, lat, distanceLimit, serveItemIds, candidateLoader);
+        if (candidates == null) {
+            return null;
+        }
+        Long serveTypeId = ordersSerizeListReqDTO.getServeTypeId();
+        Set<Long> serveItemIdSet = new HashSet<>(serveItemIds);
+        List<OrdersSeizeListResDTO.OrdersSeize> ordersSeizes = candidates.stream()
+                // 服务项及服务类型，候选缓存按技能哈希共享，读取后仍按当前技能过滤
+                .filter(ordersSeizeInfo -> ordersSeizeInfo.getLocation() != null
+                        && serveItemIdSet.contains(ordersSeizeInfo.getServeItemId())
+                        && (serveTypeId == null || serveTypeId.equals(ordersSeizeInfo.getServeTypeId())))
+                .map(ordersSeizeInfo -> {
+                    OrdersSeizeListResDTO.OrdersSeize ordersSeize = BeanUtils.toBean(ordersSeizeInfo, OrdersSeizeListResDTO.OrdersSeize.class);
+                    ordersSeize.setRealDistance(GeoGridIndex.distance(lon, lat,
+                            ordersSeizeInfo.getLocation().getLon(), ordersSeizeInfo.getLocation().getLat()));
+                    return ordersSeize;
+                })
+                // 距离条件及滚动分页
+                .filter(ordersSeize -> ordersSeize.getRealDistance() <= distanceLimit
+                        && SeizeListCursor.isAfter(cursor, ordersSeize.getRealDistance(), ordersSeize.getId()))
+                .sorted(Comparator.comparingDouble(OrdersSeizeListResDTO.OrdersSeize::getRealDistance)
+                        .thenComparing(OrdersSeizeListResDTO.OrdersSeize::getId))
+                .limit(PAGE_SIZE)
+                .collect(Collectors.toList());
+        // 候选达到上限时只缓存了距网格中心最近的抢单，当页不足或当页最远的抢单超出候选完整覆盖的距离时交由es查询
+        if (candidates.size() >= MAX_CANDIDATE_SIZE && (ordersSeizes.size() < PAGE_SIZE
+                || ordersSeizes.get(ordersSeizes.size() - 1).getRealDistance() > getCompleteDistance(candidates, lon, lat))) {
+            return null;
+        }
+        return ordersSeizes;
+    }
+
+    /**
+     * 候选被截断时，当前位置在该距离内的抢单都包含在候选中
+     * 候选按到网格中心的距离升序截断，完整覆盖的距离为最远候选到网格中心的距离减去当前位置到网格中心的距离
+     *
+     * @param candidates 候选抢单
+     * @param lon 服务人员或机构经度
+     * @param lat 服务人员或机构纬度
+     * @return 完整覆盖的距离，单位：km
+     */
+    private double getCompleteDistance(List<OrdersSeizeInfo> candidates, double lon, double lat) {
+        double[] center = getCellCenter(GeoHashUtils.encode(lon, lat, GEOHASH_PRECISION));
+        double centerLon = center[0];
+        double centerLat = center[1];
+        double candidateDistance = candidates.stream()
+                .filter(ordersSeizeInfo -> ordersSeizeInfo.getLocation() != null)
+                .mapToDouble(ordersSeizeInfo -> GeoGridIndex.distance(centerLon, centerLat,
+                        ordersSeizeInfo.getLocation().getLon(), ordersSeizeInfo.getLocation().getLat()))
+                .max()
+                .orElse(0);
+        return candidateDistance - GeoGridIndex.distance(lon, lat, centerLon, centerLat);
+    }
+
+    /**
+     * 网格中心，候选抢单以网格中心为圆心查询
+     *
+     * @param geoHash 网格geohash
+     * @return {经度,纬度}
+     */
+    private double[] getCellCenter(String geoHash) {
+        double[] bounds = GeoHashUtils.decodeBounds(geoHash);
+        return new double[]{(bounds[0] + bounds[2]) / 2, (bounds[1] + bounds[3]) / 2};
+    }
+
+    /**
+     * 失效覆盖指定位置的候选缓存，只读取位置所在的登记网格，同时清理其中已过期的缓存
+     *
+     * @param cityCode 城市编码
+     * @param locations 抢单位置，每项为{经度,纬度}
+     */
+    public void invalidate(String cityCode, List<double[]> locations) {
+        if (CollUtils.isEmpty(locations)) {
+            return;
+        }
+        Map<String, List<double[]>> cellLocations = locations.stream()
+                .collect(Collectors.groupingBy(location -> GeoHashUtils.encode(location[0], location[1], REGISTRY_PRECISION)));
+        long now = System.currentTimeMillis();
+        cellLocations.forEach((registryCell, cellLocationList) -> {
+            String registryKey = String.format(ORDERS_SEIZE_PAGE_KEYS, cityCode, registryCell);
+            Map<Object, Object> registry = redisTemplate.opsForHash().entries(registryKey);
+            if (registry.isEmpty()) {
+                return;
+            }
+            List<Object> invalidKeys = registry.entrySet().stream()
+                    .filter(entry -> {
+                        String[] values = entry.getValue().toString().split(",");
+                        if (now - Long.parseLong(values[3]) > TimeUnit.SECONDS.toMillis(ORDERS_SEIZE_PAGE_TTL)) {
+                            return true;
+                        }
+                        double centerLon = Double.parseDouble(values[0]);
+                        double centerLat = Double.parseDouble(values[1]);
+                        double coverDistance = Double.parseDouble(values[2]);
+                        return cellLocationList.stream().anyMatch(location ->
+                                GeoGridIndex.distance(centerLon, centerLat, location[0], location[1]) <= coverDistance);
+                    })
+                    .map(Map.Entry::getKey)
+                    .collect(Collectors.toList());
+            if (CollUtils.isEmpty(invalidKeys)) {
+                return;
+            }
+            // 其他登记网格中的同一登记随写入时间过期清理
+            redisTemplate.delete(invalidKeys.stream().map(Object::toString).collect(Collectors.toList()));
+            redisTemplate.opsForHash().delete(registryKey, invalidKeys.toArray());
+            log.debug("城市{}登记网格{}抢单列表候选缓存失效数量：{}", cityCode, registryCell, invalidKeys.size());
+        });
+    }
+
+    /**
+     * 按抢单所在城市及位置失效候选缓存
+     *
+     * @param ordersSeizes 新增、删除或库存抢完的抢单
+     */
+    public void invalidate(List<OrdersSeize> ordersSeizes) {
+        if (CollUtils.isEmpty(ordersSeizes)) {
+            return;
+        }
+        ordersSeizes.stream()
+                .filter(ordersSeize -> ordersSeize.getCityCode() != null && ordersSeize.getLon() != null && ordersSeize.getLat() != null)
+                .collect(Collectors.groupingBy(OrdersSeize::getCityCode,
+                        Collectors.mapping(ordersSeize -> new double[]{ordersSeize.getLon(), ordersSeize.getLat()}, Collectors.toList())))
+                .forEach(this::invalidate);
+    }
+
+    /**
+     * 技能哈希，技能相同顺序不同的服务人员或机构使用同一缓存
+     * 使用排序去重后服务项id的md5摘要，避免不同技能组合发生碰撞而共享缓存
+     */
+    private String getSkillHash(List<Long> serveItemIds) {
+        String sorted = new TreeSet<>(serveItemIds).stream().map(String::valueOf).collect(Collectors.joining(","));
+        return DigestUtils.md5DigestAsHex(sorted.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,74 @@
+package com.jzo2o.orders.seize.cache;
+
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.TimedCache;
+import com.jzo2o.api.customer.ServeProviderApi;
+import com.jzo2o.api.customer.dto.response.ServeProviderResDTO;
+import com.jzo2o.api.foundations.RegionApi;
+import com.jzo2o.api.foundations.dto.response.ConfigRegionInnerResDTO;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+
+/**
+ * 抢单本地缓存
+ * 缓存抢单校验使用的服务人员/机构详情和区域调度配置，避免每次抢单都发起远程调用
+ */
+@Component
+public class SeizeLocalCache {
+
+    /**
+     * 服务人员/机构详情有效期，单位：毫秒
+     * 接单开关等设置变更后最多延迟该时间生效
+     */
+    private static final long SERVE_PROVIDER_DETAIL_TTL = 10 * 1000L;
+
+    /**
+     * 区域调度配置有效期，单位：毫秒
+     */
+    private static final long CONFIG_REGION_TTL = 5 * 60 * 1000L;
+
+    @Resource
+    private ServeProviderApi serveProviderApi;
+
+    @Resource
+    private RegionApi regionApi;
+
+    private final TimedCache<Long, ServeProviderResDTO> serveProviderDetailCache = CacheUtil.newTimedCache(SERVE_PROVIDER_DETAIL_TTL);
+
+    private final TimedCache<String, ConfigRegionInnerResDTO> configRegionCache = CacheUtil.newTimedCache(CONFIG_REGION_TTL);
+
+    public SeizeLocalCache() {
+        // 定时清理过期数据
+        serveProviderDetailCache.schedulePrune(SERVE_PROVIDER_DETAIL_TTL);
+        configRegionCache.schedulePrune(CONFIG_REGION_TTL);
+    }
+
+    /**
+     * 获取服务人员/机构详情
+     *
+     * @param serveProviderId 服务人员或机构id
+     * @return 服务人员/机构详情
+     */
+    public ServeProviderResDTO getServeProviderDetail(Long serveProviderId) {
+        return serveProviderDetailCache.get(serveProviderId, false, () -> serveProviderApi.getDetail(serveProviderId));
+    }
+
+    /**
+     * 获取区域调度配置
+     *
+     * @param cityCode 城市编码
+     * @return 区域调度配置
+     */
+    public ConfigRegionInnerResDTO getConfigRegion(String cityCode) {
+        return configRegionCache.get(cityCode, false, () -> regionApi.findConfigRegionByCityCode(cityCode));
+    }
+
+    /**
+     * 清空本地缓存
+     */
+    public void clear() {
+        serveProviderDetailCache.clear();
+        configRegionCache.clear();
+    }
+}
@@ -0,0 +1,106 @@
+package com.jzo2o.orders.seize.cache;
+
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.TimedCache;
+import com.jzo2o.common.utils.CollUtils;
+import com.jzo2o.common.utils.JsonUtils;
+import com.jzo2o.orders.base.utils.SeizeTopicUtils;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RTopic;
+import org.redisson.api.RedissonClient;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.List;
+
+/**
+ * 抢单售罄本地缓存
+ * 抢单脚本返回库存不足或抢单成功后库存为0时记录售罄的抢单id，并通过主题广播到所有抢单节点，
+ * 同一抢单的后续请求在本地直接拒绝，无需加锁、远程调用及执行抢单脚本；抢单池重新写入库存时广播失效。
+ */
+@Component
+@Slf4j
+public class SeizeSoldOutCache {
+
+    /**
+     * 售罄记录有效期，单位：毫秒，售罄的抢单在抢单结果同步后从抢单池删除，过期后不再需要
+     */
+    private static final long SOLD_OUT_TTL = 10 * 60 * 1000L;
+
+    @Resource
+    private RedissonClient redissonClient;
+
+    private final TimedCache<Long, Boolean> soldOutCache = CacheUtil.newTimedCache(SOLD_OUT_TTL);
+
+    private int soldOutListenerId;
+
+    private int availableListenerId;
+
+    public SeizeSoldOutCache() {
+        // 定时清理过期数据
+        soldOutCache.schedulePrune(SOLD_OUT_TTL);
+    }
+
+    @PostConstruct
+    public void start() {
+        soldOutListenerId = getSoldOutTopic().addListener(String.class, (channel, msg) ->
+                SeizeTopicUtils.parseIds(msg).forEach(id -> soldOutCache.put(id, true)));
+        availableListenerId = getAvailableTopic().addListener(String.class, (channel, msg) ->
+                SeizeTopicUtils.parseIds(msg).forEach(soldOutCache::remove));
+    }
+
+    @PreDestroy
+    public void stop() {
+        getSoldOutTopic().removeListener(soldOutListenerId);
+        getAvailableTopic().removeListener(availableListenerId);
+    }
+
+    /**
+     * 抢单是否已售罄，只查询本地缓存
+     *
+     * @param id 抢单id
+     * @return 已售罄返回true
+     */
+    public boolean isSoldOut(Long id) {
+        return soldOutCache.get(id, false) != null;
+    }
+
+    /**
+     * 记录售罄并广播到所有抢单节点，本节点已记录的不再广播
+     *
+     * @param ids 抢单id
+     */
+    public void soldOut(List<Long> ids) {
+        if (CollUtils.isEmpty(ids)) {
+            return;
+        }
+        boolean known = ids.stream().allMatch(this::isSoldOut);
+        ids.forEach(id -> soldOutCache.put(id, true));
+        if (!known) {
+            getSoldOutTopic().publish(JsonUtils.toJsonStr(ids));
+        }
+    }
+
+    /**
+     * 抢单库存重新写入，清除所有抢单节点的售罄记录
+     *
+     * @param ids 抢单id
+     */
+    public void available(List<Long> ids) {
+        if (CollUtils.isEmpty(ids)) {
+            return;
+        }
+        ids.forEach(soldOutCache::remove);
+        SeizeTopicUtils.publishAvailable(redissonClient, ids);
+    }
+
+    private RTopic getSoldOutTopic() {
+        return SeizeTopicUtils.getSoldOutTopic(redissonClient);
+    }
+
+    private RTopic getAvailableTopic() {
+        return SeizeTopicUtils.getAvailableTopic(redissonClient);
+    }
+}
@@ -34,4 +34,24 @@ public class ExecutorPoolConfiguration {
         dispatchExecutor.initialize();
         return dispatchExecutor;
     }
+
+    /**
+     * 抢单超时进入派单池线程池，同一执行器内各城市并行处理
+     *
+     * @param executorProperties
+     * @return
+     */
+    @Bean("seizeTimeoutExecutor")
+    public Executor seizeTimeoutExecutor(ExecutorProperties executorProperties) {
+        ExecutorProperties.ThreadPool seizeTimeoutThreadPool = executorProperties.get(ThreadPoolName.SEIZE_TIMEOUT);
+        ThreadPoolTaskExecutor seizeTimeoutExecutor = new ThreadPoolTaskExecutor();
+        seizeTimeoutExecutor.setCorePoolSize(seizeTimeoutThreadPool.getCorePoolSize());
+        seizeTimeoutExecutor.setMaxPoolSize(seizeTimeoutThreadPool.getMaxPoolSize());
+        seizeTimeoutExecutor.setQueueCapacity(seizeTimeoutThreadPool.getQueueCapacity());
+        seizeTimeoutExecutor.setThreadNamePrefix(seizeTimeoutThreadPool.getThreadNamePrefix());
+        // 队列已满时由调度线程执行
+        seizeTimeoutExecutor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        seizeTimeoutExecutor.initialize();
+        return seizeTimeoutExecutor;
+    }
 }
@@ -9,4 +9,9 @@ public class ThreadPoolName {
      * 派单同步线程池
      */
     public static final String SEIZE_SYNC = "seize-sync";
+
+    /**
+     * 抢单超时进入派单池线程池
+     */
+    public static final String SEIZE_TIMEOUT = "seize-timeout";
 }
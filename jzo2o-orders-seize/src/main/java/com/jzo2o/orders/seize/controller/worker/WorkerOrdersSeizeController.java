@@ -4,13 +4,16 @@ import com.jzo2o.mvc.utils.UserContext;
 import com.jzo2o.orders.seize.model.dto.request.OrdersSeizeReqDTO;
 import com.jzo2o.orders.seize.model.dto.request.OrdersSerizeListReqDTO;
 import com.jzo2o.orders.seize.model.dto.response.OrdersSeizeListResDTO;
+import com.jzo2o.orders.seize.notify.SeizeResultNotifier;
 import com.jzo2o.orders.seize.service.IOrdersSeizeService;
 import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiImplicitParam;
 import io.swagger.annotations.ApiImplicitParams;
 import io.swagger.annotations.ApiOperation;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import javax.annotation.Resource;
 
@@ -23,6 +26,9 @@ public class WorkerOrdersSeizeController {
     @Resource
     private IOrdersSeizeService ordersSeizeService;
 
+    @Resource
+    private SeizeResultNotifier seizeResultNotifier;
+
     @GetMapping("")
     @ApiOperation("服务端抢单列表")
     public OrdersSeizeListResDTO queryForList(OrdersSerizeListReqDTO ordersSerizeListReqDTO) {
@@ -34,4 +40,10 @@ public class WorkerOrdersSeizeController {
     public void seize(@RequestBody OrdersSeizeReqDTO ordersSeizeReqDTO) {
         ordersSeizeService.seize(ordersSeizeReqDTO.getId(), UserContext.currentUserId(), UserContext.currentUser().getUserType(), false);
     }
+
+    @GetMapping(value = "/result", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    @ApiOperation("服务端订阅抢单结果")
+    public SseEmitter subscribeResult() {
+        return seizeResultNotifier.subscribe(UserContext.currentUserId());
+    }
 }
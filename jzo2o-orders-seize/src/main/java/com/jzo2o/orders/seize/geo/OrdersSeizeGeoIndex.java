@@ -0,0 +1,199 @@
+package com.jzo2o.orders.seize.geo;
+
+import co.elastic.clients.elasticsearch._types.SortOrder;
+import co.elastic.clients.elasticsearch.core.SearchRequest;
+import co.elastic.clients.elasticsearch.core.SearchResponse;
+import co.elastic.clients.elasticsearch.core.search.Hit;
+import com.jzo2o.common.utils.BeanUtils;
+import com.jzo2o.common.utils.CollUtils;
+import com.jzo2o.common.utils.JsonUtils;
+import com.jzo2o.common.utils.StringUtils;
+import com.jzo2o.es.core.ElasticSearchTemplate;
+import com.jzo2o.es.utils.SearchResponseUtils;
+import com.jzo2o.orders.base.constants.EsIndexConstants;
+import com.jzo2o.orders.base.geo.AbstractCityGeoIndex;
+import com.jzo2o.orders.base.geo.GeoGridIndex;
+import com.jzo2o.orders.base.properties.DispatchProperties;
+import com.jzo2o.orders.seize.model.domain.OrdersSeizeInfo;
+import com.jzo2o.orders.seize.model.dto.SeizeListCursor;
+import com.jzo2o.orders.seize.model.dto.request.OrdersSerizeListReqDTO;
+import com.jzo2o.orders.seize.model.dto.response.OrdersSeizeListResDTO;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RTopic;
+import org.redisson.api.RedissonClient;
+import org.redisson.client.codec.StringCodec;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static com.jzo2o.orders.base.constants.FieldConstants.CITY_CODE;
+import static com.jzo2o.orders.base.constants.RedisConstants.RedisKey.ORDERS_SEIZE_DELETE_TOPIC;
+import static com.jzo2o.orders.base.constants.RedisConstants.RedisKey.ORDERS_SEIZE_SAVE_TOPIC;
+
+/**
+ * 抢单池内存网格索引
+ * 从es全量加载并定时刷新，抢单池同步时通过主题广播新增和删除到所有抢单节点，抢单列表无需每次查询es。
+ */
+@Component
+@Slf4j
+public class OrdersSeizeGeoIndex extends AbstractCityGeoIndex<OrdersSeizeInfo> {
+
+    /**
+     * 抢单列表每页数量，与es默认查询数量一致
+     */
+    private static final int PAGE_SIZE = 10;
+
+    @Resource
+    private ElasticSearchTemplate elasticSearchTemplate;
+
+    @Resource
+    private RedissonClient redissonClient;
+
+    @Resource
+    private DispatchProperties dispatchProperties;
+
+    private int saveListenerId;
+
+    private int deleteListenerId;
+
+    public OrdersSeizeGeoIndex() {
+        super("orders-seize-geo-index");
+    }
+
+    @PostConstruct
+    public void start() {
+        saveListenerId = getSaveTopic().addListener(String.class, (channel, msg) ->
+                JsonUtils.parseArray(msg).toList(OrdersSeizeInfo.class)
+                        .forEach(ordersSeizeInfo -> put(ordersSeizeInfo.getCityCode(), ordersSeizeInfo)));
+        deleteListenerId = getDeleteTopic().addListener(String.class, (channel, msg) ->
+                JsonUtils.parseArray(msg).toList(Long.class).forEach(this::remove));
+    }
+
+    @PreDestroy
+    public void stop() {
+        getSaveTopic().removeListener(saveListenerId);
+        getDeleteTopic().removeListener(deleteListenerId);
+    }
+
+    /**
+     * 广播新增的抢单
+     *
+     * @param ordersSeizeInfos 抢单信息
+     */
+    public void publishSave(List<OrdersSeizeInfo> ordersSeizeInfos) {
+        if (CollUtils.isEmpty(ordersSeizeInfos) || !isEnabled()) {
+            return;
+        }
+        getSaveTopic().publish(JsonUtils.toJsonStr(ordersSeizeInfos));
+    }
+
+    /**
+     * 广播删除的抢单
+     *
+     * @param ids 抢单id
+     */
+    public void publishDelete(List<Long> ids) {
+        if (CollUtils.isEmpty(ids) || !isEnabled()) {
+            return;
+        }
+        getDeleteTopic().publish(JsonUtils.toJsonStr(ids));
+    }
+
+    /**
+     * 查询抢单列表，匹配条件、距离排序及滚动分页与es查询一致，关键字查询需分词不在内存索引中处理
+     *
+     * @param serveItemIds 服务项id
+     * @param lon 经度
+     * @param lat 纬度
+     * @param distanceLimit 距离限制
+     * @param cityCode 城市编码
+     * @param ordersSerizeListReqDTO 查询条件
+     * @param cursor 滚动分页游标，查询首页时为空
+     * @return 抢单列表，城市索引不可用或包含关键字时返回null
+     */
+    public List<OrdersSeizeListResDTO.OrdersSeize> search(List<Long> serveItemIds, Double lon, Double lat, double distanceLimit,
+                                                          String cityCode, OrdersSerizeListReqDTO ordersSerizeListReqDTO, SeizeListCursor cursor) {
+        if (lon == null || lat == null || StringUtils.isNotEmpty(ordersSerizeListReqDTO.getKeyWord())) {
+            return null;
+        }
+        GeoGridIndex<OrdersSeizeInfo> index = get(cityCode);
+        if (index == null) {
+            return null;
+        }
+        Set<Long> serveItemIdSet = new HashSet<>(serveItemIds);
+        Long serveTypeId = ordersSerizeListReqDTO.getServeTypeId();
+        return index.radius(lon, lat, distanceLimit, ordersSeizeInfo ->
+                        // 服务类型及服务项
+                        (serveTypeId == null || serveTypeId.equals(ordersSeizeInfo.getServeTypeId()))
+                                && serveItemIdSet.contains(ordersSeizeInfo.getServeItemId()))
+                .stream()
+                // 滚动分页,根据距离、抢单id滚动分页
+                .filter(hit -> SeizeListCursor.isAfter(cursor, hit.getDistance(), hit.getValue().getId()))
+                .sorted(Comparator.<GeoGridIndex.Hit<OrdersSeizeInfo>>comparingDouble(GeoGridIndex.Hit::getDistance)
+                        .thenComparing(hit -> hit.getValue().getId()))
+                .limit(PAGE_SIZE)
+                .map(hit -> {
+                    OrdersSeizeListResDTO.OrdersSeize ordersSeize = BeanUtils.toBean(hit.getValue(), OrdersSeizeListResDTO.OrdersSeize.class);
+                    ordersSeize.setRealDistance(hit.getDistance());
+                    return ordersSeize;
+                })
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    protected List<OrdersSeizeInfo> loadPage(String cityCode, Long lastId, int size) {
+        SearchRequest.Builder builder = new SearchRequest.Builder();
+        builder.index(EsIndexConstants.ORDERS_SEIZE);
+        builder.query(query -> query.term(term -> term.field(CITY_CODE).value(cityCode)));
+        builder.sort(sort -> sort.field(field -> field.field("id").order(SortOrder.Asc)));
+        builder.size(size);
+        if (lastId != null) {
+            builder.searchAfter(lastId.toString());
+        }
+        SearchResponse<OrdersSeizeInfo> searchResponse = elasticSearchTemplate.opsForDoc().search(builder.build(), OrdersSeizeInfo.class);
+        if (SearchResponseUtils.isNotSuccess(searchResponse)) {
+            throw new IllegalStateException("城市" + cityCode + "抢单查询失败");
+        }
+        return searchResponse.hits().hits().stream().map(Hit::source).collect(Collectors.toList());
+    }
+
+    @Override
+    protected Long getId(OrdersSeizeInfo value) {
+        return value.getId();
+    }
+
+    @Override
+    protected Double getLon(OrdersSeizeInfo value) {
+        return value.getLocation() == null ? null : value.getLocation().getLon();
+    }
+
+    @Override
+    protected Double getLat(OrdersSeizeInfo value) {
+        return value.getLocation() == null ? null : value.getLocation().getLat();
+    }
+
+    @Override
+    protected boolean isEnabled() {
+        return Boolean.TRUE.equals(dispatchProperties.getGeoIndexEnabled());
+    }
+
+    @Override
+    protected long getRefreshInterval() {
+        return dispatchProperties.getGeoIndexRefreshInterval();
+    }
+
+    private RTopic getSaveTopic() {
+        return redissonClient.getTopic(ORDERS_SEIZE_SAVE_TOPIC, StringCodec.INSTANCE);
+    }
+
+    private RTopic getDeleteTopic() {
+        return redissonClient.getTopic(ORDERS_SEIZE_DELETE_TOPIC, StringCodec.INSTANCE);
+    }
+}
@@ -1,27 +1,36 @@
 package com.jzo2o.orders.seize.handler;
 
-import com.jzo2o.canal.listeners.AbstractCanalRabbitMqMsgListener;
 import com.jzo2o.common.model.Location;
 import com.jzo2o.common.utils.BeanUtils;
 import com.jzo2o.common.utils.CollUtils;
+import com.jzo2o.common.utils.DateUtils;
 import com.jzo2o.es.core.ElasticSearchTemplate;
+import com.jzo2o.orders.base.canal.AbstractPartitionedCanalMsgListener;
 import com.jzo2o.orders.base.constants.RedisConstants;
 import com.jzo2o.orders.base.model.domain.OrdersSeize;
 import com.jzo2o.orders.base.utils.RedisUtils;
+import com.jzo2o.orders.base.utils.ServeTimeUtils;
+import com.jzo2o.orders.seize.cache.SeizeListCache;
+import com.jzo2o.orders.seize.cache.SeizeSoldOutCache;
+import com.jzo2o.orders.seize.geo.OrdersSeizeGeoIndex;
 import com.jzo2o.orders.seize.model.domain.OrdersSeizeInfo;
 import lombok.extern.slf4j.Slf4j;
+import com.rabbitmq.client.Channel;
 import org.springframework.amqp.core.ExchangeTypes;
 import org.springframework.amqp.core.Message;
 import org.springframework.amqp.rabbit.annotation.Exchange;
 import org.springframework.amqp.rabbit.annotation.Queue;
 import org.springframework.amqp.rabbit.annotation.QueueBinding;
 import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.data.redis.core.RedisOperations;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.SessionCallback;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.Resource;
 import java.time.format.DateTimeFormatter;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 import static com.jzo2o.orders.base.constants.EsIndexConstants.ORDERS_SEIZE;
@@ -31,7 +40,12 @@ import static com.jzo2o.orders.base.constants.EsIndexConstants.ORDERS_SEIZE;
  */
 @Component
 @Slf4j
-public class OrdersSeizeSyncHandler extends AbstractCanalRabbitMqMsgListener<OrdersSeize> {
+public class OrdersSeizeSyncHandler extends AbstractPartitionedCanalMsgListener<OrdersSeize> {
+
+    /**
+     * 服务开始时间格式(yyMMddHH)
+     */
+    private static final DateTimeFormatter SERVE_TIME_FORMATTER = DateTimeFormatter.ofPattern("yyMMddHH");
 
     @Resource
     private ElasticSearchTemplate elasticSearchTemplate;
@@ -39,24 +53,39 @@ public class OrdersSeizeSyncHandler extends AbstractCanalRabbitMqMsgListener<Ord
     @Resource
     private RedisTemplate redisTemplate;
 
+    @Resource
+    private OrdersSeizeGeoIndex ordersSeizeGeoIndex;
+
+    @Resource
+    private SeizeListCache seizeListCache;
+
+    @Resource
+    private SeizeSoldOutCache seizeSoldOutCache;
+
 
     @RabbitListener(bindings = @QueueBinding(
             value = @Queue(name = "canal-mq-jzo2o-orders-seize"),
             exchange = @Exchange(name = "exchange.canal-jzo2o", type = ExchangeTypes.TOPIC),
             key = "canal-mq-jzo2o-orders-seize"),
-            concurrency = "1"
+            concurrency = "1",
+            ackMode = "MANUAL"
     )
-    public void onMessage(Message message) throws Exception {
-        parseMsg(message);
+    public void onMessage(Message message, Channel channel) {
+        consume(message, channel);
+    }
+
+    @Override
+    protected Long getId(OrdersSeize data) {
+        return data.getId();
     }
 
     @Override
-    public void batchSave(List<OrdersSeize> ordersSeizes) {
+    protected void partitionSave(List<OrdersSeize> ordersSeizes) {
         // 1.es中添加抢单信息
         List<OrdersSeizeInfo> ordersSeizeInfos = ordersSeizes.stream().map(ordersSeize -> {
             OrdersSeizeInfo ordersSeizeInfo = BeanUtils.toBean(ordersSeize, OrdersSeizeInfo.class);
             //得到服务开始时间(yyMMddHH)
-            String serveTimeString = DateTimeFormatter.ofPattern("yyMMddHH").format(ordersSeize.getServeStartTime());
+            String serveTimeString = SERVE_TIME_FORMATTER.format(ordersSeize.getServeStartTime());
             ordersSeizeInfo.setServeTime(Integer.parseInt(serveTimeString));
             ordersSeizeInfo.setLocation(new Location(ordersSeize.getLon(), ordersSeize.getLat()));
             ordersSeizeInfo.setKeyWords(ordersSeize.getServeTypeName() + ordersSeize.getServeItemName() + ordersSeize.getServeAddress());
@@ -67,21 +96,60 @@ public class OrdersSeizeSyncHandler extends AbstractCanalRabbitMqMsgListener<Ord
         if (!result){
             throw new RuntimeException("同步抢单池加入es失败");
         }
-        // 2.写入库存
-        ordersSeizeInfos.stream().forEach(ordersSeizeInfo -> {
-            String redisKey = String.format(RedisConstants.RedisKey.ORDERS_RESOURCE_STOCK, RedisUtils.getCityIndex(ordersSeizeInfo.getCityCode()));
-            // 库存默认1
-            redisTemplate.opsForHash().putIfAbsent(redisKey, ordersSeizeInfo.getId(), 1);
+        // 广播到所有抢单节点的内存索引
+        ordersSeizeGeoIndex.publishSave(ordersSeizeInfos);
+        // 失效覆盖新增抢单位置的抢单列表候选缓存
+        seizeListCache.invalidate(ordersSeizes);
+        // 2.按城市分片写入库存、抢单服务时间及到期索引，每个分片一次管道提交
+        ordersSeizes.stream()
+                .collect(Collectors.groupingBy(ordersSeize -> RedisUtils.getCityIndex(ordersSeize.getCityCode())))
+                .forEach(this::initStockAndServeTime);
+        // 3.库存写入后清除所有抢单节点中的售罄记录
+        seizeSoldOutCache.available(CollUtils.getFieldValues(ordersSeizes, OrdersSeize::getId));
+    }
+
+    /**
+     * 管道批量写入同一分片的库存和抢单服务时间位图偏移量，已存在的不覆盖；到期索引以最新的服务开始时间为准
+     *
+     * @param index 城市分片序号
+     * @param ordersSeizes 分片内的抢单
+     */
+    private void initStockAndServeTime(int index, List<OrdersSeize> ordersSeizes) {
+        String stockRedisKey = String.format(RedisConstants.RedisKey.ORDERS_RESOURCE_STOCK, index);
+        String serveTimeRedisKey = String.format(RedisConstants.RedisKey.ORDERS_SEIZE_SERVE_TIME, index);
+        String expireRedisKey = String.format(RedisConstants.RedisKey.ORDERS_SEIZE_EXPIRE, index);
+        redisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            public Object execute(RedisOperations operations) {
+                ordersSeizes.forEach(ordersSeize -> {
+                    // 库存默认1
+                    operations.opsForHash().putIfAbsent(stockRedisKey, ordersSeize.getId(), 1);
+                    // 抢单服务时间位图偏移量，用于抢单脚本中校验服务时间冲突
+                    operations.opsForHash().putIfAbsent(serveTimeRedisKey, ordersSeize.getId(),
+                            ServeTimeUtils.getServeTimeOffset(ordersSeize.getServeStartTime()));
+                    // 到期索引，到达服务开始时间后清理
+                    operations.opsForZSet().add(expireRedisKey, ordersSeize.getId(), DateUtils.toEpochMilli(ordersSeize.getServeStartTime()));
+                });
+                return null;
+            }
         });
     }
 
     @Override
-    public void batchDelete(List<Long> ids) {
+    protected void partitionDelete(List<Long> ids) {
         log.info("抢单删除开始，删除数量:{},开始id：{}，结束id:{}", CollUtils.size(ids), CollUtils.getFirst(ids), CollUtils.getLast(ids));
         Boolean result = elasticSearchTemplate.opsForDoc().batchDelete(ORDERS_SEIZE, ids);
         if (!result){
             throw new RuntimeException("同步抢单池加入es失败");
         }
+        // 删除前从内存索引取出抢单位置用于失效候选缓存，未加载的抢单由候选缓存过期淘汰
+        Map<String, List<double[]>> cityLocations = ids.stream()
+                .map(ordersSeizeGeoIndex::find)
+                .filter(ordersSeizeInfo -> ordersSeizeInfo != null && ordersSeizeInfo.getLocation() != null)
+                .collect(Collectors.groupingBy(OrdersSeizeInfo::getCityCode, Collectors.mapping(ordersSeizeInfo ->
+                        new double[]{ordersSeizeInfo.getLocation().getLon(), ordersSeizeInfo.getLocation().getLat()}, Collectors.toList())));
+        ordersSeizeGeoIndex.publishDelete(ids);
+        cityLocations.forEach(seizeListCache::invalidate);
         log.info("抢单删除结束，删除数量:{},开始id：{}，结束id:{}", CollUtils.size(ids), CollUtils.getFirst(ids), CollUtils.getLast(ids));
 
     }
@@ -0,0 +1,47 @@
+package com.jzo2o.orders.seize.handler;
+
+import com.jzo2o.orders.base.service.IRedisReshardService;
+import com.jzo2o.orders.base.utils.RedisUtils;
+import com.xxl.job.core.context.XxlJobHelper;
+import com.xxl.job.core.handler.annotation.XxlJob;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+
+/**
+ * redis分片迁移xxl-job任务
+ */
+@Component
+@Slf4j
+public class RedisReshardJobHandler {
+
+    @Resource
+    private IRedisReshardService redisReshardService;
+
+    /**
+     * 将原分片中的库存、抢单服务时间、到期索引、服务状态及服务时间位图迁移到当前分片
+     * 使用分片广播路由时按原分片序号分配到各执行器，迁移数量为0后即可删除迁移前的分片配置
+     */
+    @XxlJob("redisReshardJob")
+    public void redisReshardJob() {
+        if (!RedisUtils.isResharding()) {
+            XxlJobHelper.log("未配置迁移前的分片，无需迁移");
+            return;
+        }
+        int shardIndex = XxlJobHelper.getShardIndex();
+        int shardTotal = Math.max(XxlJobHelper.getShardTotal(), 1);
+        long moved = 0;
+        for (int index = 0; index < RedisUtils.getPreviousCityIndexCount(); index++) {
+            if (index % shardTotal != shardIndex) {
+                continue;
+            }
+            try {
+                moved += redisReshardService.migrateShard(index);
+            } catch (Exception e) {
+                log.error("redis分片{}迁移异常", index, e);
+            }
+        }
+        XxlJobHelper.log("分片{}/{}迁移数量：{}", shardIndex, shardTotal, moved);
+    }
+}
@@ -1,21 +1,25 @@
 package com.jzo2o.orders.seize.handler;
 
 import com.jzo2o.api.foundations.RegionApi;
-import com.jzo2o.api.foundations.dto.response.ConfigRegionInnerResDTO;
 import com.jzo2o.common.utils.BeanUtils;
 import com.jzo2o.common.utils.CollUtils;
-import com.jzo2o.common.utils.ObjectUtils;
+import com.jzo2o.common.utils.DateUtils;
+import com.jzo2o.common.utils.NumberUtils;
 import com.jzo2o.es.core.ElasticSearchTemplate;
 import com.jzo2o.orders.base.constants.EsIndexConstants;
 import com.jzo2o.orders.base.model.domain.OrdersDispatch;
 import com.jzo2o.orders.base.model.domain.OrdersSeize;
+import com.jzo2o.orders.base.model.domain.ServeProviderSync;
 import com.jzo2o.orders.base.utils.RedisUtils;
+import com.jzo2o.orders.seize.cache.SeizeListCache;
 import com.jzo2o.orders.seize.model.dto.response.OrdersSeizeListResDTO;
 import com.jzo2o.orders.seize.service.IOrdersDispatchService;
 import com.jzo2o.orders.seize.service.IOrdersSeizeService;
+import com.jzo2o.orders.seize.service.IServeProviderSyncService;
 import com.jzo2o.redis.annotations.Lock;
 import com.jzo2o.redis.constants.RedisSyncQueueConstants;
 import com.jzo2o.redis.sync.SyncManager;
+import com.xxl.job.core.context.XxlJobHelper;
 import com.xxl.job.core.handler.annotation.XxlJob;
 import io.seata.spring.annotation.GlobalTransactional;
 import lombok.extern.slf4j.Slf4j;
@@ -25,12 +29,18 @@ import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
 
 import javax.annotation.Resource;
+import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executor;
 import java.util.stream.Collectors;
 
 import static com.jzo2o.orders.base.constants.RedisConstants.RedisFormatter.SEIZE_TIME_OUT;
 import static com.jzo2o.orders.base.constants.RedisConstants.RedisKey.ORDERS_RESOURCE_STOCK;
+import static com.jzo2o.orders.base.constants.RedisConstants.RedisKey.ORDERS_SEIZE_EXPIRE;
+import static com.jzo2o.orders.base.constants.RedisConstants.RedisKey.ORDERS_SEIZE_SERVE_TIME;
 import static com.jzo2o.orders.base.constants.RedisConstants.RedisKey.ORERS_SEIZE_SYNC_QUEUE_NAME;
 
 /**
@@ -48,6 +58,9 @@ public class SeizeJobHandler {
     @Resource(name = "seizeSyncExecutor")
     private Executor seizeSyncExecutor;
 
+    @Resource(name = "seizeTimeoutExecutor")
+    private Executor seizeTimeoutExecutor;
+
     @Resource
     private RedissonClient redissonClient;
 
@@ -68,86 +81,195 @@ public class SeizeJobHandler {
     @Resource
     private IOrdersDispatchService ordersDispatchService;
 
+    @Resource
+    private IServeProviderSyncService serveProviderSyncService;
+
+    @Resource
+    private SeizeListCache seizeListCache;
+
+    /**
+     * 抢单超时每页处理数量
+     */
+    private static final int SEIZE_TIMEOUT_PAGE_SIZE = 500;
+
     /**
      * 当前时间距离服务预约时间间隔小于配置值时进入派单池
+     * 使用分片广播路由时按城市编码分配到各执行器，执行器内各城市并行处理
      */
     @XxlJob("seizeTimeoutIntoDispatchPoolJob")
     public void seizeTimeoutIntoDispatchPoolJob() {
-        List<ConfigRegionInnerResDTO> configRegionInnerResDTOS = regionApi.findAll();
-        for (ConfigRegionInnerResDTO configRegionInnerResDTO : configRegionInnerResDTOS) {
-            try {
-                //传入配置的下单时间距离服务预约时间间隔
-                owner.seizeTimeoutIntoDispatchPool(configRegionInnerResDTO.getCityCode(), configRegionInnerResDTO.getDiversionInterval());
-
-            } catch (Exception e) {
-                log.error("抢单订单超时处理异常，e:", e);
-            }
-        }
+        int shardIndex = XxlJobHelper.getShardIndex();
+        int shardTotal = Math.max(XxlJobHelper.getShardTotal(), 1);
+        List<CompletableFuture<Void>> futures = regionApi.findAll().stream()
+                // 当前执行器负责的城市
+                .filter(configRegionInnerResDTO -> Math.floorMod(configRegionInnerResDTO.getCityCode().hashCode(), shardTotal) == shardIndex)
+                .map(configRegionInnerResDTO -> CompletableFuture.runAsync(() -> {
+                    try {
+                        //传入配置的下单时间距离服务预约时间间隔
+                        seizeTimeoutIntoDispatchPool(configRegionInnerResDTO.getCityCode(), configRegionInnerResDTO.getDiversionInterval());
+                    } catch (Exception e) {
+                        log.error("城市{}抢单订单超时处理异常，e:", configRegionInnerResDTO.getCityCode(), e);
+                    }
+                }, seizeTimeoutExecutor))
+                .collect(Collectors.toList());
+        // 等待本次负责的城市全部处理完成，避免与下次调度重叠
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+        XxlJobHelper.log("分片{}/{}处理抢单超时城市数量：{}", shardIndex, shardTotal, futures.size());
     }
 
     /**
-     *当前时间距离服务预约时间间隔小于配置值时进入派单池，以城市为单位进行处理
+     * 当前时间距离服务预约时间间隔小于配置值时进入派单池，以城市为单位按id分页处理，每页一个事务
      * @param cityCode
      * @param timeoutInterval
      */
-    @Transactional(rollbackFor = Exception.class)
     public void seizeTimeoutIntoDispatchPool(String cityCode, Integer timeoutInterval) {
-        // 1.查询满足条件的且未处理的抢单列表
-        List<OrdersSeize> ordersSeizes = ordersSeizeService.queryTimeoutSeizeOrders(cityCode, timeoutInterval);
-        if (CollUtils.isEmpty(ordersSeizes)) {
-            return;
+        long lastId = 0L;
+        while (true) {
+            // 1.查询满足条件的且未处理的抢单列表
+            List<OrdersSeize> ordersSeizes = ordersSeizeService.queryTimeoutSeizeOrders(cityCode, timeoutInterval, lastId, SEIZE_TIMEOUT_PAGE_SIZE);
+            if (CollUtils.isEmpty(ordersSeizes)) {
+                return;
+            }
+            owner.seizeTimeoutIntoDispatchPool(ordersSeizes);
+            if (ordersSeizes.size() < SEIZE_TIMEOUT_PAGE_SIZE) {
+                return;
+            }
+            lastId = CollUtils.getLast(ordersSeizes).getId();
         }
+    }
 
-        // 2.修改抢单超时标记并，派单
+    /**
+     * 超时抢单进入派单池
+     * @param ordersSeizes 超时抢单
+     */
+    @Transactional(rollbackFor = Exception.class)
+    public void seizeTimeoutIntoDispatchPool(List<OrdersSeize> ordersSeizes) {
+        // 1.修改抢单超时标记并，派单
         List<Long> ids = ordersSeizes.stream().map(OrdersSeize::getId).collect(Collectors.toList());
         List<OrdersDispatch> ordersDispatches = BeanUtils.copyToList(ordersSeizes, OrdersDispatch.class);
-        //2.1.指定同步到派单池
+        //1.1.指定同步到派单池
         ordersDispatchService.saveOrUpdateBatch(ordersDispatches,100);
-        // 2.2.标记订单抢单超时
+        // 1.2.标记订单抢单超时
         ordersSeizeService.batchTimeout(ids);
     }
 
+    /**
+     * 到期清理每批数量
+     */
+    private static final int EXPIRE_CHUNK_SIZE = 200;
+
     /**
      * 到达服务预约时间，终止抢单
+     * 按分片从到期索引中分批取出到期的抢单清理数据库、es、库存及抢单服务时间，只处理到期的抢单；
+     * 未进入到期索引的历史数据每次执行补偿清理一批
      */
     @XxlJob("arriveServeStartTimeStopSeizeJob")
     public void arriveServeStartTimeStopSeizeJob() {
-        // 1.到达服务预约时间的抢单信息
-        List<OrdersSeize> ordersSeizes = ordersSeizeService.queryArriveServeStartTimeSeizeOrder();
-        if (CollUtils.isNotEmpty(ordersSeizes)) {
-            List<Long> ids = ordersSeizes.stream().map(OrdersSeize::getId).collect(Collectors.toList());
-            // 2.批量删除抢单列表
-            ordersSeizeService.batchDeleteByIds(ids);
-            // 3.批量删除库存
-            ordersSeizes.stream().collect(Collectors.groupingBy(OrdersSeize::getCityCode))//按城市编码对抢单记录分组
-                    .forEach((cityCode, ordersSeizeList) -> {
-                        //抢单库存redis key
-                        String stockRedisKey = String.format(ORDERS_RESOURCE_STOCK, RedisUtils.getCityIndex(cityCode));
-                        //取出抢单id列表
-                        List<Long> idList = ordersSeizeList.stream().map(OrdersSeize::getId).collect(Collectors.toList());
-                        //删除抢单库存中对应的抢单库存
-                        redisTemplate.opsForHash().delete(stockRedisKey, idList);
-                    });
+        long now = DateUtils.toEpochMilli(DateUtils.now());
+        // 1.按分片分批清理到期的抢单
+        // 分片迁移期间原分片中尚未迁移的到期数据一并清理
+        int indexCount = Math.max(RedisUtils.getCityIndexCount(), RedisUtils.getPreviousCityIndexCount());
+        for (int index = 0; index < indexCount; index++) {
+            String expireRedisKey = String.format(ORDERS_SEIZE_EXPIRE, index);
+            while (true) {
+                Set<Object> dueIds = redisTemplate.opsForZSet().rangeByScore(expireRedisKey, 0, now, 0, EXPIRE_CHUNK_SIZE);
+                if (CollUtils.isEmpty(dueIds)) {
+                    break;
+                }
+                stopSeize(index, dueIds.stream().map(id -> NumberUtils.parseLong(id.toString())).collect(Collectors.toList()));
+                // 清理完成后再移出到期索引，清理失败时下次执行重试
+                redisTemplate.opsForZSet().remove(expireRedisKey, dueIds.toArray());
+            }
         }
 
+        // 2.补偿清理未进入到期索引的抢单
+        List<OrdersSeize> ordersSeizes = ordersSeizeService.queryArriveServeStartTimeSeizeOrder(EXPIRE_CHUNK_SIZE);
+        ordersSeizes.stream()
+                .collect(Collectors.groupingBy(ordersSeize -> RedisUtils.getCityIndex(ordersSeize.getCityCode()),
+                        Collectors.mapping(OrdersSeize::getId, Collectors.toList())))
+                .forEach(this::stopSeize);
 
-        //删除ES中的记录
-        List<OrdersSeizeListResDTO.OrdersSeize> ordersSeizesFromEs = ordersSeizeService.queryArriveServeStartTimeSeizeOrderFromEs();
-        if(ObjectUtils.isNotEmpty(ordersSeizesFromEs)){
+        // 3.补偿清理数据库中已不存在的es记录
+        List<OrdersSeizeListResDTO.OrdersSeize> ordersSeizesFromEs = ordersSeizeService.queryArriveServeStartTimeSeizeOrderFromEs(EXPIRE_CHUNK_SIZE);
+        if (CollUtils.isNotEmpty(ordersSeizesFromEs)) {
             List<Long> fieldValues = CollUtils.getFieldValues(ordersSeizesFromEs, OrdersSeizeListResDTO.OrdersSeize::getId);
-            elasticSearchTemplate.opsForDoc().batchDelete(EsIndexConstants.ORDERS_SEIZE,fieldValues);
-
+            elasticSearchTemplate.opsForDoc().batchDelete(EsIndexConstants.ORDERS_SEIZE, fieldValues);
         }
+    }
 
+    /**
+     * 清理同一分片内到期的抢单，数据库、es、库存及抢单服务时间均按id删除，重复清理无副作用
+     *
+     * @param index 城市分片序号
+     * @param ids 到期的抢单id
+     */
+    private void stopSeize(int index, List<Long> ids) {
+        // 1.服务开始时间已调整到未来的抢单不清理，同步时会重新写入到期索引
+        LocalDateTime now = DateUtils.now();
+        Map<Boolean, List<OrdersSeize>> dueMap = ordersSeizeService.listByIds(ids).stream()
+                .collect(Collectors.partitioningBy(ordersSeize -> !ordersSeize.getServeStartTime().isAfter(now)));
+        Set<Long> notDueIds = dueMap.get(false).stream().map(OrdersSeize::getId).collect(Collectors.toSet());
+        List<Long> dueIds = ids.stream().filter(id -> !notDueIds.contains(id)).collect(Collectors.toList());
+        if (CollUtils.isEmpty(dueIds)) {
+            return;
+        }
+        List<OrdersSeize> ordersSeizes = dueMap.get(true);
+        // 2.删除数据库中的抢单
+        if (CollUtils.isNotEmpty(ordersSeizes)) {
+            ordersSeizeService.batchDeleteByIds(CollUtils.getFieldValues(ordersSeizes, OrdersSeize::getId));
+        }
+        // 3.删除es中的抢单，数据库中已不存在的一并删除
+        elasticSearchTemplate.opsForDoc().batchDelete(EsIndexConstants.ORDERS_SEIZE, dueIds);
+        // 4.删除库存及抢单服务时间
+        redisTemplate.opsForHash().delete(String.format(ORDERS_RESOURCE_STOCK, index), dueIds.toArray());
+        redisTemplate.opsForHash().delete(String.format(ORDERS_SEIZE_SERVE_TIME, index), dueIds.toArray());
+        // 5.失效抢单列表候选缓存
+        seizeListCache.invalidate(ordersSeizes);
     }
 
+    /**
+     * 服务人员/机构接单数据对账，每页数量
+     */
+    private static final int RECONCILE_PAGE_SIZE = 100;
+
+    /**
+     * 服务人员/机构接单数据对账
+     * 接单数和服务时间随订单状态变更增量维护，定期与服务单全量统计结果比对修正偏差
+     */
+    @XxlJob("serveProviderSyncReconcileJob")
+    public void serveProviderSyncReconcileJob() {
+        long lastId = 0L;
+        int repaired = 0;
+        while (true) {
+            List<ServeProviderSync> serveProviderSyncs = serveProviderSyncService.lambdaQuery()
+                    .gt(ServeProviderSync::getId, lastId)
+                    .select(ServeProviderSync::getId)
+                    .orderByAsc(ServeProviderSync::getId)
+                    .last("limit " + RECONCILE_PAGE_SIZE)
+                    .list();
+            if (CollUtils.isEmpty(serveProviderSyncs)) {
+                break;
+            }
+            for (ServeProviderSync serveProviderSync : serveProviderSyncs) {
+                try {
+                    if (serveProviderSyncService.reconcile(serveProviderSync.getId())) {
+                        repaired++;
+                    }
+                } catch (Exception e) {
+                    log.error("服务人员或机构{}接单数据对账异常，e:", serveProviderSync.getId(), e);
+                }
+            }
+            lastId = serveProviderSyncs.get(serveProviderSyncs.size() - 1).getId();
+        }
+        log.info("服务人员/机构接单数据对账完成，修正数量:{}", repaired);
+    }
 
     /**
      * 抢单成功同步任务
      */
     @XxlJob("seizeSyncJob")
     public void seizeSyncJob() {
-        syncManager.start(ORERS_SEIZE_SYNC_QUEUE_NAME, RedisSyncQueueConstants.STORAGE_TYPE_HASH, RedisSyncQueueConstants.MODE_SINGLE);
+        syncManager.start(ORERS_SEIZE_SYNC_QUEUE_NAME, RedisSyncQueueConstants.STORAGE_TYPE_HASH, RedisSyncQueueConstants.MODE_BATCH);
     }
 
 }
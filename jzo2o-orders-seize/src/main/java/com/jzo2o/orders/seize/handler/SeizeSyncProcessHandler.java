@@ -6,14 +6,25 @@ import com.jzo2o.api.customer.dto.response.ServeProviderResDTO;
 import com.jzo2o.common.utils.JsonUtils;
 import com.jzo2o.common.utils.NumberUtils;
 import com.jzo2o.orders.base.model.domain.OrdersSeize;
+import com.jzo2o.orders.seize.model.dto.SeizeResultDTO;
 import com.jzo2o.orders.seize.service.IOrdersSeizeService;
 import com.jzo2o.redis.handler.SyncProcessHandler;
 import com.jzo2o.redis.model.SyncMessage;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static com.jzo2o.orders.base.constants.RedisConstants.Lock.DISPATCH_OR_SEIZE_LOCK;
 
 /**
  * 抢单成功同步任务
@@ -22,6 +33,16 @@ import java.util.List;
 @Slf4j
 public class SeizeSyncProcessHandler implements SyncProcessHandler<Object> {
 
+    /**
+     * 获取抢派单锁的等待时间，单位：秒，锁持有期间由看门狗续期至服务单生成事务提交
+     */
+    private static final long LOCK_WAIT = 3;
+
+    /**
+     * 抢单结果批量同步耗时
+     */
+    public static final String BATCH_TIMER = "orders.seize.sync.batch";
+
     @Resource
     private IOrdersSeizeService ordersSeizeService;
 
@@ -29,33 +50,119 @@ public class SeizeSyncProcessHandler implements SyncProcessHandler<Object> {
     @Resource
     private ServeProviderApi serveProviderApi;
 
+    @Resource
+    private RedissonClient redissonClient;
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    /**
+     * 整批处理成功的耗时
+     */
+    private Timer batchTimer;
+
+    /**
+     * 整批失败后逐条处理的耗时
+     */
+    private Timer fallbackTimer;
+
+    @PostConstruct
+    public void init() {
+        batchTimer = Timer.builder(BATCH_TIMER)
+                .description("抢单结果批量同步耗时")
+                .tag("result", "batch")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        fallbackTimer = Timer.builder(BATCH_TIMER)
+                .description("抢单结果批量同步耗时")
+                .tag("result", "fallback")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+
     @Override
     public void batchProcess(List<SyncMessage<Object>> multiData) {
-        throw new RuntimeException("不支持批量处理");
+        Timer.Sample sample = Timer.start(meterRegistry);
+        List<SeizeResultDTO> seizeResults = multiData.stream().map(this::parse).collect(Collectors.toList());
+        try {
+            // 整批处理，一次查询抢单、批量生成服务单
+            lockAndRun(seizeResults.stream().map(SeizeResultDTO::getSeizeId).collect(Collectors.toList()),
+                    () -> ordersSeizeService.batchSeizeOrdersSuccess(seizeResults));
+        } catch (Exception e) {
+            // 整批失败时逐条处理，避免单条异常数据阻塞整个批次
+            log.error("抢单结果批量同步失败，改为逐条处理，数量：{}，e:", multiData.size(), e);
+            multiData.forEach(this::singleProcess);
+            sample.stop(fallbackTimer);
+            return;
+        }
+        sample.stop(batchTimer);
+        log.info("抢单结果批量同步结束，数量：{}", multiData.size());
     }
 
     @Override
     public void singleProcess(SyncMessage<Object> singleData) {
         log.info("抢单结果同步开始 id ： {}",singleData.getKey());
-        // 抢单信息放在value中，内容格式：[serveProviderId,serveProviderType,isMatchine（0，表示人工抢单，1：表示机器抢单）]
-        JSONArray seizeResult = JsonUtils.parseArray(singleData.getValue());
-        // 服务人员或机构id
-        Long serveProviderId = seizeResult.getLong(0);
-        // 用户类型
-        Integer serveProviderType = seizeResult.getInt(1);
-        // 是否是机器抢单
-        boolean isMatchine = seizeResult.getBool(2);
-
-        // 抢单id
-        Long seizeId = NumberUtils.parseLong(singleData.getKey());
-        // 抢单不在无需继续处理
-        OrdersSeize ordersSeize = ordersSeizeService.getById(seizeId);
-        if (ordersSeize == null) {
-            return;
-        }
+        SeizeResultDTO seizeResult = parse(singleData);
 
-        // 处理抢单结果
-        ordersSeizeService.seizeOrdersSuccess(ordersSeize, serveProviderId, serveProviderType, isMatchine);
+        lockAndRun(Collections.singletonList(seizeResult.getSeizeId()), () -> {
+            // 抢单不在无需继续处理
+            OrdersSeize ordersSeize = ordersSeizeService.getById(seizeResult.getSeizeId());
+            if (ordersSeize == null) {
+                return;
+            }
+
+            // 处理抢单结果
+            ordersSeizeService.seizeOrdersSuccess(ordersSeize, seizeResult.getServeProviderId(), seizeResult.getServeProviderType(), seizeResult.getIsMatchine());
+        });
         log.info("抢单结果同步结束 id ： {}",singleData.getKey());
     }
+
+    /**
+     * 持有订单的抢派单锁执行，服务单生成事务提交后才释放，与接单超时撤销派单结果互斥
+     * 等待超时时抛出异常，整批改为逐条处理，逐条处理仍被占用时由同步任务下次重新处理
+     *
+     * @param ids 抢单id
+     * @param runnable 生成服务单
+     */
+    private void lockAndRun(List<Long> ids, Runnable runnable) {
+        RLock lock = redissonClient.getMultiLock(ids.stream()
+                .map(id -> redissonClient.getLock(String.format(DISPATCH_OR_SEIZE_LOCK, id)))
+                .toArray(RLock[]::new));
+        boolean locked;
+        try {
+            locked = lock.tryLock(LOCK_WAIT, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("获取抢派单锁被中断", e);
+        }
+        if (!locked) {
+            throw new IllegalStateException("抢派单锁被占用，稍后同步：" + ids);
+        }
+        try {
+            runnable.run();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 解析同步队列中的抢单结果
+     *
+     * @param syncMessage 同步消息，key为抢单id
+     * @return 抢单结果
+     */
+    private SeizeResultDTO parse(SyncMessage<Object> syncMessage) {
+        // 抢单信息放在value中，内容格式：[serveProviderId,serveProviderType,isMatchine（0，表示人工抢单，1：表示机器抢单）]
+        JSONArray seizeResult = JsonUtils.parseArray(syncMessage.getValue());
+        return SeizeResultDTO.builder()
+                // 抢单id
+                .seizeId(NumberUtils.parseLong(syncMessage.getKey()))
+                // 服务人员或机构id
+                .serveProviderId(seizeResult.getLong(0))
+                // 用户类型
+                .serveProviderType(seizeResult.getInt(1))
+                // 是否是机器抢单
+                .isMatchine(seizeResult.getBool(2))
+                .build();
+    }
 }
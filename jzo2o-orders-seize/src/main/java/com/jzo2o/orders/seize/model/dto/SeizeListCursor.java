@@ -0,0 +1,109 @@
+package com.jzo2o.orders.seize.model.dto;
+
+import com.jzo2o.common.expcetions.BadRequestException;
+import com.jzo2o.common.utils.CollUtils;
+import com.jzo2o.common.utils.NumberUtils;
+import com.jzo2o.common.utils.StringUtils;
+import com.jzo2o.orders.seize.model.dto.request.OrdersSerizeListReqDTO;
+import com.jzo2o.orders.seize.model.dto.response.OrdersSeizeListResDTO;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * 抢单列表滚动分页游标
+ * 抢单列表按(距离，抢单id)排序，游标记录上一页最后一条抢单的距离和id，距离相同的抢单按id继续翻页，不会重复或遗漏；
+ * es查询翻页时还记录时间点快照id，同一次翻页的后续页面在同一快照上查询。游标对客户端不透明，客户端原样回传即可。
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class SeizeListCursor {
+
+    private static final String SEPARATOR = ",";
+
+    /**
+     * 上一页最后一条抢单的距离，单位km
+     */
+    private Double distance;
+
+    /**
+     * 上一页最后一条抢单的id，兼容旧版按距离翻页时为空
+     */
+    private Long id;
+
+    /**
+     * es时间点快照id，首页及内存查询时为空
+     */
+    private String pitId;
+
+    /**
+     * 从查询参数中解析游标，未传游标时兼容上一页最后一条数据的距离
+     *
+     * @param ordersSerizeListReqDTO 抢单列表查询参数
+     * @return 游标，查询首页时返回null
+     */
+    public static SeizeListCursor of(OrdersSerizeListReqDTO ordersSerizeListReqDTO) {
+        if (StringUtils.isNotEmpty(ordersSerizeListReqDTO.getCursor())) {
+            return decode(ordersSerizeListReqDTO.getCursor());
+        }
+        if (ordersSerizeListReqDTO.getLastRealDistance() != null) {
+            return new SeizeListCursor(ordersSerizeListReqDTO.getLastRealDistance(), null, null);
+        }
+        return null;
+    }
+
+    /**
+     * 生成下一页游标
+     *
+     * @param ordersSeizes 当前页抢单
+     * @param pageSize 每页数量
+     * @param pitId es时间点快照id
+     * @return 下一页游标，当前页不足一页时没有下一页，返回null
+     */
+    public static String next(List<OrdersSeizeListResDTO.OrdersSeize> ordersSeizes, int pageSize, String pitId) {
+        if (CollUtils.size(ordersSeizes) < pageSize) {
+            return null;
+        }
+        OrdersSeizeListResDTO.OrdersSeize last = CollUtils.getLast(ordersSeizes);
+        return new SeizeListCursor(last.getRealDistance(), last.getId(), pitId).encode();
+    }
+
+    /**
+     * 抢单是否排在游标之后
+     *
+     * @param cursor 游标，为空时查询首页
+     * @param distance 抢单距离
+     * @param id 抢单id
+     * @return 排在游标之后返回true
+     */
+    public static boolean isAfter(SeizeListCursor cursor, double distance, Long id) {
+        if (cursor == null) {
+            return true;
+        }
+        int compare = Double.compare(distance, cursor.getDistance());
+        return compare > 0 || (compare == 0 && cursor.getId() != null && id > cursor.getId());
+    }
+
+    /**
+     * 编码为客户端回传的游标
+     */
+    public String encode() {
+        String value = distance + SEPARATOR + id + (pitId == null ? "" : SEPARATOR + pitId);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static SeizeListCursor decode(String cursor) {
+        try {
+            String[] values = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split(SEPARATOR, 3);
+            return new SeizeListCursor(NumberUtils.parseDouble(values[0]), NumberUtils.parseLong(values[1]),
+                    values.length > 2 ? values[2] : null);
+        } catch (Exception e) {
+            throw new BadRequestException("抢单列表游标不合法");
+        }
+    }
+}
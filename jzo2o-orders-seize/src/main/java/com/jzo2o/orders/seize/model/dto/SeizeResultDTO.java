@@ -0,0 +1,32 @@
+package com.jzo2o.orders.seize.model.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 抢单结果，对应抢单同步队列中的一条记录
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class SeizeResultDTO {
+    /**
+     * 抢单id
+     */
+    private Long seizeId;
+    /**
+     * 服务人员或机构id
+     */
+    private Long serveProviderId;
+    /**
+     * 类型，2：服务人员，3：机构
+     */
+    private Integer serveProviderType;
+    /**
+     * 是否是机器抢单
+     */
+    private Boolean isMatchine;
+}
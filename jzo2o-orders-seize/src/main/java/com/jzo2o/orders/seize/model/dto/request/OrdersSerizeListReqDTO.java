@@ -33,6 +33,12 @@ public class OrdersSerizeListReqDTO {
     @ApiModelProperty(value = "上一页最后一条数据的距离字段、，用于滚动分页")
     private Double lastRealDistance;
 
+    /**
+     * 滚动分页游标，取上一页返回的游标原样传入，传入游标时忽略lastRealDistance
+     */
+    @ApiModelProperty(value = "滚动分页游标，取上一页返回的游标原样传入，传入游标时忽略lastRealDistance")
+    private String cursor;
+
     /**
      * 预约时间查询下限
      */
@@ -24,8 +24,11 @@ public class OrdersSeizeListResDTO implements Serializable {
     @ApiModelProperty("抢单列表")
     private List<OrdersSeize> ordersSeizes;
 
+    @ApiModelProperty("下一页游标，为空时没有下一页")
+    private String cursor;
+
     public static OrdersSeizeListResDTO empty() {
-        return new OrdersSeizeListResDTO(new ArrayList<>());
+        return new OrdersSeizeListResDTO(new ArrayList<>(), null);
     }
 
     @Data
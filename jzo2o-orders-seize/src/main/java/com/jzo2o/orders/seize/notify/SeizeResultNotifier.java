@@ -0,0 +1,187 @@
+package com.jzo2o.orders.seize.notify;
+
+import com.jzo2o.common.utils.CollUtils;
+import com.jzo2o.common.utils.JsonUtils;
+import com.jzo2o.orders.seize.model.dto.SeizeResultDTO;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RTopic;
+import org.redisson.api.RedissonClient;
+import org.redisson.client.codec.StringCodec;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.jzo2o.orders.base.constants.RedisConstants.RedisKey.ORDERS_SEIZE_RESULT_TOPIC;
+
+/**
+ * 抢单结果推送
+ * 服务人员或机构通过SSE订阅抢单结果，抢单结果同步生成服务单且事务提交后，通过主题广播到所有抢单节点，由订阅所在节点推送，客户端无需轮询服务单列表。
+ * 订阅建立后请求线程立即释放，推送、心跳及超时清理都在少量事件线程中执行，连接数量不占用servlet线程。
+ */
+@Component
+@Slf4j
+public class SeizeResultNotifier {
+
+    /**
+     * 事件线程数量
+     */
+    private static final int EVENT_LOOP_THREADS = 2;
+
+    /**
+     * 订阅有效期，单位：毫秒，到期后客户端重新订阅
+     */
+    private static final long SUBSCRIBE_TIMEOUT = 5 * 60 * 1000L;
+
+    /**
+     * 心跳间隔，单位：秒，避免网关及负载均衡关闭空闲连接
+     */
+    private static final long HEARTBEAT_INTERVAL = 20;
+
+    /**
+     * 同一服务人员或机构的最大订阅数量，超过时关闭最早的订阅
+     */
+    private static final int MAX_SUBSCRIPTIONS_PER_PROVIDER = 3;
+
+    /**
+     * 抢单成功事件名称
+     */
+    private static final String SEIZE_CONFIRMED_EVENT = "seize-confirmed";
+
+    @Resource
+    private RedissonClient redissonClient;
+
+    private final Map<Long, Set<SseEmitter>> subscriptions = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService eventLoop;
+
+    private int listenerId;
+
+    public SeizeResultNotifier() {
+        AtomicInteger threadIndex = new AtomicInteger();
+        eventLoop = Executors.newScheduledThreadPool(EVENT_LOOP_THREADS, runnable -> {
+            Thread thread = new Thread(runnable, "seize-notify-" + threadIndex.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PostConstruct
+    public void start() {
+        listenerId = getTopic().addListener(String.class, (channel, msg) ->
+                JsonUtils.parseArray(msg).toList(SeizeResultDTO.class).forEach(this::push));
+        eventLoop.scheduleWithFixedDelay(this::heartbeat, HEARTBEAT_INTERVAL, HEARTBEAT_INTERVAL, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        getTopic().removeListener(listenerId);
+        subscriptions.values().forEach(emitters -> emitters.forEach(SseEmitter::complete));
+        eventLoop.shutdownNow();
+    }
+
+    /**
+     * 订阅抢单结果
+     *
+     * @param serveProviderId 服务人员或机构id
+     * @return SSE连接
+     */
+    public SseEmitter subscribe(Long serveProviderId) {
+        SseEmitter emitter = new SseEmitter(SUBSCRIBE_TIMEOUT);
+        Set<SseEmitter> emitters = subscriptions.compute(serveProviderId, (key, current) -> {
+            Set<SseEmitter> value = current == null ? new CopyOnWriteArraySet<>() : current;
+            value.add(emitter);
+            return value;
+        });
+        emitter.onCompletion(() -> unsubscribe(serveProviderId, emitter));
+        emitter.onTimeout(() -> unsubscribe(serveProviderId, emitter));
+        emitter.onError(e -> unsubscribe(serveProviderId, emitter));
+        // 超过订阅数量时关闭最早的订阅，CopyOnWriteArraySet按加入顺序遍历
+        if (emitters.size() > MAX_SUBSCRIPTIONS_PER_PROVIDER) {
+            emitters.stream().findFirst().ifPresent(SseEmitter::complete);
+        }
+        return emitter;
+    }
+
+    /**
+     * 当前事务提交后广播抢单结果，不在事务中时立即广播
+     *
+     * @param seizeResults 抢单结果
+     */
+    public void publishAfterCommit(List<SeizeResultDTO> seizeResults) {
+        if (CollUtils.isEmpty(seizeResults)) {
+            return;
+        }
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            publish(seizeResults);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                publish(seizeResults);
+            }
+        });
+    }
+
+    private void publish(List<SeizeResultDTO> seizeResults) {
+        try {
+            getTopic().publish(JsonUtils.toJsonStr(seizeResults));
+        } catch (Exception e) {
+            // 推送失败时客户端通过订阅超时后查询服务单列表兜底
+            log.error("抢单结果广播失败", e);
+        }
+    }
+
+    /**
+     * 推送给本节点上订阅的服务人员或机构
+     */
+    private void push(SeizeResultDTO seizeResult) {
+        Set<SseEmitter> emitters = subscriptions.get(seizeResult.getServeProviderId());
+        if (CollUtils.isEmpty(emitters)) {
+            return;
+        }
+        String data = JsonUtils.toJsonStr(seizeResult);
+        emitters.forEach(emitter -> eventLoop.execute(() -> send(seizeResult.getServeProviderId(), emitter,
+                SseEmitter.event().name(SEIZE_CONFIRMED_EVENT).id(String.valueOf(seizeResult.getSeizeId())).data(data))));
+    }
+
+    private void heartbeat() {
+        subscriptions.forEach((serveProviderId, emitters) ->
+                emitters.forEach(emitter -> send(serveProviderId, emitter, SseEmitter.event().comment("heartbeat"))));
+    }
+
+    private void send(Long serveProviderId, SseEmitter emitter, SseEmitter.SseEventBuilder event) {
+        try {
+            emitter.send(event);
+        } catch (Exception e) {
+            // 连接已断开
+            unsubscribe(serveProviderId, emitter);
+            emitter.completeWithError(e);
+        }
+    }
+
+    private void unsubscribe(Long serveProviderId, SseEmitter emitter) {
+        subscriptions.computeIfPresent(serveProviderId, (key, emitters) -> {
+            emitters.remove(emitter);
+            return emitters.isEmpty() ? null : emitters;
+        });
+    }
+
+    private RTopic getTopic() {
+        return redissonClient.getTopic(ORDERS_SEIZE_RESULT_TOPIC, StringCodec.INSTANCE);
+    }
+}
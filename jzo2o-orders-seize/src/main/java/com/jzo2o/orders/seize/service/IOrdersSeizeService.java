@@ -2,6 +2,7 @@ package com.jzo2o.orders.seize.service;
 
 import com.baomidou.mybatisplus.extension.service.IService;
 import com.jzo2o.orders.base.model.domain.OrdersSeize;
+import com.jzo2o.orders.seize.model.dto.SeizeResultDTO;
 import com.jzo2o.orders.seize.model.dto.request.OrdersSerizeListReqDTO;
 import com.jzo2o.orders.seize.model.dto.response.OrdersSeizeListResDTO;
 import org.springframework.stereotype.Service;
@@ -27,11 +28,15 @@ public interface IOrdersSeizeService extends IService<OrdersSeize> {
      * 超时条件满足一条均认为是订单超时，如下
      * 当前时间距离服务预约时间间隔小于配置值时进入派单
      *
+     * 按id升序分页，已标记超时的订单不再被检索，以上一页最后一条id作为下一页起点
+     *
      * @param cityCode        城市编码
      * @param timeoutInterval 抢单成功
+     * @param lastId          上一页最后一条抢单id，第一页传0
+     * @param size            每页数量
      * @return
      */
-    List<OrdersSeize> queryTimeoutSeizeOrders(String cityCode, Integer timeoutInterval);
+    List<OrdersSeize> queryTimeoutSeizeOrders(String cityCode, Integer timeoutInterval, Long lastId, int size);
 
     /**
      * 批量将订单改为抢单超时（预约时间未超时），并继续抢单
@@ -43,14 +48,16 @@ public interface IOrdersSeizeService extends IService<OrdersSeize> {
 
     /**
      * 查询到达预约时间还未抢单成功的记录
+     * @param size 最多查询数量
      * @return
      */
-    List<OrdersSeize> queryArriveServeStartTimeSeizeOrder();
+    List<OrdersSeize> queryArriveServeStartTimeSeizeOrder(int size);
     /**
      * 查询到达预约时间还未抢单成功的记录 从es中查询
+     * @param size 最多查询数量
      * @return
      */
-    List<OrdersSeizeListResDTO.OrdersSeize> queryArriveServeStartTimeSeizeOrderFromEs();
+    List<OrdersSeizeListResDTO.OrdersSeize> queryArriveServeStartTimeSeizeOrderFromEs(int size);
 
     /**
      * 批量删除抢单记录
@@ -78,6 +85,15 @@ public interface IOrdersSeizeService extends IService<OrdersSeize> {
      */
     void seize(Long id, Long serveProviderId, Integer serveProviderType, Boolean isMatchine);
 
+    /**
+     * 加锁抢单，校验服务人员或机构并执行抢单脚本，由seize在本地售罄校验通过后调用
+     * @param id 抢单id
+     * @param serveProviderId 服务人员或机构id
+     * @param serveProviderType 用户类型，2：服务人员，3：机构
+     * @param isMatchine 是否是机器抢单
+     */
+    void lockSeize(Long id, Long serveProviderId, Integer serveProviderType, Boolean isMatchine);
+
     /**
      * 获取抢单列表展示数量
      *
@@ -95,6 +111,14 @@ public interface IOrdersSeizeService extends IService<OrdersSeize> {
      */
     void seizeOrdersSuccess(OrdersSeize ordersSeize, Long serveProviderId, Integer serveProviderType,Boolean isMatchine);
 
+    /**
+     * 批量处理抢单成功结果
+     * 一次查询抢单信息，批量生成服务单，每个服务人员或机构只重新统计一次接单数据
+     *
+     * @param seizeResults 抢单结果列表
+     */
+    void batchSeizeOrdersSuccess(List<SeizeResultDTO> seizeResults);
+
     /**
      * 处理某个城市的订单超时任务
      *
@@ -33,4 +33,18 @@ public interface IOrdersServeService extends IService<OrdersServe> {
 
     OrdersServe findById(Long id);
 
+    /**
+     * 根据id批量查询服务单
+     * @param ids 服务单id
+     * @return
+     */
+    List<OrdersServe> findByIds(List<Long> ids);
+
+    /**
+     * 查询服务人员或机构最近一次的服务单
+     * @param serveProviderId 服务人员或机构id
+     * @return
+     */
+    OrdersServe findLatestByServeProviderId(Long serveProviderId);
+
 }
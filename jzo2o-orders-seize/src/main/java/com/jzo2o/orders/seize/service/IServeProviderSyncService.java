@@ -28,8 +28,17 @@ public interface IServeProviderSyncService extends IService<ServeProviderSync> {
      *
      * @param id 服务人员或机构id
      * @param serveProviderType 类型，2：服务人员，3：机构
+     * @param cityCode 城市编码
      */
-    void countServeTimesAndAcceptanceNum(Long id, Integer serveProviderType);
+    void countServeTimesAndAcceptanceNum(Long id, Integer serveProviderType, String cityCode);
+
+    /**
+     * 对账，接单数和服务时间按增量维护，与服务单全量统计结果不一致时修正
+     *
+     * @param id 服务人员或机构id
+     * @return 是否修正
+     */
+    boolean reconcile(Long id);
 
 
 
@@ -1,8 +1,10 @@
 package com.jzo2o.orders.seize.service.impl;
 
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
 import co.elastic.clients.elasticsearch._types.*;
 import co.elastic.clients.elasticsearch.core.SearchRequest;
 import co.elastic.clients.elasticsearch.core.SearchResponse;
+import co.elastic.clients.elasticsearch.core.search.Hit;
 import co.elastic.clients.json.JsonData;
 import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
@@ -38,17 +40,24 @@ import com.jzo2o.orders.base.properties.DispatchProperties;
 import com.jzo2o.orders.base.service.*;
 import com.jzo2o.orders.base.utils.RedisUtils;
 import com.jzo2o.orders.base.utils.ServeTimeUtils;
+import com.jzo2o.orders.seize.cache.SeizeListCache;
+import com.jzo2o.orders.seize.cache.SeizeLocalCache;
+import com.jzo2o.orders.seize.cache.SeizeSoldOutCache;
+import com.jzo2o.orders.seize.notify.SeizeResultNotifier;
+import com.jzo2o.orders.seize.geo.OrdersSeizeGeoIndex;
 import com.jzo2o.orders.seize.model.domain.OrdersSeizeInfo;
+import com.jzo2o.orders.seize.model.dto.SeizeListCursor;
+import com.jzo2o.orders.seize.model.dto.SeizeResultDTO;
 import com.jzo2o.orders.seize.model.dto.request.OrdersSerizeListReqDTO;
 import com.jzo2o.orders.seize.model.dto.response.OrdersSeizeListResDTO;
 import com.jzo2o.orders.seize.service.IOrdersDispatchService;
 import com.jzo2o.orders.seize.service.IOrdersSeizeService;
 import com.jzo2o.orders.seize.service.IOrdersServeService;
-import com.jzo2o.orders.seize.service.IServeProviderSyncService;
 import com.jzo2o.redis.annotations.Lock;
 import com.jzo2o.redis.helper.CacheHelper;
 import com.jzo2o.redis.utils.RedisSyncQueueUtils;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSerializer;
@@ -61,14 +70,21 @@ import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 import static com.jzo2o.orders.base.constants.ErrorInfo.Msg.*;
 import static com.jzo2o.orders.base.constants.FieldConstants.*;
 import static com.jzo2o.orders.base.constants.FieldConstants.LOCATION;
 import static com.jzo2o.orders.base.constants.RedisConstants.RedisKey.ORDERS_RESOURCE_STOCK;
+import static com.jzo2o.orders.base.constants.RedisConstants.RedisKey.ORDERS_SEIZE_SERVE_TIME;
+import static com.jzo2o.orders.base.constants.RedisConstants.RedisKey.REDIS_SHARD_VERSION;
 import static com.jzo2o.orders.base.constants.RedisConstants.RedisKey.SERVE_PROVIDER_STATE;
+import static com.jzo2o.orders.base.constants.RedisConstants.RedisKey.SERVE_PROVIDER_TIME_BITMAP;
 
 /**
  * <p>
@@ -82,6 +98,36 @@ import static com.jzo2o.orders.base.constants.RedisConstants.RedisKey.SERVE_PROV
 @Slf4j
 public class OrdersSeizeServiceImpl extends ServiceImpl<OrdersSeizeMapper, OrdersSeize> implements IOrdersSeizeService {
 
+    /**
+     * 抢单列表每页数量，与内存索引及候选缓存一致
+     */
+    private static final int SEIZE_LIST_PAGE_SIZE = 10;
+
+    /**
+     * 抢单列表翻页时es时间点快照的保持时间，每次翻页续期
+     */
+    private static final String SEIZE_LIST_PIT_KEEP_ALIVE = "1m";
+
+    /**
+     * 抢单id字段，距离相同时的排序字段
+     */
+    private static final String SEIZE_ID = "id";
+
+    /**
+     * 时间点快照的分片文档排序字段
+     */
+    private static final String SHARD_DOC = "_shard_doc";
+
+    /**
+     * 抢单列表从es返回的字段，距离从排序值中获取
+     */
+    private static final List<String> SEIZE_LIST_FIELD_NAMES = Arrays.asList(
+            LambdaUtils.getFieldName(OrdersSeizeInfo::getId), LambdaUtils.getUnderLineFieldName(OrdersSeizeInfo::getServeItemName),
+            LambdaUtils.getUnderLineFieldName(OrdersSeizeInfo::getServeItemImg), LambdaUtils.getUnderLineFieldName(OrdersSeizeInfo::getServeTypeId),
+            LambdaUtils.getUnderLineFieldName(OrdersSeizeInfo::getServeTypeName), LambdaUtils.getUnderLineFieldName(OrdersSeizeInfo::getServeAddress),
+            LambdaUtils.getUnderLineFieldName(OrdersSeizeInfo::getServeStartTime), LambdaUtils.getUnderLineFieldName(OrdersSeizeInfo::getPurNum),
+            LambdaUtils.getUnderLineFieldName(OrdersSeizeInfo::getOrdersAmount));
+
     @Resource
     private ServeProviderApi serveProviderApi;
 
@@ -117,7 +163,7 @@ public class OrdersSeizeServiceImpl extends ServiceImpl<OrdersSeizeMapper, Order
     private ElasticSearchTemplate elasticSearchTemplate;
 
     @Resource
-    private IServeProviderSyncService serveProviderSyncService;
+    private ElasticsearchClient elasticsearchClient;
 
     @Resource
     private IOrdersSeizeService ordersSeizeService;
@@ -131,8 +177,26 @@ public class OrdersSeizeServiceImpl extends ServiceImpl<OrdersSeizeMapper, Order
     @Resource
     private OrdersDispatchMapper ordersDispatchMapper;
 
+    @Resource
+    private SeizeLocalCache seizeLocalCache;
+
+    @Resource
+    private OrdersSeizeGeoIndex ordersSeizeGeoIndex;
+
+    @Resource
+    private SeizeListCache seizeListCache;
+
+    @Resource
+    private IRedisReshardService redisReshardService;
+
+    @Resource
+    private SeizeSoldOutCache seizeSoldOutCache;
+
+    @Resource
+    private SeizeResultNotifier seizeResultNotifier;
+
     @Override
-    public List<OrdersSeize> queryTimeoutSeizeOrders(String cityCode, Integer timeoutInterval) {
+    public List<OrdersSeize> queryTimeoutSeizeOrders(String cityCode, Integer timeoutInterval, Long lastId, int size) {
         //当前时间加上配置的时间间隔
         LocalDateTime maxServeStartTime = DateUtils.now().plusMinutes(timeoutInterval);
         LambdaQueryWrapper<OrdersSeize> lambdaQueryWrapper = new LambdaQueryWrapper<>();
@@ -142,7 +206,11 @@ public class OrdersSeizeServiceImpl extends ServiceImpl<OrdersSeizeMapper, Order
                 // 查询当前时间距离服务预约时间间隔小于指定值
                 .le(OrdersSeize::getServeStartTime, maxServeStartTime)
                 //预约时间大于当前时间
-                .ge(OrdersSeize::getServeStartTime,DateUtils.now());
+                .ge(OrdersSeize::getServeStartTime,DateUtils.now())
+                // 按id分页
+                .gt(OrdersSeize::getId, lastId)
+                .orderByAsc(OrdersSeize::getId)
+                .last("limit " + size);
         return baseMapper.selectList(lambdaQueryWrapper);
     }
 
@@ -158,9 +226,10 @@ public class OrdersSeizeServiceImpl extends ServiceImpl<OrdersSeizeMapper, Order
 
 
     @Override
-    public List<OrdersSeize> queryArriveServeStartTimeSeizeOrder() {
+    public List<OrdersSeize> queryArriveServeStartTimeSeizeOrder(int size) {
         return lambdaQuery()
                 .le(OrdersSeize::getServeStartTime, DateUtils.now())
+                .last("limit " + size)
                 .list();
     }
     /**
@@ -168,8 +237,11 @@ public class OrdersSeizeServiceImpl extends ServiceImpl<OrdersSeizeMapper, Order
      * @return
      */
     @Override
-    public List<OrdersSeizeListResDTO.OrdersSeize> queryArriveServeStartTimeSeizeOrderFromEs(){
+    public List<OrdersSeizeListResDTO.OrdersSeize> queryArriveServeStartTimeSeizeOrderFromEs(int size){
         SearchRequest.Builder builder = new SearchRequest.Builder();
+        builder.index(EsIndexConstants.ORDERS_SEIZE);
+        // 默认只返回10条，需指定查询数量
+        builder.size(size);
         //当前时间
         //得到服务开始时间(yyMMddHH)
         String now = DateTimeFormatter.ofPattern("yyMMddHH").format(LocalDateTime.now());
@@ -228,25 +300,77 @@ public class OrdersSeizeServiceImpl extends ServiceImpl<OrdersSeizeMapper, Order
         }
 
 
-        // 3.查询符合条件的抢单列表id
-        List<OrdersSeizeListResDTO.OrdersSeize> ordersSeizes = getOrdersSeizeId(
-                serveItemIds, detail.getLon(), detail.getLat(), serveDistance, detail.getCityCode(), ordersSerizeListReqDTO);
+        // 3.查询符合条件的抢单列表，依次从内存索引、网格候选缓存、es查询，三者都按(距离，抢单id)排序，翻页时可以互相衔接
+        SeizeListCursor cursor = SeizeListCursor.of(ordersSerizeListReqDTO);
+        List<OrdersSeizeListResDTO.OrdersSeize> ordersSeizes = ordersSeizeGeoIndex.search(
+                serveItemIds, detail.getLon(), detail.getLat(), serveDistance, detail.getCityCode(), ordersSerizeListReqDTO, cursor);
+        if (ordersSeizes == null) {
+            ordersSeizes = getOrdersSeizeFromCache(
+                    serveItemIds, detail.getLon(), detail.getLat(), serveDistance, detail.getCityCode(), ordersSerizeListReqDTO, cursor);
+        }
+        String pitId = null;
+        if (ordersSeizes == null) {
+            SearchResponse<OrdersSeizeInfo> searchResponse = getOrdersSeizeId(
+                    serveItemIds, detail.getLon(), detail.getLat(), serveDistance, detail.getCityCode(), ordersSerizeListReqDTO, cursor);
+            ordersSeizes = toOrdersSeizes(searchResponse);
+            pitId = searchResponse == null ? null : searchResponse.pitId();
+        }
 
-        return new OrdersSeizeListResDTO(CollUtils.defaultIfEmpty(ordersSeizes, new ArrayList<>()));
+        // 4.生成下一页游标，最后一页关闭es时间点快照
+        String nextCursor = SeizeListCursor.next(ordersSeizes, SEIZE_LIST_PAGE_SIZE, pitId);
+        if (nextCursor == null && pitId != null) {
+            closePointInTime(pitId);
+        }
+        return new OrdersSeizeListResDTO(CollUtils.defaultIfEmpty(ordersSeizes, new ArrayList<>()), nextCursor);
     }
 
     /**
      * 获取抢单id，抢单类型，抢单预约服务时间
+     * 首页直接查询索引；翻页时在es时间点快照上按(距离，抢单id)继续查询，首次翻页时创建快照，快照过期后重新创建
      * @param serveItemIds 服务项id
      * @param lon 当前服务人员或机构所在位置经度
      * @param lat 当前服务人员或机构所在纬度
      * @param distanceLimit 抢单距离限制
      * @param cityCode 城市编码
      * @param ordersSerizeListReqDTO 抢单查询参数
-     * @return
+     * @param cursor 滚动分页游标，查询首页时为空
+     * @return es查询结果
      */
-    private List<OrdersSeizeListResDTO.OrdersSeize> getOrdersSeizeId(List<Long> serveItemIds, Double lon, Double lat, double distanceLimit, String cityCode, OrdersSerizeListReqDTO ordersSerizeListReqDTO) {
+    private SearchResponse<OrdersSeizeInfo> getOrdersSeizeId(List<Long> serveItemIds, Double lon, Double lat, double distanceLimit, String cityCode,
+                                                             OrdersSerizeListReqDTO ordersSerizeListReqDTO, SeizeListCursor cursor) {
+        // 1.首页及兼容旧版按距离翻页时直接查询索引
+        if (cursor == null || cursor.getId() == null) {
+            return elasticSearchTemplate.opsForDoc().search(
+                    buildSeizeListRequest(serveItemIds, lon, lat, distanceLimit, cityCode, ordersSerizeListReqDTO, cursor, null), OrdersSeizeInfo.class);
+        }
+        // 2.在上一页的快照上查询
+        SearchResponse<OrdersSeizeInfo> searchResponse = null;
+        if (cursor.getPitId() != null) {
+            searchResponse = elasticSearchTemplate.opsForDoc().search(
+                    buildSeizeListRequest(serveItemIds, lon, lat, distanceLimit, cityCode, ordersSerizeListReqDTO, cursor, cursor.getPitId()), OrdersSeizeInfo.class);
+        }
+        // 3.首次翻页或快照已过期时创建快照后查询，创建失败时直接查询索引
+        if (SearchResponseUtils.isNotSuccess(searchResponse)) {
+            searchResponse = elasticSearchTemplate.opsForDoc().search(
+                    buildSeizeListRequest(serveItemIds, lon, lat, distanceLimit, cityCode, ordersSerizeListReqDTO, cursor, openPointInTime()), OrdersSeizeInfo.class);
+        }
+        return searchResponse;
+    }
 
+    /**
+     * 构建抢单列表查询，按(距离，抢单id)排序，只返回抢单列表需要的字段
+     * @param serveItemIds 服务项id
+     * @param lon 当前服务人员或机构所在位置经度
+     * @param lat 当前服务人员或机构所在纬度
+     * @param distanceLimit 抢单距离限制
+     * @param cityCode 城市编码
+     * @param ordersSerizeListReqDTO 抢单查询参数
+     * @param cursor 滚动分页游标，查询首页时为空
+     * @param pitId es时间点快照id，为空时直接查询索引
+     * @return 查询请求
+     */
+    private SearchRequest buildSeizeListRequest(List<Long> serveItemIds, Double lon, Double lat, double distanceLimit, String cityCode,
+                                                OrdersSerizeListReqDTO ordersSerizeListReqDTO, SeizeListCursor cursor, String pitId) {
         // 服务项查询条件
         List<FieldValue> serveItemIdFieldValue = serveItemIds.stream().map(serveItemId -> FieldValue.of(serveItemId)).collect(Collectors.toList());
 
@@ -278,7 +402,7 @@ public class OrdersSeizeServiceImpl extends ServiceImpl<OrdersSeizeMapper, Order
 
                     return bool;
                 }));
-        // 排序 根据距离排序
+        // 排序 根据距离排序，距离相同时根据抢单id排序
         List<SortOptions> sortOptions = new ArrayList<>();
         sortOptions.add(SortOptions.of(sortOption -> sortOption.geoDistance(
                 geoDistance -> {
@@ -290,98 +414,252 @@ public class OrdersSeizeServiceImpl extends ServiceImpl<OrdersSeizeMapper, Order
                     return geoDistance;
                 }
         )));
+        sortOptions.add(SortOptions.of(sortOption -> sortOption.field(field -> field.field(SEIZE_ID).order(SortOrder.Asc))));
+        // 快照查询会追加_shard_doc排序，显式指定后翻页时可以确定排序值数量
+        if (pitId != null) {
+            sortOptions.add(SortOptions.of(sortOption -> sortOption.field(field -> field.field(SHARD_DOC).order(SortOrder.Asc))));
+        }
         builder.sort(sortOptions);
-        // 索引
-        builder.index(EsIndexConstants.ORDERS_SEIZE);
+        // 目标字段
+        builder.source(s -> s.filter(ss -> ss.includes(SEIZE_LIST_FIELD_NAMES)));
+        // 查询数量限制
+        builder.size(SEIZE_LIST_PAGE_SIZE);
+        // 索引或快照，快照查询不能指定索引
+        if (pitId == null) {
+            builder.index(EsIndexConstants.ORDERS_SEIZE);
+        } else {
+            builder.pit(pit -> pit.id(pitId).keepAlive(time -> time.time(SEIZE_LIST_PIT_KEEP_ALIVE)));
+        }
 
-        // 滚动分页,根据距离滚动分页
-        if (ordersSerizeListReqDTO.getLastRealDistance() != null) {
-            builder.searchAfter(ordersSerizeListReqDTO.getLastRealDistance().toString());
+        // 滚动分页,根据距离、抢单id滚动分页，未记录抢单id时跳过距离相同的抢单，与旧版按距离翻页一致；
+        // 抢单id唯一，_shard_doc排序值不会参与比较
+        if (cursor != null) {
+            String lastId = cursor.getId() == null ? String.valueOf(Long.MAX_VALUE) : cursor.getId().toString();
+            if (pitId == null) {
+                builder.searchAfter(cursor.getDistance().toString(), lastId);
+            } else {
+                builder.searchAfter(cursor.getDistance().toString(), lastId, String.valueOf(Long.MAX_VALUE));
+            }
         }
+        return builder.build();
+    }
 
-        // 检索数据
+    /**
+     * 转换es查询结果
+     * @param searchResponse es查询结果
+     * @return 抢单列表，未查询到数据返回null
+     */
+    private List<OrdersSeizeListResDTO.OrdersSeize> toOrdersSeizes(SearchResponse<OrdersSeizeInfo> searchResponse) {
+        if (SearchResponseUtils.isNotSuccess(searchResponse)) {
+            return null;
+        }
+        return searchResponse.hits().hits()
+                .stream().map(hit -> {
+                    // 从sort字段中获取实际距离
+                    double realDistance = NumberUtils.parseDouble(CollUtils.getFirst(hit.sort()));
+                    OrdersSeizeListResDTO.OrdersSeize ordersSeize = BeanUtils.toBean(hit.source(), OrdersSeizeListResDTO.OrdersSeize.class);
+                    ordersSeize.setRealDistance(realDistance);
+                    return ordersSeize;
+                })
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * 创建抢单索引的时间点快照
+     * @return 快照id，创建失败返回null
+     */
+    private String openPointInTime() {
+        try {
+            return elasticsearchClient.openPointInTime(open -> open
+                    .index(EsIndexConstants.ORDERS_SEIZE)
+                    .keepAlive(time -> time.time(SEIZE_LIST_PIT_KEEP_ALIVE))).id();
+        } catch (Exception e) {
+            log.error("抢单列表创建es时间点快照失败", e);
+            return null;
+        }
+    }
+
+    /**
+     * 关闭时间点快照，关闭失败时等待快照过期
+     * @param pitId 快照id
+     */
+    private void closePointInTime(String pitId) {
+        try {
+            elasticsearchClient.closePointInTime(close -> close.id(pitId));
+        } catch (Exception e) {
+            log.warn("抢单列表关闭es时间点快照失败，pitId：{}", pitId, e);
+        }
+    }
+
+    /**
+     * 从网格候选缓存查询抢单列表，同一网格、距离档位、技能的服务人员或机构共享一次es查询
+     * @param serveItemIds 服务项id
+     * @param lon 当前服务人员或机构所在位置经度
+     * @param lat 当前服务人员或机构所在纬度
+     * @param distanceLimit 抢单距离限制
+     * @param cityCode 城市编码
+     * @param ordersSerizeListReqDTO 抢单查询参数
+     * @param cursor 滚动分页游标，查询首页时为空
+     * @return 抢单列表，无法使用缓存时返回null
+     */
+    private List<OrdersSeizeListResDTO.OrdersSeize> getOrdersSeizeFromCache(List<Long> serveItemIds, Double lon, Double lat, double distanceLimit, String cityCode,
+                                                                            OrdersSerizeListReqDTO ordersSerizeListReqDTO, SeizeListCursor cursor) {
+        return seizeListCache.search(serveItemIds, lon, lat, distanceLimit, cityCode, ordersSerizeListReqDTO, cursor,
+                (centerLon, centerLat, distance) -> querySeizeCandidatesFromEs(serveItemIds, centerLon, centerLat, distance, cityCode));
+    }
+
+    /**
+     * 从es查询网格候选抢单，不限服务类型及关键字，按距离网格中心排序
+     * @param serveItemIds 服务项id
+     * @param lon 网格中心经度
+     * @param lat 网格中心纬度
+     * @param distance 覆盖半径
+     * @param cityCode 城市编码
+     * @return 候选抢单，查询失败返回null
+     */
+    private List<OrdersSeizeInfo> querySeizeCandidatesFromEs(List<Long> serveItemIds, double lon, double lat, double distance, String cityCode) {
+        List<FieldValue> serveItemIdFieldValue = serveItemIds.stream().map(serveItemId -> FieldValue.of(serveItemId)).collect(Collectors.toList());
+        SearchRequest.Builder builder = new SearchRequest.Builder();
+        builder.query(query ->
+                query.bool(bool -> {
+                    // 所在城市
+                    bool.must(must -> must.term(term -> term.field(CITY_CODE).value(cityCode)));
+                    // 服务项
+                    bool.must(must -> must.terms(terms -> terms.field(SERVE_ITEM_ID).terms(t -> t.value(serveItemIdFieldValue))));
+                    // 距离条件
+                    bool.must(must -> must.geoDistance(geoDistance -> geoDistance
+                            .field(LOCATION)
+                            .location(location -> location.latlon(latlon -> latlon.lon(lon).lat(lat)))
+                            .distance(distance + "km")));
+                    return bool;
+                }));
+        builder.sort(sort -> sort.geoDistance(geoDistance -> geoDistance
+                .field(LOCATION)
+                .distanceType(GeoDistanceType.Arc)
+                .order(SortOrder.Asc)
+                .unit(DistanceUnit.Kilometers)
+                .location(location -> location.latlon(latlon -> latlon.lat(lat).lon(lon)))));
+        builder.index(EsIndexConstants.ORDERS_SEIZE);
+        builder.size(SeizeListCache.MAX_CANDIDATE_SIZE);
         SearchResponse<OrdersSeizeInfo> searchResponse = elasticSearchTemplate.opsForDoc().search(builder.build(), OrdersSeizeInfo.class);
-        if (SearchResponseUtils.isSuccess(searchResponse)) {
-            return searchResponse.hits().hits()
-                    .stream().map(hit -> {
-                        // 从sort字段中获取实际距离
-                        double realDistance = NumberUtils.parseDouble(CollUtils.getFirst(hit.sort()));
-                        OrdersSeizeListResDTO.OrdersSeize ordersSeize = BeanUtils.toBean(hit.source(), OrdersSeizeListResDTO.OrdersSeize.class);
-                        ordersSeize.setRealDistance(realDistance);
-                        return ordersSeize;
-                    })
-                    .collect(Collectors.toList());
+        if (SearchResponseUtils.isNotSuccess(searchResponse)) {
+            return null;
         }
-        return null;
+        return searchResponse.hits().hits().stream().map(Hit::source).collect(Collectors.toList());
     }
 
     @Override
-    @Lock(formatter = RedisConstants.RedisFormatter.SEIZE, time = 300)
     public void seize(Long id, Long serveProviderId, Integer serveProviderType, Boolean isMatchine) {
+        // 已售罄的抢单在本地直接拒绝，无需加锁、远程调用及执行抢单脚本
+        if (seizeSoldOutCache.isSoldOut(id)) {
+            throw new CommonException(ErrorInfo.Code.SEIZE_ORDERS_FAILD, SEIZE_ORDERS_FAILD);
+        }
+        ordersSeizeService.lockSeize(id, serveProviderId, serveProviderType, isMatchine);
+    }
+
+    @Override
+    @Lock(formatter = RedisConstants.RedisFormatter.SEIZE, time = 300)
+    public void lockSeize(Long id, Long serveProviderId, Integer serveProviderType, Boolean isMatchine) {
 
         // 1.抢单校验
-        // 1.1.校验是否可以查询（认证通过，开启抢单）
-        ServeProviderResDTO detail = serveProviderApi.getDetail(serveProviderId);
+        // 1.1.校验是否可以查询（认证通过，开启抢单），服务人员/机构详情和区域配置从本地缓存获取
+        ServeProviderResDTO detail = seizeLocalCache.getServeProviderDetail(serveProviderId);
         if (!detail.getCanPickUp() || detail.getSettingsStatus() != 1) {
             throw new CommonException(ErrorInfo.Code.SEIZE_ORDERS_FAILD, SEIZE_ORDERS_RECEIVE_CLOSED);
         }
-        // 1.2.校验抢单是否存在
-        OrdersSeize ordersSeize = ordersSeizeService.getById(id);
-        // 校验订单是否还存在，如果订单为空或id不存在，则认为订单已经不在
-        if (ordersSeize == null || ObjectUtils.isNull(ordersSeize.getId())) {
-            throw new CommonException(ErrorInfo.Code.SEIZE_ORDERS_FAILD, SEIZE_ORDERS_FAILD);
-        }
-        ConfigRegionInnerResDTO configRegionInnerResDTO = regionApi.findConfigRegionByCityCode(detail.getCityCode());
-
+        ConfigRegionInnerResDTO configRegionInnerResDTO = seizeLocalCache.getConfigRegion(detail.getCityCode());
+        // 接单数量上限
+        int receiveOrderMax = (serveProviderType == UserType.INSTITUTION) ? configRegionInnerResDTO.getInstitutionReceiveOrderMax() : configRegionInnerResDTO.getStaffReceiveOrderMax();
 
         // 城市编码最后1位序号
         int index = RedisUtils.getCityIndex(detail.getCityCode());
-        // 1.3.校验时间冲突
+        // 分片迁移期间先将抢单及服务人员数据从原分片迁移到当前分片，保证脚本读取到完整数据
+        if (RedisUtils.isResharding()) {
+            redisReshardService.migrateOrders(detail.getCityCode(), Collections.singletonList(id));
+            redisReshardService.migrateServeProviders(detail.getCityCode(), Collections.singletonList(serveProviderId));
+        }
+
+        // 2.执行redis脚本，库存、服务时间冲突、接单数量上限在脚本中一次校验
+        // 2.1.redisKey
+        // 抢单结果同步队列 redis key
+        String ordersSeizeSyncRedisKey = RedisSyncQueueUtils.getQueueRedisKey(RedisConstants.RedisKey.ORERS_SEIZE_SYNC_QUEUE_NAME, index);
+        // 库存redisKey
+        String resourceStockRedisKey = String.format(ORDERS_RESOURCE_STOCK, index);
         // 服务时间状态redisKey
         String serveProviderStateRedisKey = String.format(SERVE_PROVIDER_STATE, index);
-        int serveTime = ServeTimeUtils.getServeTimeInt(ordersSeize.getServeStartTime());
-        if(serveProviderType == UserType.WORKER) {
-            Object serveTimes = redisTemplate.opsForHash().get(serveProviderStateRedisKey, serveProviderId + "_times");
-            if(ObjectUtils.isNotNull(serveTimes) && serveTimes.toString().contains(serveTime+"")){
-                throw new CommonException(ErrorInfo.Code.SEIZE_ORDERS_FAILD, SEIZE_ORDERS_SERVE_TIME_EXISTS);
+        // 抢单服务时间redisKey
+        String seizeServeTimeRedisKey = String.format(ORDERS_SEIZE_SERVE_TIME, index);
+        // 服务时间位图redisKey
+        String serveTimeBitmapRedisKey = String.format(SERVE_PROVIDER_TIME_BITMAP, serveProviderId, index);
+        // 分片版本redisKey
+        String shardVersionRedisKey = String.format(REDIS_SHARD_VERSION, index);
+        List<String> keys = Arrays.asList(ordersSeizeSyncRedisKey, resourceStockRedisKey, serveProviderStateRedisKey, seizeServeTimeRedisKey, serveTimeBitmapRedisKey, shardVersionRedisKey);
+
+        log.debug("抢单key：{}，values:{}", keys, Arrays.asList(id, serveProviderId, serveProviderType));
+        // 2.2.执行lua脚本
+        long result = executeSeizeScript(keys, id, serveProviderId, serveProviderType, isMatchine, receiveOrderMax);
+        // 2.3.抢单服务时间未写入redis（同步前产生的抢单），从数据库补齐后重新执行
+        if (result == -4) {
+            OrdersSeize ordersSeize = ordersSeizeService.getById(id);
+            if (ordersSeize == null) {
+                throw new CommonException(ErrorInfo.Code.SEIZE_ORDERS_FAILD, SEIZE_ORDERS_FAILD);
             }
+            redisTemplate.opsForHash().putIfAbsent(seizeServeTimeRedisKey, id, ServeTimeUtils.getServeTimeOffset(ordersSeize.getServeStartTime()));
+            result = executeSeizeScript(keys, id, serveProviderId, serveProviderType, isMatchine, receiveOrderMax);
+        }
+        log.debug("抢单结果 : {}", result);
+        // 2.4.库存不足时记录售罄，-1时库存可能尚未写入，只有库存存在且已为0才记录
+        if (result == -2 || (result == -1 && isStockEmpty(resourceStockRedisKey, id))) {
+            seizeSoldOutCache.soldOut(CollUtils.singletonList(id));
         }
-        // 1.4.订单数量已达上限
-        // 接单数量上限
-        int receiveOrderMax = (serveProviderType == UserType.INSTITUTION) ? configRegionInnerResDTO.getInstitutionReceiveOrderMax() : configRegionInnerResDTO.getStaffReceiveOrderMax();
 
-        Object ordersNum = redisTemplate.opsForHash().get(serveProviderStateRedisKey, serveProviderId + "_num");
-        if(ObjectUtils.isNotNull(ordersNum) && NumberUtils.parseInt(ordersNum.toString()) >= receiveOrderMax){
+        // 3.抢单结果判断 大于0抢单成功，-1/-2：库存数量不足，-3：抢单失败，-5：服务时间冲突，-6：接单数量已达上限，-7：分片配置未刷新
+        if (result == -5) {
+            throw new CommonException(ErrorInfo.Code.SEIZE_ORDERS_FAILD, SEIZE_ORDERS_SERVE_TIME_EXISTS);
+        }
+        if (result == -6) {
             throw new CommonException(ErrorInfo.Code.SEIZE_ORDERS_FAILD, SEIZE_ORDERS_RECEIVE_ORDERS_NUM_OVER);
         }
+        if(result < 0) {
+            throw new CommonException(ErrorInfo.Code.SEIZE_ORDERS_FAILD, SEIZE_ORDERS_FAILD);
+        }
+    }
 
-        // 2.执行redis脚本
-
-        // 2.1.redisKey
-        // 抢单结果同步队列 redis key
-        String ordersSeizeSyncRedisKey = RedisSyncQueueUtils.getQueueRedisKey(RedisConstants.RedisKey.ORERS_SEIZE_SYNC_QUEUE_NAME, index);
-        // 库存redisKey
-        String resourceStockRedisKey = String.format(ORDERS_RESOURCE_STOCK, index);
+    /**
+     * 库存是否存在且已抢完
+     *
+     * @param resourceStockRedisKey 库存redisKey
+     * @param id 抢单id
+     * @return 库存存在且不大于0时返回true
+     */
+    private boolean isStockEmpty(String resourceStockRedisKey, Long id) {
+        Object stock = redisTemplate.opsForHash().get(resourceStockRedisKey, id);
+        return ObjectUtils.isNotNull(stock) && NumberUtils.parseInt(stock.toString()) <= 0;
+    }
 
-        log.debug("抢单key：{}，values:{}", Arrays.asList(ordersSeizeSyncRedisKey, resourceStockRedisKey),
-                Arrays.asList(id, serveProviderId,serveProviderType));
-        // 2.2.执行lua脚本
+    /**
+     * 执行抢单脚本
+     *
+     * @param keys 抢单同步队列，资源库存，服务状态，抢单服务时间，服务时间位图，分片版本
+     * @param id 抢单id
+     * @param serveProviderId 服务人员或机构id
+     * @param serveProviderType 用户类型，2：服务人员，3：机构
+     * @param isMatchine 是否是机器抢单
+     * @param receiveOrderMax 接单数量上限
+     * @return 脚本执行结果
+     */
+    private long executeSeizeScript(List<String> keys, Long id, Long serveProviderId, Integer serveProviderType, Boolean isMatchine, int receiveOrderMax) {
         Object execute = redisTemplate.execute(seizeOrdersScript,
                 // 序列化串行器
                 new GenericJackson2JsonRedisSerializer(), new GenericJackson2JsonRedisSerializer(),
-                Arrays.asList(ordersSeizeSyncRedisKey, resourceStockRedisKey, serveProviderStateRedisKey),
-                id, serveProviderId,serveProviderType,isMatchine ? 1 : 0);
-        log.debug("抢单结果 : {}", execute);
-
-        // 3.处理lua脚本结果
+                keys,
+                id, serveProviderId, serveProviderType, isMatchine ? 1 : 0,
+                serveProviderId + "_num", receiveOrderMax, RedisUtils.getShardVersion());
+        // 处理lua脚本结果
         if (execute == null) {
             throw new CommonException(ErrorInfo.Code.SEIZE_ORDERS_FAILD, SEIZE_ORDERS_FAILD);
         }
-        // 4.抢单结果判断 大于0抢单成功，-1/-2：库存数量不足，-3：抢单失败
-        long result = NumberUtils.parseLong(execute.toString());
-        if(result < 0) {
-            throw new CommonException(ErrorInfo.Code.SEIZE_ORDERS_FAILD, SEIZE_ORDERS_FAILD);
-        }
+        return NumberUtils.parseLong(execute.toString());
     }
 
 //    @Override
@@ -402,39 +680,203 @@ public class OrdersSeizeServiceImpl extends ServiceImpl<OrdersSeizeMapper, Order
         if(ordersServeInDb != null){
             return;
         }
+        // 1.1.派单结果已被接单超时撤销的不再生成服务单
+        SeizeResultDTO seizeResult = new SeizeResultDTO(ordersSeize.getId(), serveProviderId, serveProviderType, isMatchine);
+        if (filterRevoked(CollUtils.singletonList(seizeResult), Collections.singletonMap(ordersSeize.getId(), ordersSeize)).isEmpty()) {
+            log.info("抢单{}派单结果已被接单超时撤销", ordersSeize.getId());
+            return;
+        }
         // 2.生成服务单,
-        OrdersServe ordersServe = BeanUtils.toBean(ordersSeize, OrdersServe.class);
-        ordersServe.setCreateTime(null);
-        ordersServe.setUpdateTime(null);
-        // 服务单状态 机构抢单状态：待分配；服务人员抢单状态：待服务
-        int serveStatus = UserType.WORKER == serveProviderType ? ServeStatusEnum.NO_SERVED.getStatus() : ServeStatusEnum.NO_ALLOCATION.getStatus();
-        // 服务单来源类型,人工抢单来源抢单，值为1；机器抢单来源派单，值为2
-        int ordersOriginType = isMatchine ? OrdersOriginType.DISPATCH : OrdersOriginType.SEIZE;
-        ordersServe.setOrdersOriginType(ordersOriginType);
-        ordersServe.setServeStatus(serveStatus);
-        ordersServe.setServeProviderId(serveProviderId);
-        ordersServe.setServeProviderType(serveProviderType);
+        OrdersServe ordersServe = buildOrdersServe(ordersSeize, serveProviderId, serveProviderType, isMatchine);
         if(!ordersServeService.save(ordersServe)){
             return;
         }
 
-        // 3.当前订单数量
-        serveProviderSyncService.countServeTimesAndAcceptanceNum(serveProviderId, serveProviderType);
-
         String resourceStockRedisKey = String.format(ORDERS_RESOURCE_STOCK, RedisUtils.getCityIndex(ordersSeize.getCityCode()));
         Object stock = redisTemplate.opsForHash().get(resourceStockRedisKey, ordersSeize.getId());
         if (ObjectUtils.isNull(stock) || NumberUtils.parseInt(stock.toString()) <= 0) {
             ordersDispatchMapper.deleteById(ordersSeize.getId());
             ordersSeizeService.removeById(ordersSeize.getId());
             redisTemplate.opsForHash().delete(resourceStockRedisKey, ordersSeize.getId());
+            redisTemplate.opsForHash().delete(String.format(ORDERS_SEIZE_SERVE_TIME, RedisUtils.getCityIndex(ordersSeize.getCityCode())), ordersSeize.getId());
+            seizeListCache.invalidate(CollUtils.singletonList(ordersSeize));
+            seizeSoldOutCache.soldOut(CollUtils.singletonList(ordersSeize.getId()));
         }
 
         //状态机修改订单状态
 //        OrderSnapshotDTO orderSnapshotDTO = OrderSnapshotDTO.builder()
 //                .ordersStatus(OrderStatusEnum.NO_SERVE.getStatus()).build();
+        // 快照携带服务人员信息，派单处理器据此增量更新接单数和服务时间
         Orders orders = ordersMapper.selectById(ordersSeize.getId());
-        orderStateMachine.changeStatus(orders.getUserId(),String.valueOf(ordersSeize.getId()), OrderStatusChangeEventEnum.DISPATCH);
+        orderStateMachine.changeStatus(orders.getUserId(),String.valueOf(ordersSeize.getId()), OrderStatusChangeEventEnum.DISPATCH,
+                toOrderSnapshot(ordersSeize, serveProviderId, serveProviderType));
+        // 事务提交后推送抢单成功
+        seizeResultNotifier.publishAfterCommit(CollUtils.singletonList(new SeizeResultDTO(ordersSeize.getId(), serveProviderId, serveProviderType, isMatchine)));
+
+    }
+
+    @Override
+    @Transactional(rollbackFor = Exception.class)
+    public void batchSeizeOrdersSuccess(List<SeizeResultDTO> seizeResults) {
+        if (CollUtils.isEmpty(seizeResults)) {
+            return;
+        }
+        List<Long> seizeIds = seizeResults.stream().map(SeizeResultDTO::getSeizeId).collect(Collectors.toList());
+        // 1.一次查询批次内的抢单信息，抢单不在无需继续处理
+        Map<Long, OrdersSeize> ordersSeizeMap = listByIds(seizeIds).stream()
+                .collect(Collectors.toMap(OrdersSeize::getId, ordersSeize -> ordersSeize));
+        // 2.过滤服务单已经生成的抢单
+        Set<Long> existsServeIds = ordersServeService.findByIds(seizeIds).stream()
+                .map(OrdersServe::getId)
+                .collect(Collectors.toSet());
+        List<SeizeResultDTO> toProcess = seizeResults.stream()
+                .filter(seizeResult -> ordersSeizeMap.containsKey(seizeResult.getSeizeId()))
+                .filter(seizeResult -> !existsServeIds.contains(seizeResult.getSeizeId()))
+                .collect(Collectors.toList());
+        // 2.1.过滤已被接单超时撤销的派单结果
+        toProcess = filterRevoked(toProcess, ordersSeizeMap);
+        if (CollUtils.isEmpty(toProcess)) {
+            return;
+        }
+        // 2.2.一次查询订单所属用户，找不到用户的订单无法修改订单状态，不生成服务单
+        Map<Long, Long> orderUserIdMap = ordersMapper.selectBatchIds(toProcess.stream().map(SeizeResultDTO::getSeizeId).collect(Collectors.toList()))
+                .stream()
+                .filter(orders -> orders.getUserId() != null)
+                .collect(Collectors.toMap(Orders::getId, Orders::getUserId));
+        List<Long> noUserIds = toProcess.stream()
+                .map(SeizeResultDTO::getSeizeId)
+                .filter(seizeId -> !orderUserIdMap.containsKey(seizeId))
+                .collect(Collectors.toList());
+        if (CollUtils.isNotEmpty(noUserIds)) {
+            log.warn("订单不存在或未找到所属用户，跳过生成服务单：{}", noUserIds);
+            toProcess = toProcess.stream()
+                    .filter(seizeResult -> orderUserIdMap.containsKey(seizeResult.getSeizeId()))
+                    .collect(Collectors.toList());
+            if (CollUtils.isEmpty(toProcess)) {
+                return;
+            }
+        }
+
+        // 3.批量生成服务单
+        List<OrdersServe> ordersServes = toProcess.stream()
+                .map(seizeResult -> buildOrdersServe(ordersSeizeMap.get(seizeResult.getSeizeId()),
+                        seizeResult.getServeProviderId(), seizeResult.getServeProviderType(), seizeResult.getIsMatchine()))
+                .collect(Collectors.toList());
+        ordersServeService.saveBatch(ordersServes, 100);
+
+        // 4.库存已抢完的订单按城市分组批量清理抢单池、派单池及库存
+        toProcess.stream()
+                .map(seizeResult -> ordersSeizeMap.get(seizeResult.getSeizeId()))
+                .collect(Collectors.groupingBy(ordersSeize -> RedisUtils.getCityIndex(ordersSeize.getCityCode())))
+                .forEach((index, ordersSeizeList) -> {
+                    String resourceStockRedisKey = String.format(ORDERS_RESOURCE_STOCK, index);
+                    List<Object> hashKeys = ordersSeizeList.stream().map(OrdersSeize::getId).collect(Collectors.toList());
+                    List<Object> stocks = redisTemplate.opsForHash().multiGet(resourceStockRedisKey, hashKeys);
+                    List<OrdersSeize> soldOuts = new ArrayList<>();
+                    for (int i = 0; i < hashKeys.size(); i++) {
+                        Object stock = stocks.get(i);
+                        if (ObjectUtils.isNull(stock) || NumberUtils.parseInt(stock.toString()) <= 0) {
+                            soldOuts.add(ordersSeizeList.get(i));
+                        }
+                    }
+                    if (CollUtils.isEmpty(soldOuts)) {
+                        return;
+                    }
+                    List<Long> soldOutIds = soldOuts.stream().map(OrdersSeize::getId).collect(Collectors.toList());
+                    ordersDispatchMapper.deleteBatchIds(soldOutIds);
+                    removeByIds(soldOutIds);
+                    redisTemplate.opsForHash().delete(resourceStockRedisKey, soldOutIds.toArray());
+                    redisTemplate.opsForHash().delete(String.format(ORDERS_SEIZE_SERVE_TIME, index), soldOutIds.toArray());
+                    seizeListCache.invalidate(soldOuts);
+                    seizeSoldOutCache.soldOut(soldOutIds);
+                });
+
+        // 5.状态机修改订单状态，接单数和服务时间由派单处理器增量更新
+        toProcess.forEach(seizeResult -> orderStateMachine.changeStatus(orderUserIdMap.get(seizeResult.getSeizeId()),
+                String.valueOf(seizeResult.getSeizeId()), OrderStatusChangeEventEnum.DISPATCH,
+                toOrderSnapshot(ordersSeizeMap.get(seizeResult.getSeizeId()), seizeResult.getServeProviderId(), seizeResult.getServeProviderType())));
+        // 6.事务提交后推送抢单成功
+        seizeResultNotifier.publishAfterCommit(toProcess);
+    }
+
+    /**
+     * 过滤已被接单超时撤销的派单结果，调用方需持有订单的抢派单锁
+     * 撤销时派单结果从抢单同步队列中删除，重新派单成功后队列中为新的服务人员或机构，与同步的派单结果不一致
+     *
+     * @param seizeResults 抢单结果
+     * @param ordersSeizeMap 抢单id与抢单信息的对应关系
+     * @return 未被撤销的抢单结果
+     */
+    private List<SeizeResultDTO> filterRevoked(List<SeizeResultDTO> seizeResults, Map<Long, OrdersSeize> ordersSeizeMap) {
+        // 只有派单（机器抢单）结果会被撤销
+        Map<Integer, List<SeizeResultDTO>> machineResultMap = seizeResults.stream()
+                .filter(seizeResult -> Boolean.TRUE.equals(seizeResult.getIsMatchine()))
+                .collect(Collectors.groupingBy(seizeResult -> RedisUtils.getCityIndex(ordersSeizeMap.get(seizeResult.getSeizeId()).getCityCode())));
+        if (machineResultMap.isEmpty()) {
+            return seizeResults;
+        }
+        // 字段与派单脚本一致使用json序列化，队列中的值为脚本拼接的字符串
+        GenericJackson2JsonRedisSerializer serializer = new GenericJackson2JsonRedisSerializer();
+        Set<Long> revokedIds = new HashSet<>();
+        machineResultMap.forEach((index, machineResults) -> {
+            byte[] queueKey = RedisSerializer.string().serialize(RedisSyncQueueUtils.getQueueRedisKey(RedisConstants.RedisKey.ORERS_SEIZE_SYNC_QUEUE_NAME, index));
+            byte[][] fields = machineResults.stream().map(seizeResult -> serializer.serialize(seizeResult.getSeizeId())).toArray(byte[][]::new);
+            List<byte[]> values = (List<byte[]>) redisTemplate.execute((RedisCallback<List<byte[]>>) connection -> connection.hMGet(queueKey, fields));
+            for (int i = 0; i < machineResults.size(); i++) {
+                SeizeResultDTO seizeResult = machineResults.get(i);
+                byte[] value = values == null ? null : values.get(i);
+                if (value == null || !seizeResult.getServeProviderId().equals(JsonUtils.parseArray(RedisSerializer.string().deserialize(value)).getLong(0))) {
+                    revokedIds.add(seizeResult.getSeizeId());
+                }
+            }
+        });
+        if (CollUtils.isNotEmpty(revokedIds)) {
+            log.info("派单结果已被接单超时撤销，不再生成服务单：{}", revokedIds);
+        }
+        return seizeResults.stream()
+                .filter(seizeResult -> !revokedIds.contains(seizeResult.getSeizeId()))
+                .collect(Collectors.toList());
+    }
 
+    /**
+     * 派单事件快照
+     *
+     * @param ordersSeize 抢单信息
+     * @param serveProviderId 服务人员或机构id
+     * @param serveProviderType 抢单服务人员或机构类型
+     * @return 订单快照
+     */
+    private OrderSnapshotDTO toOrderSnapshot(OrdersSeize ordersSeize, Long serveProviderId, Integer serveProviderType) {
+        return OrderSnapshotDTO.builder()
+                .serveProviderId(serveProviderId)
+                .serveProviderType(serveProviderType)
+                .cityCode(ordersSeize.getCityCode())
+                .serveStartTime(ordersSeize.getServeStartTime())
+                .build();
+    }
+
+    /**
+     * 根据抢单信息生成服务单
+     *
+     * @param ordersSeize 抢单信息
+     * @param serveProviderId 服务人员或机构id
+     * @param serveProviderType 抢单服务人员或机构类型
+     * @param isMatchine 是否是机器抢单
+     * @return 服务单
+     */
+    private OrdersServe buildOrdersServe(OrdersSeize ordersSeize, Long serveProviderId, Integer serveProviderType, Boolean isMatchine) {
+        OrdersServe ordersServe = BeanUtils.toBean(ordersSeize, OrdersServe.class);
+        ordersServe.setCreateTime(null);
+        ordersServe.setUpdateTime(null);
+        // 服务单状态 机构抢单状态：待分配；服务人员抢单状态：待服务
+        int serveStatus = UserType.WORKER == serveProviderType ? ServeStatusEnum.NO_SERVED.getStatus() : ServeStatusEnum.NO_ALLOCATION.getStatus();
+        // 服务单来源类型,人工抢单来源抢单，值为1；机器抢单来源派单，值为2
+        int ordersOriginType = isMatchine ? OrdersOriginType.DISPATCH : OrdersOriginType.SEIZE;
+        ordersServe.setOrdersOriginType(ordersOriginType);
+        ordersServe.setServeStatus(serveStatus);
+        ordersServe.setServeProviderId(serveProviderId);
+        ordersServe.setServeProviderType(serveProviderType);
+        return ordersServe;
     }
 
 
@@ -15,6 +15,7 @@ import org.springframework.transaction.annotation.Transactional;
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.stream.Collectors;
 
@@ -68,5 +69,27 @@ public class OrdersServeServiceImpl extends ServiceImpl<OrdersServeMapper, Order
                 .one();
     }
 
+    @Override
+    public List<OrdersServe> findByIds(List<Long> ids) {
+        if (CollUtils.isEmpty(ids)) {
+            return Collections.emptyList();
+        }
+        return lambdaQuery()
+                .in(OrdersServe::getId, ids)
+                .ge(OrdersServe::getServeProviderId, 0)
+                .list();
+    }
+
+    @Override
+    public OrdersServe findLatestByServeProviderId(Long serveProviderId) {
+        return lambdaQuery()
+                .ge(OrdersServe::getId, 0)
+                .eq(OrdersServe::getServeProviderId, serveProviderId)
+                .select(OrdersServe::getServeProviderId, OrdersServe::getServeProviderType, OrdersServe::getCityCode)
+                .orderByDesc(OrdersServe::getCreateTime)
+                .last("limit 1")
+                .one();
+    }
+
 
 }
@@ -1,18 +1,29 @@
 package com.jzo2o.orders.seize.service.impl;
 
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.jzo2o.api.customer.dto.response.ServeProviderResDTO;
 import com.jzo2o.common.constants.UserType;
+import com.jzo2o.common.utils.CollUtils;
 import com.jzo2o.common.utils.NumberUtils;
 import com.jzo2o.common.utils.ObjectUtils;
 import com.jzo2o.orders.base.mapper.ServeProviderSyncMapper;
+import com.jzo2o.orders.base.model.domain.OrdersServe;
 import com.jzo2o.orders.base.model.domain.ServeProviderSync;
+import com.jzo2o.orders.base.service.IServeProviderSyncCommonService;
+import com.jzo2o.orders.seize.cache.SeizeLocalCache;
 import com.jzo2o.orders.seize.service.IOrdersServeService;
 import com.jzo2o.orders.seize.service.IServeProviderSyncService;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import javax.annotation.Resource;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 /**
  * <p>
@@ -23,11 +34,18 @@ import java.util.List;
  * @since 2023-08-09
  */
 @Service
+@Slf4j
 public class ServeProviderSyncServiceImpl extends ServiceImpl<ServeProviderSyncMapper, ServeProviderSync> implements IServeProviderSyncService {
 
     @Resource
     private IOrdersServeService ordersServeService;
 
+    @Resource
+    private IServeProviderSyncCommonService serveProviderSyncCommonService;
+
+    @Resource
+    private SeizeLocalCache seizeLocalCache;
+
     @Override
     public List<Integer> queryServeTimesById(Long id) {
 
@@ -36,7 +54,7 @@ public class ServeProviderSyncServiceImpl extends ServiceImpl<ServeProviderSyncM
     }
 
     @Override
-    public void countServeTimesAndAcceptanceNum(Long id, Integer serveProviderType) {
+    public void countServeTimesAndAcceptanceNum(Long id, Integer serveProviderType, String cityCode) {
         ServeProviderSync serveProviderSync = new ServeProviderSync();
         serveProviderSync.setId(id);
         if(serveProviderType == UserType.WORKER) {
@@ -48,5 +66,52 @@ public class ServeProviderSyncServiceImpl extends ServiceImpl<ServeProviderSyncM
         Integer acceptanceNum = ordersServeService.countNoServedNum(id);
         serveProviderSync.setAcceptanceNum(NumberUtils.null2Zero(acceptanceNum));
         this.saveOrUpdate(serveProviderSync);
+        // 刷新服务时间位图，抢单、派单脚本通过GETBIT校验服务时间冲突
+        serveProviderSyncCommonService.refreshServeTimeBitmap(id, cityCode, serveProviderSync.getServeTimes());
+    }
+
+    @Override
+    @Transactional(rollbackFor = Exception.class)
+    public boolean reconcile(Long id) {
+        // 1.锁定接单数据，避免与订单状态变更的增量更新交叉
+        ServeProviderSync current = lambdaQuery().eq(ServeProviderSync::getId, id).last("for update").one();
+        if (current == null) {
+            return false;
+        }
+        // 2.根据最近的服务单确定类型和所属城市，没有服务单时接单数及服务时间应为空，城市从服务人员或机构详情获取
+        OrdersServe latest = ordersServeService.findLatestByServeProviderId(id);
+        String cityCode;
+        if (latest == null) {
+            ServeProviderResDTO detail = seizeLocalCache.getServeProviderDetail(id);
+            cityCode = detail == null ? null : detail.getCityCode();
+        } else {
+            cityCode = latest.getCityCode();
+        }
+        // 3.全量统计并与增量结果比对
+        List<Integer> serveTimes = latest != null && latest.getServeProviderType() == UserType.WORKER ? ordersServeService.countServeTimes(id) : null;
+        int acceptanceNum = latest == null ? 0 : NumberUtils.null2Zero(ordersServeService.countNoServedNum(id));
+        Set<Integer> expectServeTimes = CollUtils.isEmpty(serveTimes) ? new HashSet<>() : new HashSet<>(serveTimes);
+        Set<Integer> actualServeTimes = CollUtils.isEmpty(current.getServeTimes()) ? new HashSet<>() : new HashSet<>(current.getServeTimes());
+        if (acceptanceNum == NumberUtils.null2Zero(current.getAcceptanceNum()) && expectServeTimes.equals(actualServeTimes)) {
+            return false;
+        }
+        log.info("服务人员或机构{}接单数据不一致，接单数:{}->{}，服务时间:{}->{}", id, current.getAcceptanceNum(), acceptanceNum, actualServeTimes, expectServeTimes);
+        ServeProviderSync serveProviderSync = new ServeProviderSync()
+                .setId(id)
+                .setAcceptanceNum(acceptanceNum)
+                .setServeTimes(new ArrayList<>(expectServeTimes));
+        updateById(serveProviderSync);
+        // 4.事务提交后刷新服务时间位图，避免回滚后位图与数据库不一致
+        if (cityCode == null) {
+            log.warn("服务人员或机构{}未找到所属城市，跳过刷新服务时间位图", id);
+            return true;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                serveProviderSyncCommonService.refreshServeTimeBitmap(id, cityCode, serveProviderSync.getServeTimes());
+            }
+        });
+        return true;
     }
 }
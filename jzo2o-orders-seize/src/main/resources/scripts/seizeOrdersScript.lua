@@ -1,13 +1,37 @@
 -- 抢单lua实现
--- key: 抢单同步队列，资源库存
--- argv：抢单id,被派单服务人员id/机构id,服务人员类型（2，服务人员，3：机构端）,是否是机器抢单（1：机器抢单，0：人工抢单）
+-- key: 抢单同步队列，资源库存，服务状态，抢单服务时间，服务人员服务时间位图，分片版本
+-- argv：抢单id,被派单服务人员id/机构id,服务人员类型（2，服务人员，3：机构端）,是否是机器抢单（1：机器抢单，0：人工抢单）,
+--       接单数量字段,接单数量上限,分片版本
 
+-- --分片版本校验，分片迁移开始后未刷新分片配置的节点不再写入原分片
+local shardVersion = redis.call("GET", KEYS[6])
+if shardVersion ~= false and shardVersion ~= ARGV[7]
+then
+    return "-7";
+end
 -- --库存是否充足校验
 local stockNum = redis.call("HGET",KEYS[2], ARGV[1])
 if stockNum == false or  tonumber(stockNum) < 1
 then
     return "-1";
 end
+-- --抢单服务时间在服务时间位图中的偏移量
+local serveTimeOffset = redis.call("HGET", KEYS[4], ARGV[1])
+if serveTimeOffset == false
+then
+    return "-4";
+end
+-- --服务人员服务时间冲突校验
+if tonumber(ARGV[3]) == 2 and redis.call("GETBIT", KEYS[5], tonumber(serveTimeOffset)) == 1
+then
+    return "-5";
+end
+-- --接单数量上限校验
+local ordersNum = redis.call("HGET", KEYS[3], ARGV[5])
+if ordersNum ~= false and tonumber(ordersNum) >= tonumber(ARGV[6])
+then
+    return "-6";
+end
 -- --减库存
 stockNum = redis.call("HINCRBY",KEYS[2], ARGV[1], -1)
 if stockNum < 0
@@ -16,8 +40,14 @@ then
 end
 -- -- 抢单结果写入同步队列
 local result = redis.call("HSETNX", KEYS[1], ARGV[1],"[" ..ARGV[2] .."," .. ARGV[3] .."," .. ARGV[4] .."]")
-if result > 0
+if result == 0
+then
+    return "-3"
+end
+-- -- 占用服务时间及接单数量，抢单结果同步生成服务单前同一服务人员的后续抢单即可校验到，接单超时撤销时释放
+if tonumber(ARGV[3]) == 2
 then
-    return ARGV[1] ..""
+    redis.call("SETBIT", KEYS[5], tonumber(serveTimeOffset), 1)
 end
-return "-3"
+redis.call("HINCRBY", KEYS[3], ARGV[5], 1)
+return ARGV[1] ..""
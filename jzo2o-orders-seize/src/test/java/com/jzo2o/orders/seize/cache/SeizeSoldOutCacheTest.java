@@ -0,0 +1,145 @@
+package com.jzo2o.orders.seize.cache;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.redisson.api.RTopic;
+import org.redisson.api.RedissonClient;
+import org.redisson.api.listener.MessageListener;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 抢单售罄本地缓存测试
+ * 多个抢单节点通过内存主题互相广播，模拟大量服务人员同时抢同一订单，统计本地拒绝节省的远程调用次数
+ */
+@Slf4j
+public class SeizeSoldOutCacheTest {
+
+    private static final Long SEIZE_ID = 2309220000000001807L;
+
+    private static final int NODES = 4;
+
+    private static final int REQUESTS = 500;
+
+    private static final int THREADS = 64;
+
+    /**
+     * 每次进入抢单流程的远程调用次数：加锁、解锁、服务人员详情、区域配置、抢单脚本
+     */
+    private static final int REMOTE_CALLS_PER_SEIZE = 5;
+
+    private final Map<String, List<MessageListener<Object>>> topics = new ConcurrentHashMap<>();
+
+    private final List<SeizeSoldOutCache> nodes = new ArrayList<>();
+
+    @BeforeEach
+    public void setUp() {
+        RedissonClient redissonClient = (RedissonClient) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class[]{RedissonClient.class}, (proxy, method, args) -> {
+                    if ("getTopic".equals(method.getName())) {
+                        return topic((String) args[0]);
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+        for (int i = 0; i < NODES; i++) {
+            SeizeSoldOutCache seizeSoldOutCache = new SeizeSoldOutCache();
+            ReflectionTestUtils.setField(seizeSoldOutCache, "redissonClient", redissonClient);
+            seizeSoldOutCache.start();
+            nodes.add(seizeSoldOutCache);
+        }
+    }
+
+    @Test
+    public void soldOutShortCircuitsContention() throws InterruptedException {
+        AtomicInteger stock = new AtomicInteger(1);
+        AtomicInteger successes = new AtomicInteger();
+        AtomicInteger remoteCalls = new AtomicInteger();
+        AtomicInteger localRejects = new AtomicInteger();
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(REQUESTS);
+        for (int i = 0; i < REQUESTS; i++) {
+            SeizeSoldOutCache node = nodes.get(i % NODES);
+            executor.execute(() -> {
+                try {
+                    start.await();
+                    if (node.isSoldOut(SEIZE_ID)) {
+                        localRejects.incrementAndGet();
+                        return;
+                    }
+                    remoteCalls.addAndGet(REMOTE_CALLS_PER_SEIZE);
+                    // 抢单脚本：库存减为负数时返回-2
+                    if (stock.decrementAndGet() >= 0) {
+                        successes.incrementAndGet();
+                    } else {
+                        node.soldOut(Collections.singletonList(SEIZE_ID));
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        start.countDown();
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        executor.shutdown();
+
+        int baseline = REQUESTS * REMOTE_CALLS_PER_SEIZE;
+        log.info("请求数：{}，本地拒绝：{}，远程调用：{}，无售罄缓存时远程调用：{}，节省：{}",
+                REQUESTS, localRejects.get(), remoteCalls.get(), baseline, baseline - remoteCalls.get());
+        assertEquals(1, successes.get());
+        assertEquals(REQUESTS, localRejects.get() + remoteCalls.get() / REMOTE_CALLS_PER_SEIZE);
+        assertTrue(localRejects.get() > 0);
+        nodes.forEach(node -> assertTrue(node.isSoldOut(SEIZE_ID)));
+    }
+
+    @Test
+    public void availableClearsAllNodes() {
+        nodes.get(0).soldOut(Collections.singletonList(SEIZE_ID));
+        nodes.forEach(node -> assertTrue(node.isSoldOut(SEIZE_ID)));
+
+        nodes.get(1).available(Collections.singletonList(SEIZE_ID));
+        nodes.forEach(node -> assertFalse(node.isSoldOut(SEIZE_ID)));
+    }
+
+    /**
+     * 内存主题，发布时同步通知所有节点
+     */
+    @SuppressWarnings("unchecked")
+    private RTopic topic(String name) {
+        List<MessageListener<Object>> listeners = topics.computeIfAbsent(name, key -> new CopyOnWriteArrayList<>());
+        return (RTopic) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{RTopic.class}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "addListener":
+                    listeners.add((MessageListener<Object>) args[1]);
+                    return listeners.size() - 1;
+                case "publish":
+                    listeners.forEach(listener -> listener.onMessage(name, args[0]));
+                    return (long) listeners.size();
+                case "removeListener":
+                    return null;
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+}
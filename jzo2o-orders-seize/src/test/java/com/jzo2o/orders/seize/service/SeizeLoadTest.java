@@ -0,0 +1,253 @@
+package com.jzo2o.orders.seize.service;
+
+import com.jzo2o.common.constants.UserType;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSerializer;
+
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 抢单校验压测
+ * 对比原java侧预校验（服务时间、接单数量两次HGET后执行仅扣库存的脚本）与脚本内一次完成校验的p50/p99，
+ * 两种方式使用同一份随机生成的抢单、服务人员数据及抢单请求，并校验抢单结果一致；
+ * 脚本抢单成功时占用服务时间及接单数量，java预校验方式抢单成功后同样写入
+ */
+@SpringBootTest
+@Slf4j
+public class SeizeLoadTest {
+
+    /**
+     * 压测数据使用独立的redis key，hash tag保证集群模式下位于同一slot
+     */
+    private static final String KEY_PREFIX = "ORDERS:SEIZE:LOAD_TEST:";
+
+    private static final String SYNC_KEY = KEY_PREFIX + "SYNC:{load}";
+
+    private static final String STOCK_KEY = KEY_PREFIX + "STOCK:{load}";
+
+    private static final String STATE_KEY = KEY_PREFIX + "STATE:{load}";
+
+    private static final String SERVE_TIME_KEY = KEY_PREFIX + "SERVE_TIME:{load}";
+
+    private static final String SERVE_TIME_BITMAP_KEY = KEY_PREFIX + "SERVE_TIME_BITMAP:%s:{load}";
+
+    private static final String SHARD_VERSION_KEY = KEY_PREFIX + "VERSION:{load}";
+
+    private static final String SHARD_VERSION = "cityDigit:10";
+
+    /**
+     * 原抢单脚本，仅校验并扣减库存
+     */
+    private static final String STOCK_ONLY_SCRIPT = "local stockNum = redis.call('HGET', KEYS[2], ARGV[1])\n"
+            + "if stockNum == false or tonumber(stockNum) < 1 then return '-1' end\n"
+            + "stockNum = redis.call('HINCRBY', KEYS[2], ARGV[1], -1)\n"
+            + "if stockNum < 0 then return '-2' end\n"
+            + "if redis.call('HSETNX', KEYS[1], ARGV[1], '[' .. ARGV[2] .. ',' .. ARGV[3] .. ',' .. ARGV[4] .. ']') > 0 then return ARGV[1] .. '' end\n"
+            + "return '-3'";
+
+    private static final int ORDERS = 2000;
+
+    private static final int SERVE_PROVIDERS = 200;
+
+    private static final int REQUESTS = 5000;
+
+    /**
+     * 服务时间偏移量范围，30天
+     */
+    private static final int SERVE_TIME_RANGE = 24 * 30;
+
+    /**
+     * 每个服务人员已有的服务时间数量
+     */
+    private static final int BUSY_SERVE_TIMES = 30;
+
+    private static final int RECEIVE_ORDER_MAX = 10;
+
+    @Resource
+    private RedisTemplate redisTemplate;
+
+    @Resource(name = "seizeOrdersScript")
+    private DefaultRedisScript<String> seizeOrdersScript;
+
+    private final DefaultRedisScript<String> stockOnlyScript = new DefaultRedisScript<>(STOCK_ONLY_SCRIPT, String.class);
+
+    private final GenericJackson2JsonRedisSerializer serializer = new GenericJackson2JsonRedisSerializer();
+
+    private final Fixture fixture = new Fixture(new Random(20231018L));
+
+    @AfterEach
+    public void clear() {
+        clearFixture();
+    }
+
+    @Test
+    public void compareSeizeLatency() {
+        loadFixture();
+        List<Long> javaCheckCosts = new ArrayList<>(REQUESTS);
+        List<Boolean> javaCheckResults = fixture.requests.stream()
+                .map(request -> measure(javaCheckCosts, () -> seizeWithJavaCheck(request)))
+                .collect(Collectors.toList());
+
+        clearFixture();
+        loadFixture();
+        List<Long> scriptCheckCosts = new ArrayList<>(REQUESTS);
+        List<Boolean> scriptCheckResults = fixture.requests.stream()
+                .map(request -> measure(scriptCheckCosts, () -> seizeWithScriptCheck(request)))
+                .collect(Collectors.toList());
+
+        log.info("抢单请求{}次，成功{}次", REQUESTS, scriptCheckResults.stream().filter(Boolean::booleanValue).count());
+        log.info("java预校验 p50:{}us, p99:{}us", percentile(javaCheckCosts, 50), percentile(javaCheckCosts, 99));
+        log.info("脚本内校验 p50:{}us, p99:{}us", percentile(scriptCheckCosts, 50), percentile(scriptCheckCosts, 99));
+        assertEquals(javaCheckResults, scriptCheckResults);
+    }
+
+    /**
+     * 原抢单流程：java侧查询服务时间及接单数量校验后执行扣库存脚本
+     */
+    private boolean seizeWithJavaCheck(long[] request) {
+        long id = request[0];
+        long serveProviderId = request[1];
+        // 服务时间冲突
+        Object serveTimes = redisTemplate.opsForHash().get(STATE_KEY, serveProviderId + "_times");
+        if (serveTimes != null && Arrays.asList(serveTimes.toString().split(",")).contains(String.valueOf(fixture.serveTimes.get((int) request[2])))) {
+            return false;
+        }
+        // 接单数量上限
+        Object ordersNum = redisTemplate.opsForHash().get(STATE_KEY, serveProviderId + "_num");
+        if (ordersNum != null && Integer.parseInt(ordersNum.toString()) >= RECEIVE_ORDER_MAX) {
+            return false;
+        }
+        Object result = redisTemplate.execute(stockOnlyScript, serializer, serializer,
+                Arrays.asList(SYNC_KEY, STOCK_KEY),
+                id, serveProviderId, UserType.WORKER, 0);
+        if (result == null || Long.parseLong(result.toString()) <= 0) {
+            return false;
+        }
+        // 抢单成功后写入服务时间及接单数量，与脚本内占用的结果一致
+        String times = serveTimes == null || serveTimes.toString().isEmpty() ? "" : serveTimes + ",";
+        redisTemplate.opsForHash().put(STATE_KEY, serveProviderId + "_times", times + fixture.serveTimes.get((int) request[2]));
+        redisTemplate.opsForHash().increment(STATE_KEY, serveProviderId + "_num", 1);
+        return true;
+    }
+
+    /**
+     * 当前抢单流程：库存、服务时间冲突、接单数量上限在抢单脚本中一次校验
+     */
+    private boolean seizeWithScriptCheck(long[] request) {
+        long id = request[0];
+        long serveProviderId = request[1];
+        Object result = redisTemplate.execute(seizeOrdersScript, serializer, serializer,
+                Arrays.asList(SYNC_KEY, STOCK_KEY, STATE_KEY, SERVE_TIME_KEY, String.format(SERVE_TIME_BITMAP_KEY, serveProviderId), SHARD_VERSION_KEY),
+                id, serveProviderId, UserType.WORKER, 0, serveProviderId + "_num", RECEIVE_ORDER_MAX, SHARD_VERSION);
+        return result != null && Long.parseLong(result.toString()) > 0;
+    }
+
+    private boolean measure(List<Long> costs, SeizeCall seizeCall) {
+        long start = System.nanoTime();
+        boolean success = seizeCall.seize();
+        costs.add((System.nanoTime() - start) / 1000);
+        return success;
+    }
+
+    /**
+     * 写入抢单库存、抢单服务时间及服务人员服务状态，两种流程各自使用的服务时间数据内容一致
+     */
+    private void loadFixture() {
+        redisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            public Object execute(RedisOperations operations) {
+                for (int i = 0; i < ORDERS; i++) {
+                    operations.opsForHash().put(STOCK_KEY, fixture.orderIds.get(i), 1);
+                    operations.opsForHash().put(SERVE_TIME_KEY, fixture.orderIds.get(i), fixture.serveTimes.get(i));
+                }
+                for (int i = 0; i < SERVE_PROVIDERS; i++) {
+                    Long serveProviderId = fixture.serveProviderIds.get(i);
+                    Set<Integer> busy = fixture.busyServeTimes.get(i);
+                    operations.opsForHash().put(STATE_KEY, serveProviderId + "_times",
+                            busy.stream().map(String::valueOf).collect(Collectors.joining(",")));
+                    operations.opsForHash().put(STATE_KEY, serveProviderId + "_num", fixture.ordersNums.get(i));
+                    for (Integer serveTime : busy) {
+                        operations.opsForValue().setBit(String.format(SERVE_TIME_BITMAP_KEY, serveProviderId), serveTime, true);
+                    }
+                }
+                return null;
+            }
+        });
+    }
+
+    private void clearFixture() {
+        List<String> keys = new ArrayList<>(Arrays.asList(SYNC_KEY, STOCK_KEY, STATE_KEY, SERVE_TIME_KEY, SHARD_VERSION_KEY));
+        fixture.serveProviderIds.forEach(serveProviderId -> keys.add(String.format(SERVE_TIME_BITMAP_KEY, serveProviderId)));
+        redisTemplate.delete(keys);
+    }
+
+    private long percentile(List<Long> costs, int percent) {
+        List<Long> sorted = new ArrayList<>(costs);
+        Collections.sort(sorted);
+        int index = (int) Math.ceil(percent / 100.0 * sorted.size()) - 1;
+        return sorted.get(Math.max(index, 0));
+    }
+
+    @FunctionalInterface
+    private interface SeizeCall {
+        boolean seize();
+    }
+
+    /**
+     * 随机生成的压测数据，固定随机种子保证每次运行一致
+     */
+    private static class Fixture {
+
+        private final List<Long> orderIds = new ArrayList<>(ORDERS);
+
+        private final List<Integer> serveTimes = new ArrayList<>(ORDERS);
+
+        private final List<Long> serveProviderIds = new ArrayList<>(SERVE_PROVIDERS);
+
+        private final List<Set<Integer>> busyServeTimes = new ArrayList<>(SERVE_PROVIDERS);
+
+        private final List<Integer> ordersNums = new ArrayList<>(SERVE_PROVIDERS);
+
+        /**
+         * 抢单请求，每项为{抢单id,服务人员id,抢单下标}
+         */
+        private final List<long[]> requests = new ArrayList<>(REQUESTS);
+
+        private Fixture(Random random) {
+            for (int i = 0; i < ORDERS; i++) {
+                orderIds.add(2_000_000_000_000_000_000L + i);
+                serveTimes.add(random.nextInt(SERVE_TIME_RANGE));
+            }
+            for (int i = 0; i < SERVE_PROVIDERS; i++) {
+                serveProviderIds.add(1_000_000_000_000_000_000L + i);
+                Set<Integer> busy = new HashSet<>();
+                while (busy.size() < BUSY_SERVE_TIMES) {
+                    busy.add(random.nextInt(SERVE_TIME_RANGE));
+                }
+                busyServeTimes.add(busy);
+                ordersNums.add(random.nextInt(RECEIVE_ORDER_MAX + 1));
+            }
+            for (int i = 0; i < REQUESTS; i++) {
+                int order = random.nextInt(ORDERS);
+                requests.add(new long[]{orderIds.get(order), serveProviderIds.get(random.nextInt(SERVE_PROVIDERS)), order});
+            }
+        }
+    }
+}
@@ -0,0 +1,442 @@
+package com.jzo2o.orders.simulator.dispatch;
+
+import com.jzo2o.api.foundations.dto.response.ConfigRegionInnerResDTO;
+import com.jzo2o.common.constants.UserType;
+import com.jzo2o.common.model.Location;
+import com.jzo2o.orders.base.geo.GeoGridIndex;
+import com.jzo2o.orders.base.model.domain.OrdersDispatch;
+import com.jzo2o.orders.base.model.domain.ServeProviderInfo;
+import com.jzo2o.orders.base.properties.DispatchProperties;
+import com.jzo2o.orders.base.utils.ServeTimeUtils;
+import com.jzo2o.orders.dispatch.enums.DispatchStrategyEnum;
+import com.jzo2o.orders.dispatch.geo.ServeProviderGeoIndex;
+import com.jzo2o.orders.dispatch.model.dto.ServeProviderDTO;
+import com.jzo2o.orders.dispatch.scheduler.DispatchBackoff;
+import com.jzo2o.orders.dispatch.strategys.DispatchRoundAssigner;
+import com.jzo2o.orders.dispatch.strategys.IDispatchStrategyManager;
+import com.jzo2o.orders.dispatch.strategys.WeightedScoreFunction;
+import com.jzo2o.orders.dispatch.strategys.impl.DispatchStrategyManagerImpl;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+/**
+ * 派单离散事件仿真
+ * 按时间顺序回放下单及服务人员、机构状态变化事件，订单经过分流间隔后按派单间隔逐轮派单（连续失败时按派单退避延长间隔），
+ * 直到派单成功或到达服务开始时间。
+ * 同时到期的订单合并为一轮，每单通过线上的内存网格索引查询（ServeProviderGeoIndex.search）获取候选服务人员或机构，
+ * 经线上的整轮分配（DispatchRoundAssigner）及派单策略选出派单对象，再由模拟的机器抢单校验接单数量上限及服务时间冲突。
+ * 不依赖redis、es、nacos，可在单元测试或命令行中运行：
+ * java -cp ... com.jzo2o.orders.simulator.dispatch.DispatchSimulator [事件文件]，未指定事件文件时使用合成数据。
+ */
+public class DispatchSimulator {
+
+    /**
+     * 网格经纬度步长，与AbstractCityGeoIndex一致，单位：度
+     */
+    private static final double CELL_DEGREES = 0.05;
+
+    /**
+     * 仿真城市编码，所有订单及服务人员、机构位于同一城市
+     */
+    private static final String CITY_CODE = "000";
+
+    private final SimulationConfig config;
+
+    private final IDispatchStrategyManager dispatchStrategyManager = new DispatchStrategyManagerImpl();
+
+    private final DispatchRoundAssigner dispatchRoundAssigner = new DispatchRoundAssigner(dispatchStrategyManager);
+
+    private final Random random;
+
+    private final SimulationGeoIndex index;
+
+    /**
+     * 城市编码与区域调度配置的对应关系，接单数量上限取自仿真参数
+     */
+    private final Map<String, ConfigRegionInnerResDTO> configRegionMap;
+
+    private final Map<String, DispatchStrategyEnum> dispatchStrategyMap;
+
+    private final Map<Long, Provider> providers = new HashMap<>();
+
+    private final Map<Long, Order> orders = new HashMap<>();
+
+    private final PriorityQueue<Action> actions = new PriorityQueue<>(Comparator.comparingLong((Action action) -> action.time)
+            .thenComparingLong(action -> action.seq));
+
+    private long seq;
+
+    private int roundsNum;
+
+    public DispatchSimulator(SimulationConfig config) {
+        this.config = config;
+        this.random = new Random(config.getSeed());
+        this.index = new SimulationGeoIndex(config.getWeightedScore());
+        for (DispatchStrategyEnum dispatchStrategyEnum : DispatchStrategyEnum.values()) {
+            dispatchStrategyManager.put(dispatchStrategyEnum, dispatchStrategyEnum.getDispatchStrategy());
+        }
+        ConfigRegionInnerResDTO configRegion = new ConfigRegionInnerResDTO();
+        configRegion.setStaffReceiveOrderMax(config.getStaffReceiveOrderMax());
+        configRegion.setInstitutionReceiveOrderMax(config.getInstitutionReceiveOrderMax());
+        this.configRegionMap = Collections.singletonMap(CITY_CODE, configRegion);
+        this.dispatchStrategyMap = Collections.singletonMap(CITY_CODE, config.getDispatchStrategy());
+    }
+
+    /**
+     * 回放事件并统计派单结果
+     *
+     * @param events 仿真事件，无需有序
+     * @return 派单结果
+     */
+    public SimulationReport run(List<SimulationEvent> events) {
+        // 1.事件按时间加入事件队列
+        for (SimulationEvent event : events) {
+            schedule(event.getTime(), new Action(ActionType.EVENT, event, null, 0));
+        }
+        // 2.按时间顺序执行
+        while (!actions.isEmpty()) {
+            Action action = actions.poll();
+            switch (action.type) {
+                case EVENT:
+                    onEvent(action.time, action.event);
+                    break;
+                case DISPATCH:
+                    // 同时到期的派单轮次合并为一批，与派单轮次调度一致
+                    List<Order> dueOrders = new ArrayList<>();
+                    dueOrders.add(orders.get(action.id));
+                    while (!actions.isEmpty() && actions.peek().type == ActionType.DISPATCH && actions.peek().time == action.time) {
+                        dueOrders.add(orders.get(actions.poll().id));
+                    }
+                    dispatch(action.time, dueOrders);
+                    break;
+                case COMPLETE:
+                    complete(providers.get(action.id), action.serveTime);
+                    break;
+                default:
+            }
+        }
+        return report();
+    }
+
+    private void onEvent(long now, SimulationEvent event) {
+        switch (event.getType()) {
+            case ORDER:
+                Order order = new Order(event.getId(), event.getLon(), event.getLat(), event.getServeItemId(), event.getServeStartTime(), now);
+                orders.put(order.id, order);
+                // 分流间隔内订单在抢单池，之后进入派单
+                schedule(now + config.getDiversionInterval(), new Action(ActionType.DISPATCH, null, order.id, 0));
+                break;
+            case ONLINE:
+                Provider provider = providers.computeIfAbsent(event.getId(), id -> new Provider(id, event.getServeProviderType()));
+                provider.info.setLocation(new Location(event.getLon(), event.getLat()));
+                provider.info.setEvaluationScore(event.getEvaluationScore());
+                provider.info.setServeItemIds(event.getServeItemIds() == null ? Collections.emptyList() : new ArrayList<>(event.getServeItemIds()));
+                index.grid.put(provider.id, event.getLon(), event.getLat(), provider.info);
+                break;
+            case OFFLINE:
+                index.grid.remove(event.getId());
+                break;
+            case MOVE:
+                Provider moved = providers.get(event.getId());
+                if (moved != null && index.grid.get(moved.id) != null) {
+                    moved.info.setLocation(new Location(event.getLon(), event.getLat()));
+                    index.grid.put(moved.id, event.getLon(), event.getLat(), moved.info);
+                }
+                break;
+            default:
+        }
+    }
+
+    /**
+     * 执行一轮派单，失败时按派单间隔进入下一轮
+     */
+    private void dispatch(long now, List<Order> dueOrders) {
+        // 1.到达服务开始时间停止派单
+        List<Order> dispatching = dueOrders.stream().filter(order -> now < order.serveStartTime).collect(Collectors.toList());
+        if (dispatching.isEmpty()) {
+            return;
+        }
+        roundsNum += dispatching.size();
+        // 2.查询候选服务人员或机构，整轮分配派单对象
+        List<List<ServeProviderDTO>> serveProvidersList = dispatching.stream()
+                .map(order -> index.search(CITY_CODE, order.serveItemId, config.getMaxDistance(), order.serveTime,
+                        config.getDispatchStrategy(), order.lon, order.lat, config.getSearchSize()))
+                .collect(Collectors.toList());
+        List<OrdersDispatch> ordersDispatches = dispatching.stream().map(Order::toOrdersDispatch).collect(Collectors.toList());
+        Map<Long, ServeProviderDTO> serveProviderMap = dispatchRoundAssigner.assign(ordersDispatches, serveProvidersList, configRegionMap, dispatchStrategyMap);
+        for (Order order : dispatching) {
+            // 3.机器抢单
+            ServeProviderDTO serveProvider = serveProviderMap.get(order.id);
+            if (serveProvider != null && seize(now, order, providers.get(serveProvider.getId()))) {
+                continue;
+            }
+            // 4.派单失败，按派单间隔或退避间隔进入下一轮
+            order.faildTimes++;
+            long interval = config.isBackoffEnabled()
+                    ? DispatchBackoff.nextInterval(order.faildTimes, config.getDispatchPerRoundInterval(), config.getBackoffMaxInterval(), random)
+                    : config.getDispatchPerRoundInterval();
+            schedule(now + interval, new Action(ActionType.DISPATCH, null, order.id, 0));
+        }
+    }
+
+    /**
+     * 模拟机器抢单，与派单脚本一致校验接单数量上限及服务人员服务时间冲突
+     *
+     * @return 抢单成功返回true
+     */
+    private boolean seize(long now, Order order, Provider provider) {
+        ServeProviderInfo info = provider.info;
+        int receiveOrderMax = isWorker(provider) ? config.getStaffReceiveOrderMax() : config.getInstitutionReceiveOrderMax();
+        if (info.getAcceptanceNum() >= receiveOrderMax
+                || (isWorker(provider) && info.getServeTimes().contains(order.serveTime))
+                || random.nextDouble() < config.getSeizeFailureRate()) {
+            return false;
+        }
+        info.setAcceptanceNum(info.getAcceptanceNum() + 1);
+        provider.assignedNum++;
+        if (isWorker(provider)) {
+            info.getServeTimes().add(order.serveTime);
+        }
+        order.assignTime = now;
+        order.distance = GeoGridIndex.distance(order.lon, order.lat, info.getLocation().getLon(), info.getLocation().getLat());
+        // 服务完成后释放接单数量及服务时间
+        schedule(order.serveStartTime + config.getServeDuration(), new Action(ActionType.COMPLETE, null, provider.id, order.serveTime));
+        return true;
+    }
+
+    private void complete(Provider provider, int serveTime) {
+        provider.info.setAcceptanceNum(provider.info.getAcceptanceNum() - 1);
+        provider.info.getServeTimes().remove(Integer.valueOf(serveTime));
+    }
+
+    private SimulationReport report() {
+        List<Order> assigned = orders.values().stream().filter(order -> order.assignTime != null).collect(Collectors.toList());
+        List<Long> timeToAssigns = assigned.stream().map(order -> order.assignTime - order.createTime).sorted().collect(Collectors.toList());
+        List<Integer> loads = providers.values().stream().filter(provider -> provider.assignedNum > 0)
+                .map(provider -> provider.assignedNum).collect(Collectors.toList());
+
+        SimulationReport report = new SimulationReport();
+        report.setDispatchStrategy(config.getDispatchStrategy());
+        report.setOrdersNum(orders.size());
+        report.setAssignedNum(assigned.size());
+        report.setRoundsNum(roundsNum);
+        report.setAssignmentRate(orders.isEmpty() ? 0 : (double) assigned.size() / orders.size());
+        report.setTimeToAssignP50(percentile(timeToAssigns, 0.5));
+        report.setTimeToAssignP90(percentile(timeToAssigns, 0.9));
+        report.setTimeToAssignP99(percentile(timeToAssigns, 0.99));
+        report.setAvgDistance(assigned.stream().mapToDouble(order -> order.distance).average().orElse(0));
+        report.setMaxDistance(assigned.stream().mapToDouble(order -> order.distance).max().orElse(0));
+        double avgLoad = loads.stream().mapToInt(Integer::intValue).average().orElse(0);
+        report.setAvgLoad(avgLoad);
+        report.setLoadStdDev(Math.sqrt(loads.stream().mapToDouble(load -> (load - avgLoad) * (load - avgLoad)).average().orElse(0)));
+        report.setMaxLoad(loads.stream().mapToInt(Integer::intValue).max().orElse(0));
+        return report;
+    }
+
+    /**
+     * 最近秩法计算百分位
+     */
+    static long percentile(List<Long> sorted, double p) {
+        if (sorted.isEmpty()) {
+            return 0;
+        }
+        int rank = (int) Math.ceil(p * sorted.size());
+        return sorted.get(Math.max(rank, 1) - 1);
+    }
+
+    private void schedule(long time, Action action) {
+        action.time = time;
+        action.seq = seq++;
+        actions.add(action);
+    }
+
+    private static boolean isWorker(Provider provider) {
+        return provider.info.getServeProviderType() != null && provider.info.getServeProviderType() == UserType.WORKER;
+    }
+
+    /**
+     * 使用同一批事件依次仿真所有派单策略
+     *
+     * @param events 仿真事件
+     * @param config 仿真参数，派单策略除外
+     * @return 各派单策略的派单结果
+     */
+    public static List<SimulationReport> compare(List<SimulationEvent> events, SimulationConfig config) {
+        List<SimulationReport> reports = new ArrayList<>();
+        DispatchStrategyEnum origin = config.getDispatchStrategy();
+        for (DispatchStrategyEnum dispatchStrategyEnum : DispatchStrategyEnum.values()) {
+            config.setDispatchStrategy(dispatchStrategyEnum);
+            reports.add(new DispatchSimulator(config).run(events));
+        }
+        config.setDispatchStrategy(origin);
+        return reports;
+    }
+
+    public static void main(String[] args) throws IOException {
+        SimulationConfig config = new SimulationConfig();
+        List<SimulationEvent> events = args.length > 0
+                ? SimulationEvents.read(Paths.get(args[0]))
+                : SimulationEvents.synthetic(config.getSeed(), 200, 1000, 24 * 3600);
+        compare(events, config).forEach(System.out::println);
+    }
+
+    private enum ActionType {
+        EVENT, DISPATCH, COMPLETE
+    }
+
+    /**
+     * 事件队列中的待执行动作
+     */
+    private static class Action {
+
+        private final ActionType type;
+
+        private final SimulationEvent event;
+
+        /**
+         * 订单id或服务人员、机构id
+         */
+        private final Long id;
+
+        /**
+         * 服务完成时释放的服务时间，格式yyyyMMddHH
+         */
+        private final int serveTime;
+
+        private long time;
+
+        private long seq;
+
+        private Action(ActionType type, SimulationEvent event, Long id, int serveTime) {
+            this.type = type;
+            this.event = event;
+            this.id = id;
+            this.serveTime = serveTime;
+        }
+    }
+
+    private static class Order {
+
+        private final Long id;
+
+        private final double lon;
+
+        private final double lat;
+
+        private final Long serveItemId;
+
+        private final long serveStartTime;
+
+        /**
+         * 服务时间，格式yyyyMMddHH，仿真时间按UTC换算
+         */
+        private final int serveTime;
+
+        private final long createTime;
+
+        private Long assignTime;
+
+        /**
+         * 连续派单失败次数
+         */
+        private long faildTimes;
+
+        /**
+         * 派单服务人员或机构到服务地点的距离，单位：km
+         */
+        private double distance;
+
+        private Order(Long id, double lon, double lat, Long serveItemId, long serveStartTime, long createTime) {
+            this.id = id;
+            this.lon = lon;
+            this.lat = lat;
+            this.serveItemId = serveItemId;
+            this.serveStartTime = serveStartTime;
+            this.serveTime = ServeTimeUtils.getServeTimeInt(toDateTime(serveStartTime));
+            this.createTime = createTime;
+        }
+
+        /**
+         * 转换为派单信息，用于整轮分配
+         */
+        private OrdersDispatch toOrdersDispatch() {
+            return new OrdersDispatch()
+                    .setId(id)
+                    .setCityCode(CITY_CODE)
+                    .setServeItemId(serveItemId)
+                    .setServeStartTime(toDateTime(serveStartTime))
+                    .setLon(lon)
+                    .setLat(lat);
+        }
+
+        private static LocalDateTime toDateTime(long time) {
+            return LocalDateTime.ofEpochSecond(time, 0, ZoneOffset.UTC);
+        }
+    }
+
+    private static class Provider {
+
+        private final Long id;
+
+        /**
+         * 索引中的服务人员或机构，接单数量及服务时间随仿真的抢单及服务完成变化
+         */
+        private final ServeProviderInfo info = new ServeProviderInfo();
+
+        /**
+         * 仿真期间累计接单数量
+         */
+        private int assignedNum;
+
+        private Provider(Long id, Integer serveProviderType) {
+            this.id = id;
+            info.setId(id);
+            info.setServeProviderType(serveProviderType);
+            info.setCityCode(CITY_CODE);
+            // 开启接单、完成设置、状态正常
+            info.setPickUp(1);
+            info.setSettingStatus(1);
+            info.setStatus(0);
+            info.setAcceptanceNum(0);
+            info.setServeTimes(new ArrayList<>());
+            info.setServeItemIds(Collections.emptyList());
+        }
+    }
+
+    /**
+     * 仿真使用的服务人员或机构索引，查询复用线上内存网格索引的匹配条件、排序及结果转换，
+     * 索引数据由仿真事件直接维护，综合评分按仿真参数中的权重计算
+     */
+    private static class SimulationGeoIndex extends ServeProviderGeoIndex {
+
+        private final GeoGridIndex<ServeProviderInfo> grid = new GeoGridIndex<>(CELL_DEGREES);
+
+        private final DispatchProperties.WeightedScore weightedScore;
+
+        private SimulationGeoIndex(DispatchProperties.WeightedScore weightedScore) {
+            this.weightedScore = weightedScore;
+        }
+
+        @Override
+        public GeoGridIndex<ServeProviderInfo> get(String cityCode) {
+            return grid;
+        }
+
+        @Override
+        protected double weightedScore(String cityCode, double distance, Double evaluationScore, Integer acceptanceNum) {
+            return WeightedScoreFunction.score(weightedScore, distance, evaluationScore, acceptanceNum);
+        }
+    }
+}
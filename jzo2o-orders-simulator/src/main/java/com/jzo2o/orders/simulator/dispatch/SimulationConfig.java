@@ -0,0 +1,77 @@
+package com.jzo2o.orders.simulator.dispatch;
+
+import com.jzo2o.orders.base.properties.DispatchProperties;
+import com.jzo2o.orders.dispatch.enums.DispatchStrategyEnum;
+import lombok.Data;
+
+/**
+ * 派单仿真参数，默认值与线上派单一致
+ */
+@Data
+public class SimulationConfig {
+
+    /**
+     * 派单策略
+     */
+    private DispatchStrategyEnum dispatchStrategy = DispatchStrategyEnum.DISTANCE;
+
+    /**
+     * 派单间隔，单位：秒，对应区域调度配置dispatchPerRoundInterval
+     */
+    private long dispatchPerRoundInterval = 180;
+
+    /**
+     * 连续派单失败时下次派单间隔是否按失败次数指数增长，与派单退避一致
+     */
+    private boolean backoffEnabled = true;
+
+    /**
+     * 派单退避的最大间隔，单位：秒
+     */
+    private long backoffMaxInterval = 1800;
+
+    /**
+     * 下单后进入派单的分流间隔，单位：秒，对应区域调度配置diversionInterval
+     */
+    private long diversionInterval = 0;
+
+    /**
+     * 派单最大限制距离，单位：km
+     */
+    private double maxDistance = 100;
+
+    /**
+     * 每单查询的服务人员或机构数量
+     */
+    private int searchSize = 30;
+
+    /**
+     * 服务人员接单数量上限
+     */
+    private int staffReceiveOrderMax = 10;
+
+    /**
+     * 机构接单数量上限
+     */
+    private int institutionReceiveOrderMax = 50;
+
+    /**
+     * 服务时长，服务开始后经过该时长完成服务，接单数量减1，单位：秒
+     */
+    private long serveDuration = 2 * 3600;
+
+    /**
+     * 机器抢单失败率，模拟库存、网络等原因导致的抢单失败
+     */
+    private double seizeFailureRate = 0;
+
+    /**
+     * 随机种子
+     */
+    private long seed = 20230816L;
+
+    /**
+     * 综合评分策略权重
+     */
+    private DispatchProperties.WeightedScore weightedScore = new DispatchProperties.WeightedScore();
+}
@@ -0,0 +1,87 @@
+package com.jzo2o.orders.simulator.dispatch;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Set;
+
+/**
+ * 派单仿真事件，订单进入派单或服务人员、机构状态变化
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class SimulationEvent {
+
+    /**
+     * 事件类型
+     */
+    public enum Type {
+        /**
+         * 下单，订单先进入抢单池，分流间隔后进入派单
+         */
+        ORDER,
+        /**
+         * 服务人员或机构开启接单，同时更新位置及服务技能
+         */
+        ONLINE,
+        /**
+         * 服务人员或机构关闭接单
+         */
+        OFFLINE,
+        /**
+         * 服务人员或机构位置变化
+         */
+        MOVE
+    }
+
+    /**
+     * 事件时间，仿真开始后的秒数
+     */
+    private long time;
+
+    private Type type;
+
+    /**
+     * 订单id或服务人员、机构id
+     */
+    private Long id;
+
+    /**
+     * 经度，订单为服务地址经度，服务人员或机构为所在位置经度
+     */
+    private Double lon;
+
+    /**
+     * 纬度
+     */
+    private Double lat;
+
+    /**
+     * 订单服务项id
+     */
+    private Long serveItemId;
+
+    /**
+     * 订单服务开始时间，仿真开始后的秒数
+     */
+    private Long serveStartTime;
+
+    /**
+     * 服务人员或机构类型，2：服务人员，3：机构
+     */
+    private Integer serveProviderType;
+
+    /**
+     * 服务人员或机构评分
+     */
+    private Double evaluationScore;
+
+    /**
+     * 服务人员或机构的服务技能
+     */
+    private Set<Long> serveItemIds;
+}
@@ -0,0 +1,168 @@
+package com.jzo2o.orders.simulator.dispatch;
+
+import com.jzo2o.common.constants.UserType;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * 派单仿真事件来源，读取录制的事件文件或生成合成事件
+ */
+public class SimulationEvents {
+
+    /**
+     * 事件文件列分隔符
+     */
+    private static final String SEPARATOR = ",";
+
+    /**
+     * 服务技能分隔符
+     */
+    private static final String SERVE_ITEM_SEPARATOR = "\\|";
+
+    /**
+     * 合成数据中心点经纬度及半径，单位：km
+     */
+    private static final double CENTER_LON = 116.40;
+
+    private static final double CENTER_LAT = 39.90;
+
+    private static final double RADIUS = 15;
+
+    /**
+     * 合成数据的服务项数量
+     */
+    private static final int SERVE_ITEM_NUM = 5;
+
+    private static final double KM_PER_DEGREE = 111.195;
+
+    private SimulationEvents() {
+    }
+
+    /**
+     * 读取录制的事件文件，每行一个事件，#开头的行忽略，列依次为：
+     * time,type,id,lon,lat,serveItemId,serveStartTime,serveProviderType,evaluationScore,serveItemIds(以|分隔)，不需要的列留空
+     *
+     * @param path 事件文件
+     * @return 仿真事件
+     */
+    public static List<SimulationEvent> read(Path path) throws IOException {
+        List<SimulationEvent> events = new ArrayList<>();
+        for (String line : Files.readAllLines(path, StandardCharsets.UTF_8)) {
+            if (line.isBlank() || line.startsWith("#")) {
+                continue;
+            }
+            String[] values = Arrays.copyOf(line.split(SEPARATOR, -1), 10);
+            events.add(SimulationEvent.builder()
+                    .time(Long.parseLong(values[0].trim()))
+                    .type(SimulationEvent.Type.valueOf(values[1].trim()))
+                    .id(parseLong(values[2]))
+                    .lon(parseDouble(values[3]))
+                    .lat(parseDouble(values[4]))
+                    .serveItemId(parseLong(values[5]))
+                    .serveStartTime(parseLong(values[6]))
+                    .serveProviderType(values[7] == null || values[7].isBlank() ? null : Integer.parseInt(values[7].trim()))
+                    .evaluationScore(parseDouble(values[8]))
+                    .serveItemIds(values[9] == null || values[9].isBlank() ? null : Arrays.stream(values[9].trim().split(SERVE_ITEM_SEPARATOR))
+                            .map(Long::parseLong)
+                            .collect(Collectors.toSet()))
+                    .build());
+        }
+        return events;
+    }
+
+    /**
+     * 生成合成事件：服务人员或机构在仿真开始时开启接单，期间随机关闭接单一段时间；订单在仿真期间均匀下单，
+     * 服务开始时间为下单后2小时至2天内的整点，服务人员、机构及订单均匀分布在中心点半径范围内
+     *
+     * @param seed 随机种子
+     * @param providersNum 服务人员或机构数量
+     * @param ordersNum 订单数量
+     * @param horizon 仿真时长，单位：秒
+     * @return 仿真事件
+     */
+    public static List<SimulationEvent> synthetic(long seed, int providersNum, int ordersNum, long horizon) {
+        Random random = new Random(seed);
+        List<SimulationEvent> events = new ArrayList<>();
+        // 1.服务人员或机构，20%为机构
+        for (long id = 1; id <= providersNum; id++) {
+            double[] location = randomLocation(random);
+            Set<Long> serveItemIds = new HashSet<>();
+            int skillsNum = 1 + random.nextInt(3);
+            while (serveItemIds.size() < skillsNum) {
+                serveItemIds.add((long) random.nextInt(SERVE_ITEM_NUM));
+            }
+            int serveProviderType = random.nextInt(5) == 0 ? UserType.INSTITUTION : UserType.WORKER;
+            double evaluationScore = 3 + random.nextInt(21) / 10.0;
+            events.add(SimulationEvent.builder()
+                    .time(0)
+                    .type(SimulationEvent.Type.ONLINE)
+                    .id(id)
+                    .lon(location[0])
+                    .lat(location[1])
+                    .serveProviderType(serveProviderType)
+                    .evaluationScore(evaluationScore)
+                    .serveItemIds(serveItemIds)
+                    .build());
+            // 一半的服务人员或机构随机关闭接单一段时间
+            if (random.nextBoolean()) {
+                long offlineTime = (long) (random.nextDouble() * horizon);
+                events.add(SimulationEvent.builder().time(offlineTime).type(SimulationEvent.Type.OFFLINE).id(id).build());
+                events.add(SimulationEvent.builder()
+                        .time(offlineTime + 3600 + random.nextInt(6 * 3600))
+                        .type(SimulationEvent.Type.ONLINE)
+                        .id(id)
+                        .lon(location[0])
+                        .lat(location[1])
+                        .serveProviderType(serveProviderType)
+                        .evaluationScore(evaluationScore)
+                        .serveItemIds(serveItemIds)
+                        .build());
+            }
+        }
+        // 2.订单
+        for (long id = 1; id <= ordersNum; id++) {
+            long time = (long) (random.nextDouble() * horizon);
+            double[] location = randomLocation(random);
+            long serveStartTime = (time / 3600 + 2 + random.nextInt(47)) * 3600;
+            events.add(SimulationEvent.builder()
+                    .time(time)
+                    .type(SimulationEvent.Type.ORDER)
+                    .id(id)
+                    .lon(location[0])
+                    .lat(location[1])
+                    .serveItemId((long) random.nextInt(SERVE_ITEM_NUM))
+                    .serveStartTime(serveStartTime)
+                    .build());
+        }
+        return events;
+    }
+
+    /**
+     * 中心点半径范围内均匀分布的经纬度
+     */
+    private static double[] randomLocation(Random random) {
+        double distance = RADIUS * Math.sqrt(random.nextDouble());
+        double angle = 2 * Math.PI * random.nextDouble();
+        double lat = CENTER_LAT + distance * Math.sin(angle) / KM_PER_DEGREE;
+        double lon = CENTER_LON + distance * Math.cos(angle) / (KM_PER_DEGREE * Math.cos(Math.toRadians(CENTER_LAT)));
+        return new double[]{lon, lat};
+    }
+
+    private static Long parseLong(String value) {
+        return value == null || value.isBlank() ? null : Long.parseLong(value.trim());
+    }
+
+    private static Double parseDouble(String value) {
+        return value == null || value.isBlank() ? null : Double.parseDouble(value.trim());
+    }
+}
@@ -0,0 +1,81 @@
+package com.jzo2o.orders.simulator.dispatch;
+
+import com.jzo2o.orders.dispatch.enums.DispatchStrategyEnum;
+import lombok.Data;
+
+/**
+ * 派单仿真结果
+ */
+@Data
+public class SimulationReport {
+
+    private DispatchStrategyEnum dispatchStrategy;
+
+    /**
+     * 订单数量
+     */
+    private int ordersNum;
+
+    /**
+     * 派单成功的订单数量
+     */
+    private int assignedNum;
+
+    /**
+     * 派单轮次数量
+     */
+    private int roundsNum;
+
+    /**
+     * 派单成功率
+     */
+    private double assignmentRate;
+
+    /**
+     * 下单到派单成功耗时的p50，单位：秒
+     */
+    private long timeToAssignP50;
+
+    /**
+     * 下单到派单成功耗时的p90，单位：秒
+     */
+    private long timeToAssignP90;
+
+    /**
+     * 下单到派单成功耗时的p99，单位：秒
+     */
+    private long timeToAssignP99;
+
+    /**
+     * 派单服务人员或机构到服务地点的平均距离，单位：km
+     */
+    private double avgDistance;
+
+    /**
+     * 派单服务人员或机构到服务地点的最大距离，单位：km
+     */
+    private double maxDistance;
+
+    /**
+     * 接单服务人员或机构的平均接单数量
+     */
+    private double avgLoad;
+
+    /**
+     * 接单服务人员或机构接单数量的标准差，越小分配越均匀
+     */
+    private double loadStdDev;
+
+    /**
+     * 单个服务人员或机构的最多接单数量
+     */
+    private int maxLoad;
+
+    @Override
+    public String toString() {
+        return String.format("%-18s orders=%d assigned=%d rate=%.3f rounds=%d timeToAssign(p50/p90/p99)=%d/%d/%ds "
+                        + "distance(avg/max)=%.2f/%.2fkm load(avg/stddev/max)=%.2f/%.2f/%d",
+                dispatchStrategy, ordersNum, assignedNum, assignmentRate, roundsNum, timeToAssignP50, timeToAssignP90, timeToAssignP99,
+                avgDistance, maxDistance, avgLoad, loadStdDev, maxLoad);
+    }
+}
@@ -0,0 +1,170 @@
+package com.jzo2o.orders.simulator.dispatch;
+
+import com.jzo2o.common.constants.UserType;
+import com.jzo2o.orders.dispatch.enums.DispatchStrategyEnum;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 派单仿真测试
+ */
+public class DispatchSimulatorTest {
+
+    private static final long HOUR = 3600;
+
+    private static final double LON = 116.40;
+
+    private static final double LAT = 39.90;
+
+    @Test
+    public void compareAllStrategies() {
+        List<SimulationEvent> events = SimulationEvents.synthetic(1L, 50, 200, 6 * HOUR);
+
+        List<SimulationReport> reports = DispatchSimulator.compare(events, new SimulationConfig());
+
+        assertEquals(DispatchStrategyEnum.values().length, reports.size());
+        for (SimulationReport report : reports) {
+            assertEquals(200, report.getOrdersNum());
+            assertTrue(report.getAssignmentRate() > 0 && report.getAssignmentRate() <= 1, report.toString());
+            assertTrue(report.getTimeToAssignP50() <= report.getTimeToAssignP90() && report.getTimeToAssignP90() <= report.getTimeToAssignP99());
+            assertTrue(report.getAvgDistance() <= report.getMaxDistance());
+        }
+        // 距离优先的平均距离最短
+        double distance = reports.get(DispatchStrategyEnum.DISTANCE.ordinal()).getAvgDistance();
+        reports.forEach(report -> assertTrue(distance <= report.getAvgDistance(), report.toString()));
+    }
+
+    @Test
+    public void workerTakesOneOrderPerServeTime() {
+        List<SimulationEvent> events = new ArrayList<>();
+        events.add(online(0, 1L, UserType.WORKER));
+        events.add(order(0, 1L, 10 * HOUR));
+        events.add(order(0, 2L, 10 * HOUR));
+        events.add(order(0, 3L, 11 * HOUR));
+
+        SimulationReport report = new DispatchSimulator(new SimulationConfig()).run(events);
+
+        assertEquals(3, report.getOrdersNum());
+        assertEquals(2, report.getAssignedNum());
+        assertEquals(2, report.getMaxLoad());
+    }
+
+    @Test
+    public void receiveOrderMaxReleasedAfterServe() {
+        SimulationConfig config = new SimulationConfig();
+        config.setStaffReceiveOrderMax(1);
+        config.setServeDuration(HOUR);
+        List<SimulationEvent> events = new ArrayList<>();
+        events.add(online(0, 1L, UserType.WORKER));
+        events.add(order(0, 1L, 2 * HOUR));
+        events.add(order(0, 2L, 10 * HOUR));
+
+        SimulationReport report = new DispatchSimulator(config).run(events);
+
+        // 第一单服务完成后第二单才能派单
+        assertEquals(2, report.getAssignedNum());
+        assertTrue(report.getTimeToAssignP99() >= 3 * HOUR);
+    }
+
+    @Test
+    public void offlineProviderNotDispatched() {
+        SimulationConfig config = new SimulationConfig();
+        config.setBackoffEnabled(false);
+        List<SimulationEvent> events = new ArrayList<>();
+        events.add(online(0, 1L, UserType.WORKER));
+        events.add(SimulationEvent.builder().time(0).type(SimulationEvent.Type.OFFLINE).id(1L).build());
+        events.add(order(0, 1L, 10 * HOUR));
+        events.add(online(HOUR, 1L, UserType.WORKER));
+
+        SimulationReport report = new DispatchSimulator(config).run(events);
+
+        assertEquals(1, report.getAssignedNum());
+        // 重新开启接单后的下一轮派单
+        assertEquals(HOUR, report.getTimeToAssignP50());
+        assertEquals(HOUR / config.getDispatchPerRoundInterval() + 1, report.getRoundsNum());
+    }
+
+    @Test
+    public void diversionIntervalDelaysDispatch() {
+        SimulationConfig config = new SimulationConfig();
+        config.setDiversionInterval(600);
+        List<SimulationEvent> events = Arrays.asList(online(0, 1L, UserType.INSTITUTION), order(0, 1L, 10 * HOUR));
+
+        SimulationReport report = new DispatchSimulator(config).run(events);
+
+        assertEquals(600, report.getTimeToAssignP50());
+    }
+
+    @Test
+    public void unassignedOrderStopsAtServeStartTime() {
+        SimulationReport report = new DispatchSimulator(new SimulationConfig()).run(Collections.singletonList(order(0, 1L, HOUR)));
+
+        assertEquals(0, report.getAssignmentRate());
+        assertTrue(report.getRoundsNum() > 0 && report.getRoundsNum() <= HOUR / 180);
+    }
+
+    @Test
+    public void readRecordedEvents(@TempDir Path dir) throws IOException {
+        Path path = dir.resolve("events.csv");
+        Files.write(path, Arrays.asList(
+                "# time,type,id,lon,lat,serveItemId,serveStartTime,serveProviderType,evaluationScore,serveItemIds",
+                "0,ONLINE,1,116.40,39.90,,,2,4.5,1|2",
+                "60,ORDER,1,116.41,39.90,2,36000,,,"), StandardCharsets.UTF_8);
+
+        List<SimulationEvent> events = SimulationEvents.read(path);
+
+        assertEquals(2, events.size());
+        assertEquals(Set.of(1L, 2L), events.get(0).getServeItemIds());
+        assertEquals(36000, events.get(1).getServeStartTime().longValue());
+        SimulationReport report = new DispatchSimulator(new SimulationConfig()).run(events);
+        assertEquals(1, report.getAssignedNum());
+        assertTrue(report.getAvgDistance() > 0.5 && report.getAvgDistance() < 1);
+    }
+
+    @Test
+    public void percentile() {
+        List<Long> sorted = Arrays.asList(1L, 2L, 3L, 4L, 5L, 6L, 7L, 8L, 9L, 10L);
+        assertEquals(5, DispatchSimulator.percentile(sorted, 0.5));
+        assertEquals(9, DispatchSimulator.percentile(sorted, 0.9));
+        assertEquals(10, DispatchSimulator.percentile(sorted, 0.99));
+        assertEquals(0, DispatchSimulator.percentile(Collections.emptyList(), 0.5));
+    }
+
+    private SimulationEvent online(long time, Long id, int serveProviderType) {
+        return SimulationEvent.builder()
+                .time(time)
+                .type(SimulationEvent.Type.ONLINE)
+                .id(id)
+                .lon(LON)
+                .lat(LAT)
+                .serveProviderType(serveProviderType)
+                .evaluationScore(5.0)
+                .serveItemIds(Set.of(1L))
+                .build();
+    }
+
+    private SimulationEvent order(long time, Long id, long serveStartTime) {
+        return SimulationEvent.builder()
+                .time(time)
+                .type(SimulationEvent.Type.ORDER)
+                .id(id)
+                .lon(LON + 0.01)
+                .lat(LAT)
+                .serveItemId(1L)
+                .serveStartTime(serveStartTime)
+                .build();
+    }
+}